@@ -0,0 +1,306 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.metrics.PacketMetrics;
+import me.coley.pchannels.packet.FrameFormat;
+import me.coley.pchannels.packet.PacketFactory;
+import me.coley.pchannels.packet.PacketHandler;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.packet.PacketLoopCondition;
+import me.coley.pchannels.packet.PacketRegistry;
+import me.coley.pchannels.transport.Connector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Common base of {@link Client} and {@link StripedClient}, opening and closing their connections to a {@link Server}.
+ * <br>
+ * Each connection is read by its own task on the {@link #getExecutorService() executor},
+ * with every inbound packet going to the one {@link #getDelegator() delegator}.
+ *
+ * @author Matt Coley
+ */
+public abstract class AbstractClient {
+	private static final Logger logger = LoggerFactory.getLogger(AbstractClient.class);
+	private ExecutorService executorService = Threads.pool();
+	private final PacketRegistry registry = new PacketRegistry(PacketFactory.getRegistry());
+	private final PacketHandlerDelegator delegator = new PacketHandlerDelegator();
+	private final ConnectionConfig connectionConfig = new ConnectionConfig();
+	private final List<Future<?>> handlerThreads = new ArrayList<>();
+	private final Connector connector;
+	private PacketMetrics metrics = PacketMetrics.disabled();
+	private HashedWheelTimer timer = Threads.timer();
+
+	/**
+	 * @param connector
+	 * 		Transport to connect to a {@link Server} with.
+	 */
+	AbstractClient(Connector connector) {
+		this.connector = connector;
+	}
+
+	/**
+	 * Opens the given number of connections to the server, then waits for their handshakes.
+	 * <br>
+	 * When the connections {@link ConnectionConfig#setMaxProtocolVersion(int) may use a later protocol version},
+	 * this waits for the server to answer each {@link Connection#offerHandshake() handshake}, so that packets written
+	 * afterwards already use the agreed format. The wait is bounded by the
+	 * {@link ConnectionConfig#getRequestTimeoutMillis() request timeout}.
+	 * If any connection fails, the client is closed again.
+	 *
+	 * @param name
+	 * 		Name to publish the metrics under.
+	 * @param count
+	 * 		Number of connections to open.
+	 *
+	 * @return Started connections.
+	 *
+	 * @throws IOException
+	 * 		When {@link Connector#connect()} fails, or a handshake fails or times out.
+	 */
+	List<Connection> open(String name, int count) throws IOException {
+		List<Connection> opened = new ArrayList<>(count);
+		metrics.publish(name);
+		try {
+			for (int i = 0; i < count; i++) {
+				opened.add(connect());
+			}
+			for (Connection connection : opened) {
+				awaitHandshake(connection);
+			}
+		} catch (IOException | RuntimeException ex) {
+			try {
+				close(opened);
+			} catch (IOException closeEx) {
+				ex.addSuppressed(closeEx);
+			}
+			throw ex;
+		}
+		return Collections.unmodifiableList(opened);
+	}
+
+	/**
+	 * @return Started connection, with its handshake offered.
+	 *
+	 * @throws IOException
+	 * 		When {@link Connector#connect()} fails, or the handshake cannot be offered.
+	 */
+	private Connection connect() throws IOException {
+		Channel channel = connector.connect();
+		SocketAddress remote;
+		try {
+			remote = Connection.remoteAddress(channel);
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+		PacketLoopCondition condition = channel instanceof SocketChannel ?
+				((SocketChannel) channel)::isConnected : channel::isOpen;
+		Connection connection = new Connection(channel, remote, connectionConfig, registry, metrics);
+		connection.setTimer(timer);
+		try {
+			connection.offerHandshake();
+			connection.offerCompression();
+		} catch (IOException ex) {
+			connection.close();
+			throw ex;
+		}
+		ConnectionWatchdog.watch(connection, connectionConfig, timer, executorService);
+		handlerThreads.add(executorService.submit(() -> {
+			logger.debug("Connected: {}", remote);
+			try {
+				PacketIO.handleLoop(connection, condition, delegator);
+			} catch (Throwable t) {
+				if (channel.isOpen()) {
+					logger.error("Error: {}", remote, t);
+				} else {
+					// Closed by another thread, such as for a timeout
+					logger.debug("Closed while reading: {}", remote, t);
+				}
+			}
+			logger.debug("Disconnect: {}", remote);
+		}));
+		return connection;
+	}
+
+	/**
+	 * @param connection
+	 * 		Connection to wait for the handshake of.
+	 *
+	 * @throws IOException
+	 * 		When the handshake fails or times out.
+	 */
+	private void awaitHandshake(Connection connection) throws IOException {
+		CompletableFuture<FrameFormat> handshake = connection.getHandshake();
+		long timeout = connectionConfig.getRequestTimeoutMillis();
+		try {
+			if (timeout > 0) {
+				handshake.get(timeout, TimeUnit.MILLISECONDS);
+			} else {
+				handshake.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for handshake");
+		} catch (ExecutionException | TimeoutException ex) {
+			throw new IOException("Handshake with " + connection.getAddress() + " failed", ex);
+		}
+	}
+
+	/**
+	 * Closes the given connections, telling the server we're leaving, and stops the executor.
+	 *
+	 * @param connections
+	 * 		Connections to close.
+	 *
+	 * @throws IOException
+	 * 		When writing the closure packet fails, or when closing a channel fails.
+	 * 		Every connection is still closed, and the first failure is thrown.
+	 */
+	void close(List<Connection> connections) throws IOException {
+		// Stop the handling threads (stops reading new items)
+		for (Future<?> handlerThread : handlerThreads) {
+			handlerThread.cancel(true);
+		}
+		IOException failure = null;
+		for (Connection connection : connections) {
+			try {
+				// Send a closure notice and leave
+				PacketIO.close(connection);
+			} catch (IOException ex) {
+				if (failure == null) {
+					failure = ex;
+				} else {
+					failure.addSuppressed(ex);
+				}
+			}
+		}
+		// The interrupt handler causes the channels to close.
+		executorService.shutdownNow();
+		metrics.unpublish();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * @return Transport used to connect to the {@link Server}.
+	 */
+	public Connector getConnector() {
+		return connector;
+	}
+
+	/**
+	 * @return Executor that connection handling tasks run on.
+	 */
+	public ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	/**
+	 * Must be set before starting. The executor is shut down when the client is closed.
+	 * Each connection is read by its own task, so the executor must be able to run one for every connection at once.
+	 * <br>
+	 * The default is a {@link Threads#pool() cached pool of platform threads}.
+	 * On Java 21+ {@link Threads#virtual()} can be used to run each connection on its own virtual thread.
+	 *
+	 * @param executorService
+	 * 		Executor that connection handling tasks run on.
+	 */
+	public void setExecutorService(ExecutorService executorService) {
+		if (executorService == null) {
+			throw new IllegalArgumentException("Executor cannot be null");
+		}
+		this.executorService = executorService;
+	}
+
+	/**
+	 * @return Traffic metrics of the connections.
+	 */
+	public PacketMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Must be set before starting. Enabled metrics are published over JMX while the client runs.
+	 * The default is {@link PacketMetrics#disabled()}.
+	 *
+	 * @param metrics
+	 * 		Traffic metrics of the connections.
+	 */
+	public void setMetrics(PacketMetrics metrics) {
+		if (metrics == null) {
+			throw new IllegalArgumentException("Metrics cannot be null");
+		}
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return Timer checking the {@link ConnectionConfig#setHeartbeatIntervalMillis(long) heartbeats},
+	 * {@link ConnectionConfig#setIdleTimeoutMillis(long) timeouts} and request timeouts of the connections.
+	 */
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Must be set before starting. The timer is not closed with the client.
+	 * <br>
+	 * The default is the {@link Threads#timer() shared timer}.
+	 *
+	 * @param timer
+	 * 		Timer checking the {@link ConnectionConfig#setHeartbeatIntervalMillis(long) heartbeats},
+	 * 		{@link ConnectionConfig#setIdleTimeoutMillis(long) timeouts} and request timeouts of the connections.
+	 */
+	public void setTimer(HashedWheelTimer timer) {
+		if (timer == null) {
+			throw new IllegalArgumentException("Timer cannot be null");
+		}
+		this.timer = timer;
+	}
+
+	/**
+	 * @return Options applied to every connection when starting.
+	 */
+	public ConnectionConfig getConnectionConfig() {
+		return connectionConfig;
+	}
+
+	/**
+	 * Packets registered here are only known to this instance.
+	 * Packets registered via {@link PacketFactory#register(int, java.util.function.Supplier)} are known to all instances.
+	 *
+	 * @return Registry of packet types readable by this instance.
+	 */
+	public PacketRegistry getPacketRegistry() {
+		return registry;
+	}
+
+	/**
+	 * @return Delegator of {@link PacketHandler}s, shared by every connection. Handlers can be registered at any time.
+	 */
+	public PacketHandlerDelegator getDelegator() {
+		return delegator;
+	}
+
+	/**
+	 * @param delegator
+	 * 		Delegator to register additional {@link PacketHandler}s with.
+	 */
+	protected abstract void setup(PacketHandlerDelegator delegator);
+}
@@ -0,0 +1,218 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.StreamHandler;
+import me.coley.pchannels.packet.impl.StreamChunkPacket;
+import me.coley.pchannels.packet.impl.StreamCreditPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Receiving side of a chunked stream, given to a {@link StreamHandler}.
+ * <br>
+ * Chunks are buffered as they arrive, up to the {@link ConnectionConfig#getStreamWindow() configured window}.
+ * Credit for more chunks is sent back as they are consumed, so memory use is bound by the window
+ * rather than the size of the content.
+ * <br>
+ * Reads block until content is available, and must not happen on the thread reading the connection.
+ * Instances are not thread safe, other than the delivery of chunks.
+ *
+ * @author Matt Coley
+ */
+public final class ChunkedInputStream extends InputStream implements ReadableByteChannel {
+	private static final Logger logger = LoggerFactory.getLogger(ChunkedInputStream.class);
+	private final ArrayDeque<StreamChunkPacket> chunks = new ArrayDeque<>();
+	private final Connection connection;
+	private final int streamId;
+	private final int window;
+	private final int creditThreshold;
+	private StreamChunkPacket current;
+	private IOException failure;
+	private int offset;
+	private int consumed;
+	private boolean finished;
+	private boolean closed;
+
+	/**
+	 * @param connection
+	 * 		Connection the stream arrives on.
+	 * @param streamId
+	 * 		Identifier of the stream, as given by its sender.
+	 * @param window
+	 * 		Maximum number of chunks buffered.
+	 */
+	ChunkedInputStream(Connection connection, int streamId, int window) {
+		this.connection = connection;
+		this.streamId = streamId;
+		this.window = window;
+		this.creditThreshold = Math.max(1, window / 2);
+	}
+
+	/**
+	 * @return Identifier of the stream, as given by its sender.
+	 */
+	public int getStreamId() {
+		return streamId;
+	}
+
+	@Override
+	public int read() throws IOException {
+		StreamChunkPacket chunk = current();
+		if (chunk == null) {
+			return -1;
+		}
+		return chunk.getData()[offset++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		StreamChunkPacket chunk = current();
+		if (chunk == null) {
+			return -1;
+		}
+		int n = Math.min(len, chunk.getDataLength() - offset);
+		System.arraycopy(chunk.getData(), offset, b, off, n);
+		offset += n;
+		return n;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!dst.hasRemaining()) {
+			return 0;
+		}
+		StreamChunkPacket chunk = current();
+		if (chunk == null) {
+			return -1;
+		}
+		int n = Math.min(dst.remaining(), chunk.getDataLength() - offset);
+		dst.put(chunk.getData(), offset, n);
+		offset += n;
+		return n;
+	}
+
+	/**
+	 * @return Number of bytes readable without blocking from the current chunk.
+	 */
+	@Override
+	public int available() {
+		return current == null ? 0 : current.getDataLength() - offset;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	/**
+	 * Releases the stream. If the content was not read to the end, the sender is told to stop sending.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		boolean cancel;
+		synchronized (this) {
+			chunks.clear();
+			cancel = !finished && failure == null;
+			if (failure == null) {
+				failure = new ClosedChannelException();
+			}
+		}
+		connection.removeStream(this);
+		if (cancel) {
+			try {
+				connection.write(new StreamCreditPacket(streamId, StreamCreditPacket.CANCEL));
+				connection.flush();
+			} catch (IOException ex) {
+				logger.debug("Could not cancel stream {}: {}", streamId, connection, ex);
+			}
+		}
+	}
+
+	/**
+	 * Called on the reading thread as chunks arrive.
+	 *
+	 * @param chunk
+	 * 		Next chunk of the stream.
+	 */
+	synchronized void offer(StreamChunkPacket chunk) {
+		if (failure != null) {
+			return;
+		}
+		if (chunk.isAbort()) {
+			failure = new IOException("Stream " + streamId + " aborted by sender");
+		} else if (chunks.size() >= window) {
+			failure = new IOException("Stream " + streamId + " sender exceeded the window of " + window + " chunks");
+		} else {
+			chunks.addLast(chunk);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @param cause
+	 * 		Reason no more chunks will arrive.
+	 */
+	synchronized void fail(IOException cause) {
+		if (failure == null) {
+			failure = cause;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @return Chunk with content left to read, or {@code null} at the end of the stream.
+	 */
+	private StreamChunkPacket current() throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+		while (true) {
+			if (current != null) {
+				if (offset < current.getDataLength()) {
+					return current;
+				}
+				finished = current.isEnd();
+				current = null;
+				if (!finished && ++consumed >= creditThreshold) {
+					// Flushed regardless of the flush policy, the sender may be waiting on it
+					connection.write(new StreamCreditPacket(streamId, consumed));
+					connection.flush();
+					consumed = 0;
+				}
+			}
+			if (finished) {
+				return null;
+			}
+			synchronized (this) {
+				try {
+					while (chunks.isEmpty() && failure == null) {
+						wait();
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for stream " + streamId + " content");
+				}
+				// Content that arrived before a failure is still readable
+				if (chunks.isEmpty()) {
+					throw new IOException(failure.getMessage(), failure);
+				}
+				current = chunks.pollFirst();
+				offset = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.impl.StreamChunkPacket;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Sending side of a chunked stream, opened with {@link Connection#openStream(Packet)}.
+ * <br>
+ * Written content is split into chunks of the {@link ConnectionConfig#getStreamChunkSize() configured size},
+ * each sent as its own packet so that other packets of the connection can be sent in between.
+ * The receiving side grants credit for a limited number of chunks at a time, and writes block while
+ * there is none, so a slow consumer holds back the producer rather than buffering the whole content.
+ * Whatever the {@link FlushPolicy}, queued chunks are flushed before waiting for credit, as the receiver only
+ * grants more once it has them.
+ * <br>
+ * Streams must not be written to from the thread reading the connection, as that thread delivers the credit.
+ * Instances are not thread safe.
+ *
+ * @author Matt Coley
+ */
+public final class ChunkedOutputStream extends OutputStream implements WritableByteChannel {
+	private final Connection connection;
+	private final int streamId;
+	private final boolean copyChunks;
+	private final byte[] buffer;
+	private int count;
+	private int credit;
+	private IOException failure;
+	private boolean closed;
+
+	/**
+	 * @param connection
+	 * 		Connection to send chunks on.
+	 * @param streamId
+	 * 		Identifier of the stream.
+	 * @param chunkSize
+	 * 		Maximum content size of each chunk.
+	 * @param copyChunks
+	 * 		{@code true} when sent packets are held onto by the channel, so the chunk buffer cannot be reused.
+	 */
+	ChunkedOutputStream(Connection connection, int streamId, int chunkSize, boolean copyChunks) {
+		this.connection = connection;
+		this.streamId = streamId;
+		this.copyChunks = copyChunks;
+		this.buffer = new byte[chunkSize];
+	}
+
+	/**
+	 * @return Identifier of the stream.
+	 */
+	public int getStreamId() {
+		return streamId;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (count == buffer.length) {
+			sendChunk(0);
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			if (count == buffer.length) {
+				sendChunk(0);
+			}
+			int n = Math.min(len, buffer.length - count);
+			System.arraycopy(b, off, buffer, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		ensureOpen();
+		int written = src.remaining();
+		while (src.hasRemaining()) {
+			if (count == buffer.length) {
+				sendChunk(0);
+			}
+			int n = Math.min(src.remaining(), buffer.length - count);
+			src.get(buffer, count, n);
+			count += n;
+		}
+		return written;
+	}
+
+	/**
+	 * Sends any partially filled chunk, then {@link Connection#flush() flushes} the connection.
+	 *
+	 * @throws IOException
+	 * 		When the chunk cannot be sent, or the receiver closed the stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (count > 0) {
+			sendChunk(0);
+		}
+		connection.flush();
+	}
+
+	/**
+	 * Sends the remaining content, marking the end of the stream.
+	 * Does nothing beyond releasing the stream if the receiver already closed it.
+	 *
+	 * @throws IOException
+	 * 		When the last chunk cannot be sent.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (getFailure() == null) {
+				sendChunk(StreamChunkPacket.FLAG_END);
+			}
+		} finally {
+			closed = true;
+			connection.removeStream(this);
+		}
+	}
+
+	/**
+	 * Abandons the stream. The receiver fails to read past the content already sent.
+	 *
+	 * @throws IOException
+	 * 		When the abort cannot be sent.
+	 */
+	public void abort() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			connection.write(new StreamChunkPacket(streamId, StreamChunkPacket.FLAG_ABORT, buffer, 0));
+		} finally {
+			connection.removeStream(this);
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	/**
+	 * Called when the receiver grants credit.
+	 *
+	 * @param amount
+	 * 		Number of additional chunks that may be sent,
+	 * 		or {@link me.coley.pchannels.packet.impl.StreamCreditPacket#CANCEL} if the receiver closed the stream.
+	 */
+	synchronized void onCredit(int amount) {
+		if (amount < 0) {
+			fail(new IOException("Stream " + streamId + " closed by receiver"));
+		} else {
+			credit += amount;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @param cause
+	 * 		Reason no more chunks can be sent.
+	 */
+	synchronized void fail(IOException cause) {
+		if (failure == null) {
+			failure = cause;
+		}
+		notifyAll();
+	}
+
+	private synchronized boolean hasCredit() {
+		return credit > 0;
+	}
+
+	private synchronized IOException getFailure() {
+		return failure;
+	}
+
+	private void sendChunk(int flags) throws IOException {
+		if (!hasCredit()) {
+			// Chunks held back by the flush policy must reach the receiver before it can grant more credit
+			connection.flush();
+		}
+		awaitCredit();
+		byte[] data = copyChunks ? Arrays.copyOf(buffer, count) : buffer;
+		// Encoded right away unless the chunk is passed through as-is, in which case it was copied
+		connection.write(new StreamChunkPacket(streamId, flags, data, count));
+		count = 0;
+	}
+
+	private synchronized void awaitCredit() throws IOException {
+		try {
+			while (credit == 0 && failure == null) {
+				wait();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for stream " + streamId + " credit");
+		}
+		if (failure != null) {
+			throw new IOException(failure.getMessage(), failure);
+		}
+		credit--;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+	}
+}
@@ -1,35 +1,29 @@
 package me.coley.pchannels;
 
 import me.coley.pchannels.packet.Packet;
-import me.coley.pchannels.packet.PacketHandler;
-import me.coley.pchannels.packet.PacketHandlerDelegator;
-import me.coley.pchannels.packet.PacketIO;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import me.coley.pchannels.transport.Connector;
+import me.coley.pchannels.transport.SocketConnector;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.SocketAddress;
+import java.nio.channels.Channel;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A basic client setup using NIO {@link SocketChannel}s.
+ * Other transports can be used by providing a {@link Connector}.
  *
  * @author Matt Coley
  */
-public abstract class Client {
-	private static final Logger logger = LoggerFactory.getLogger(Client.class);
-	private final ExecutorService executorService = Threads.pool();
-	private final PacketHandlerDelegator delegator = new PacketHandlerDelegator();
+public abstract class Client extends AbstractClient {
 	private final InetAddress address;
 	private final int port;
-	private SocketChannel channel;
-	private Future<?> handlerThread;
-
+	private Connection connection;
 
 	/**
 	 * Client connection on localhost using the given port.
@@ -53,28 +47,38 @@ public abstract class Client {
 	 * 		Port that a {@link Server} is running on.
 	 */
 	public Client(InetAddress address, int port) {
+		super(new SocketConnector(new InetSocketAddress(address, port)));
 		this.address = address;
 		this.port = port;
-		setup(delegator);
+		setup(getDelegator());
+	}
+
+	/**
+	 * Client connection using the given transport.
+	 *
+	 * @param connector
+	 * 		Transport to connect to a {@link Server} with.
+	 */
+	public Client(Connector connector) {
+		super(connector);
+		this.address = null;
+		this.port = -1;
+		setup(getDelegator());
 	}
 
 	/**
 	 * Starts the channel connection to the server.
+	 * <br>
+	 * When the connection {@link ConnectionConfig#setMaxProtocolVersion(int) may use a later protocol version},
+	 * this waits for the server to answer the {@link Connection#offerHandshake() handshake}, so that packets written
+	 * afterwards already use the agreed format. The wait is bounded by the
+	 * {@link ConnectionConfig#getRequestTimeoutMillis() request timeout}.
 	 *
 	 * @throws IOException
-	 * 		When {@link SocketChannel#open(SocketAddress)} fails.
+	 * 		When {@link Connector#connect()} fails, or the handshake fails or times out.
 	 */
 	public void start() throws IOException {
-		channel = SocketChannel.open(new InetSocketAddress(address, port));
-		handlerThread = executorService.submit(() -> {
-			logger.debug("Connected: {}", address);
-			try {
-				PacketIO.handleLoop(channel, channel::isConnected, delegator);
-			} catch (Throwable t) {
-				logger.error("Error: {}", address, t);
-			}
-			logger.debug("Disconnect: {}", address);
-		});
+		connection = open("Client", 1).get(0);
 	}
 
 	/**
@@ -84,16 +88,12 @@ public abstract class Client {
 	 * 		When writing the closure packet fails, or when closing the channel fails.
 	 */
 	public void close() throws IOException {
-		// Stop the handling thread (stops reading new items)
-		handlerThread.cancel(true);
-		// Send a closure notice and leave
-		PacketIO.close(channel);
-		// The interrupt handler causes the channel to close.
-		executorService.shutdownNow();
+		close(connection == null ? Collections.emptyList() : Collections.singletonList(connection));
 	}
 
 	/**
 	 * Writes the given packet to the {@link #getChannel() remote server's socket channel}.
+	 * The packet may be queued according to the connection's {@link FlushPolicy}.
 	 *
 	 * @param packet
 	 * 		Packet to write to the server.
@@ -102,33 +102,122 @@ public abstract class Client {
 	 * 		When the packet cannot be written.
 	 */
 	public void write(Packet packet) throws IOException {
-		PacketIO.write(getChannel(), packet);
+		connection.write(packet);
 	}
 
 	/**
-	 * @return Address of the server connected to.
+	 * Writes the given packet to the {@link #getChannel() remote server's socket channel} without blocking.
+	 *
+	 * @param packet
+	 * 		Packet to write to the server.
+	 *
+	 * @return Future completing once the packet is written.
+	 *
+	 * @see Connection#writeAsync(Packet)
+	 */
+	public CompletableFuture<Void> writeAsync(Packet packet) {
+		return connection.writeAsync(packet);
+	}
+
+	/**
+	 * Writes the given packets to the {@link #getChannel() remote server's socket channel}.
+	 * The packets may be queued according to the connection's {@link FlushPolicy}.
+	 *
+	 * @param packets
+	 * 		Packets to write to the server.
+	 *
+	 * @throws IOException
+	 * 		When the packets cannot be written.
+	 */
+	public void writeAll(Collection<? extends Packet> packets) throws IOException {
+		connection.writeAll(packets);
+	}
+
+	/**
+	 * Opens a stream to the server, consumed by the server's {@link me.coley.pchannels.packet.StreamHandler}
+	 * registered to the header's packet id.
+	 *
+	 * @param header
+	 * 		Packet describing the stream's content.
+	 *
+	 * @return Stream to write the content to. Must be closed to complete the stream.
+	 *
+	 * @throws IOException
+	 * 		When the stream cannot be opened.
+	 * @see Connection#openStream(Packet)
+	 */
+	public ChunkedOutputStream openStream(Packet header) throws IOException {
+		return connection.openStream(header);
+	}
+
+	/**
+	 * Sends a request to the server, using the {@link ConnectionConfig#getRequestTimeoutMillis() configured timeout}.
+	 *
+	 * @param packet
+	 * 		Request packet to send.
+	 *
+	 * @return Future of the server's response.
+	 *
+	 * @see Connection#request(Packet, long, TimeUnit)
+	 */
+	public CompletableFuture<Packet> request(Packet packet) {
+		return connection.request(packet);
+	}
+
+	/**
+	 * Sends a request to the server. Any number of requests can be in flight at once.
+	 *
+	 * @param packet
+	 * 		Request packet to send.
+	 * @param timeout
+	 * 		Time to wait for the response. Zero or less to wait indefinitely.
+	 * @param unit
+	 * 		Unit of the timeout.
+	 *
+	 * @return Future of the server's response.
+	 *
+	 * @see Connection#request(Packet, long, TimeUnit)
+	 */
+	public CompletableFuture<Packet> request(Packet packet, long timeout, TimeUnit unit) {
+		return connection.request(packet, timeout, unit);
+	}
+
+	/**
+	 * Writes any queued packets to the {@link #getChannel() remote server's socket channel}.
+	 *
+	 * @throws IOException
+	 * 		When the packets cannot be written.
+	 */
+	public void flush() throws IOException {
+		connection.flush();
+	}
+
+	/**
+	 * @return Address of the server connected to, or {@code null} if not connecting over TCP.
 	 */
 	public InetAddress getAddress() {
 		return address;
 	}
 
 	/**
-	 * @return Port to connect on.
+	 * @return Port to connect on, or {@code -1} if not connecting over TCP.
 	 */
 	public int getPort() {
 		return port;
 	}
 
 	/**
-	 * @return Socket channel connection to a remote {@link Server}.
+	 * @return Socket channel connection to a remote {@link Server}, or {@code null} if not using a socket transport.
 	 */
 	public SocketChannel getChannel() {
-		return channel;
+		Channel channel = connection == null ? null : connection.getChannel();
+		return channel instanceof SocketChannel ? (SocketChannel) channel : null;
 	}
 
 	/**
-	 * @param delegator
-	 * 		Delegator to register additional {@link PacketHandler}s with.
+	 * @return Connection to a remote {@link Server}, wrapping the {@link #getChannel() socket channel}.
 	 */
-	protected abstract void setup(PacketHandlerDelegator delegator);
+	public Connection getConnection() {
+		return connection;
+	}
 }
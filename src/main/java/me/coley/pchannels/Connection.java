@@ -0,0 +1,1613 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.buffer.BufferAllocator;
+import me.coley.pchannels.compression.CompressionCodec;
+import me.coley.pchannels.compression.CompressionCodecs;
+import me.coley.pchannels.metrics.ConnectionMetrics;
+import me.coley.pchannels.metrics.PacketMetrics;
+import me.coley.pchannels.packet.EnvelopePacket;
+import me.coley.pchannels.packet.FrameDecoder;
+import me.coley.pchannels.packet.FrameFormat;
+import me.coley.pchannels.packet.FrameHeader;
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.PacketFactory;
+import me.coley.pchannels.packet.PacketHandler;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketRegistry;
+import me.coley.pchannels.packet.PooledPacket;
+import me.coley.pchannels.packet.RequestException;
+import me.coley.pchannels.packet.RequestHandler;
+import me.coley.pchannels.packet.impl.CompressionPacket;
+import me.coley.pchannels.packet.impl.FilePacket;
+import me.coley.pchannels.packet.impl.HandshakePacket;
+import me.coley.pchannels.packet.impl.RequestPacket;
+import me.coley.pchannels.packet.impl.ResponsePacket;
+import me.coley.pchannels.packet.impl.StreamChunkPacket;
+import me.coley.pchannels.packet.impl.StreamCreditPacket;
+import me.coley.pchannels.packet.impl.StreamOpenPacket;
+import me.coley.pchannels.transport.InVmChannel;
+import me.coley.pchannels.transport.PacketChannel;
+import me.coley.pchannels.transport.SharedMemoryChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Wrapper of a channel connection between a {@link Client} and a {@link Server}.
+ * Holds any per-connection state so that the underlying channel can be shared between threads.
+ * <br>
+ * Connections are what get passed to {@link PacketHandler}s as the packet source channel.
+ * <br>
+ * Packets given to {@link #write(Packet)} are encoded and queued, then sent to the channel
+ * according to the connection's {@link FlushPolicy}. Queued frames are sent together with a single
+ * gathering write where the channel supports it.
+ * <br>
+ * Packets given to {@link #writeAsync(Packet)} are queued without blocking the caller, and written by the
+ * connection's event loop or a background writer. Producers should stop writing while the connection is not
+ * {@link #isWritable() writable}, and resume when {@link #addWritabilityListener(Consumer) notified}.
+ * <br>
+ * Frames start out in the {@link FrameFormat#V1 v1} format. A {@link Client} {@link #offerHandshake() offers} a
+ * handshake when it connects, agreeing with the server on a protocol version and {@link #getFeatures() features}.
+ * Each side switches to the agreed {@link #getFrameFormat() frame format} right after the handshake frame it sends,
+ * and decodes the other's frames in it right after the one it receives. Until then writes are serialized with the
+ * switch, so no frame is encoded in one format and queued after it.
+ * <br>
+ * {@link #request(Packet) Requests} are tagged with a correlation id, so any number can be in flight at once
+ * and responses complete the matching future regardless of order.
+ * <br>
+ * When {@link ConnectionConfig#setCompression(int, String...) compression} is enabled on both sides,
+ * frames at or above the threshold are compressed with the codec {@link #offerCompression() negotiated}
+ * for the connection.
+ * <br>
+ * {@link FilePacket}s are streamed between the channel and disk. Their content is sent straight from the file,
+ * and received straight to the file given by the {@link ConnectionConfig#setFileReceiver(FileReceiver) file receiver},
+ * before the packet is handed to handlers. Writing a file flushes the queue. On blocking channels this returns once
+ * the file is sent, on channels of an event loop it may return sooner, leaving the rest for the loop to write.
+ * <br>
+ * Content too large to hold in memory can be sent as a {@link #openStream(Packet) chunked stream},
+ * which the receiving side reads incrementally while other packets continue to be sent in between.
+ * <br>
+ * Traffic is recorded to the {@link #getMetrics() connection's metrics}, given by the {@link PacketMetrics} of
+ * its owner. Encoding is only timed when metrics are enabled.
+ * <br>
+ * When {@link ConnectionConfig#setHeartbeatIntervalMillis(long) heartbeats},
+ * the {@link ConnectionConfig#setIdleTimeoutMillis(long) idle timeout} or the
+ * {@link ConnectionConfig#setReadTimeoutMillis(long) read timeout} are enabled, the time of the last read and write
+ * is tracked for the owner's {@link HashedWheelTimer timer} to check.
+ * <br>
+ * When the wrapped channel is a {@link PacketChannel} packets are passed through as-is, without encoding or queueing.
+ *
+ * @author Matt Coley
+ */
+public class Connection implements ByteChannel {
+	private static final Logger logger = LoggerFactory.getLogger(Connection.class);
+	private final FrameDecoder decoder;
+	private final List<Consumer<Connection>> closeListeners = new CopyOnWriteArrayList<>();
+	private final List<Consumer<Connection>> writabilityListeners = new CopyOnWriteArrayList<>();
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private final Map<Integer, CompletableFuture<Packet>> pendingRequests = new ConcurrentHashMap<>();
+	private final AtomicInteger nextCorrelationId = new AtomicInteger();
+	private final Map<Integer, ChunkedOutputStream> outgoingStreams = new ConcurrentHashMap<>();
+	private final Map<Integer, ChunkedInputStream> incomingStreams = new ConcurrentHashMap<>();
+	private final AtomicInteger nextStreamId = new AtomicInteger();
+	private final BufferAllocator allocator = PacketFactory.getAllocator();
+	private final OutboundQueue outbound;
+	private final Channel channel;
+	private final ByteChannel byteChannel;
+	private final PacketChannel packetChannel;
+	private final PacketRegistry registry;
+	private final SocketAddress address;
+	private final long requestTimeoutMillis;
+	private final int compressionThreshold;
+	private final List<String> compressionCodecs;
+	private final FileReceiver fileReceiver;
+	private final ConnectionMetrics metrics;
+	private final boolean timed;
+	private final int streamChunkSize;
+	private final int streamWindow;
+	private final boolean watched;
+	private final int maxProtocolVersion;
+	private final int offeredFeatures;
+	private final Object formatLock = new Object();
+	private final CompletableFuture<FrameFormat> handshake = new CompletableFuture<>();
+	private volatile FrameFormat format = FrameFormat.V1;
+	private volatile boolean negotiating;
+	private volatile boolean offered;
+	private volatile int features;
+	private volatile long lastReadNanos;
+	private volatile long lastWriteNanos;
+	private volatile boolean readingFrame;
+	private IncomingFile incomingFile;
+	private volatile CompressionCodec compressor;
+	private volatile SerialExecutor serialExecutor;
+	private volatile HashedWheelTimer timer = Threads.timer();
+
+	/**
+	 * @param channel
+	 * 		Wrapped channel, either a {@link ByteChannel} carrying encoded frames or a {@link PacketChannel}.
+	 * @param address
+	 * 		Remote address of the channel.
+	 */
+	public Connection(Channel channel, SocketAddress address) {
+		this(channel, address, new ConnectionConfig(), PacketFactory.getRegistry());
+	}
+
+	/**
+	 * @param channel
+	 * 		Wrapped channel, either a {@link ByteChannel} carrying encoded frames or a {@link PacketChannel}.
+	 * @param address
+	 * 		Remote address of the channel.
+	 * @param config
+	 * 		Connection options.
+	 * @param registry
+	 * 		Registry to create incoming packets from.
+	 */
+	public Connection(Channel channel, SocketAddress address, ConnectionConfig config, PacketRegistry registry) {
+		this(channel, address, config, registry, PacketMetrics.disabled());
+	}
+
+	/**
+	 * @param channel
+	 * 		Wrapped channel, either a {@link ByteChannel} carrying encoded frames or a {@link PacketChannel}.
+	 * @param address
+	 * 		Remote address of the channel.
+	 * @param config
+	 * 		Connection options.
+	 * @param registry
+	 * 		Registry to create incoming packets from.
+	 * @param metrics
+	 * 		Metrics to record the connection's traffic to.
+	 */
+	public Connection(Channel channel, SocketAddress address, ConnectionConfig config, PacketRegistry registry,
+					  PacketMetrics metrics) {
+		if (!(channel instanceof ByteChannel) && !(channel instanceof PacketChannel)) {
+			throw new IllegalArgumentException("Channel must be a ByteChannel or PacketChannel: " + channel);
+		}
+		this.channel = channel;
+		this.packetChannel = channel instanceof PacketChannel ? (PacketChannel) channel : null;
+		this.byteChannel = packetChannel == null ? (ByteChannel) channel : null;
+		this.registry = registry;
+		this.address = address;
+		this.decoder = new FrameDecoder(registry);
+		this.outbound = new OutboundQueue(this, channel, allocator, config);
+		this.requestTimeoutMillis = config.getRequestTimeoutMillis();
+		this.compressionThreshold = config.getCompressionThreshold();
+		this.compressionCodecs = config.getCompressionCodecs();
+		this.fileReceiver = config.getFileReceiver();
+		this.streamChunkSize = config.getStreamChunkSize();
+		this.streamWindow = config.getStreamWindow();
+		this.watched = config.isWatched();
+		this.maxProtocolVersion = config.getMaxProtocolVersion();
+		this.offeredFeatures = config.getFeatures();
+		// Frames can only switch format when the channel carries frames, and there is a later version to switch to
+		this.negotiating = packetChannel == null && maxProtocolVersion > 1;
+		if (!negotiating) {
+			handshake.complete(FrameFormat.V1);
+		}
+		this.lastReadNanos = this.lastWriteNanos = System.nanoTime();
+		this.metrics = metrics.connect(address);
+		this.timed = this.metrics.isEnabled();
+		this.decoder.setStreamingFiles(packetChannel == null);
+		this.decoder.setMetrics(this.metrics);
+		this.decoder.setMaxFrameLength(config.getMaxFrameLength());
+	}
+
+	/**
+	 * Reads as much data as is currently available from a non-blocking channel,
+	 * handing off each completed packet to the given delegator.
+	 *
+	 * @param delegator
+	 * 		Delegator with registered {@link PacketHandler}s to handle incoming packets.
+	 *
+	 * @return {@code true} to continue handling further packets.
+	 * {@code false} when the end of the stream was reached, or a handler requested to stop handling.
+	 *
+	 * @throws IOException
+	 * 		When reading packets fails.
+	 */
+	public boolean readAvailable(PacketHandlerDelegator delegator) throws IOException {
+		while (true) {
+			if (incomingFile != null) {
+				// The file content must be taken before any further frames can be decoded
+				if (!receiveFile(false)) {
+					return true;
+				} else if (!delegator.handle(this, completeFile())) {
+					return false;
+				}
+			}
+			int read = decoder.readFrom(byteChannel);
+			if (read > 0) {
+				markRead();
+			}
+			// Handle all complete packets before checking for the end of the stream
+			Packet packet;
+			while ((packet = nextPacket()) != null) {
+				if (!delegator.handle(this, packet)) {
+					return false;
+				}
+			}
+			if (incomingFile != null) {
+				continue;
+			} else if (read < 0) {
+				return false;
+			} else if (read == 0) {
+				// Anything still buffered is the start of a frame waiting on more data
+				readingFrame = decoder.hasPartialFrame();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Blocks until the next packet is read from the channel. The channel must be in blocking mode,
+	 * non-blocking channels should use {@link #readAvailable(PacketHandlerDelegator)}.
+	 *
+	 * @return Next packet, or {@code null} when the end of the stream was reached.
+	 *
+	 * @throws IOException
+	 * 		When reading packets fails.
+	 */
+	public Packet readPacket() throws IOException {
+		if (packetChannel != null) {
+			Packet packet = packetChannel.readPacket();
+			if (packet != null) {
+				markRead();
+				// Passed over as-is, there is no frame or decoding to measure
+				metrics.onRead(packet.getId(), 0, -1);
+			}
+			if (packet instanceof FilePacket) {
+				packet = receiveLocalFile((FilePacket) packet);
+			} else if (packet != null && packetChannel.isSerializing()) {
+				packet = roundTrip(packet);
+			}
+			return packet;
+		}
+		while (true) {
+			if (incomingFile != null) {
+				receiveFile(true);
+				return completeFile();
+			}
+			Packet packet = nextPacket();
+			if (packet != null) {
+				return packet;
+			} else if (incomingFile == null) {
+				readingFrame = decoder.hasPartialFrame();
+				int read = decoder.readFrom(byteChannel);
+				if (read < 0) {
+					// Need more data to complete the next packet, but there is none
+					return null;
+				} else if (read > 0) {
+					markRead();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Encodes and queues the packet, flushing if the {@link #getFlushPolicy() flush policy} calls for it.
+	 *
+	 * @param packet
+	 * 		Packet to write.
+	 *
+	 * @throws IOException
+	 * 		When serializing the packet fails, or when the channel cannot be written to.
+	 */
+	public void write(Packet packet) throws IOException {
+		if (packetChannel != null) {
+			writePacket(packet);
+			return;
+		} else if (packet instanceof FilePacket) {
+			transferFile((FilePacket) packet);
+			return;
+		}
+		if (negotiating) {
+			synchronized (formatLock) {
+				outbound.write(encode(packet));
+			}
+		} else {
+			outbound.write(encode(packet));
+		}
+	}
+
+	/**
+	 * Encodes and queues all the packets, flushing if the {@link #getFlushPolicy() flush policy} calls for it.
+	 * The policy is checked once after all packets are queued.
+	 *
+	 * @param packets
+	 * 		Packets to write.
+	 *
+	 * @throws IOException
+	 * 		When serializing a packet fails, or when the channel cannot be written to.
+	 */
+	public void writeAll(Collection<? extends Packet> packets) throws IOException {
+		if (packetChannel != null) {
+			for (Packet packet : packets) {
+				writePacket(packet);
+			}
+			return;
+		}
+		for (Packet packet : packets) {
+			if (packet instanceof FilePacket) {
+				// Files are queued as a region rather than encoded, so everything is written in turn to keep ordering
+				for (Packet next : packets) {
+					write(next);
+				}
+				return;
+			}
+		}
+		if (negotiating) {
+			synchronized (formatLock) {
+				encodeAll(packets);
+			}
+		} else {
+			encodeAll(packets);
+		}
+	}
+
+	/**
+	 * Encodes and queues the packet, returning without waiting for it to be written.
+	 * The queue is written by the connection's {@link me.coley.pchannels.nio.EventLoop event loop} when the
+	 * channel is non-blocking, otherwise by a background writer. Packets queued by {@link #write(Packet)}
+	 * are written along with it, in order.
+	 * <br>
+	 * The future completes on the writing thread once the packet is fully written. It fails if the connection
+	 * closes first, or if the queue already exceeds the {@link ConnectionConfig#getMaxPendingBytes() maximum size}.
+	 * Rather than relying on the maximum, producers should pause while the connection is not
+	 * {@link #isWritable() writable}.
+	 *
+	 * @param packet
+	 * 		Packet to write.
+	 *
+	 * @return Future completing once the packet is written.
+	 */
+	public CompletableFuture<Void> writeAsync(Packet packet) {
+		if (packetChannel != null) {
+			// Handed over directly, the channel only blocks while the remote side is far behind
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			try {
+				writePacket(packet);
+				future.complete(null);
+			} catch (IOException | RuntimeException ex) {
+				future.completeExceptionally(ex);
+			}
+			return future;
+		}
+		if (packet instanceof FilePacket) {
+			// Streamed from disk, on the calling thread for blocking channels
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			try {
+				transferFile((FilePacket) packet);
+				future.complete(null);
+			} catch (IOException | RuntimeException ex) {
+				future.completeExceptionally(ex);
+			}
+			return future;
+		}
+		if (negotiating) {
+			synchronized (formatLock) {
+				return encodeAsync(packet);
+			}
+		}
+		return encodeAsync(packet);
+	}
+
+	/**
+	 * Queues an already encoded {@link FrameFormat#V1 v1} frame, returning without waiting for it to be written.
+	 *
+	 * @param frame
+	 * 		Encoded frame, as given by {@link PacketFactory#write(Packet, BufferAllocator)}.
+	 * 		Released to the {@link PacketFactory#getAllocator() allocator} once written, unless it is read-only.
+	 * 		Frames shared between connections should be given as read-only duplicates.
+	 *
+	 * @return Future completing once the frame is written.
+	 *
+	 * @throws UnsupportedOperationException
+	 * 		When the wrapped channel is a {@link PacketChannel}, which does not carry encoded frames.
+	 * @see #writeFrameAsync(ByteBuffer, FrameFormat)
+	 */
+	public CompletableFuture<Void> writeFrameAsync(ByteBuffer frame) {
+		return writeFrameAsync(frame, FrameFormat.V1);
+	}
+
+	/**
+	 * Queues an already encoded frame, returning without waiting for it to be written.
+	 * Behaves like {@link #writeAsync(Packet)} otherwise.
+	 * <br>
+	 * Frames should be encoded in the connection's {@link #getFrameFormat() frame format}.
+	 * Those that are not have their header re-encoded first, into a copy of the frame.
+	 *
+	 * @param frame
+	 * 		Encoded frame, as given by {@link PacketFactory#write(Packet, FrameFormat, BufferAllocator)}.
+	 * 		Released to the {@link PacketFactory#getAllocator() allocator} once written, unless it is read-only.
+	 * 		Frames shared between connections should be given as read-only duplicates.
+	 * @param frameFormat
+	 * 		Format the frame is encoded in.
+	 *
+	 * @return Future completing once the frame is written.
+	 *
+	 * @throws UnsupportedOperationException
+	 * 		When the wrapped channel is a {@link PacketChannel}, which does not carry encoded frames.
+	 */
+	public CompletableFuture<Void> writeFrameAsync(ByteBuffer frame, FrameFormat frameFormat) {
+		if (packetChannel != null) {
+			throw new UnsupportedOperationException("Packet channels do not carry encoded frames");
+		}
+		if (negotiating) {
+			synchronized (formatLock) {
+				return queueFrameAsync(frame, frameFormat);
+			}
+		}
+		return queueFrameAsync(frame, frameFormat);
+	}
+
+	/**
+	 * Sends a request, using the {@link ConnectionConfig#getRequestTimeoutMillis() configured timeout}.
+	 *
+	 * @param packet
+	 * 		Request packet to send.
+	 *
+	 * @return Future of the response.
+	 *
+	 * @see #request(Packet, long, TimeUnit)
+	 */
+	public CompletableFuture<Packet> request(Packet packet) {
+		return request(packet, requestTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sends a request to be answered by a {@link RequestHandler} on the remote side.
+	 * The request is written like any other packet, following the {@link #getFlushPolicy() flush policy},
+	 * so requests can be pipelined without waiting for earlier responses.
+	 * <br>
+	 * The future completes on the thread that reads the response, as do any dependent actions not added with
+	 * an async variant. It fails with a {@link RequestException} if the remote handler failed,
+	 * a {@link TimeoutException} if no response arrived in time, or a {@link ClosedChannelException}
+	 * if the connection closed first. A {@link PooledPacket} response must be released by the caller.
+	 *
+	 * @param packet
+	 * 		Request packet to send.
+	 * @param timeout
+	 * 		Time to wait for the response. Zero or less to wait indefinitely.
+	 * @param unit
+	 * 		Unit of the timeout.
+	 *
+	 * @return Future of the response.
+	 */
+	public CompletableFuture<Packet> request(Packet packet, long timeout, TimeUnit unit) {
+		int correlationId = nextCorrelationId.incrementAndGet();
+		CompletableFuture<Packet> future = new CompletableFuture<>();
+		pendingRequests.put(correlationId, future);
+		future.whenComplete((response, error) -> pendingRequests.remove(correlationId, future));
+		if (timeout > 0) {
+			HashedWheelTimer.Timeout task = timer.newTimeout(() ->
+					future.completeExceptionally(new TimeoutException("No response to request " + correlationId +
+							" within " + unit.toMillis(timeout) + "ms")), timeout, unit);
+			future.whenComplete((response, error) -> task.cancel());
+		}
+		if (closed.get()) {
+			future.completeExceptionally(new ClosedChannelException());
+			return future;
+		}
+		try {
+			write(new RequestPacket(correlationId, packet));
+		} catch (IOException | RuntimeException ex) {
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+	/**
+	 * Completes the pending {@link #request(Packet) request} the response answers.
+	 * Called by {@link PacketHandlerDelegator} when a response is read.
+	 *
+	 * @param response
+	 * 		Response to a request made on this connection.
+	 */
+	public void completeRequest(ResponsePacket response) {
+		CompletableFuture<Packet> future = pendingRequests.remove(response.getCorrelationId());
+		boolean completed;
+		if (future == null) {
+			completed = false;
+		} else if (response.isSuccess()) {
+			completed = future.complete(response.getPayload());
+		} else {
+			completed = future.completeExceptionally(new RequestException(response.getError()));
+		}
+		if (!completed) {
+			// Already timed out or cancelled
+			logger.debug("Discarding response to request no longer pending: {}", response);
+			Packet payload = response.getPayload();
+			if (payload instanceof PooledPacket) {
+				((PooledPacket) payload).release();
+			}
+		}
+	}
+
+	/**
+	 * @return Number of requests waiting for a response.
+	 */
+	public int getPendingRequestCount() {
+		return pendingRequests.size();
+	}
+
+	/**
+	 * Opens a chunked stream, to be consumed by a {@link me.coley.pchannels.packet.StreamHandler} registered on the
+	 * remote side for the header's packet id. Content written to the stream is sent as it fills each chunk.
+	 * The stream must be {@link ChunkedOutputStream#close() closed} to mark the end of the content.
+	 *
+	 * @param header
+	 * 		Packet describing the stream to the remote side.
+	 *
+	 * @return Stream to write the content to.
+	 *
+	 * @throws IOException
+	 * 		When the stream cannot be opened.
+	 */
+	public ChunkedOutputStream openStream(Packet header) throws IOException {
+		if (closed.get()) {
+			throw new ClosedChannelException();
+		}
+		int streamId = nextStreamId.incrementAndGet();
+		ChunkedOutputStream stream = new ChunkedOutputStream(this, streamId, streamChunkSize, packetChannel != null);
+		outgoingStreams.put(streamId, stream);
+		try {
+			write(new StreamOpenPacket(streamId, header));
+		} catch (IOException | RuntimeException ex) {
+			outgoingStreams.remove(streamId);
+			throw ex;
+		}
+		return stream;
+	}
+
+	/**
+	 * Accepts a stream opened by the remote side, granting it the first window of credit.
+	 * Called by {@link PacketHandlerDelegator} when a stream is opened.
+	 *
+	 * @param open
+	 * 		Packet opening the stream.
+	 *
+	 * @return Stream to read the content from.
+	 *
+	 * @throws IOException
+	 * 		When the credit cannot be sent.
+	 */
+	public ChunkedInputStream acceptStream(StreamOpenPacket open) throws IOException {
+		int streamId = open.getCorrelationId();
+		ChunkedInputStream stream = new ChunkedInputStream(this, streamId, streamWindow);
+		ChunkedInputStream previous = incomingStreams.put(streamId, stream);
+		if (previous != null) {
+			previous.fail(new IOException("Stream " + streamId + " replaced by a new stream with the same id"));
+		}
+		if (closed.get()) {
+			stream.fail(new ClosedChannelException());
+		}
+		// The sender is waiting on it, which the flush policy does not know about
+		write(new StreamCreditPacket(streamId, streamWindow));
+		flush();
+		return stream;
+	}
+
+	/**
+	 * Delivers a chunk to the stream it belongs to.
+	 * Called by {@link PacketHandlerDelegator} when a chunk is read.
+	 *
+	 * @param chunk
+	 * 		Chunk of a stream opened by the remote side.
+	 */
+	public void onStreamChunk(StreamChunkPacket chunk) {
+		ChunkedInputStream stream = incomingStreams.get(chunk.getStreamId());
+		if (stream == null) {
+			// Already closed by the consumer, chunks sent before the sender saw the cancellation are expected
+			logger.trace("Discarding chunk of stream no longer open: {}", chunk);
+			return;
+		}
+		stream.offer(chunk);
+		if (chunk.isEnd() || chunk.isAbort()) {
+			incomingStreams.remove(chunk.getStreamId(), stream);
+		}
+	}
+
+	/**
+	 * Grants credit to the stream it belongs to.
+	 * Called by {@link PacketHandlerDelegator} when credit is read.
+	 *
+	 * @param credit
+	 * 		Credit for a stream opened on this connection.
+	 */
+	public void onStreamCredit(StreamCreditPacket credit) {
+		ChunkedOutputStream stream = outgoingStreams.get(credit.getStreamId());
+		if (stream != null) {
+			stream.onCredit(credit.getCredit());
+		}
+	}
+
+	/**
+	 * @param stream
+	 * 		Closed stream to forget.
+	 */
+	void removeStream(ChunkedOutputStream stream) {
+		outgoingStreams.remove(stream.getStreamId(), stream);
+	}
+
+	/**
+	 * @param stream
+	 * 		Closed stream to forget.
+	 */
+	void removeStream(ChunkedInputStream stream) {
+		incomingStreams.remove(stream.getStreamId(), stream);
+	}
+
+	/**
+	 * Offers the {@link ConnectionConfig#getMaxProtocolVersion() configured protocol version} and
+	 * {@link ConnectionConfig#getFeatures() features} to the remote side. Called by the {@link Client} once connected,
+	 * before anything else is written. Does nothing when the configured version is the first, or the wrapped channel
+	 * is a {@link PacketChannel}, which does not carry encoded frames.
+	 * <br>
+	 * Handshake packets are flushed as soon as they are written, regardless of the {@link #getFlushPolicy() flush policy},
+	 * as the remote side waits on them.
+	 *
+	 * @throws IOException
+	 * 		When the offer cannot be written.
+	 */
+	public void offerHandshake() throws IOException {
+		if (packetChannel == null && maxProtocolVersion > 1) {
+			offered = true;
+			write(new HandshakePacket(HandshakePacket.STAGE_OFFER, maxProtocolVersion, offeredFeatures));
+			flush();
+		}
+	}
+
+	/**
+	 * @return Future completing with the agreed frame format, once frames written by this side use it.
+	 * Completes with {@link FrameFormat#V1} when there is no handshake, and fails if the connection closes first.
+	 */
+	public CompletableFuture<FrameFormat> getHandshake() {
+		return handshake;
+	}
+
+	/**
+	 * @return Format frames are currently encoded in. {@link FrameFormat#V1} until a handshake agrees on another.
+	 */
+	public FrameFormat getFrameFormat() {
+		return format;
+	}
+
+	/**
+	 * @return Feature bits offered by both sides in the handshake. Zero until it completes, or without one.
+	 */
+	public int getFeatures() {
+		return features;
+	}
+
+	/**
+	 * Offers the {@link ConnectionConfig#getCompressionCodecs() configured codecs} to the remote side.
+	 * Called by the {@link Client} once connected, does nothing when compression is disabled.
+	 * Like the handshake, the offer and its answer are flushed as soon as they are written.
+	 *
+	 * @throws IOException
+	 * 		When the offer cannot be written.
+	 */
+	public void offerCompression() throws IOException {
+		if (packetChannel == null && !compressionCodecs.isEmpty()) {
+			write(new CompressionPacket(true, compressionCodecs));
+			flush();
+		}
+	}
+
+	/**
+	 * Handles the remote side's part of compression negotiation.
+	 * Called by {@link PacketHandlerDelegator} when a negotiation packet is read.
+	 * <br>
+	 * An offer is answered with the first offered codec that is also configured locally, and frames sent from then
+	 * on are compressed with it. An answer enables compression with the selected codec.
+	 *
+	 * @param packet
+	 * 		Negotiation packet.
+	 *
+	 * @throws IOException
+	 * 		When the answer to an offer cannot be written.
+	 */
+	public void onCompressionPacket(CompressionPacket packet) throws IOException {
+		String selected = null;
+		for (String codec : packet.getCodecs()) {
+			if (compressionCodecs.contains(codec) && CompressionCodecs.isRegistered(codec)) {
+				selected = codec;
+				break;
+			}
+		}
+		if (packet.isOffer()) {
+			// Answer before compressing anything, though each frame names its codec so order does not matter
+			write(new CompressionPacket(false, selected == null ?
+					Collections.<String>emptyList() : Collections.singletonList(selected)));
+			flush();
+		}
+		if (selected != null && packetChannel == null) {
+			logger.debug("Compressing frames with '{}': {}", selected, this);
+			setCompressor(CompressionCodecs.create(selected));
+		}
+	}
+
+	/**
+	 * @return Name of the codec frames sent on this connection are compressed with,
+	 * or {@code null} if compression is not in use.
+	 */
+	public String getCompressionCodec() {
+		CompressionCodec codec = compressor;
+		return codec == null ? null : codec.getName();
+	}
+
+	/**
+	 * Writes all queued packets to the channel.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be written to.
+	 */
+	public void flush() throws IOException {
+		outbound.flush();
+	}
+
+	/**
+	 * @return Number of encoded bytes queued, waiting to be flushed.
+	 */
+	public int getPendingBytes() {
+		return outbound.getPendingBytes();
+	}
+
+	/**
+	 * @return {@code false} once the queued bytes reach the {@link ConnectionConfig#getHighWatermark() high watermark},
+	 * until they drop back down to the {@link ConnectionConfig#getLowWatermark() low watermark}.
+	 */
+	public boolean isWritable() {
+		return outbound.isWritable();
+	}
+
+	/**
+	 * @param listener
+	 * 		Action to run whenever {@link #isWritable()} changes.
+	 * 		Runs on the thread that queued or wrote the bytes causing the change.
+	 */
+	public void addWritabilityListener(Consumer<Connection> listener) {
+		writabilityListeners.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 * 		Listener to remove.
+	 */
+	public void removeWritabilityListener(Consumer<Connection> listener) {
+		writabilityListeners.remove(listener);
+	}
+
+	/**
+	 * @return Timer expiring {@link #request(Packet, long, TimeUnit) requests} that go unanswered.
+	 */
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Called by the owning {@link Server} or {@link Client} so request timeouts share its timer.
+	 * The default is the {@link Threads#timer() shared timer}.
+	 *
+	 * @param timer
+	 * 		Timer expiring {@link #request(Packet, long, TimeUnit) requests} that go unanswered.
+	 */
+	public void setTimer(HashedWheelTimer timer) {
+		if (timer == null) {
+			throw new IllegalArgumentException("Timer cannot be null");
+		}
+		this.timer = timer;
+	}
+
+	/**
+	 * Called by event loops handling non-blocking connections.
+	 *
+	 * @param writeInterest
+	 * 		Action asking the event loop to call {@link #onWritable()} once the channel can accept more data.
+	 */
+	public void setWriteInterest(Runnable writeInterest) {
+		outbound.setWriteInterest(writeInterest);
+	}
+
+	/**
+	 * Called by event loops once the non-blocking channel can accept more data.
+	 * Writes as much of the queue as the channel accepts.
+	 *
+	 * @return {@code true} when data remains queued, and this should be called again once the channel is writable.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be written to.
+	 */
+	public boolean onWritable() throws IOException {
+		return outbound.onWritable();
+	}
+
+	/**
+	 * @return Policy for when queued packets are flushed.
+	 */
+	public FlushPolicy getFlushPolicy() {
+		return outbound.getFlushPolicy();
+	}
+
+	/**
+	 * @param flushPolicy
+	 * 		Policy for when queued packets are flushed.
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		if (flushPolicy == null) {
+			throw new IllegalArgumentException("Flush policy cannot be null");
+		}
+		outbound.setFlushPolicy(flushPolicy);
+	}
+
+	/**
+	 * @param worker
+	 * 		Executor to run tasks on, used only when the connection's serial executor is first created.
+	 *
+	 * @return Executor running tasks for this connection one at a time, in order.
+	 */
+	public SerialExecutor getSerialExecutor(Executor worker) {
+		SerialExecutor executor = serialExecutor;
+		if (executor == null) {
+			synchronized (this) {
+				executor = serialExecutor;
+				if (executor == null) {
+					serialExecutor = executor = new SerialExecutor(worker);
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * @return {@code true} when there are no tasks queued or running on this connection's serial executor.
+	 */
+	public boolean isSerialIdle() {
+		SerialExecutor executor = serialExecutor;
+		return executor == null || executor.isIdle();
+	}
+
+	/**
+	 * @param listener
+	 * 		Action to run once when the connection is closed.
+	 * 		Runs immediately if the connection is already closed.
+	 */
+	public void addCloseListener(Consumer<Connection> listener) {
+		closeListeners.add(listener);
+		if (closed.get() && closeListeners.remove(listener)) {
+			listener.accept(this);
+		}
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} of when data was last read, or of creation if nothing has been read yet.
+	 * Only tracked when timeouts or heartbeats are enabled.
+	 */
+	long getLastReadNanos() {
+		return lastReadNanos;
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} of when a packet was last written, or of creation if nothing has been written yet.
+	 * Only tracked when timeouts or heartbeats are enabled.
+	 */
+	long getLastWriteNanos() {
+		return lastWriteNanos;
+	}
+
+	/**
+	 * @return {@code true} when part of a frame has been received, and the reader is waiting on the rest.
+	 */
+	boolean isReadingFrame() {
+		return readingFrame;
+	}
+
+	/**
+	 * @return Recorder of the connection's traffic. {@link ConnectionMetrics#DISABLED} when metrics are disabled.
+	 */
+	public ConnectionMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return Decoder of incoming packet frames.
+	 */
+	public FrameDecoder getDecoder() {
+		return decoder;
+	}
+
+	/**
+	 * @return Wrapped channel, either a {@link ByteChannel} carrying encoded frames or a {@link PacketChannel}.
+	 */
+	public Channel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return Remote address of the channel.
+	 */
+	public SocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * Reads raw data from the channel.
+	 *
+	 * @param dst
+	 * 		Buffer to read into.
+	 *
+	 * @return Number of bytes read, or {@code -1} at the end of the stream.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be read from.
+	 * @throws UnsupportedOperationException
+	 * 		When the channel is a {@link PacketChannel}, which carries no raw data.
+	 */
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		checkBytes();
+		return byteChannel.read(dst);
+	}
+
+	/**
+	 * Writes raw data to the channel. Any queued packets are flushed first to preserve ordering.
+	 *
+	 * @param src
+	 * 		Buffer to write.
+	 *
+	 * @return Number of bytes from the given buffer written.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be written to.
+	 * @throws UnsupportedOperationException
+	 * 		When the channel is a {@link PacketChannel}, which carries no raw data.
+	 */
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		checkBytes();
+		return outbound.writeRaw(src);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	/**
+	 * Flushes any queued packets, then closes the channel and notifies any close listeners.
+	 * The {@link #getDecoder() decoder} is released by the thread reading the connection, or its event loop,
+	 * as it may be part way through using it.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			outbound.close();
+		} finally {
+			if (closed.compareAndSet(false, true)) {
+				metrics.close();
+				setCompressor(null);
+				IncomingFile file = incomingFile;
+				if (file != null) {
+					file.close();
+				}
+				handshake.completeExceptionally(new ClosedChannelException());
+				for (CompletableFuture<Packet> future : pendingRequests.values()) {
+					future.completeExceptionally(new ClosedChannelException());
+				}
+				for (ChunkedOutputStream stream : outgoingStreams.values()) {
+					stream.fail(new ClosedChannelException());
+				}
+				for (ChunkedInputStream stream : incomingStreams.values()) {
+					stream.fail(new ClosedChannelException());
+				}
+				for (Consumer<Connection> listener : closeListeners) {
+					// Removal decides who runs the listener if it is being added concurrently
+					if (closeListeners.remove(listener)) {
+						listener.accept(this);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Connection[" + address + "]";
+	}
+
+	/**
+	 * @param channel
+	 * 		Channel of a connection.
+	 *
+	 * @return Remote address of the channel, or {@code null} if the transport has no notion of addresses.
+	 *
+	 * @throws IOException
+	 * 		When the address cannot be read from the channel.
+	 */
+	static SocketAddress remoteAddress(Channel channel) throws IOException {
+		if (channel instanceof SocketChannel) {
+			return ((SocketChannel) channel).getRemoteAddress();
+		} else if (channel instanceof SharedMemoryChannel) {
+			return ((SharedMemoryChannel) channel).getAddress();
+		} else if (channel instanceof InVmChannel) {
+			return ((InVmChannel) channel).getAddress();
+		}
+		return null;
+	}
+
+	/**
+	 * @param packet
+	 * 		Packet to encode.
+	 *
+	 * @return Encoded frame, compressed if the connection uses compression and the frame is large enough.
+	 *
+	 * @throws IOException
+	 * 		When serializing the packet fails.
+	 */
+	private ByteBuffer encode(Packet packet) throws IOException {
+		markWritten();
+		long start = timed ? System.nanoTime() : 0L;
+		FrameFormat frameFormat = format;
+		ByteBuffer frame = PacketFactory.write(packet, frameFormat, allocator);
+		CompressionCodec codec = compressor;
+		if (codec != null && frameFormat.readHeader(frame).getBodySize() >= compressionThreshold) {
+			// Codecs are not thread safe, writers of this connection share the one instance
+			synchronized (codec) {
+				if (codec == compressor) {
+					frame = PacketFactory.compress(frame, frameFormat, codec, allocator);
+				}
+			}
+		}
+		if (timed) {
+			metrics.onWrite(packet.getId(), frame.remaining(), System.nanoTime() - start);
+		}
+		return frame;
+	}
+
+	/**
+	 * Encodes and queues the packets. Must hold the format lock while {@link #negotiating}.
+	 *
+	 * @param packets
+	 * 		Packets to write.
+	 *
+	 * @throws IOException
+	 * 		When serializing a packet fails, or when the channel cannot be written to.
+	 */
+	private void encodeAll(Collection<? extends Packet> packets) throws IOException {
+		List<ByteBuffer> frames = new ArrayList<>(packets.size());
+		try {
+			for (Packet packet : packets) {
+				frames.add(encode(packet));
+			}
+		} catch (IOException | RuntimeException ex) {
+			for (ByteBuffer frame : frames) {
+				allocator.release(frame);
+			}
+			throw ex;
+		}
+		outbound.writeAll(frames);
+	}
+
+	/**
+	 * Encodes and queues the packet for the writer. Must hold the format lock while {@link #negotiating}.
+	 *
+	 * @param packet
+	 * 		Packet to write.
+	 *
+	 * @return Future completing once the packet is written.
+	 */
+	private CompletableFuture<Void> encodeAsync(Packet packet) {
+		ByteBuffer frame;
+		try {
+			frame = encode(packet);
+		} catch (IOException | RuntimeException ex) {
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			future.completeExceptionally(ex);
+			return future;
+		}
+		return outbound.writeAsync(frame);
+	}
+
+	/**
+	 * Queues the frame for the writer, in the current format. Must hold the format lock while {@link #negotiating}.
+	 *
+	 * @param frame
+	 * 		Encoded frame.
+	 * @param frameFormat
+	 * 		Format the frame is encoded in.
+	 *
+	 * @return Future completing once the frame is written.
+	 */
+	private CompletableFuture<Void> queueFrameAsync(ByteBuffer frame, FrameFormat frameFormat) {
+		FrameFormat current = format;
+		if (frameFormat != current) {
+			ByteBuffer converted = allocator.allocate(frame.remaining() + current.getMaxHeaderSize());
+			try {
+				current.convert(frame, frameFormat, converted);
+				converted.flip();
+			} catch (IOException | RuntimeException ex) {
+				allocator.release(converted);
+				CompletableFuture<Void> future = new CompletableFuture<>();
+				future.completeExceptionally(ex);
+				return future;
+			} finally {
+				if (!frame.isReadOnly()) {
+					allocator.release(frame);
+				}
+			}
+			frame = converted;
+		}
+		markWritten();
+		if (timed) {
+			try {
+				metrics.onWrite(current.readHeader(frame).getId(), frame.remaining(), -1);
+			} catch (IOException ex) {
+				logger.debug("Could not read header of queued frame: {}", this, ex);
+			}
+		}
+		return outbound.writeAsync(frame);
+	}
+
+	/**
+	 * Handles the remote side's part of the handshake, called by the reader before decoding the next frame.
+	 * <ul>
+	 *     <li>An offer is answered with the lowest of the offered and configured versions, and the features offered
+	 *     by both. Frames written after the answer use the version's format.</li>
+	 *     <li>An answer switches frames read after it to the agreed format, and is acknowledged.
+	 *     Frames written after the acknowledgement use the format.</li>
+	 *     <li>An acknowledgement switches frames read after it to the agreed format.</li>
+	 * </ul>
+	 *
+	 * @param packet
+	 * 		Handshake packet.
+	 *
+	 * @throws IOException
+	 * 		When the handshake is malformed or unexpected, or its reply cannot be written.
+	 */
+	private void onHandshake(HandshakePacket packet) throws IOException {
+		switch (packet.getStage()) {
+			case HandshakePacket.STAGE_OFFER: {
+				if (packet.getVersion() < 1) {
+					throw new IOException("Handshake offered invalid protocol version " + packet.getVersion());
+				}
+				// Once writers stop holding the lock the format can no longer change, so late offers stay on v1
+				int version = negotiating ? Math.min(packet.getVersion(), maxProtocolVersion) : 1;
+				int agreed = offeredFeatures & packet.getFeatures();
+				features = agreed;
+				switchWrites(new HandshakePacket(HandshakePacket.STAGE_ANSWER, version, agreed), FrameFormat.of(version));
+				logger.debug("Handshake answered with protocol v{}: {}", version, this);
+				break;
+			}
+			case HandshakePacket.STAGE_ANSWER: {
+				int version = packet.getVersion();
+				if (!offered) {
+					throw new IOException("Handshake answer received without an offer");
+				} else if (version < 1 || version > maxProtocolVersion) {
+					throw new IOException("Handshake answered with protocol version " + version +
+							", offered up to " + maxProtocolVersion);
+				}
+				FrameFormat agreed = FrameFormat.of(version);
+				decoder.setFormat(agreed);
+				features = packet.getFeatures();
+				switchWrites(new HandshakePacket(HandshakePacket.STAGE_ACK, version, packet.getFeatures()), agreed);
+				logger.debug("Handshake completed with protocol v{}: {}", version, this);
+				break;
+			}
+			case HandshakePacket.STAGE_ACK: {
+				int version = packet.getVersion();
+				if (version < 1 || version > maxProtocolVersion) {
+					throw new IOException("Handshake acknowledged invalid protocol version " + version);
+				}
+				decoder.setFormat(FrameFormat.of(version));
+				break;
+			}
+			default:
+				throw new IOException("Unknown handshake stage " + packet.getStage());
+		}
+	}
+
+	/**
+	 * Writes the last frame in the current format, then switches frames written after it to the given format.
+	 * The frame is flushed right away, as the remote side waits on it.
+	 *
+	 * @param last
+	 * 		Last packet to write in the current format.
+	 * @param next
+	 * 		Format of frames written afterwards.
+	 *
+	 * @throws IOException
+	 * 		When the packet cannot be written.
+	 */
+	private void switchWrites(HandshakePacket last, FrameFormat next) throws IOException {
+		synchronized (formatLock) {
+			try {
+				outbound.write(encode(last));
+				format = next;
+				handshake.complete(next);
+			} catch (IOException | RuntimeException ex) {
+				handshake.completeExceptionally(ex);
+				throw ex;
+			} finally {
+				negotiating = false;
+			}
+		}
+		flush();
+	}
+
+	private void checkBytes() {
+		if (byteChannel == null) {
+			throw new UnsupportedOperationException("Packet channels transfer packets, not bytes: " + this);
+		}
+	}
+
+	private void markRead() {
+		if (watched) {
+			lastReadNanos = System.nanoTime();
+		}
+	}
+
+	private void markWritten() {
+		if (watched) {
+			lastWriteNanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * @param packet
+	 * 		Packet to pass to the wrapped packet channel as-is.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be written to.
+	 */
+	private void writePacket(Packet packet) throws IOException {
+		markWritten();
+		packetChannel.writePacket(packet);
+		metrics.onWrite(packet.getId(), 0, -1);
+	}
+
+	/**
+	 * @return Next decoded packet, or {@code null} if more data must be read first,
+	 * or if a file's content must be {@link #receiveFile(boolean) received} first.
+	 *
+	 * @throws IOException
+	 * 		When decoding fails, or the file receiver fails to open the target file.
+	 */
+	private Packet nextPacket() throws IOException {
+		Packet packet;
+		while ((packet = decoder.next()) instanceof HandshakePacket) {
+			onHandshake((HandshakePacket) packet);
+		}
+		if (packet != null && negotiating && !offered) {
+			// The remote side did not start with a handshake, so it does not do them and frames stay v1
+			negotiating = false;
+			handshake.complete(FrameFormat.V1);
+		}
+		if (packet instanceof FilePacket) {
+			FilePacket header = (FilePacket) packet;
+			Path target = null;
+			if (fileReceiver != null) {
+				try {
+					target = fileReceiver.resolve(this, header);
+				} catch (IOException ex) {
+					logger.warn("File receiver failed, discarding: {}", header, ex);
+				}
+			}
+			FileChannel file = target == null ? null :
+					FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			incomingFile = new IncomingFile(header, target, file);
+			return null;
+		} else if (packet != null && readingFrame) {
+			readingFrame = false;
+		}
+		return packet;
+	}
+
+	/**
+	 * Writes the content of the incoming file, first what the decoder already buffered, then from the channel.
+	 * Blocking channels are transferred to the file directly.
+	 *
+	 * @param block
+	 * 		{@code true} to read until the content is complete.
+	 * 		{@code false} to stop once the non-blocking channel has no more data available.
+	 *
+	 * @return {@code true} once all content has been received.
+	 *
+	 * @throws IOException
+	 * 		When reading or writing fails, or the end of the stream is reached before the content is complete.
+	 */
+	private boolean receiveFile(boolean block) throws IOException {
+		IncomingFile incoming = incomingFile;
+		while (incoming.remaining > 0) {
+			ByteBuffer buffered = decoder.takeBuffered((int) Math.min(incoming.remaining, Integer.MAX_VALUE));
+			if (!buffered.hasRemaining()) {
+				break;
+			}
+			incoming.write(buffered);
+		}
+		readingFrame = true;
+		while (incoming.remaining > 0) {
+			if (block && incoming.file != null) {
+				// Transferred in steps so progress is seen by the read timeout
+				long read = incoming.file.transferFrom(byteChannel, incoming.position,
+						Math.min(incoming.remaining, IncomingFile.TRANSFER_STEP));
+				if (read == 0) {
+					throw new EOFException("Channel stream ended with " + incoming.remaining + " bytes of " +
+							incoming.header + " left");
+				}
+				markRead();
+				incoming.position += read;
+				incoming.remaining -= read;
+			} else {
+				// Non-blocking channels cannot tell transferFrom's end of stream apart from no data
+				ByteBuffer scratch = incoming.scratch();
+				scratch.clear();
+				scratch.limit((int) Math.min(scratch.capacity(), incoming.remaining));
+				int read = byteChannel.read(scratch);
+				if (read < 0) {
+					throw new EOFException("Channel stream ended with " + incoming.remaining + " bytes of " +
+							incoming.header + " left");
+				} else if (read == 0) {
+					return false;
+				}
+				markRead();
+				scratch.flip();
+				incoming.write(scratch);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Packet of the completed incoming file, with the path its content was written to.
+	 *
+	 * @throws IOException
+	 * 		When the file cannot be closed.
+	 */
+	private Packet completeFile() throws IOException {
+		IncomingFile incoming = incomingFile;
+		incomingFile = null;
+		readingFrame = false;
+		incoming.close();
+		return incoming.header.withPath(incoming.target);
+	}
+
+	/**
+	 * Receives a file sent over a packet channel, copying it file to file.
+	 *
+	 * @param packet
+	 * 		Packet given by the sending side, with the path of its file.
+	 *
+	 * @return Packet with the path its content was written to.
+	 *
+	 * @throws IOException
+	 * 		When copying fails.
+	 */
+	private Packet receiveLocalFile(FilePacket packet) throws IOException {
+		Path target = null;
+		if (fileReceiver != null) {
+			try {
+				target = fileReceiver.resolve(this, packet);
+			} catch (IOException ex) {
+				logger.warn("File receiver failed, discarding: {}", packet, ex);
+			}
+		}
+		if (target != null) {
+			try (FileChannel source = FileChannel.open(packet.getPath(), StandardOpenOption.READ);
+				 FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				long position = packet.getPosition();
+				long remaining = packet.getCount();
+				source.position(position);
+				while (remaining > 0) {
+					long read = file.transferFrom(source, position, remaining);
+					if (read == 0) {
+						throw new EOFException("File " + packet.getPath() + " truncated during transfer at " + position);
+					}
+					position += read;
+					remaining -= read;
+				}
+			}
+		}
+		return packet.withPath(target);
+	}
+
+	/**
+	 * @param packet
+	 * 		File packet to send.
+	 *
+	 * @throws IOException
+	 * 		When the file cannot be read, or the channel cannot be written to.
+	 */
+	private void transferFile(FilePacket packet) throws IOException {
+		// Closed by the outbound queue once the content is written
+		FileChannel file = FileChannel.open(packet.getPath(), StandardOpenOption.READ);
+		if (negotiating) {
+			synchronized (formatLock) {
+				transferFile(packet, file);
+			}
+		} else {
+			transferFile(packet, file);
+		}
+	}
+
+	/**
+	 * @param packet
+	 * 		File packet to send.
+	 * @param file
+	 * 		Opened file of the packet, closed once its content is written or the transfer fails.
+	 *
+	 * @throws IOException
+	 * 		When the file cannot be read, or the channel cannot be written to.
+	 */
+	private void transferFile(FilePacket packet, FileChannel file) throws IOException {
+		FrameFormat frameFormat = format;
+		int headerLength = packet.getHeaderLength();
+		int bodySize = (int) (headerLength + packet.getCount());
+		int frameHeaderSize = frameFormat.getHeaderSize(packet.getId(), bodySize);
+		ByteBuffer header = allocator.allocate(frameHeaderSize + headerLength);
+		try {
+			frameFormat.writeHeader(header, 0, packet.getId(), bodySize, false);
+		} catch (IOException ex) {
+			allocator.release(header);
+			file.close();
+			throw ex;
+		}
+		header.position(frameHeaderSize);
+		packet.writeHeader(header);
+		header.flip();
+		markWritten();
+		metrics.onWrite(packet.getId(), (int) Math.min(Integer.MAX_VALUE, header.remaining() + packet.getCount()), -1);
+		outbound.transferFile(header, file, packet.getPosition(), packet.getCount());
+	}
+
+	/**
+	 * @param codec
+	 * 		Codec to compress sent frames with, or {@code null} to stop compressing.
+	 * 		The previous codec, if any, is closed.
+	 */
+	private void setCompressor(CompressionCodec codec) {
+		CompressionCodec previous = compressor;
+		compressor = codec;
+		if (previous != null) {
+			synchronized (previous) {
+				previous.close();
+			}
+		}
+	}
+
+	/**
+	 * Encodes and decodes the packet to verify its codec, as packet channels otherwise never exercise it.
+	 * The re-encoded copy must match the original encoding exactly.
+	 *
+	 * @param packet
+	 * 		Received packet.
+	 *
+	 * @return Decoded copy of the packet.
+	 *
+	 * @throws IOException
+	 * 		When the packet does not survive the round trip.
+	 */
+	private Packet roundTrip(Packet packet) throws IOException {
+		// Encoded in the latest format, which fits any packet id
+		ByteBuffer frame = PacketFactory.write(packet, FrameFormat.V2, allocator);
+		ByteBuffer copyFrame = null;
+		Packet copy = null;
+		try {
+			FrameHeader header = FrameFormat.V2.readHeader(frame);
+			ByteBuffer body = frame.duplicate();
+			body.position(frame.position() + header.getSize());
+			copy = PacketFactory.read(registry, header.getId(), body);
+			copyFrame = PacketFactory.write(copy, FrameFormat.V2, allocator);
+			if (!frame.equals(copyFrame)) {
+				throw new IOException("Packet " + packet.getId() + " (" + packet.getClass().getName() +
+						") does not round-trip through its codec");
+			}
+			Packet result = copy;
+			copy = null;
+			return result;
+		} finally {
+			allocator.release(frame);
+			if (copyFrame != null) {
+				allocator.release(copyFrame);
+			}
+			Packet copyPayload = EnvelopePacket.unwrap(copy);
+			if (copyPayload instanceof PooledPacket) {
+				((PooledPacket) copyPayload).release();
+			}
+			Packet payload = EnvelopePacket.unwrap(packet);
+			if (payload instanceof PooledPacket) {
+				((PooledPacket) payload).release();
+			}
+		}
+	}
+
+	/**
+	 * Notifies writability listeners, called by the outbound queue.
+	 */
+	void onWritabilityChanged() {
+		for (Consumer<Connection> listener : writabilityListeners) {
+			listener.accept(this);
+		}
+	}
+
+	/**
+	 * Progress of a file whose content is being received.
+	 */
+	private static final class IncomingFile {
+		private static final int SCRATCH_SIZE = 64 * 1024;
+		private static final long TRANSFER_STEP = 1024 * 1024;
+		private final FilePacket header;
+		private final Path target;
+		private final FileChannel file;
+		private long position;
+		private long remaining;
+		private ByteBuffer scratch;
+
+		private IncomingFile(FilePacket header, Path target, FileChannel file) {
+			this.header = header;
+			this.target = target;
+			this.file = file;
+			this.position = header.getPosition();
+			this.remaining = header.getCount();
+		}
+
+		/**
+		 * @param data
+		 * 		Content to write to the file, or discard if there is no file.
+		 */
+		private void write(ByteBuffer data) throws IOException {
+			int count = data.remaining();
+			if (file != null) {
+				while (data.hasRemaining()) {
+					position += file.write(data, position);
+				}
+			} else {
+				position += count;
+			}
+			remaining -= count;
+		}
+
+		/**
+		 * @return Off-heap buffer for reading content in non-blocking mode, or when discarding.
+		 */
+		private ByteBuffer scratch() {
+			if (scratch == null) {
+				scratch = ByteBuffer.allocateDirect((int) Math.min(SCRATCH_SIZE, Math.max(1, remaining)));
+			}
+			return scratch;
+		}
+
+		private void close() throws IOException {
+			if (file != null) {
+				file.close();
+			}
+		}
+	}
+}
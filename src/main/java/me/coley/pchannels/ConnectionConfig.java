@@ -0,0 +1,366 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.compression.CompressionCodecs;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options applied to each {@link Connection} of a {@link Client} or {@link Server}.
+ * Changes apply to connections made afterwards.
+ *
+ * @author Matt Coley
+ */
+public class ConnectionConfig {
+	private FlushPolicy flushPolicy = FlushPolicy.immediate();
+	private long requestTimeoutMillis = 30_000;
+	private int lowWatermark = 32 * 1024;
+	private int highWatermark = 64 * 1024;
+	private int maxPendingBytes = 64 * 1024 * 1024;
+	private int maxFrameLength = 64 * 1024 * 1024;
+	private int compressionThreshold = -1;
+	private List<String> compressionCodecs = Collections.emptyList();
+	private FileReceiver fileReceiver;
+	private int streamChunkSize = 16 * 1024;
+	private int streamWindow = 16;
+	private long heartbeatIntervalMillis;
+	private long idleTimeoutMillis;
+	private long readTimeoutMillis;
+	private int maxProtocolVersion = 1;
+	private int features;
+
+	/**
+	 * @return Policy for when queued packets are flushed.
+	 */
+	public FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+
+	/**
+	 * @param flushPolicy
+	 * 		Policy for when queued packets are flushed.
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		if (flushPolicy == null) {
+			throw new IllegalArgumentException("Flush policy cannot be null");
+		}
+		this.flushPolicy = flushPolicy;
+	}
+
+	/**
+	 * @return Time in milliseconds before a {@link Connection#request(me.coley.pchannels.packet.Packet) request}
+	 * without an explicit timeout fails. Zero or less to wait indefinitely.
+	 */
+	public long getRequestTimeoutMillis() {
+		return requestTimeoutMillis;
+	}
+
+	/**
+	 * @param requestTimeoutMillis
+	 * 		Time in milliseconds before a {@link Connection#request(me.coley.pchannels.packet.Packet) request}
+	 * 		without an explicit timeout fails. Zero or less to wait indefinitely.
+	 */
+	public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+		this.requestTimeoutMillis = requestTimeoutMillis;
+	}
+
+	/**
+	 * @return Number of queued bytes at which a connection stops being {@link Connection#isWritable() writable}.
+	 */
+	public int getHighWatermark() {
+		return highWatermark;
+	}
+
+	/**
+	 * @return Number of queued bytes at which a connection becomes {@link Connection#isWritable() writable} again.
+	 */
+	public int getLowWatermark() {
+		return lowWatermark;
+	}
+
+	/**
+	 * @param lowWatermark
+	 * 		Number of queued bytes at which a connection becomes {@link Connection#isWritable() writable} again.
+	 * @param highWatermark
+	 * 		Number of queued bytes at which a connection stops being {@link Connection#isWritable() writable}.
+	 */
+	public void setWriteWatermarks(int lowWatermark, int highWatermark) {
+		if (lowWatermark < 0 || highWatermark < lowWatermark) {
+			throw new IllegalArgumentException("Watermarks must satisfy 0 <= low <= high, got low=" +
+					lowWatermark + ", high=" + highWatermark);
+		}
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+	}
+
+	/**
+	 * @return Number of queued bytes beyond which {@link Connection#writeAsync(me.coley.pchannels.packet.Packet)}
+	 * rejects further packets, and {@link Connection#write(me.coley.pchannels.packet.Packet)} waits.
+	 */
+	public int getMaxPendingBytes() {
+		return maxPendingBytes;
+	}
+
+	/**
+	 * {@link Connection#writeAsync(me.coley.pchannels.packet.Packet) Asynchronous writes} past the maximum fail.
+	 * {@link Connection#write(me.coley.pchannels.packet.Packet) Blocking writes} past it flush the queue, then wait
+	 * for it to drain to the {@link #getLowWatermark() low watermark}. Handlers running on a server's event loop
+	 * cannot wait on the loop, so their writes past it fail instead.
+	 *
+	 * @param maxPendingBytes
+	 * 		Number of queued bytes beyond which {@link Connection#writeAsync(me.coley.pchannels.packet.Packet)}
+	 * 		rejects further packets, and {@link Connection#write(me.coley.pchannels.packet.Packet)} waits.
+	 * 		Defaults to 64 MiB.
+	 */
+	public void setMaxPendingBytes(int maxPendingBytes) {
+		if (maxPendingBytes <= 0) {
+			throw new IllegalArgumentException("Max pending bytes must be positive: " + maxPendingBytes);
+		}
+		this.maxPendingBytes = maxPendingBytes;
+	}
+
+	/**
+	 * @return Maximum body size in bytes of received frames.
+	 */
+	public int getMaxFrameLength() {
+		return maxFrameLength;
+	}
+
+	/**
+	 * A frame's header declares the size of its body, and the connection buffers the whole body before decoding it.
+	 * Frames over this size close the connection as soon as their header arrives, so that a peer cannot make it
+	 * allocate arbitrarily large buffers. Compressed frames are also checked against their uncompressed size.
+	 * The content of {@link me.coley.pchannels.packet.impl.FilePacket files} is not counted, as it is never buffered.
+	 *
+	 * @param maxFrameLength
+	 * 		Maximum body size in bytes of received frames. Defaults to 64 MiB.
+	 */
+	public void setMaxFrameLength(int maxFrameLength) {
+		if (maxFrameLength <= 0) {
+			throw new IllegalArgumentException("Max frame length must be positive: " + maxFrameLength);
+		}
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	/**
+	 * @return Minimum body size in bytes of frames to compress, or {@code -1} when compression is disabled.
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * @return Names of the supported compression codecs, in order of preference.
+	 * Empty when compression is disabled.
+	 */
+	public List<String> getCompressionCodecs() {
+		return compressionCodecs;
+	}
+
+	/**
+	 * Enables compression of frames sent on the connection. The codec is negotiated per connection,
+	 * and compression only applies once both sides agree on one. Smaller frames are sent as-is,
+	 * as are frames that compression does not make smaller.
+	 *
+	 * @param threshold
+	 * 		Minimum body size in bytes of frames to compress.
+	 * @param codecs
+	 * 		Names of the {@link CompressionCodecs registered codecs} to support, in order of preference.
+	 */
+	public void setCompression(int threshold, String... codecs) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Compression threshold cannot be negative: " + threshold);
+		}
+		if (codecs.length == 0) {
+			throw new IllegalArgumentException("At least one compression codec is required");
+		}
+		for (String codec : codecs) {
+			if (!CompressionCodecs.isRegistered(codec)) {
+				throw new IllegalArgumentException("No compression codec named '" + codec + "'");
+			}
+		}
+		this.compressionThreshold = threshold;
+		this.compressionCodecs = Collections.unmodifiableList(Arrays.asList(codecs.clone()));
+	}
+
+	/**
+	 * Disables compression, which is the default.
+	 */
+	public void disableCompression() {
+		this.compressionThreshold = -1;
+		this.compressionCodecs = Collections.emptyList();
+	}
+
+	/**
+	 * @return Decides where incoming {@link me.coley.pchannels.packet.impl.FilePacket files} are written,
+	 * or {@code null} to discard them.
+	 */
+	public FileReceiver getFileReceiver() {
+		return fileReceiver;
+	}
+
+	/**
+	 * @param fileReceiver
+	 * 		Decides where incoming {@link me.coley.pchannels.packet.impl.FilePacket files} are written,
+	 * 		or {@code null} to discard them, which is the default.
+	 */
+	public void setFileReceiver(FileReceiver fileReceiver) {
+		this.fileReceiver = fileReceiver;
+	}
+
+	/**
+	 * @return Maximum content size of each chunk of {@link Connection#openStream(me.coley.pchannels.packet.Packet) sent streams}.
+	 */
+	public int getStreamChunkSize() {
+		return streamChunkSize;
+	}
+
+	/**
+	 * @param streamChunkSize
+	 * 		Maximum content size of each chunk of {@link Connection#openStream(me.coley.pchannels.packet.Packet) sent streams}.
+	 */
+	public void setStreamChunkSize(int streamChunkSize) {
+		if (streamChunkSize <= 0) {
+			throw new IllegalArgumentException("Stream chunk size must be positive: " + streamChunkSize);
+		}
+		this.streamChunkSize = streamChunkSize;
+	}
+
+	/**
+	 * @return Number of chunks of each received stream that may be buffered before the consumer reads them.
+	 */
+	public int getStreamWindow() {
+		return streamWindow;
+	}
+
+	/**
+	 * @param streamWindow
+	 * 		Number of chunks of each received stream that may be buffered before the consumer reads them.
+	 * 		The sender waits for the consumer once this many are unread.
+	 */
+	public void setStreamWindow(int streamWindow) {
+		if (streamWindow <= 0) {
+			throw new IllegalArgumentException("Stream window must be positive: " + streamWindow);
+		}
+		this.streamWindow = streamWindow;
+	}
+
+	/**
+	 * @return Time in milliseconds without anything written after which an
+	 * {@link me.coley.pchannels.packet.impl.AlivePacket} is sent. Zero when heartbeats are disabled.
+	 */
+	public long getHeartbeatIntervalMillis() {
+		return heartbeatIntervalMillis;
+	}
+
+	/**
+	 * Heartbeats keep a connection from being evicted by the remote side's {@link #setIdleTimeoutMillis(long) idle timeout}
+	 * while there is nothing else to send. The interval should thus be well below the remote idle timeout.
+	 *
+	 * @param heartbeatIntervalMillis
+	 * 		Time in milliseconds without anything written after which an
+	 * 		{@link me.coley.pchannels.packet.impl.AlivePacket} is sent. Zero to disable heartbeats, which is the default.
+	 */
+	public void setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+		if (heartbeatIntervalMillis < 0) {
+			throw new IllegalArgumentException("Heartbeat interval cannot be negative: " + heartbeatIntervalMillis);
+		}
+		this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+	}
+
+	/**
+	 * @return Time in milliseconds without anything read after which the connection is closed.
+	 * Zero when idle connections are kept open.
+	 */
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * @param idleTimeoutMillis
+	 * 		Time in milliseconds without anything read after which the connection is closed.
+	 * 		Zero to keep idle connections open, which is the default.
+	 */
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		if (idleTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Idle timeout cannot be negative: " + idleTimeoutMillis);
+		}
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * @return Time in milliseconds a partially received frame may wait for more data before the connection is closed.
+	 * Zero when there is no deadline.
+	 */
+	public long getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	/**
+	 * A peer that stops sending part way through a frame would otherwise leave the connection's reader waiting,
+	 * and the partial frame buffered, until the idle timeout if there is one.
+	 *
+	 * @param readTimeoutMillis
+	 * 		Time in milliseconds a partially received frame may wait for more data before the connection is closed.
+	 * 		Zero for no deadline, which is the default.
+	 */
+	public void setReadTimeoutMillis(long readTimeoutMillis) {
+		if (readTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Read timeout cannot be negative: " + readTimeoutMillis);
+		}
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	/**
+	 * @return Highest protocol version to agree on in the connection handshake.
+	 */
+	public int getMaxProtocolVersion() {
+		return maxProtocolVersion;
+	}
+
+	/**
+	 * Connections start with {@link me.coley.pchannels.packet.FrameFormat#V1 v1} frames, and switch to the highest
+	 * version both sides support once their handshake completes. Peers predating the handshake stay on v1.
+	 * <br>
+	 * A client offering a handshake sends it as its first frame, which servers predating the handshake cannot read.
+	 * Later versions are therefore opt-in, and should only be enabled on clients once their servers are updated.
+	 * Servers can enable them right away, as they only ever answer offers.
+	 *
+	 * @param maxProtocolVersion
+	 * 		Highest protocol version to agree on in the connection handshake.
+	 * 		Defaults to one, to never switch from v1, in which case clients do not offer a handshake at all.
+	 * 		Up to {@link Constants#PROTOCOL_VERSION the latest}.
+	 */
+	public void setMaxProtocolVersion(int maxProtocolVersion) {
+		if (maxProtocolVersion < 1 || maxProtocolVersion > Constants.PROTOCOL_VERSION) {
+			throw new IllegalArgumentException("Protocol version must be in 1.." + Constants.PROTOCOL_VERSION +
+					": " + maxProtocolVersion);
+		}
+		this.maxProtocolVersion = maxProtocolVersion;
+	}
+
+	/**
+	 * @return Feature bits offered in the connection handshake.
+	 */
+	public int getFeatures() {
+		return features;
+	}
+
+	/**
+	 * @param features
+	 * 		Feature bits offered in the connection handshake. Their meaning is up to the application,
+	 * 		and a connection's {@link Connection#getFeatures() features} are those both sides offered.
+	 * 		None by default.
+	 */
+	public void setFeatures(int features) {
+		this.features = features;
+	}
+
+	/**
+	 * @return {@code true} when any of heartbeats, the idle timeout or the read timeout are enabled.
+	 */
+	boolean isWatched() {
+		return heartbeatIntervalMillis > 0 || idleTimeoutMillis > 0 || readTimeoutMillis > 0;
+	}
+}
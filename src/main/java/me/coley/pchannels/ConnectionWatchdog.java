@@ -0,0 +1,176 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.impl.AlivePacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends heartbeats on a connection, and closes it once idle or stuck part way through a frame,
+ * according to its {@link ConnectionConfig}.
+ * <br>
+ * Each connection has a single timeout at a time, set for the earliest thing that may need doing. When it fires the
+ * connection's last read and write times are checked, and it is rescheduled. Reads and writes themselves only record
+ * the time, so the timer does not see any traffic. A stalled frame is thus noticed between one and two read timeouts
+ * after its last data arrived.
+ * <br>
+ * Anything that may block, writing the heartbeat or notifying the connection's close listeners, is handed to an
+ * executor so the shared timer thread never waits on a connection.
+ *
+ * @author Matt Coley
+ */
+final class ConnectionWatchdog implements Runnable {
+	private static final Logger logger = LoggerFactory.getLogger(ConnectionWatchdog.class);
+	private final Connection connection;
+	private final HashedWheelTimer timer;
+	private final Executor executor;
+	private final long heartbeatNanos;
+	private final long idleNanos;
+	private final long readNanos;
+	private volatile HashedWheelTimer.Timeout timeout;
+	private volatile boolean closed;
+
+	private ConnectionWatchdog(Connection connection, ConnectionConfig config, HashedWheelTimer timer,
+							   Executor executor) {
+		this.connection = connection;
+		this.timer = timer;
+		this.executor = executor;
+		this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(config.getHeartbeatIntervalMillis());
+		this.idleNanos = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeoutMillis());
+		this.readNanos = TimeUnit.MILLISECONDS.toNanos(config.getReadTimeoutMillis());
+	}
+
+	/**
+	 * Starts watching the connection until it is closed. Does nothing when the config enables neither
+	 * heartbeats nor timeouts.
+	 *
+	 * @param connection
+	 * 		Connection to watch.
+	 * @param config
+	 * 		Config the connection was created with.
+	 * @param timer
+	 * 		Timer to schedule checks with.
+	 * @param executor
+	 * 		Executor to write heartbeats and close the connection on.
+	 */
+	static void watch(Connection connection, ConnectionConfig config, HashedWheelTimer timer, Executor executor) {
+		if (!config.isWatched()) {
+			return;
+		}
+		ConnectionWatchdog watchdog = new ConnectionWatchdog(connection, config, timer, executor);
+		connection.addCloseListener(c -> watchdog.stop());
+		long now = System.nanoTime();
+		watchdog.schedule(watchdog.nextCheck(now, connection.getLastWriteNanos()));
+	}
+
+	@Override
+	public void run() {
+		if (closed) {
+			return;
+		}
+		long now = System.nanoTime();
+		long sinceRead = now - connection.getLastReadNanos();
+		if (readNanos > 0 && sinceRead >= readNanos && connection.isReadingFrame()) {
+			evict("no data for " + TimeUnit.NANOSECONDS.toMillis(sinceRead) + "ms part way through a frame");
+			return;
+		} else if (idleNanos > 0 && sinceRead >= idleNanos) {
+			evict("idle for " + TimeUnit.NANOSECONDS.toMillis(sinceRead) + "ms");
+			return;
+		}
+		long lastWrite = connection.getLastWriteNanos();
+		if (heartbeatNanos > 0 && now - lastWrite >= heartbeatNanos) {
+			heartbeat();
+			// Not written yet, but counts as written now so it is not sent again on the next tick
+			lastWrite = now;
+		}
+		schedule(nextCheck(now, lastWrite));
+	}
+
+	/**
+	 * @param now
+	 * 		Current {@link System#nanoTime()}.
+	 * @param lastWrite
+	 * 		{@link System#nanoTime()} of the last write.
+	 *
+	 * @return Delay in nanoseconds until something may need doing.
+	 */
+	private long nextCheck(long now, long lastWrite) {
+		long next = Long.MAX_VALUE;
+		long lastRead = connection.getLastReadNanos();
+		if (heartbeatNanos > 0) {
+			next = Math.min(next, lastWrite + heartbeatNanos - now);
+		}
+		if (idleNanos > 0) {
+			next = Math.min(next, lastRead + idleNanos - now);
+		}
+		if (readNanos > 0) {
+			// A frame may start at any time, so with none in progress check again a full read timeout later
+			long untilDeadline = lastRead + readNanos - now;
+			next = Math.min(next, untilDeadline > 0 ? untilDeadline : readNanos);
+		}
+		return next;
+	}
+
+	private void schedule(long delayNanos) {
+		if (closed) {
+			return;
+		}
+		timeout = timer.newTimeout(this, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+		// Closed while scheduling, the close listener may have missed the new timeout
+		if (closed) {
+			timeout.cancel();
+		}
+	}
+
+	private void heartbeat() {
+		if (!connection.isWritable()) {
+			// Queued data is still to be sent, which serves the same purpose
+			return;
+		}
+		execute(() -> connection.writeAsync(new AlivePacket()).whenComplete((ignored, error) -> {
+			if (error != null) {
+				logger.debug("Could not send heartbeat: {}", connection, error);
+			}
+		}));
+	}
+
+	private void evict(String reason) {
+		logger.debug("Closing connection {}: {}", connection, reason);
+		closed = true;
+		try {
+			// Closing the channel does not block, and frees any thread blocked on it right away, even when all
+			// the executor's threads are such readers. With the channel closed, queued packets are not flushed.
+			connection.getChannel().close();
+		} catch (IOException ex) {
+			logger.debug("Could not close channel: {}", connection, ex);
+		}
+		execute(() -> {
+			try {
+				connection.close();
+			} catch (IOException ex) {
+				logger.debug("Could not close connection: {}", connection, ex);
+			}
+		});
+	}
+
+	private void stop() {
+		closed = true;
+		HashedWheelTimer.Timeout current = timeout;
+		if (current != null) {
+			current.cancel();
+		}
+	}
+
+	private void execute(Runnable action) {
+		try {
+			executor.execute(action);
+		} catch (RejectedExecutionException ex) {
+			// The owner is shutting down and closing its connections itself
+			logger.trace("Watchdog action rejected: {}", connection);
+		}
+	}
+}
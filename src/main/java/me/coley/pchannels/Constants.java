@@ -11,16 +11,48 @@ public class Constants {
 	 */
 	public static final int PORT = 7777;
 	/**
+	 * Latest protocol version, offered in the handshake when connecting.
+	 *
+	 * @see me.coley.pchannels.packet.FrameFormat
+	 */
+	public static final int PROTOCOL_VERSION = 2;
+	/**
+	 * Size of the {@link me.coley.pchannels.packet.FrameFormat#V1 v1} frame header.
+	 * <br>
 	 * 1 byte for ID.
 	 * <br>
 	 * 4 bytes for size.
 	 */
 	public static final int HEADER_BUFFER_SIZE = 5;
+	/**
+	 * Bit of the v1 header size marking the frame body as compressed.
+	 * The size itself never uses the sign bit, so it is free to carry the flag.
+	 */
+	public static final int COMPRESSED_FLAG = 0x80000000;
+	/**
+	 * Bit of the v2 header flags marking the frame body as compressed.
+	 */
+	public static final int FRAME_FLAG_COMPRESSED = 0x01;
+	/**
+	 * 1 byte for the codec ID.
+	 * <br>
+	 * 4 bytes for the uncompressed body size.
+	 */
+	public static final int COMPRESSION_HEADER_SIZE = 5;
 
 	// ==========================
 	// === PACKET IDENTIFIERS ===
 	// ==========================
 
+	/**
+	 * First ID of the block reserved for packets of the library itself, which runs to {@code 0xFF}.
+	 * Together with {@link #ID_ALIVE} and {@link #ID_CLOSE} these IDs are registered by the {@link me.coley.pchannels.packet.PacketFactory}
+	 * and should not be used by application packets.
+	 * <br>
+	 * The block sits at the top of the v1 ID byte, which was read as signed before and so never carried
+	 * application packets, leaving the low IDs free as they have always been.
+	 */
+	public static final int RESERVED_ID_START = 0xF0;
 	/**
 	 * ID for alive checks.
 	 */
@@ -29,4 +61,36 @@ public class Constants {
 	 * ID for closing connections.
 	 */
 	public static final int ID_CLOSE = 1;
+	/**
+	 * ID for request envelopes, carrying a correlation id and the request packet.
+	 */
+	public static final int ID_REQUEST = RESERVED_ID_START;
+	/**
+	 * ID for response envelopes, carrying the correlation id of the request and the response packet.
+	 */
+	public static final int ID_RESPONSE = RESERVED_ID_START + 1;
+	/**
+	 * ID for negotiating the compression codec of a connection.
+	 */
+	public static final int ID_COMPRESSION = RESERVED_ID_START + 2;
+	/**
+	 * ID for file transfers, whose content is streamed between the channel and disk.
+	 */
+	public static final int ID_FILE = RESERVED_ID_START + 3;
+	/**
+	 * ID for opening a chunked stream, carrying the stream id and a packet describing the stream.
+	 */
+	public static final int ID_STREAM_OPEN = RESERVED_ID_START + 4;
+	/**
+	 * ID for chunks of stream content.
+	 */
+	public static final int ID_STREAM_CHUNK = RESERVED_ID_START + 5;
+	/**
+	 * ID for granting a stream's sender credit to send more chunks.
+	 */
+	public static final int ID_STREAM_CREDIT = RESERVED_ID_START + 6;
+	/**
+	 * ID for negotiating the protocol version and features of a connection.
+	 */
+	public static final int ID_HANDSHAKE = RESERVED_ID_START + 7;
 }
@@ -0,0 +1,32 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.impl.FilePacket;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Decides where the content of incoming {@link FilePacket}s is written.
+ *
+ * @author Matt Coley
+ */
+@FunctionalInterface
+public interface FileReceiver {
+	/**
+	 * Called on the reading thread when a file packet starts arriving, before any of its content is read.
+	 * The content is written at the packet's {@link FilePacket#getPosition() position} in the file,
+	 * so the segments of a large file can all be received to the same path.
+	 *
+	 * @param connection
+	 * 		Connection the file is arriving on.
+	 * @param packet
+	 * 		Packet with the file name, region and total size. Its content has not been read yet.
+	 *
+	 * @return File to write the content to, created if it does not exist.
+	 * Or {@code null} to discard the content.
+	 *
+	 * @throws IOException
+	 * 		When the location cannot be determined. The content is discarded.
+	 */
+	Path resolve(Connection connection, FilePacket packet) throws IOException;
+}
@@ -0,0 +1,111 @@
+package me.coley.pchannels;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy for when packets queued on a {@link Connection} are flushed to the underlying channel.
+ *
+ * @author Matt Coley
+ */
+public final class FlushPolicy {
+	private static final FlushPolicy IMMEDIATE = new FlushPolicy(0, -1);
+	private static final FlushPolicy EXPLICIT = new FlushPolicy(Integer.MAX_VALUE, -1);
+	private final int thresholdBytes;
+	private final long delayNanos;
+
+	private FlushPolicy(int thresholdBytes, long delayNanos) {
+		this.thresholdBytes = thresholdBytes;
+		this.delayNanos = delayNanos;
+	}
+
+	/**
+	 * @return Policy that flushes after every write. This is the default.
+	 */
+	public static FlushPolicy immediate() {
+		return IMMEDIATE;
+	}
+
+	/**
+	 * @return Policy that only flushes when {@link Connection#flush()} is called.
+	 */
+	public static FlushPolicy explicit() {
+		return EXPLICIT;
+	}
+
+	/**
+	 * @param bytes
+	 * 		Number of queued bytes that triggers a flush.
+	 *
+	 * @return Policy that flushes once enough data is queued.
+	 */
+	public static FlushPolicy threshold(int bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("Threshold cannot be negative: " + bytes);
+		}
+		return new FlushPolicy(bytes, -1);
+	}
+
+	/**
+	 * @param delay
+	 * 		Maximum time data can be queued before being flushed.
+	 * @param unit
+	 * 		Unit of the delay.
+	 *
+	 * @return Policy that flushes queued data after a delay.
+	 */
+	public static FlushPolicy interval(long delay, TimeUnit unit) {
+		return thresholdOrInterval(Integer.MAX_VALUE, delay, unit);
+	}
+
+	/**
+	 * @param bytes
+	 * 		Number of queued bytes that triggers a flush.
+	 * @param delay
+	 * 		Maximum time data can be queued before being flushed.
+	 * @param unit
+	 * 		Unit of the delay.
+	 *
+	 * @return Policy that flushes once enough data is queued, or after a delay, whichever comes first.
+	 */
+	public static FlushPolicy thresholdOrInterval(int bytes, long delay, TimeUnit unit) {
+		if (bytes < 0 || delay < 0) {
+			throw new IllegalArgumentException("Threshold and delay cannot be negative");
+		}
+		return new FlushPolicy(bytes, unit.toNanos(delay));
+	}
+
+	/**
+	 * @param pendingBytes
+	 * 		Number of bytes currently queued.
+	 *
+	 * @return {@code true} when the queue should be flushed now.
+	 */
+	public boolean shouldFlush(int pendingBytes) {
+		return pendingBytes > 0 && pendingBytes >= thresholdBytes;
+	}
+
+	/**
+	 * @return {@code true} when queued data is flushed after a {@link #getDelayNanos() delay}.
+	 */
+	public boolean isTimed() {
+		return delayNanos >= 0;
+	}
+
+	/**
+	 * @return Maximum time in nanoseconds data can be queued before being flushed.
+	 * {@code -1} when the policy is not timed.
+	 */
+	public long getDelayNanos() {
+		return delayNanos;
+	}
+
+	@Override
+	public String toString() {
+		if (this == IMMEDIATE) {
+			return "FlushPolicy[immediate]";
+		} else if (this == EXPLICIT) {
+			return "FlushPolicy[explicit]";
+		}
+		return "FlushPolicy[threshold=" + thresholdBytes + ", delayNanos=" + delayNanos + "]";
+	}
+}
@@ -0,0 +1,292 @@
+package me.coley.pchannels;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timer for large numbers of coarse timeouts, such as one or more per connection.
+ * <br>
+ * Timeouts are hashed into a fixed size wheel of buckets by their deadline. A single thread advances one bucket
+ * every tick, running the timeouts that are due in it. Scheduling and cancelling are thus {@code O(1)} regardless of
+ * how many timeouts are pending, unlike a {@link java.util.concurrent.ScheduledExecutorService} which keeps them
+ * sorted. In exchange timeouts run up to one tick late, so the tick duration should be well below the delays
+ * scheduled.
+ * <br>
+ * Tasks run on the timer thread and must not block, anything slow should be handed off to another executor.
+ * The thread is started on the first scheduled timeout.
+ *
+ * @author Matt Coley
+ */
+public class HashedWheelTimer implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+	private static final AtomicInteger NEXT_ID = new AtomicInteger();
+	private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long tickNanos;
+	private final Thread worker;
+	private volatile boolean started;
+	private volatile boolean closed;
+	private volatile long startTime;
+	// Only accessed by the worker
+	private long tick;
+
+	/**
+	 * New timer with a tick of 10 milliseconds and 512 buckets.
+	 */
+	public HashedWheelTimer() {
+		this(10, TimeUnit.MILLISECONDS, 512);
+	}
+
+	/**
+	 * @param tickDuration
+	 * 		Time between ticks, which is the precision of timeouts.
+	 * @param unit
+	 * 		Unit of the tick duration.
+	 * @param ticksPerWheel
+	 * 		Number of buckets in the wheel. Rounded up to a power of two.
+	 * 		Timeouts further away than one rotation are kept in their bucket for multiple rotations.
+	 */
+	public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("Tick duration must be positive: " + tickDuration);
+		}
+		if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+			throw new IllegalArgumentException("Ticks per wheel must be in 1..2^30: " + ticksPerWheel);
+		}
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.worker = Threads.daemon("pchannels-timer-" + NEXT_ID.incrementAndGet(), this::run);
+	}
+
+	/**
+	 * @param task
+	 * 		Task to run once the delay has passed. Runs on the timer thread, so it must not block.
+	 * @param delay
+	 * 		Delay before running the task.
+	 * @param unit
+	 * 		Unit of the delay.
+	 *
+	 * @return Handle to cancel the timeout with.
+	 *
+	 * @throws IllegalStateException
+	 * 		When the timer is closed.
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		if (task == null) {
+			throw new IllegalArgumentException("Task cannot be null");
+		}
+		if (closed) {
+			throw new IllegalStateException("Timer is closed");
+		}
+		start();
+		long deadline = System.nanoTime() + Math.max(0, unit.toNanos(delay)) - startTime;
+		Timeout timeout = new Timeout(this, task, deadline);
+		pendingCount.incrementAndGet();
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * @return Number of timeouts that have been scheduled, but have neither run nor been cancelled.
+	 */
+	public int getPendingCount() {
+		return pendingCount.get();
+	}
+
+	/**
+	 * Stops the timer thread. Timeouts that have not run yet never will.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		worker.interrupt();
+	}
+
+	private void start() {
+		if (!started) {
+			synchronized (this) {
+				if (!started) {
+					startTime = System.nanoTime();
+					started = true;
+					worker.start();
+				}
+			}
+		}
+	}
+
+	private void run() {
+		while (!closed) {
+			long deadline = tickNanos * (tick + 1);
+			long sleep = startTime + deadline - System.nanoTime();
+			if (sleep > 0) {
+				LockSupport.parkNanos(this, sleep);
+				continue;
+			}
+			removeCancelled();
+			transferPending();
+			wheel[(int) (tick & mask)].expire(deadline);
+			tick++;
+		}
+	}
+
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	private void transferPending() {
+		// Bound the work per tick, so a flood of new timeouts cannot delay expiring the current bucket indefinitely
+		for (int i = 0; i < 100_000; i++) {
+			Timeout timeout = pendingTimeouts.poll();
+			if (timeout == null) {
+				break;
+			} else if (timeout.state.get() == Timeout.CANCELLED) {
+				continue;
+			}
+			long dueTick = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (dueTick - tick) / wheel.length;
+			// Timeouts already due go in the current bucket
+			wheel[(int) (Math.max(dueTick, tick) & mask)].add(timeout);
+		}
+	}
+
+	/**
+	 * Handle to a scheduled task.
+	 */
+	public static final class Timeout {
+		private static final int WAITING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		private final HashedWheelTimer timer;
+		private final Runnable task;
+		private final long deadline;
+		// Only accessed by the worker
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout next;
+		private Timeout prev;
+
+		private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * @return {@code true} when the timeout was cancelled before it ran.
+		 * {@code false} when it had already run or been cancelled.
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(WAITING, CANCELLED)) {
+				return false;
+			}
+			timer.pendingCount.decrementAndGet();
+			// Removed from its bucket on the next tick, rather than waiting for the bucket to come around
+			timer.cancelledTimeouts.add(this);
+			return true;
+		}
+
+		/**
+		 * @return {@code true} when the timeout was cancelled.
+		 */
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		/**
+		 * @return {@code true} when the task has run, or is running.
+		 */
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(WAITING, EXPIRED)) {
+				return;
+			}
+			timer.pendingCount.decrementAndGet();
+			try {
+				task.run();
+			} catch (Throwable t) {
+				logger.error("Timer task failed: {}", task, t);
+			}
+		}
+	}
+
+	/**
+	 * Doubly linked list of the timeouts hashed to one slot of the wheel. Only accessed by the worker.
+	 */
+	private static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		private void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		private void expire(long deadline) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+					remove(timeout);
+					timeout.expire();
+				} else if (timeout.isCancelled()) {
+					remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		private void remove(Timeout timeout) {
+			if (timeout.bucket != this) {
+				return;
+			}
+			if (timeout.prev != null) {
+				timeout.prev.next = timeout.next;
+			} else {
+				head = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			} else {
+				tail = timeout.prev;
+			}
+			timeout.next = null;
+			timeout.prev = null;
+			timeout.bucket = null;
+		}
+	}
+}
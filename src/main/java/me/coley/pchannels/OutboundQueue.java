@@ -0,0 +1,790 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.buffer.BufferAllocator;
+import me.coley.pchannels.nio.EventLoop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of encoded frames waiting to be written to a {@link Connection}'s channel.
+ * <br>
+ * Two locks are used so that producers are never blocked by a slow channel. The queue lock guards the queue
+ * state and is only held briefly. The channel lock is held by whichever thread is writing to the channel.
+ * Blocking {@link #write(ByteBuffer) writes} take the channel lock themselves, while
+ * {@link #writeAsync(ByteBuffer) asynchronous writes} leave the writing to the connection's event loop,
+ * or to a background writer for blocking channels.
+ * <br>
+ * Once the queued bytes reach the high watermark the queue is no longer {@link #isWritable() writable}
+ * until they drop to the low watermark, so that producers can throttle themselves.
+ * Producers that do not are held to the maximum pending bytes. Asynchronous writes past it fail right away,
+ * while blocking writes first flush and wait for the queue to drain to the low watermark.
+ * <br>
+ * {@link #transferFile(ByteBuffer, FileChannel, long, long) File regions} are queued between the frames around them,
+ * and written from disk by whichever thread drains the queue when their turn comes.
+ *
+ * @author Matt Coley
+ */
+final class OutboundQueue {
+	private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+	private static final Executor WRITER = Threads.pool();
+	private static final int MAX_GATHER = 1024;
+	private final ReentrantLock queueLock = new ReentrantLock();
+	private final ReentrantLock channelLock = new ReentrantLock();
+	private final Condition drained = queueLock.newCondition();
+	private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+	private final ArrayDeque<FileRegion> files = new ArrayDeque<>();
+	private final ArrayDeque<PendingWrite> pendingFutures = new ArrayDeque<>();
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+	private final ArrayDeque<CompletableFuture<Void>> completed = new ArrayDeque<>();
+	private final Connection owner;
+	private final Channel channel;
+	private final ByteChannel byteChannel;
+	private final BufferAllocator allocator;
+	private final int lowWatermark;
+	private final int highWatermark;
+	private final int maxPendingBytes;
+	private volatile FlushPolicy flushPolicy;
+	private volatile Runnable writeInterest;
+	private volatile boolean writable = true;
+	private volatile int pendingBytes;
+	private long enqueuedTotal;
+	private long writtenTotal;
+	private boolean flushScheduled;
+	private boolean draining;
+	private boolean closed;
+
+	/**
+	 * @param owner
+	 * 		Connection the queue belongs to.
+	 * @param channel
+	 * 		Channel to write to. Frames are never queued to a {@link me.coley.pchannels.transport.PacketChannel},
+	 * 		which the queue only closes.
+	 * @param allocator
+	 * 		Allocator to release written frames to.
+	 * @param config
+	 * 		Connection options.
+	 */
+	OutboundQueue(Connection owner, Channel channel, BufferAllocator allocator, ConnectionConfig config) {
+		this.owner = owner;
+		this.channel = channel;
+		this.byteChannel = channel instanceof ByteChannel ? (ByteChannel) channel : null;
+		this.allocator = allocator;
+		this.flushPolicy = config.getFlushPolicy();
+		this.lowWatermark = config.getLowWatermark();
+		this.highWatermark = config.getHighWatermark();
+		this.maxPendingBytes = config.getMaxPendingBytes();
+	}
+
+	/**
+	 * Queues the frame, flushing if the {@link #getFlushPolicy() flush policy} calls for it.
+	 *
+	 * @param frame
+	 * 		Encoded frame to write. Released if it cannot be queued.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be written to, or the queue is full and cannot be waited on.
+	 * @see #awaitCapacity(long)
+	 */
+	void write(ByteBuffer frame) throws IOException {
+		try {
+			awaitCapacity(frame.remaining());
+		} catch (IOException ex) {
+			allocator.release(frame);
+			throw ex;
+		}
+		boolean changed;
+		queueLock.lock();
+		try {
+			changed = enqueue(frame);
+		} finally {
+			queueLock.unlock();
+		}
+		onEnqueued(changed);
+	}
+
+	/**
+	 * Queues all the frames, then checks the {@link #getFlushPolicy() flush policy} once.
+	 *
+	 * @param frames
+	 * 		Encoded frames to write. Released if they cannot be queued.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be written to, or the queue is full and cannot be waited on.
+	 * @see #awaitCapacity(long)
+	 */
+	void writeAll(List<ByteBuffer> frames) throws IOException {
+		long size = 0;
+		for (ByteBuffer frame : frames) {
+			size += frame.remaining();
+		}
+		try {
+			awaitCapacity(size);
+		} catch (IOException ex) {
+			for (ByteBuffer frame : frames) {
+				allocator.release(frame);
+			}
+			throw ex;
+		}
+		boolean changed = false;
+		queueLock.lock();
+		try {
+			for (ByteBuffer frame : frames) {
+				changed |= enqueue(frame);
+			}
+		} finally {
+			queueLock.unlock();
+		}
+		onEnqueued(changed);
+	}
+
+	/**
+	 * Queues the frame and returns without waiting for it to be written.
+	 *
+	 * @param frame
+	 * 		Encoded frame to write.
+	 *
+	 * @return Future completing once the frame is fully written to the channel.
+	 */
+	CompletableFuture<Void> writeAsync(ByteBuffer frame) {
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		boolean changed;
+		boolean schedule;
+		queueLock.lock();
+		try {
+			if (closed) {
+				allocator.release(frame);
+				future.completeExceptionally(new ClosedChannelException());
+				return future;
+			} else if (isFull(frame.remaining())) {
+				allocator.release(frame);
+				future.completeExceptionally(full());
+				return future;
+			}
+			changed = enqueue(frame);
+			pendingFutures.addLast(new PendingWrite(enqueuedTotal, future));
+			schedule = !draining;
+			draining = true;
+		} finally {
+			queueLock.unlock();
+		}
+		if (changed) {
+			owner.onWritabilityChanged();
+		}
+		if (schedule) {
+			scheduleDrain();
+		}
+		return future;
+	}
+
+	/**
+	 * Writes all queued frames, blocking until done.
+	 * Channels of an event loop are not waited on, what they do not accept right away
+	 * is written by the loop once the channel is writable.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be written to.
+	 */
+	void flush() throws IOException {
+		queueLock.lock();
+		try {
+			flushScheduled = false;
+		} finally {
+			queueLock.unlock();
+		}
+		boolean empty;
+		channelLock.lock();
+		try {
+			empty = drainOrFail(writeInterest == null);
+		} finally {
+			channelLock.unlock();
+		}
+		if (!empty) {
+			requestWrite();
+		}
+	}
+
+	/**
+	 * Writes raw data after all queued frames.
+	 *
+	 * @param src
+	 * 		Buffer to write.
+	 *
+	 * @return Number of bytes from the given buffer written.
+	 * Zero for channels of an event loop while queued frames remain, which the loop then writes.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be written to.
+	 */
+	int writeRaw(ByteBuffer src) throws IOException {
+		boolean empty;
+		channelLock.lock();
+		try {
+			empty = drainOrFail(writeInterest == null);
+			if (empty) {
+				return byteChannel.write(src);
+			}
+		} finally {
+			channelLock.unlock();
+		}
+		requestWrite();
+		return 0;
+	}
+
+	/**
+	 * Queues the frame header and the file region after all queued frames, then {@link #flush() flushes}.
+	 * The region is written straight from disk once the frames before it are written.
+	 * Blocking channels are written on the calling thread until done. Channels of an event loop are not waited on,
+	 * what they do not accept right away is written by the loop once the channel is writable.
+	 *
+	 * @param header
+	 * 		Frame header and any body preceding the file content. Released once written.
+	 * @param file
+	 * 		File to transfer from. Closed once the region is written, or the queue fails.
+	 * @param position
+	 * 		Position of the region in the file.
+	 * @param count
+	 * 		Size of the region.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be written to, or the file cannot be read.
+	 * 		The channel is closed if the failure happens part way through the frame.
+	 */
+	void transferFile(ByteBuffer header, FileChannel file, long position, long count) throws IOException {
+		boolean changed;
+		queueLock.lock();
+		try {
+			if (closed) {
+				throw new ClosedChannelException();
+			} else if (file.size() < position + count) {
+				throw new EOFException("File is smaller than the region to transfer, size " + file.size() +
+						" < " + (position + count));
+			}
+			changed = enqueue(header);
+			files.addLast(new FileRegion(file, position, count, enqueuedTotal));
+			enqueuedTotal += count;
+		} catch (IOException ex) {
+			allocator.release(header);
+			file.close();
+			throw ex;
+		} finally {
+			queueLock.unlock();
+		}
+		if (changed) {
+			owner.onWritabilityChanged();
+		}
+		flush();
+	}
+
+	/**
+	 * Writes as much as the non-blocking channel currently accepts.
+	 *
+	 * @return {@code true} when frames remain queued, and the caller should call again once the channel is writable.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be written to.
+	 */
+	boolean onWritable() throws IOException {
+		if (!channelLock.tryLock()) {
+			// Another thread is writing, check back later in case it finished before new frames were queued
+			return true;
+		}
+		try {
+			return !drainOrFail(false);
+		} finally {
+			channelLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes any queued frames, then closes the channel.
+	 * Frames still queued after that are released, and their futures failed.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be closed.
+	 */
+	void close() throws IOException {
+		queueLock.lock();
+		try {
+			closed = true;
+			drained.signalAll();
+		} finally {
+			queueLock.unlock();
+		}
+		// Only flush if no other thread is stuck writing to a slow channel, closing will unblock it instead
+		boolean locked = channelLock.tryLock();
+		try {
+			if (locked && channel.isOpen()) {
+				// Do not spin on a non-blocking channel that an unresponsive peer has stopped reading from
+				drain(writeInterest == null);
+			}
+		} catch (IOException ex) {
+			logger.debug("Could not flush queued packets before closing: {}", owner, ex);
+		} finally {
+			try {
+				channel.close();
+			} finally {
+				if (!locked) {
+					channelLock.lock();
+				}
+				try {
+					fail(new ClosedChannelException());
+				} finally {
+					channelLock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param writeInterest
+	 * 		Action asking the connection's event loop to call {@link #onWritable()} once the channel is writable.
+	 */
+	void setWriteInterest(Runnable writeInterest) {
+		this.writeInterest = writeInterest;
+	}
+
+	/**
+	 * @return {@code true} while the queued bytes are below the high watermark,
+	 * or since dropping back to the low watermark.
+	 */
+	boolean isWritable() {
+		return writable;
+	}
+
+	/**
+	 * @return Number of encoded bytes queued, waiting to be written.
+	 */
+	int getPendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * @return Policy for when queued frames are flushed.
+	 */
+	FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+
+	/**
+	 * @param flushPolicy
+	 * 		Policy for when queued frames are flushed.
+	 */
+	void setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy;
+	}
+
+	/**
+	 * Makes room for a blocking write that would take the queue past the maximum pending bytes.
+	 * The queue is flushed, which for blocking channels writes it on the calling thread.
+	 * Otherwise the caller waits for the event loop to drain the queue to the low watermark,
+	 * unless it is an event loop thread, which must not wait.
+	 *
+	 * @param size
+	 * 		Number of bytes about to be queued.
+	 *
+	 * @throws IOException
+	 * 		When the queue is full and the caller is an event loop thread, the wait is interrupted,
+	 * 		the queue closes while waiting, or flushing fails.
+	 */
+	private void awaitCapacity(long size) throws IOException {
+		if (!isFull(size)) {
+			return;
+		}
+		flush();
+		if (writeInterest == null || !isFull(size)) {
+			return;
+		} else if (EventLoop.inEventLoop()) {
+			throw full();
+		}
+		queueLock.lock();
+		try {
+			while (!closed && pendingBytes > lowWatermark) {
+				drained.await();
+			}
+			if (closed) {
+				throw new ClosedChannelException();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the outbound queue to drain: " + owner);
+		} finally {
+			queueLock.unlock();
+		}
+	}
+
+	/**
+	 * @param size
+	 * 		Number of bytes about to be queued.
+	 *
+	 * @return {@code true} when queueing them would exceed the maximum pending bytes.
+	 * An empty queue always takes the bytes, so that frames larger than the maximum can still be sent.
+	 */
+	private boolean isFull(long size) {
+		int pending = pendingBytes;
+		return pending > 0 && pending + size > maxPendingBytes;
+	}
+
+	private IOException full() {
+		return new IOException("Outbound queue full, " + pendingBytes + " bytes pending: " + owner);
+	}
+
+	/**
+	 * Must be called while holding the queue lock.
+	 *
+	 * @return {@code true} when the queue stopped being writable.
+	 */
+	private boolean enqueue(ByteBuffer frame) {
+		int size = frame.remaining();
+		frames.addLast(frame);
+		enqueuedTotal += size;
+		pendingBytes += size;
+		if (writable && pendingBytes >= highWatermark) {
+			writable = false;
+			return true;
+		}
+		return false;
+	}
+
+	private void onEnqueued(boolean changed) throws IOException {
+		if (changed) {
+			owner.onWritabilityChanged();
+		}
+		FlushPolicy policy = flushPolicy;
+		if (policy.shouldFlush(pendingBytes)) {
+			flush();
+		} else if (policy.isTimed()) {
+			boolean schedule;
+			queueLock.lock();
+			try {
+				schedule = !flushScheduled;
+				flushScheduled = true;
+			} finally {
+				queueLock.unlock();
+			}
+			if (schedule) {
+				Threads.scheduler().schedule(this::scheduledFlush, policy.getDelayNanos(), TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	private void scheduledFlush() {
+		try {
+			if (channel.isOpen()) {
+				flush();
+			}
+		} catch (IOException ex) {
+			logger.error("Failed scheduled flush: {}", owner, ex);
+		}
+	}
+
+	private void scheduleDrain() {
+		Runnable interest = writeInterest;
+		if (interest == null) {
+			WRITER.execute(this::backgroundDrain);
+			return;
+		}
+		// Write what the channel accepts right away, the event loop writes the rest once the channel is writable
+		if (channelLock.tryLock()) {
+			try {
+				if (drain(false)) {
+					return;
+				}
+			} catch (IOException ex) {
+				onDrainFailed(ex);
+				return;
+			} finally {
+				channelLock.unlock();
+			}
+		}
+		interest.run();
+	}
+
+	/**
+	 * Leaves the rest of the queue to the event loop, to be written once the channel is writable.
+	 */
+	private void requestWrite() {
+		queueLock.lock();
+		try {
+			draining = true;
+		} finally {
+			queueLock.unlock();
+		}
+		writeInterest.run();
+	}
+
+	private void backgroundDrain() {
+		channelLock.lock();
+		try {
+			drain(true);
+		} catch (IOException ex) {
+			onDrainFailed(ex);
+		} finally {
+			channelLock.unlock();
+		}
+	}
+
+	private void onDrainFailed(IOException ex) {
+		logger.debug("Failed writing queued packets: {}", owner, ex);
+		fail(ex);
+		try {
+			owner.close();
+		} catch (IOException closeEx) {
+			logger.debug("Could not close connection: {}", owner, closeEx);
+		}
+	}
+
+	/**
+	 * Must be called while holding the channel lock.
+	 */
+	private boolean drainOrFail(boolean block) throws IOException {
+		try {
+			return drain(block);
+		} catch (IOException ex) {
+			fail(ex);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Must be called while holding the channel lock.
+	 *
+	 * @param block
+	 * 		{@code true} to keep writing until the queue is empty. Only for blocking channels,
+	 * 		as on a non-blocking channel this spins for as long as the peer is not reading.
+	 * 		{@code false} to stop once the channel accepts no more data.
+	 *
+	 * @return {@code true} when the queue is empty.
+	 */
+	private boolean drain(boolean block) throws IOException {
+		while (true) {
+			int count = 0;
+			FileRegion file = null;
+			queueLock.lock();
+			try {
+				FileRegion nextFile = files.peekFirst();
+				// Bytes of the frames ahead of the next file region, which is written once they are.
+				// Negative once part of the region is written.
+				long before = nextFile == null ? Long.MAX_VALUE : nextFile.start - writtenTotal;
+				if (before <= 0) {
+					file = nextFile;
+				} else if (frames.isEmpty()) {
+					draining = false;
+					return true;
+				} else {
+					for (ByteBuffer frame : frames) {
+						gather[count++] = frame;
+						before -= frame.remaining();
+						if (count == MAX_GATHER || before <= 0) {
+							break;
+						}
+					}
+				}
+			} finally {
+				queueLock.unlock();
+			}
+			long written;
+			if (file != null) {
+				try {
+					written = file.transferTo(byteChannel);
+				} catch (IOException ex) {
+					// The frame is incomplete, nothing further can be written
+					try {
+						channel.close();
+					} catch (IOException closeEx) {
+						ex.addSuppressed(closeEx);
+					}
+					throw ex;
+				}
+			} else {
+				try {
+					if (count > 1 && byteChannel instanceof GatheringByteChannel) {
+						written = ((GatheringByteChannel) byteChannel).write(gather, 0, count);
+					} else {
+						written = byteChannel.write(gather[0]);
+					}
+				} finally {
+					Arrays.fill(gather, 0, count, null);
+				}
+			}
+			if (written > 0) {
+				onWritten(written, file);
+			} else if (!block) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Must be called while holding the channel lock.
+	 *
+	 * @param written
+	 * 		Number of bytes written.
+	 * @param file
+	 * 		File region the bytes were written from, or {@code null} when they were from queued frames.
+	 */
+	private void onWritten(long written, FileRegion file) {
+		boolean changed = false;
+		FileRegion done = null;
+		queueLock.lock();
+		try {
+			writtenTotal += written;
+			if (file == null) {
+				pendingBytes -= (int) written;
+				ByteBuffer first;
+				while ((first = frames.peekFirst()) != null && !first.hasRemaining()) {
+					allocator.release(frames.pollFirst());
+				}
+			} else if (file.remaining == 0) {
+				done = files.pollFirst();
+			}
+			PendingWrite pending;
+			while ((pending = pendingFutures.peekFirst()) != null && pending.end <= writtenTotal) {
+				completed.add(pendingFutures.pollFirst().future);
+			}
+			if (pendingBytes <= lowWatermark) {
+				drained.signalAll();
+				if (!writable) {
+					writable = true;
+					changed = true;
+				}
+			}
+		} finally {
+			queueLock.unlock();
+		}
+		if (done != null) {
+			close(done);
+		}
+		completeAll(null);
+		if (changed) {
+			owner.onWritabilityChanged();
+		}
+	}
+
+	/**
+	 * Must be called while holding the channel lock.
+	 */
+	private void fail(Throwable cause) {
+		boolean changed;
+		List<FileRegion> failedFiles;
+		queueLock.lock();
+		try {
+			ByteBuffer frame;
+			while ((frame = frames.pollFirst()) != null) {
+				allocator.release(frame);
+			}
+			failedFiles = new ArrayList<>(files);
+			files.clear();
+			PendingWrite pending;
+			while ((pending = pendingFutures.pollFirst()) != null) {
+				completed.add(pending.future);
+			}
+			writtenTotal = enqueuedTotal;
+			pendingBytes = 0;
+			draining = false;
+			drained.signalAll();
+			changed = !writable;
+			writable = true;
+		} finally {
+			queueLock.unlock();
+		}
+		for (FileRegion file : failedFiles) {
+			close(file);
+		}
+		completeAll(cause);
+		if (changed) {
+			owner.onWritabilityChanged();
+		}
+	}
+
+	private void close(FileRegion region) {
+		try {
+			region.file.close();
+		} catch (IOException ex) {
+			logger.debug("Could not close transferred file: {}", owner, ex);
+		}
+	}
+
+	/**
+	 * Completes futures outside the queue lock, as dependent actions run on this thread.
+	 * Dependent actions may write again, adding to the completed futures while they are being completed.
+	 */
+	private void completeAll(Throwable cause) {
+		CompletableFuture<Void> future;
+		while ((future = completed.pollFirst()) != null) {
+			if (cause == null) {
+				future.complete(null);
+			} else {
+				future.completeExceptionally(cause);
+			}
+		}
+	}
+
+	/**
+	 * Region of a file queued for transfer, along with the total number of bytes written once it is reached.
+	 */
+	private static final class FileRegion {
+		private final FileChannel file;
+		private final long start;
+		private long position;
+		private long remaining;
+
+		private FileRegion(FileChannel file, long position, long count, long start) {
+			this.file = file;
+			this.position = position;
+			this.remaining = count;
+			this.start = start;
+		}
+
+		/**
+		 * @param channel
+		 * 		Channel to write to.
+		 *
+		 * @return Number of bytes written, zero when a non-blocking channel is full.
+		 *
+		 * @throws IOException
+		 * 		When the channel cannot be written to, or the file ended before the region did.
+		 */
+		private long transferTo(ByteChannel channel) throws IOException {
+			long written = file.transferTo(position, remaining, channel);
+			if (written > 0) {
+				position += written;
+				remaining -= written;
+			} else if (file.size() <= position) {
+				throw new EOFException("File truncated during transfer at " + position);
+			}
+			return written;
+		}
+	}
+
+	/**
+	 * Future of an asynchronous write, along with the total number of bytes written once its frame is written.
+	 */
+	private static final class PendingWrite {
+		private final long end;
+		private final CompletableFuture<Void> future;
+
+		private PendingWrite(long end, CompletableFuture<Void> future) {
+			this.end = end;
+			this.future = future;
+		}
+	}
+}
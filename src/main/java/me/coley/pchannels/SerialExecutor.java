@@ -0,0 +1,73 @@
+package me.coley.pchannels;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Executor that runs tasks one at a time, in submission order, on a shared backing executor.
+ * Many serial executors can share one backing pool while each keeps its own strict ordering.
+ *
+ * @author Matt Coley
+ */
+public class SerialExecutor implements Executor {
+	private static final Logger logger = LoggerFactory.getLogger(SerialExecutor.class);
+	private static final int BATCH_SIZE = 64;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final Executor backing;
+
+	/**
+	 * @param backing
+	 * 		Executor to run tasks on.
+	 */
+	public SerialExecutor(Executor backing) {
+		this.backing = backing;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		schedule();
+	}
+
+	/**
+	 * @return {@code true} when there are no queued or running tasks.
+	 */
+	public boolean isIdle() {
+		return !scheduled.get() && tasks.isEmpty();
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			backing.execute(this::drain);
+		}
+	}
+
+	private void drain() {
+		try {
+			// Run a limited batch so one busy executor does not monopolize a backing thread
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Runnable task = tasks.poll();
+				if (task == null) {
+					break;
+				}
+				try {
+					task.run();
+				} catch (Throwable t) {
+					logger.error("Uncaught error in serial task", t);
+				}
+			}
+		} finally {
+			scheduled.set(false);
+			// Tasks may have been added after the last poll, but before the flag was cleared
+			if (!tasks.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+}
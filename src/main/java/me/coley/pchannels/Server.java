@@ -1,35 +1,70 @@
 package me.coley.pchannels;
 
+import me.coley.pchannels.buffer.BufferAllocator;
+import me.coley.pchannels.compression.CompressionCodec;
+import me.coley.pchannels.compression.CompressionCodecs;
+import me.coley.pchannels.metrics.PacketMetrics;
+import me.coley.pchannels.nio.EventLoop;
+import me.coley.pchannels.nio.EventLoopGroup;
+import me.coley.pchannels.packet.FrameFormat;
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.PacketFactory;
 import me.coley.pchannels.packet.PacketHandler;
 import me.coley.pchannels.packet.PacketHandlerDelegator;
 import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.packet.PacketLoopCondition;
+import me.coley.pchannels.packet.PacketRegistry;
+import me.coley.pchannels.transport.Acceptor;
+import me.coley.pchannels.transport.PacketChannel;
+import me.coley.pchannels.transport.SocketAcceptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 /**
  * A basic server setup using NIO {@link SocketChannel}s.
+ * Other transports can be used by providing an {@link Acceptor}.
  *
  * @author Matt Coley
  */
 public abstract class Server {
 	private static final Logger logger = LoggerFactory.getLogger(Server.class);
-	private final ExecutorService executorService = Threads.pool();
+	private ExecutorService executorService = Threads.pool();
 	private final Collection<SocketChannel> activeClients = new CopyOnWriteArraySet<>();
+	private final Collection<Connection> connections = new CopyOnWriteArraySet<>();
+	private final PacketRegistry registry = new PacketRegistry(PacketFactory.getRegistry());
 	private final PacketHandlerDelegator delegator = new PacketHandlerDelegator();
-	private final ServerSocketChannel socket;
+	private final ConnectionConfig connectionConfig = new ConnectionConfig();
+	private final Map<String, CompressionCodec> broadcastCodecs = new ConcurrentHashMap<>();
+	private final Acceptor acceptor;
+	private volatile SlowClientPolicy slowClientPolicy = SlowClientPolicy.QUEUE;
+	private PacketMetrics metrics = PacketMetrics.disabled();
+	private HashedWheelTimer timer = Threads.timer();
 	private volatile boolean accepting = true;
 	private Future<?> handlerThread;
+	private EventLoopGroup eventLoops;
+	private int eventLoopCount;
 
 	/**
 	 * @throws IOException
@@ -47,21 +82,49 @@ public abstract class Server {
 	 * 		When a {@link ServerSocketChannel} cannot be opened and bound to the  port.
 	 */
 	public Server(int port) throws IOException {
-		socket = ServerSocketChannel.open();
-		socket.bind(new InetSocketAddress(port));
+		this(SocketAcceptor.bind(new InetSocketAddress(port)));
+	}
+
+	/**
+	 * @param acceptor
+	 * 		Transport to accept client connections from.
+	 */
+	public Server(Acceptor acceptor) {
+		this.acceptor = acceptor;
 		setup(delegator);
 	}
 
 	/**
 	 * Start the server. To stop receiving new clients call {@link #close()}.
+	 * <br>
+	 * The calling thread becomes the acceptor for new client connections.
+	 * When the {@link #setEventLoopCount(int) event loop count} is positive, accepted clients are
+	 * handled in non-blocking mode by a group of {@link EventLoop}s. Otherwise each client occupies its own thread.
+	 * Channels that are not {@link SelectableChannel}s always occupy their own thread.
 	 *
 	 * @throws IOException
-	 * 		When {@link ServerSocketChannel#accept()} fails.
+	 * 		When {@link Acceptor#accept()} fails.
 	 */
 	public void start() throws IOException {
-		while (accepting) {
-			SocketChannel client = socket.accept();
-			executorService.submit(() -> handle(client));
+		metrics.publish("Server");
+		if (eventLoopCount > 0) {
+			eventLoops = new EventLoopGroup(eventLoopCount, delegator);
+			eventLoops.start();
+		}
+		try {
+			while (accepting) {
+				Channel client = acceptor.accept();
+				if (eventLoops != null && client instanceof SelectableChannel) {
+					register(client);
+				} else {
+					handle(client);
+				}
+			}
+		} catch (ClosedChannelException ex) {
+			// Closing the acceptor is how it is told to stop.
+			if (accepting) {
+				throw ex;
+			}
 		}
 	}
 
@@ -73,15 +136,249 @@ public abstract class Server {
 	 */
 	public void close() throws IOException {
 		// Stop the handling thread (stops reading new items)
-		handlerThread.cancel(true);
+		if (handlerThread != null) {
+			handlerThread.cancel(true);
+		}
 		// Notify all clients that the server is closing.
-		for (SocketChannel channel : activeClients) {
-			PacketIO.close(channel);
+		for (Connection connection : connections) {
+			PacketIO.close(connection);
 		}
 		// Stop receiving new clients
 		accepting = false;
+		acceptor.close();
 		// Kill all client threads
+		if (eventLoops != null) {
+			eventLoops.close();
+		}
 		executorService.shutdownNow();
+		metrics.unpublish();
+		for (CompressionCodec codec : broadcastCodecs.values()) {
+			synchronized (codec) {
+				codec.close();
+			}
+		}
+		broadcastCodecs.clear();
+	}
+
+	/**
+	 * Sends the packet to all connected clients.
+	 *
+	 * @param packet
+	 * 		Packet to send.
+	 *
+	 * @return Number of clients the packet was handed to.
+	 *
+	 * @throws IOException
+	 * 		When serializing the packet fails.
+	 *
+	 * @see #broadcast(Packet, Predicate)
+	 */
+	public int broadcast(Packet packet) throws IOException {
+		return broadcast(packet, null);
+	}
+
+	/**
+	 * Sends the packet to all connected clients matching the filter.
+	 * <br>
+	 * The packet is encoded once, and each client's connection is given a read-only duplicate of the frame,
+	 * converted once per {@link Connection#getFrameFormat() frame format} and compressed once per codec in use.
+	 * Frames are queued {@link Connection#writeAsync(Packet) asynchronously}, so the call never waits on a client's channel.
+	 * Clients that are not {@link Connection#isWritable() writable} are handled according to the
+	 * {@link #getSlowClientPolicy() slow client policy}.
+	 * <br>
+	 * A {@link me.coley.pchannels.packet.PooledPacket} is still owned by the caller, and can be released
+	 * once this returns.
+	 *
+	 * @param packet
+	 * 		Packet to send.
+	 * @param filter
+	 * 		Filter of connections to send to, or {@code null} for all connections.
+	 *
+	 * @return Number of clients the packet was handed to.
+	 *
+	 * @throws IOException
+	 * 		When serializing the packet fails, in which case it is not sent to any client.
+	 */
+	public int broadcast(Packet packet, Predicate<Connection> filter) throws IOException {
+		BufferAllocator allocator = PacketFactory.getAllocator();
+		SlowClientPolicy policy = slowClientPolicy;
+		// Encoded in the latest format, which fits any packet id, so serialization failures are found before sending
+		ByteBuffer frame = PacketFactory.write(packet, FrameFormat.LATEST, allocator);
+		int bodySize = FrameFormat.LATEST.readHeader(frame).getBodySize();
+		// Frame buffers are released once every connection given them is done writing them
+		List<ByteBuffer> owned = new ArrayList<>(2);
+		owned.add(frame);
+		AtomicInteger references = new AtomicInteger(1);
+		Runnable dereference = () -> {
+			if (references.decrementAndGet() == 0) {
+				for (ByteBuffer buffer : owned) {
+					allocator.release(buffer);
+				}
+			}
+		};
+		Map<FrameFormat, ByteBuffer> formatFrames = null;
+		Map<String, ByteBuffer> compressedFrames = null;
+		int count = 0;
+		try {
+			for (Connection connection : connections) {
+				if (filter != null && !filter.test(connection)) {
+					continue;
+				}
+				if (!connection.isWritable()) {
+					if (policy == SlowClientPolicy.DROP) {
+						logger.trace("Skipping broadcast to slow client: {}", connection);
+						continue;
+					} else if (policy == SlowClientPolicy.DISCONNECT) {
+						logger.debug("Disconnecting slow client: {}", connection);
+						// Closing may wait on the client's channel, which must not hold up the rest
+						executorService.execute(() -> {
+							try {
+								connection.close();
+							} catch (IOException ex) {
+								logger.debug("Could not close connection: {}", connection, ex);
+							}
+						});
+						continue;
+					}
+				}
+				CompletableFuture<Void> future;
+				if (connection.getChannel() instanceof PacketChannel) {
+					future = connection.writeAsync(packet);
+				} else {
+					FrameFormat format = connection.getFrameFormat();
+					ByteBuffer shared = frame;
+					if (format != FrameFormat.LATEST) {
+						if (formatFrames == null) {
+							formatFrames = new HashMap<>();
+						}
+						shared = formatFrames.get(format);
+						if (shared == null) {
+							try {
+								shared = convert(frame, format, allocator);
+							} catch (IOException ex) {
+								logger.debug("Broadcast cannot be encoded for client: {}", connection, ex);
+								continue;
+							}
+							formatFrames.put(format, shared);
+							owned.add(shared);
+						}
+					}
+					String codecName = connection.getCompressionCodec();
+					if (codecName != null && bodySize >= connectionConfig.getCompressionThreshold()) {
+						if (compressedFrames == null) {
+							compressedFrames = new HashMap<>();
+						}
+						String key = codecName + '/' + format;
+						ByteBuffer compressed = compressedFrames.get(key);
+						if (compressed == null) {
+							compressed = compress(shared, format, codecName, allocator);
+							compressedFrames.put(key, compressed);
+							if (compressed != shared) {
+								owned.add(compressed);
+							}
+						}
+						shared = compressed;
+					}
+					references.incrementAndGet();
+					future = connection.writeFrameAsync(shared.asReadOnlyBuffer(), format);
+					future.whenComplete((ignored, error) -> dereference.run());
+				}
+				future.whenComplete((ignored, error) -> {
+					if (error != null) {
+						logger.debug("Broadcast not written to client: {}", connection, error);
+					}
+				});
+				count++;
+			}
+		} finally {
+			dereference.run();
+		}
+		return count;
+	}
+
+	/**
+	 * @param frame
+	 * 		Encoded frame, in the {@link FrameFormat#LATEST latest format}. Not modified or released.
+	 * @param format
+	 * 		Format to convert to.
+	 * @param allocator
+	 * 		Allocator to provide the converted frame buffer.
+	 *
+	 * @return Converted frame.
+	 *
+	 * @throws IOException
+	 * 		When the packet id cannot be represented in the format.
+	 */
+	private static ByteBuffer convert(ByteBuffer frame, FrameFormat format, BufferAllocator allocator) throws IOException {
+		ByteBuffer converted = allocator.allocate(frame.remaining() + format.getMaxHeaderSize());
+		try {
+			format.convert(frame, FrameFormat.LATEST, converted);
+		} catch (IOException ex) {
+			allocator.release(converted);
+			throw ex;
+		}
+		converted.flip();
+		return converted;
+	}
+
+	/**
+	 * @param frame
+	 * 		Encoded frame to compress. Not modified or released.
+	 * @param format
+	 * 		Format of the frame.
+	 * @param codecName
+	 * 		Name of codec to compress with.
+	 * @param allocator
+	 * 		Allocator to provide the compressed frame buffer.
+	 *
+	 * @return Compressed frame, or the given frame when compression would not make it smaller.
+	 */
+	private ByteBuffer compress(ByteBuffer frame, FrameFormat format, String codecName, BufferAllocator allocator) {
+		CompressionCodec codec = broadcastCodecs.computeIfAbsent(codecName, CompressionCodecs::create);
+		synchronized (codec) {
+			// Read-only input is never released to the allocator, so the original frame stays valid
+			ByteBuffer compressed = PacketFactory.compress(frame.asReadOnlyBuffer(), format, codec, allocator);
+			return compressed.isReadOnly() ? frame : compressed;
+		}
+	}
+
+	/**
+	 * Register a client channel connection to the next event loop.
+	 *
+	 * @param channel
+	 * 		Client channel connection.
+	 */
+	private void register(Channel channel) {
+		SocketAddress address;
+		try {
+			address = Connection.remoteAddress(channel);
+			((SelectableChannel) channel).configureBlocking(false);
+		} catch (IOException ex) {
+			logger.error("Cannot prepare channel connection for event loop?", ex);
+			return;
+		}
+		logger.debug("Connected: {}", address);
+		Connection connection = new Connection(channel, address, connectionConfig, registry, metrics);
+		connection.setTimer(timer);
+		if (channel instanceof SocketChannel) {
+			activeClients.add((SocketChannel) channel);
+		}
+		connections.add(connection);
+		connection.addCloseListener(this::onDisconnect);
+		ConnectionWatchdog.watch(connection, connectionConfig, timer, executorService);
+		eventLoops.register(connection);
+	}
+
+	/**
+	 * Called when a client connection handled by an event loop is closed.
+	 *
+	 * @param connection
+	 * 		Closed client connection.
+	 */
+	private void onDisconnect(Connection connection) {
+		logger.debug("Disconnect: {}", connection.getAddress());
+		activeClients.remove(connection.getChannel());
+		connections.remove(connection);
 	}
 
 	/**
@@ -90,41 +387,191 @@ public abstract class Server {
 	 * @param channel
 	 * 		Client channel connection.
 	 */
-	private void handle(SocketChannel channel) {
+	private void handle(Channel channel) {
 		SocketAddress address;
 		try {
-			address = channel.getRemoteAddress();
+			address = Connection.remoteAddress(channel);
 		} catch (IOException ex) {
 			logger.error("Cannot get address from channel connection?", ex);
 			return;
 		}
+		Connection connection = new Connection(channel, address, connectionConfig, registry, metrics);
+		connection.setTimer(timer);
+		PacketLoopCondition condition = channel instanceof SocketChannel ?
+				((SocketChannel) channel)::isConnected : channel::isOpen;
 		handlerThread = executorService.submit(() -> {
 			logger.debug("Connected: {}", address);
-			activeClients.add(channel);
+			if (channel instanceof SocketChannel) {
+				activeClients.add((SocketChannel) channel);
+			}
+			connections.add(connection);
+			ConnectionWatchdog.watch(connection, connectionConfig, timer, executorService);
 			try {
-				PacketIO.handleLoop(channel, channel::isConnected, delegator);
+				PacketIO.handleLoop(connection, condition, delegator);
 			} catch (Throwable t) {
-				logger.error("Error: {}", address, t);
+				if (channel.isOpen()) {
+					logger.error("Error: {}", address, t);
+				} else {
+					// Closed by another thread, such as for a timeout
+					logger.debug("Closed while reading: {}", address, t);
+				}
 			}
 			logger.debug("Disconnect: {}", address);
 			activeClients.remove(channel);
+			connections.remove(connection);
+			// Like event loops, close once done reading, which also stops its timeouts
+			try {
+				connection.close();
+			} catch (IOException ex) {
+				logger.debug("Could not close connection: {}", address, ex);
+			}
 		});
 	}
 
 	/**
-	 * @return Server socket.
+	 * @return Server socket, or {@code null} if the server does not use a {@link SocketAcceptor}.
 	 */
 	public ServerSocketChannel getSocket() {
-		return socket;
+		return acceptor instanceof SocketAcceptor ? ((SocketAcceptor) acceptor).getSocket() : null;
 	}
 
 	/**
-	 * @return Channel connections to active {@link Client}s.
+	 * @return Transport client connections are accepted from.
+	 */
+	public Acceptor getAcceptor() {
+		return acceptor;
+	}
+
+	/**
+	 * @return Socket channel connections to active {@link Client}s.
+	 * Does not include connections of transports that are not socket based, see {@link #getConnections()}.
 	 */
 	public Collection<SocketChannel> getActiveClients() {
 		return activeClients;
 	}
 
+	/**
+	 * @return Connections to active {@link Client}s.
+	 */
+	public Collection<Connection> getConnections() {
+		return connections;
+	}
+
+	/**
+	 * @return Executor that connection handling tasks run on.
+	 */
+	public ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	/**
+	 * Must be set before {@link #start()} is called. The executor is shut down when the server is closed.
+	 * <br>
+	 * The default is a {@link Threads#pool() cached pool of platform threads}.
+	 * On Java 21+ {@link Threads#virtual()} can be used to run each connection on its own virtual thread.
+	 *
+	 * @param executorService
+	 * 		Executor that connection handling tasks run on.
+	 */
+	public void setExecutorService(ExecutorService executorService) {
+		if (executorService == null) {
+			throw new IllegalArgumentException("Executor cannot be null");
+		}
+		this.executorService = executorService;
+	}
+
+	/**
+	 * @return Options applied to new client connections.
+	 */
+	public ConnectionConfig getConnectionConfig() {
+		return connectionConfig;
+	}
+
+	/**
+	 * @return What {@link #broadcast(Packet) broadcasts} do with clients that have fallen behind reading.
+	 */
+	public SlowClientPolicy getSlowClientPolicy() {
+		return slowClientPolicy;
+	}
+
+	/**
+	 * @param slowClientPolicy
+	 * 		What {@link #broadcast(Packet) broadcasts} do with clients that have fallen behind reading.
+	 */
+	public void setSlowClientPolicy(SlowClientPolicy slowClientPolicy) {
+		if (slowClientPolicy == null) {
+			throw new IllegalArgumentException("Slow client policy cannot be null");
+		}
+		this.slowClientPolicy = slowClientPolicy;
+	}
+
+	/**
+	 * @return Traffic metrics of the server's connections.
+	 */
+	public PacketMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Must be set before {@link #start()} is called. Enabled metrics are published over JMX while the server runs.
+	 * The default is {@link PacketMetrics#disabled()}.
+	 *
+	 * @param metrics
+	 * 		Traffic metrics of the server's connections.
+	 */
+	public void setMetrics(PacketMetrics metrics) {
+		if (metrics == null) {
+			throw new IllegalArgumentException("Metrics cannot be null");
+		}
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return Timer checking the {@link ConnectionConfig#setHeartbeatIntervalMillis(long) heartbeats},
+	 * {@link ConnectionConfig#setIdleTimeoutMillis(long) timeouts} and request timeouts of the server's connections.
+	 */
+	public HashedWheelTimer getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Must be set before {@link #start()} is called. The timer is not closed with the server.
+	 * <br>
+	 * The default is the {@link Threads#timer() shared timer}.
+	 *
+	 * @param timer
+	 * 		Timer checking the {@link ConnectionConfig#setHeartbeatIntervalMillis(long) heartbeats},
+	 * 		{@link ConnectionConfig#setIdleTimeoutMillis(long) timeouts} and request timeouts of the server's connections.
+	 */
+	public void setTimer(HashedWheelTimer timer) {
+		if (timer == null) {
+			throw new IllegalArgumentException("Timer cannot be null");
+		}
+		this.timer = timer;
+	}
+
+	/**
+	 * @return Number of event loop threads to handle clients with.
+	 * {@code 0} when each client is handled on its own thread.
+	 */
+	public int getEventLoopCount() {
+		return eventLoopCount;
+	}
+
+	/**
+	 * Must be set before {@link #start()} is called.
+	 *
+	 * @param eventLoopCount
+	 * 		Number of event loop threads to handle clients with, in non-blocking mode.
+	 * 		Use {@code 0} to handle each client on its own thread.
+	 */
+	public void setEventLoopCount(int eventLoopCount) {
+		if (eventLoopCount < 0) {
+			throw new IllegalArgumentException("Event loop count cannot be negative: " + eventLoopCount);
+		}
+		this.eventLoopCount = eventLoopCount;
+	}
+
 	/**
 	 * @return {@code true} when the server is open to receiving new channel connections.
 	 */
@@ -132,6 +579,23 @@ public abstract class Server {
 		return accepting;
 	}
 
+	/**
+	 * Packets registered here are only known to this instance.
+	 * Packets registered via {@link PacketFactory#register(int, java.util.function.Supplier)} are known to all instances.
+	 *
+	 * @return Registry of packet types readable by this instance.
+	 */
+	public PacketRegistry getPacketRegistry() {
+		return registry;
+	}
+
+	/**
+	 * @return Delegator of {@link PacketHandler}s. Handlers can be registered at any time.
+	 */
+	public PacketHandlerDelegator getDelegator() {
+		return delegator;
+	}
+
 	/**
 	 * @param delegator
 	 * 		Delegator to register additional {@link PacketHandler}s with.
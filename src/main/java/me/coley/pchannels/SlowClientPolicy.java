@@ -0,0 +1,23 @@
+package me.coley.pchannels;
+
+/**
+ * What a {@link Server#broadcast(me.coley.pchannels.packet.Packet) broadcast} does with a client
+ * whose connection is not {@link Connection#isWritable() writable}, because it has fallen behind reading.
+ *
+ * @author Matt Coley
+ */
+public enum SlowClientPolicy {
+	/**
+	 * Skip the client for this broadcast. Appropriate for state updates where a later broadcast supersedes earlier ones.
+	 */
+	DROP,
+	/**
+	 * Queue the packet for the client anyway, up to the {@link ConnectionConfig#getMaxPendingBytes() maximum}
+	 * queue size. Packets beyond the maximum are dropped.
+	 */
+	QUEUE,
+	/**
+	 * Close the client's connection.
+	 */
+	DISCONNECT
+}
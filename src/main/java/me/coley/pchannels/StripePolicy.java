@@ -0,0 +1,18 @@
+package me.coley.pchannels;
+
+/**
+ * How a {@link StripedClient} picks the connection for each packet written without an affinity key.
+ *
+ * @author Matt Coley
+ */
+public enum StripePolicy {
+	/**
+	 * Take turns between connections. Cheapest, and even when packets are of similar size.
+	 */
+	ROUND_ROBIN,
+	/**
+	 * Use the connection with the fewest {@link Connection#getPendingBytes() pending bytes}, so that packets
+	 * are not queued behind a large one still being written. Ties are broken in turn, like {@link #ROUND_ROBIN}.
+	 */
+	LEAST_QUEUED
+}
@@ -0,0 +1,312 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.transport.Connector;
+import me.coley.pchannels.transport.SocketConnector;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client with several connections to the same {@link Server}, spreading outbound packets between them.
+ * <br>
+ * A single connection is read by a single thread, and a large packet holds up every packet queued behind it.
+ * Striping lets packets go out and be handled in parallel, at the cost of ordering: packets written to different
+ * connections may arrive in any order. Packets that must stay in order can be written with the same affinity key,
+ * which always maps to the same open connection.
+ * <br>
+ * Inbound packets from every connection go to one shared {@link PacketHandlerDelegator}.
+ * Handlers are given the connection the packet arrived on, so replies go back the same way.
+ * To the server, each connection is a separate client.
+ * <br>
+ * Connections that close, such as when evicted by the server, are not reopened. Packets are written to the
+ * remaining open connections instead, and writes only fail once every connection has closed.
+ *
+ * @author Matt Coley
+ */
+public abstract class StripedClient extends AbstractClient {
+	private final AtomicInteger next = new AtomicInteger();
+	private final int stripes;
+	private volatile List<Connection> connections = Collections.emptyList();
+	private StripePolicy stripePolicy = StripePolicy.ROUND_ROBIN;
+
+	/**
+	 * Client connections to a given address on the given port.
+	 *
+	 * @param address
+	 * 		Address of the remote {@link Server}.
+	 * @param port
+	 * 		Port that a {@link Server} is running on.
+	 * @param stripes
+	 * 		Number of connections to open.
+	 */
+	public StripedClient(InetAddress address, int port, int stripes) {
+		this(new SocketConnector(new InetSocketAddress(address, port)), stripes);
+	}
+
+	/**
+	 * Client connections using the given transport.
+	 *
+	 * @param connector
+	 * 		Transport to connect to a {@link Server} with. Connected once for each stripe.
+	 * @param stripes
+	 * 		Number of connections to open.
+	 */
+	public StripedClient(Connector connector, int stripes) {
+		super(connector);
+		if (stripes < 1) {
+			throw new IllegalArgumentException("Stripe count must be at least 1");
+		}
+		this.stripes = stripes;
+		setup(getDelegator());
+	}
+
+	/**
+	 * Opens every connection to the server, then waits for their handshakes as {@link Client#start()} does.
+	 * If any connection fails, those already opened are closed again.
+	 *
+	 * @throws IOException
+	 * 		When {@link Connector#connect()} fails, or a handshake fails or times out.
+	 */
+	public void start() throws IOException {
+		connections = open("StripedClient", stripes);
+	}
+
+	/**
+	 * Closes every connection and tells the server we're leaving.
+	 *
+	 * @throws IOException
+	 * 		When writing the closure packet fails, or when closing a channel fails.
+	 * 		Every connection is still closed, and the first failure is thrown.
+	 */
+	public void close() throws IOException {
+		close(connections);
+	}
+
+	/**
+	 * Writes the given packet to a connection chosen by the {@link #getStripePolicy() stripe policy}.
+	 * The packet may be queued according to the connection's {@link FlushPolicy}.
+	 *
+	 * @param packet
+	 * 		Packet to write to the server.
+	 *
+	 * @throws IOException
+	 * 		When the packet cannot be written.
+	 */
+	public void write(Packet packet) throws IOException {
+		nextConnection().write(packet);
+	}
+
+	/**
+	 * Writes the given packet to the connection of the given affinity key.
+	 * Packets written with equal keys are sent over the same connection, and so arrive in order.
+	 *
+	 * @param key
+	 * 		Affinity key, such as the id of the entity the packet is about.
+	 * @param packet
+	 * 		Packet to write to the server.
+	 *
+	 * @throws IOException
+	 * 		When the packet cannot be written.
+	 */
+	public void write(Object key, Packet packet) throws IOException {
+		getConnection(key).write(packet);
+	}
+
+	/**
+	 * Writes the given packet to a connection chosen by the {@link #getStripePolicy() stripe policy} without blocking.
+	 *
+	 * @param packet
+	 * 		Packet to write to the server.
+	 *
+	 * @return Future completing once the packet is written.
+	 *
+	 * @see Connection#writeAsync(Packet)
+	 */
+	public CompletableFuture<Void> writeAsync(Packet packet) {
+		return nextConnection().writeAsync(packet);
+	}
+
+	/**
+	 * Writes the given packet to the connection of the given affinity key without blocking.
+	 *
+	 * @param key
+	 * 		Affinity key, such as the id of the entity the packet is about.
+	 * @param packet
+	 * 		Packet to write to the server.
+	 *
+	 * @return Future completing once the packet is written.
+	 *
+	 * @see Connection#writeAsync(Packet)
+	 */
+	public CompletableFuture<Void> writeAsync(Object key, Packet packet) {
+		return getConnection(key).writeAsync(packet);
+	}
+
+	/**
+	 * Writes the given packets to a single connection chosen by the {@link #getStripePolicy() stripe policy},
+	 * so that they keep their order and are sent together.
+	 *
+	 * @param packets
+	 * 		Packets to write to the server.
+	 *
+	 * @throws IOException
+	 * 		When the packets cannot be written.
+	 */
+	public void writeAll(Collection<? extends Packet> packets) throws IOException {
+		nextConnection().writeAll(packets);
+	}
+
+	/**
+	 * Sends a request to the server over a connection chosen by the {@link #getStripePolicy() stripe policy},
+	 * using the {@link ConnectionConfig#getRequestTimeoutMillis() configured timeout}.
+	 * The response is read from the same connection.
+	 *
+	 * @param packet
+	 * 		Request packet to send.
+	 *
+	 * @return Future of the server's response.
+	 *
+	 * @see Connection#request(Packet, long, TimeUnit)
+	 */
+	public CompletableFuture<Packet> request(Packet packet) {
+		return nextConnection().request(packet);
+	}
+
+	/**
+	 * Writes any queued packets on every open connection.
+	 *
+	 * @throws IOException
+	 * 		When the packets cannot be written.
+	 */
+	public void flush() throws IOException {
+		for (Connection connection : connections) {
+			if (connection.isOpen()) {
+				connection.flush();
+			}
+		}
+	}
+
+	/**
+	 * @return Open connection to write the next packet without an affinity key to.
+	 * Only closed when every connection is.
+	 *
+	 * @throws IllegalStateException
+	 * 		When the client has not been started.
+	 */
+	public Connection nextConnection() {
+		List<Connection> connections = started();
+		int size = connections.size();
+		int start = Math.floorMod(next.getAndIncrement(), size);
+		if (stripePolicy == StripePolicy.ROUND_ROBIN || size == 1) {
+			return openFrom(connections, start);
+		}
+		// Starting the scan in turn spreads packets out while the connections are equally queued
+		Connection least = null;
+		int leastPending = Integer.MAX_VALUE;
+		for (int i = 0; i < size && leastPending > 0; i++) {
+			Connection connection = connections.get((start + i) % size);
+			int pending = connection.getPendingBytes();
+			if (pending < leastPending && connection.isOpen()) {
+				least = connection;
+				leastPending = pending;
+			}
+		}
+		return least != null ? least : connections.get(start);
+	}
+
+	/**
+	 * @param key
+	 * 		Affinity key.
+	 *
+	 * @return Connection that packets with the key are written to. When that connection has closed,
+	 * the keys mapping to it move to the next open one, so packets of a key stay in order only while its
+	 * connection stays open.
+	 *
+	 * @throws IllegalStateException
+	 * 		When the client has not been started.
+	 */
+	public Connection getConnection(Object key) {
+		List<Connection> connections = started();
+		int hash = key == null ? 0 : key.hashCode();
+		// Spread the high bits, as with hash maps, so that keys differing only there still use different connections
+		hash ^= hash >>> 16;
+		return openFrom(connections, Math.floorMod(hash, connections.size()));
+	}
+
+	/**
+	 * @return Connections to the server, in stripe order. Empty until {@link #start() started}.
+	 */
+	public List<Connection> getConnections() {
+		return connections;
+	}
+
+	/**
+	 * @return Number of connections opened when {@link #start() starting}.
+	 */
+	public int getStripeCount() {
+		return stripes;
+	}
+
+	/**
+	 * @param connections
+	 * 		Connections of every stripe.
+	 * @param index
+	 * 		Index of the preferred connection.
+	 *
+	 * @return First open connection from the index onwards, wrapping around. When every connection is closed,
+	 * the one at the index, so that writing to it fails.
+	 */
+	private static Connection openFrom(List<Connection> connections, int index) {
+		int size = connections.size();
+		for (int i = 0; i < size; i++) {
+			Connection connection = connections.get((index + i) % size);
+			if (connection.isOpen()) {
+				return connection;
+			}
+		}
+		return connections.get(index);
+	}
+
+	/**
+	 * @return Connected connections.
+	 *
+	 * @throws IllegalStateException
+	 * 		When the client has not been started.
+	 */
+	private List<Connection> started() {
+		List<Connection> connections = this.connections;
+		if (connections.size() < stripes) {
+			throw new IllegalStateException("Client has not been started");
+		}
+		return connections;
+	}
+
+	/**
+	 * @return How connections are picked for packets written without an affinity key.
+	 */
+	public StripePolicy getStripePolicy() {
+		return stripePolicy;
+	}
+
+	/**
+	 * Can be changed at any time. The default is {@link StripePolicy#ROUND_ROBIN}.
+	 *
+	 * @param stripePolicy
+	 * 		How connections are picked for packets written without an affinity key.
+	 */
+	public void setStripePolicy(StripePolicy stripePolicy) {
+		if (stripePolicy == null) {
+			throw new IllegalArgumentException("Stripe policy cannot be null");
+		}
+		this.stripePolicy = stripePolicy;
+	}
+}
@@ -1,7 +1,11 @@
 package me.coley.pchannels;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Thread utility.
@@ -9,6 +13,11 @@ import java.util.concurrent.Executors;
  * @author Matt Coley
  */
 public class Threads {
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r ->
+			daemon("pchannels-scheduler", r));
+	private static final HashedWheelTimer TIMER = new HashedWheelTimer();
+	private static final MethodHandle VIRTUAL_EXECUTOR = lookupVirtualExecutor();
+
 	/**
 	 * @return Cached thread pool with daemon threads.
 	 */
@@ -19,4 +28,73 @@ public class Threads {
 			return t;
 		});
 	}
+
+	/**
+	 * Virtual threads are available on Java 21 and above. Since this library targets Java 8 the
+	 * executor is looked up reflectively. Use {@link #isVirtualSupported()} to check for availability.
+	 * <br>
+	 * With a virtual thread per connection, thread local caches such as those of
+	 * {@link me.coley.pchannels.buffer.PooledBufferAllocator} are created per connection.
+	 * Consider disabling thread local caching in that case.
+	 *
+	 * @return Executor starting a new virtual thread for each task.
+	 *
+	 * @throws UnsupportedOperationException
+	 * 		When the current runtime does not support virtual threads.
+	 */
+	public static ExecutorService virtual() {
+		if (VIRTUAL_EXECUTOR == null) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21+, running on " +
+					System.getProperty("java.version"));
+		}
+		try {
+			return (ExecutorService) VIRTUAL_EXECUTOR.invokeExact();
+		} catch (Throwable t) {
+			throw new IllegalStateException("Failed to create virtual thread executor", t);
+		}
+	}
+
+	/**
+	 * @return {@code true} when the current runtime supports virtual threads.
+	 */
+	public static boolean isVirtualSupported() {
+		return VIRTUAL_EXECUTOR != null;
+	}
+
+	/**
+	 * @return Shared scheduler with a single daemon thread, for short delayed tasks.
+	 */
+	public static ScheduledExecutorService scheduler() {
+		return SCHEDULER;
+	}
+
+	/**
+	 * @return Shared timer with a daemon thread and a tick of 10 milliseconds, for large numbers of coarse timeouts.
+	 */
+	public static HashedWheelTimer timer() {
+		return TIMER;
+	}
+
+	/**
+	 * @param name
+	 * 		Thread name.
+	 * @param action
+	 * 		Thread action.
+	 *
+	 * @return New daemon thread, not yet started.
+	 */
+	public static Thread daemon(String name, Runnable action) {
+		Thread t = new Thread(action, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+	private static MethodHandle lookupVirtualExecutor() {
+		try {
+			return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+					MethodType.methodType(ExecutorService.class));
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
 }
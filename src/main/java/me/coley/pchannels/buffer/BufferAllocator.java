@@ -0,0 +1,46 @@
+package me.coley.pchannels.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Outline for providing buffers to the packet read and write paths.
+ *
+ * @author Matt Coley
+ */
+public interface BufferAllocator {
+	/**
+	 * @param size
+	 * 		Minimum required size of the buffer.
+	 *
+	 * @return Cleared buffer with a position of {@code 0} and a limit of {@code size}.
+	 * The capacity may be larger than the requested size.
+	 */
+	ByteBuffer allocate(int size);
+
+	/**
+	 * Returns a buffer to the allocator once it is no longer in use.
+	 * The buffer must not be used by the caller after it has been released.
+	 *
+	 * @param buffer
+	 * 		Buffer previously given by {@link #allocate(int)}.
+	 */
+	void release(ByteBuffer buffer);
+
+	/**
+	 * Allocates a larger buffer with the contents of the given buffer, then releases the given buffer.
+	 *
+	 * @param buffer
+	 * 		Buffer to grow. The contents between {@code 0} and the current position are copied.
+	 * @param size
+	 * 		Minimum required size of the new buffer.
+	 *
+	 * @return New buffer with the copied content, positioned after the copied content.
+	 */
+	default ByteBuffer grow(ByteBuffer buffer, int size) {
+		ByteBuffer grown = allocate(size);
+		buffer.flip();
+		grown.put(buffer);
+		release(buffer);
+		return grown;
+	}
+}
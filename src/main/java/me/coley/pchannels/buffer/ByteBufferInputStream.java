@@ -0,0 +1,53 @@
+package me.coley.pchannels.buffer;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream reading the remaining content of a buffer.
+ * Instances can be reused by {@link #reset(ByteBuffer) resetting} the source buffer.
+ *
+ * @author Matt Coley
+ */
+public class ByteBufferInputStream extends InputStream {
+	private ByteBuffer buffer;
+
+	/**
+	 * @param buffer
+	 * 		New buffer to read from.
+	 */
+	public void reset(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read() {
+		return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int remaining = buffer.remaining();
+		if (remaining == 0) {
+			return -1;
+		}
+		int count = Math.min(remaining, len);
+		buffer.get(b, off, count);
+		return count;
+	}
+
+	@Override
+	public long skip(long n) {
+		int count = (int) Math.min(buffer.remaining(), Math.max(0, n));
+		buffer.position(buffer.position() + count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return buffer.remaining();
+	}
+}
@@ -0,0 +1,53 @@
+package me.coley.pchannels.buffer;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Output stream writing to a buffer, growing it via a {@link BufferAllocator} as needed.
+ * Instances can be reused by {@link #reset(ByteBuffer, BufferAllocator) resetting} the target buffer.
+ *
+ * @author Matt Coley
+ */
+public class ByteBufferOutputStream extends OutputStream {
+	private BufferAllocator allocator;
+	private ByteBuffer buffer;
+
+	/**
+	 * @param buffer
+	 * 		New buffer to write to.
+	 * @param allocator
+	 * 		Allocator to grow the target buffer with.
+	 */
+	public void reset(ByteBuffer buffer, BufferAllocator allocator) {
+		this.buffer = buffer;
+		this.allocator = allocator;
+	}
+
+	/**
+	 * @return Current target buffer, which may differ from the one given to {@link #reset(ByteBuffer, BufferAllocator)}
+	 * if the content exceeded its limit.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	@Override
+	public void write(int b) {
+		ensureRemaining(1);
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensureRemaining(len);
+		buffer.put(b, off, len);
+	}
+
+	private void ensureRemaining(int required) {
+		if (buffer.remaining() < required) {
+			int size = buffer.position() + required;
+			buffer = allocator.grow(buffer, Math.max(size, buffer.capacity() << 1));
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package me.coley.pchannels.buffer;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Allocator that recycles buffers by power-of-two size classes.
+ * <br>
+ * Released buffers are first kept in a small cache local to the releasing thread,
+ * then in a shared arena per size class. Requests larger than the largest size class are not pooled.
+ * <br>
+ * When allocating direct buffers, the arena carves buffers out of larger off-heap chunks
+ * rather than making an individual native allocation per buffer.
+ * <br>
+ * Only buffers created by the allocator are pooled when released, others are left to the garbage collector.
+ *
+ * @author Matt Coley
+ */
+public class PooledBufferAllocator implements BufferAllocator {
+	private static final int MIN_SHIFT = 6;
+	private static final int DEFAULT_MAX_SHIFT = 20;
+	private static final int DEFAULT_THREAD_CACHE_SIZE = 16;
+	private static final int DEFAULT_ARENA_SIZE = 256;
+	private static final int CHUNK_SIZE = 1 << 20;
+	private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+	private final ThreadLocal<BufferKey> lookupKeys = ThreadLocal.withInitial(BufferKey::new);
+	private final Map<Object, Boolean> owned = new ConcurrentHashMap<>();
+	private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<>();
+	private final SizeClass[] sizeClasses;
+	private final boolean direct;
+	private final int maxPooledSize;
+	private final int threadCacheSize;
+
+	/**
+	 * New allocator with default limits.
+	 *
+	 * @param direct
+	 * 		{@code true} to allocate direct off-heap buffers.
+	 * 		{@code false} to allocate heap buffers.
+	 */
+	public PooledBufferAllocator(boolean direct) {
+		this(direct, 1 << DEFAULT_MAX_SHIFT, DEFAULT_THREAD_CACHE_SIZE, DEFAULT_ARENA_SIZE);
+	}
+
+	/**
+	 * @param direct
+	 * 		{@code true} to allocate direct off-heap buffers.
+	 * 		{@code false} to allocate heap buffers.
+	 * @param maxPooledSize
+	 * 		Largest buffer size to pool. Rounded up to the next power of two.
+	 * @param threadCacheSize
+	 * 		Number of buffers per size class to keep in each thread's local cache.
+	 * 		Use {@code 0} to disable thread local caching, which is recommended when many
+	 * 		short-lived threads use the allocator.
+	 * @param arenaSize
+	 * 		Number of buffers per size class to keep in the shared arena.
+	 */
+	public PooledBufferAllocator(boolean direct, int maxPooledSize, int threadCacheSize, int arenaSize) {
+		if (maxPooledSize <= 0 || threadCacheSize < 0 || arenaSize < 0) {
+			throw new IllegalArgumentException("Pool limits must not be negative");
+		}
+		int maxShift = Math.max(MIN_SHIFT, shiftFor(maxPooledSize));
+		this.direct = direct;
+		this.maxPooledSize = 1 << maxShift;
+		this.threadCacheSize = threadCacheSize;
+		this.sizeClasses = new SizeClass[maxShift - MIN_SHIFT + 1];
+		for (int i = 0; i < sizeClasses.length; i++) {
+			sizeClasses[i] = new SizeClass(1 << (MIN_SHIFT + i), arenaSize);
+		}
+		this.threadCaches = ThreadLocal.withInitial(() -> {
+			// Generic arrays cannot be created, but this one only ever holds buffer deques
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[sizeClasses.length];
+			for (int i = 0; i < caches.length; i++) {
+				caches[i] = new ArrayDeque<>(threadCacheSize);
+			}
+			return caches;
+		});
+	}
+
+	@Override
+	public ByteBuffer allocate(int size) {
+		if (size > maxPooledSize) {
+			return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+		}
+		int index = indexFor(size);
+		ByteBuffer buffer = null;
+		if (threadCacheSize > 0) {
+			buffer = threadCaches.get()[index].pollLast();
+		}
+		if (buffer == null) {
+			buffer = sizeClasses[index].take();
+		}
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+
+	@Override
+	public void release(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		// Buffers larger than the size classes were never pooled, and others may come from anywhere
+		if (capacity > maxPooledSize || !isOwned(buffer)) {
+			return;
+		}
+		int index = indexFor(capacity);
+		if (threadCacheSize > 0) {
+			ArrayDeque<ByteBuffer> cache = threadCaches.get()[index];
+			if (cache.size() < threadCacheSize) {
+				cache.addLast(buffer);
+				return;
+			}
+		}
+		sizeClasses[index].give(buffer);
+	}
+
+	/**
+	 * @return {@code true} when this allocator provides direct off-heap buffers.
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return Largest buffer size that is pooled.
+	 */
+	public int getMaxPooledSize() {
+		return maxPooledSize;
+	}
+
+	/**
+	 * @param buffer
+	 * 		Buffer to check.
+	 *
+	 * @return {@code true} when the buffer was created by a size class of this allocator.
+	 */
+	private boolean isOwned(ByteBuffer buffer) {
+		BufferKey key = lookupKeys.get();
+		key.buffer = buffer;
+		try {
+			return owned.containsKey(key);
+		} finally {
+			key.buffer = null;
+		}
+	}
+
+	/**
+	 * Records a newly created buffer as belonging to this allocator,
+	 * and forgets those that were garbage collected.
+	 *
+	 * @param buffer
+	 * 		Created buffer.
+	 *
+	 * @return The buffer.
+	 */
+	private ByteBuffer own(ByteBuffer buffer) {
+		Object stale;
+		while ((stale = collected.poll()) != null) {
+			owned.remove(stale);
+		}
+		owned.put(new OwnedBuffer(buffer, collected), Boolean.TRUE);
+		return buffer;
+	}
+
+	private static int indexFor(int size) {
+		return Math.max(0, shiftFor(size) - MIN_SHIFT);
+	}
+
+	private static int shiftFor(int size) {
+		return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	/**
+	 * Shared arena of buffers of a single size.
+	 */
+	private class SizeClass {
+		private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger pooled = new AtomicInteger();
+		private final int bufferSize;
+		private final int limit;
+		private ByteBuffer chunk;
+
+		private SizeClass(int bufferSize, int limit) {
+			this.bufferSize = bufferSize;
+			this.limit = limit;
+		}
+
+		private ByteBuffer take() {
+			ByteBuffer buffer = pool.poll();
+			if (buffer != null) {
+				pooled.decrementAndGet();
+				return buffer;
+			}
+			return own(direct ? carve() : ByteBuffer.allocate(bufferSize));
+		}
+
+		private void give(ByteBuffer buffer) {
+			if (pooled.incrementAndGet() <= limit) {
+				pool.offer(buffer);
+			} else {
+				pooled.decrementAndGet();
+			}
+		}
+
+		private synchronized ByteBuffer carve() {
+			if (bufferSize >= CHUNK_SIZE) {
+				return ByteBuffer.allocateDirect(bufferSize);
+			}
+			if (chunk == null || chunk.remaining() < bufferSize) {
+				chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+			}
+			chunk.limit(chunk.position() + bufferSize);
+			ByteBuffer buffer = chunk.slice();
+			chunk.position(chunk.limit());
+			chunk.limit(chunk.capacity());
+			return buffer;
+		}
+	}
+
+	/**
+	 * Weak reference to a buffer created by the allocator, compared by identity
+	 * since buffers are otherwise compared by their content.
+	 */
+	private static final class OwnedBuffer extends WeakReference<ByteBuffer> {
+		private final int hash;
+
+		private OwnedBuffer(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+			super(buffer, queue);
+			this.hash = System.identityHashCode(buffer);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return this == o;
+		}
+	}
+
+	/**
+	 * Reusable key for looking up a buffer in the owned buffers without allocating.
+	 */
+	private static final class BufferKey {
+		private ByteBuffer buffer;
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(buffer);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof OwnedBuffer && ((OwnedBuffer) o).get() == buffer;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package me.coley.pchannels.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocator that creates a new buffer for every request.
+ *
+ * @author Matt Coley
+ */
+public class UnpooledBufferAllocator implements BufferAllocator {
+	/**
+	 * Shared allocator of heap buffers.
+	 */
+	public static final UnpooledBufferAllocator HEAP = new UnpooledBufferAllocator(false);
+	/**
+	 * Shared allocator of direct buffers.
+	 */
+	public static final UnpooledBufferAllocator DIRECT = new UnpooledBufferAllocator(true);
+	private final boolean direct;
+
+	private UnpooledBufferAllocator(boolean direct) {
+		this.direct = direct;
+	}
+
+	@Override
+	public ByteBuffer allocate(int size) {
+		return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+
+	@Override
+	public void release(ByteBuffer buffer) {
+		// no-op, left to the garbage collector
+	}
+}
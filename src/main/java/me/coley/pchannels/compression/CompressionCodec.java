@@ -0,0 +1,51 @@
+package me.coley.pchannels.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Outline for compressing packet frame bodies.
+ * <br>
+ * Instances hold native or scratch state that is reused between calls, so each connection creates its own
+ * through {@link CompressionCodecs}. Instances are not thread safe.
+ *
+ * @author Matt Coley
+ */
+public interface CompressionCodec {
+	/**
+	 * @return Identifier written in compressed frames, so the receiving side knows how to decompress them.
+	 */
+	int getId();
+
+	/**
+	 * @return Name used when negotiating the codec of a connection.
+	 */
+	String getName();
+
+	/**
+	 * @param src
+	 * 		Data to compress, between its position and limit. The position is not modified.
+	 * @param dst
+	 * 		Buffer to write compressed data to, from its position up to its limit.
+	 *
+	 * @return Number of compressed bytes written, or {@code -1} if the compressed data does not fit
+	 * in the destination buffer.
+	 */
+	int compress(ByteBuffer src, ByteBuffer dst);
+
+	/**
+	 * @param src
+	 * 		Compressed data, between its position and limit.
+	 * @param dst
+	 * 		Buffer to write decompressed data to. Must be filled exactly, from its position up to its limit.
+	 *
+	 * @throws IOException
+	 * 		When the compressed data is malformed, or does not decompress to the expected size.
+	 */
+	void decompress(ByteBuffer src, ByteBuffer dst) throws IOException;
+
+	/**
+	 * Releases any native resources. The codec must not be used afterwards.
+	 */
+	void close();
+}
@@ -0,0 +1,92 @@
+package me.coley.pchannels.compression;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of available {@link CompressionCodec}s, by identifier and by name.
+ * <br>
+ * Both sides of a connection must register the same codec under the same identifier and name.
+ * The {@link DeflateCodec deflate} codec is always available.
+ *
+ * @author Matt Coley
+ */
+public final class CompressionCodecs {
+	private static final Map<Integer, Supplier<CompressionCodec>> BY_ID = new ConcurrentHashMap<>();
+	private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+
+	static {
+		register(DeflateCodec.ID, DeflateCodec.NAME, DeflateCodec::new);
+	}
+
+	private CompressionCodecs() {
+	}
+
+	/**
+	 * @param id
+	 * 		Codec identifier, written in compressed frames. Must be within {@code [1, 255]}.
+	 * @param name
+	 * 		Codec name, used in negotiation.
+	 * @param supplier
+	 * 		Supplier of new codec instances, created once per connection.
+	 */
+	public static synchronized void register(int id, String name, Supplier<CompressionCodec> supplier) {
+		if (id <= 0 || id > 255) {
+			throw new IllegalArgumentException("Codec id must be within [1, 255]: " + id);
+		}
+		if (name == null || supplier == null) {
+			throw new IllegalArgumentException("Codec name and supplier cannot be null");
+		}
+		Integer existing = IDS.get(name);
+		if (existing != null && existing != id) {
+			throw new IllegalArgumentException("Codec name '" + name + "' already registered to id " + existing);
+		}
+		BY_ID.put(id, supplier);
+		IDS.put(name, id);
+	}
+
+	/**
+	 * @param name
+	 * 		Codec name.
+	 *
+	 * @return {@code true} when a codec is registered under the name.
+	 */
+	public static boolean isRegistered(String name) {
+		return IDS.containsKey(name);
+	}
+
+	/**
+	 * @param name
+	 * 		Codec name.
+	 *
+	 * @return New codec instance.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		When no codec is registered under the name.
+	 */
+	public static CompressionCodec create(String name) {
+		Integer id = IDS.get(name);
+		if (id == null) {
+			throw new IllegalArgumentException("No compression codec named '" + name + "'");
+		}
+		return create(id);
+	}
+
+	/**
+	 * @param id
+	 * 		Codec identifier.
+	 *
+	 * @return New codec instance.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		When no codec is registered under the identifier.
+	 */
+	public static CompressionCodec create(int id) {
+		Supplier<CompressionCodec> supplier = BY_ID.get(id);
+		if (supplier == null) {
+			throw new IllegalArgumentException("No compression codec with id " + id);
+		}
+		return supplier.get();
+	}
+}
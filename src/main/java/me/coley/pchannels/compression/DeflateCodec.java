@@ -0,0 +1,170 @@
+package me.coley.pchannels.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec using {@link Deflater} and {@link Inflater}, which are reset and reused for each frame
+ * rather than allocating native zlib streams each time.
+ * <br>
+ * The zip API only accepts arrays on Java 8, so direct buffers are copied through a reused scratch array.
+ *
+ * @author Matt Coley
+ */
+public class DeflateCodec implements CompressionCodec {
+	/**
+	 * Codec identifier.
+	 */
+	public static final int ID = 1;
+	/**
+	 * Codec name.
+	 */
+	public static final String NAME = "deflate";
+	private final int level;
+	private Deflater deflater;
+	private Inflater inflater;
+	private byte[] inScratch = new byte[0];
+	private byte[] outScratch = new byte[0];
+
+	/**
+	 * New codec favoring speed over ratio.
+	 */
+	public DeflateCodec() {
+		this(Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * @param level
+	 * 		Compression level, see {@link Deflater#setLevel(int)}.
+	 */
+	public DeflateCodec(int level) {
+		this.level = level;
+	}
+
+	@Override
+	public int getId() {
+		return ID;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int compress(ByteBuffer src, ByteBuffer dst) {
+		if (deflater == null) {
+			deflater = new Deflater(level);
+		}
+		Deflater deflater = this.deflater;
+		deflater.reset();
+		setInput(src, deflater, null);
+		deflater.finish();
+		int capacity = dst.remaining();
+		int written;
+		if (dst.hasArray()) {
+			int offset = dst.arrayOffset() + dst.position();
+			written = 0;
+			while (!deflater.finished() && written < capacity) {
+				written += deflater.deflate(dst.array(), offset + written, capacity - written);
+			}
+		} else {
+			byte[] out = outScratch(capacity);
+			written = 0;
+			while (!deflater.finished() && written < capacity) {
+				written += deflater.deflate(out, written, capacity - written);
+			}
+			dst.duplicate().put(out, 0, written);
+		}
+		if (!deflater.finished()) {
+			return -1;
+		}
+		dst.position(dst.position() + written);
+		return written;
+	}
+
+	@Override
+	public void decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		Inflater inflater = this.inflater;
+		inflater.reset();
+		setInput(src, null, inflater);
+		int expected = dst.remaining();
+		int read = 0;
+		try {
+			if (dst.hasArray()) {
+				int offset = dst.arrayOffset() + dst.position();
+				while (read < expected && !inflater.finished()) {
+					int n = inflater.inflate(dst.array(), offset + read, expected - read);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					read += n;
+				}
+			} else {
+				byte[] out = outScratch(expected);
+				while (read < expected && !inflater.finished()) {
+					int n = inflater.inflate(out, read, expected - read);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					read += n;
+				}
+				dst.duplicate().put(out, 0, read);
+			}
+		} catch (DataFormatException ex) {
+			throw new IOException("Malformed deflate data", ex);
+		}
+		if (read != expected || !inflater.finished()) {
+			throw new IOException("Deflate data decompressed to " + (inflater.finished() ? read : "more than " + read) +
+					" bytes, expected " + expected);
+		}
+		dst.position(dst.position() + read);
+	}
+
+	@Override
+	public void close() {
+		if (deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+
+	private void setInput(ByteBuffer src, Deflater deflater, Inflater inflater) {
+		byte[] array;
+		int offset;
+		int length = src.remaining();
+		if (src.hasArray()) {
+			array = src.array();
+			offset = src.arrayOffset() + src.position();
+		} else {
+			if (inScratch.length < length) {
+				inScratch = new byte[length];
+			}
+			array = inScratch;
+			offset = 0;
+			src.duplicate().get(array, 0, length);
+		}
+		if (deflater != null) {
+			deflater.setInput(array, offset, length);
+		} else {
+			inflater.setInput(array, offset, length);
+		}
+	}
+
+	private byte[] outScratch(int length) {
+		if (outScratch.length < length) {
+			outScratch = new byte[length];
+		}
+		return outScratch;
+	}
+}
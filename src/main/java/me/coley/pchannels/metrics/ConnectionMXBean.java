@@ -0,0 +1,33 @@
+package me.coley.pchannels.metrics;
+
+/**
+ * JMX view of a single connection's traffic.
+ *
+ * @author Matt Coley
+ */
+public interface ConnectionMXBean {
+	/**
+	 * @return Remote address of the connection.
+	 */
+	String getAddress();
+
+	/**
+	 * @return Number of packets read.
+	 */
+	long getPacketsIn();
+
+	/**
+	 * @return Number of bytes read.
+	 */
+	long getBytesIn();
+
+	/**
+	 * @return Number of packets written.
+	 */
+	long getPacketsOut();
+
+	/**
+	 * @return Number of bytes written.
+	 */
+	long getBytesOut();
+}
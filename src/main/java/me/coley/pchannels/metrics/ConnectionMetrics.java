@@ -0,0 +1,77 @@
+package me.coley.pchannels.metrics;
+
+/**
+ * Recorder of a single connection's traffic, given by {@link PacketMetrics#connect(java.net.SocketAddress)}.
+ * <br>
+ * Packets are recorded under the id they have on the wire, so wrapped packets such as requests count towards
+ * their envelope's id. Durations are in nanoseconds, negative when the operation was not timed, such as for packets
+ * passed over in-VM channels without encoding.
+ *
+ * @author Matt Coley
+ */
+public interface ConnectionMetrics {
+	/**
+	 * Recorder that does nothing, used when metrics are disabled.
+	 */
+	ConnectionMetrics DISABLED = new ConnectionMetrics() {
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+
+		@Override
+		public void onRead(int id, int bytes, long decodeNanos) {
+		}
+
+		@Override
+		public void onWrite(int id, int bytes, long encodeNanos) {
+		}
+
+		@Override
+		public void onHandled(int id, long handlerNanos) {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	/**
+	 * @return {@code true} when anything is recorded.
+	 * Callers should skip timing operations when {@code false}.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * @param id
+	 * 		Packet ID.
+	 * @param bytes
+	 * 		Size of the frame read, including its header.
+	 * @param decodeNanos
+	 * 		Time taken to decode the packet.
+	 */
+	void onRead(int id, int bytes, long decodeNanos);
+
+	/**
+	 * @param id
+	 * 		Packet ID.
+	 * @param bytes
+	 * 		Size of the frame queued for writing, including its header.
+	 * @param encodeNanos
+	 * 		Time taken to encode the packet.
+	 */
+	void onWrite(int id, int bytes, long encodeNanos);
+
+	/**
+	 * @param id
+	 * 		Packet ID.
+	 * @param handlerNanos
+	 * 		Time taken by the packet's handler.
+	 */
+	void onHandled(int id, long handlerNanos);
+
+	/**
+	 * Stops tracking the connection. Totals recorded per packet id are kept.
+	 */
+	void close();
+}
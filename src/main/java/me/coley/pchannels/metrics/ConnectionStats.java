@@ -0,0 +1,95 @@
+package me.coley.pchannels.metrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recorder of a single connection's traffic, also counting towards the per packet id totals of its parent.
+ *
+ * @author Matt Coley
+ */
+final class ConnectionStats implements ConnectionMetrics, ConnectionMXBean {
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private final LongAdder packetsIn = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder packetsOut = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final PacketMetrics parent;
+	private final long id;
+	private final String address;
+
+	ConnectionStats(PacketMetrics parent, long id, String address) {
+		this.parent = parent;
+		this.id = id;
+		this.address = address;
+	}
+
+	/**
+	 * @return Unique ID of the connection within its parent.
+	 */
+	long getId() {
+		return id;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	@Override
+	public void onRead(int id, int bytes, long decodeNanos) {
+		packetsIn.increment();
+		bytesIn.add(bytes);
+		parent.type(id).onRead(bytes, decodeNanos);
+	}
+
+	@Override
+	public void onWrite(int id, int bytes, long encodeNanos) {
+		packetsOut.increment();
+		bytesOut.add(bytes);
+		parent.type(id).onWrite(bytes, encodeNanos);
+	}
+
+	@Override
+	public void onHandled(int id, long handlerNanos) {
+		parent.type(id).onHandled(handlerNanos);
+	}
+
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			parent.disconnect(this);
+		}
+	}
+
+	@Override
+	public String getAddress() {
+		return address;
+	}
+
+	@Override
+	public long getPacketsIn() {
+		return packetsIn.sum();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getPacketsOut() {
+		return packetsOut.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionStats[" + address + ", in=" + getPacketsIn() + "/" + getBytesIn() + "B, out=" +
+				getPacketsOut() + "/" + getBytesOut() + "B]";
+	}
+}
@@ -0,0 +1,163 @@
+package me.coley.pchannels.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket histogram of non-negative values, such as durations in nanoseconds.
+ * <br>
+ * Each power of two range is split into four linear buckets, so recorded values are resolved to within 25%.
+ * Buckets are {@link LongAdder}s, so concurrent recording from many threads does not contend on a single counter.
+ * Values are never stored, reading a {@link #getValueAtPercentile(double) percentile} gives the upper bound
+ * of the bucket holding it.
+ *
+ * @author Matt Coley
+ */
+public final class Histogram {
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Linear buckets below the first split range, then a set of sub-buckets for each power of two up to 2^62
+	private static final int BUCKET_COUNT = SUB_BUCKETS + (Long.SIZE - 2 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * New empty histogram.
+	 */
+	public Histogram() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @param value
+	 * 		Value to record. Negative values are recorded as zero.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets[index(value)].increment();
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * @return Number of recorded values.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return Sum of all recorded values.
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return Largest recorded value, or zero if nothing was recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return Average of the recorded values, or zero if nothing was recorded.
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * @param percentile
+	 * 		Percentile to look up, from {@code 0} to {@code 100}.
+	 *
+	 * @return Upper bound of the bucket holding the value at the percentile, capped to the {@link #getMax() max}.
+	 * Zero if nothing was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (!(percentile >= 0 && percentile <= 100)) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+		}
+		long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			total += counts[i] = buckets[i].sum();
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return Summary of the histogram's current state.
+	 */
+	public HistogramSummary summarize() {
+		return new HistogramSummary(getCount(), getMean(), getValueAtPercentile(50), getValueAtPercentile(90),
+				getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+	}
+
+	/**
+	 * Clears all recorded values. Values recorded concurrently may or may not be kept.
+	 */
+	public void reset() {
+		for (LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	@Override
+	public String toString() {
+		return summarize().toString();
+	}
+
+	/**
+	 * @param value
+	 * 		Non-negative value.
+	 *
+	 * @return Index of the bucket holding the value.
+	 */
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + (shift << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @param index
+	 * 		Bucket index.
+	 *
+	 * @return Largest value held by the bucket.
+	 */
+	static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) >>> SUB_BUCKET_BITS;
+		int sub = (index - SUB_BUCKETS) & (SUB_BUCKETS - 1);
+		// Wraps around to Long.MAX_VALUE for the last bucket
+		return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+}
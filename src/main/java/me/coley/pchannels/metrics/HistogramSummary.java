@@ -0,0 +1,97 @@
+package me.coley.pchannels.metrics;
+
+/**
+ * Point in time summary of a {@link Histogram}, exposed through JMX as composite data.
+ *
+ * @author Matt Coley
+ */
+public final class HistogramSummary {
+	private final long count;
+	private final double mean;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long p999;
+	private final long max;
+
+	/**
+	 * @param count
+	 * 		Number of recorded values.
+	 * @param mean
+	 * 		Average of the recorded values.
+	 * @param p50
+	 * 		Median value.
+	 * @param p90
+	 * 		90th percentile value.
+	 * @param p99
+	 * 		99th percentile value.
+	 * @param p999
+	 * 		99.9th percentile value.
+	 * @param max
+	 * 		Largest recorded value.
+	 */
+	public HistogramSummary(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	/**
+	 * @return Number of recorded values.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Average of the recorded values.
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return Median value.
+	 */
+	public long getP50() {
+		return p50;
+	}
+
+	/**
+	 * @return 90th percentile value.
+	 */
+	public long getP90() {
+		return p90;
+	}
+
+	/**
+	 * @return 99th percentile value.
+	 */
+	public long getP99() {
+		return p99;
+	}
+
+	/**
+	 * @return 99.9th percentile value.
+	 */
+	public long getP999() {
+		return p999;
+	}
+
+	/**
+	 * @return Largest recorded value.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + String.format("%.1f", mean) + ", p50=" + p50 + ", p90=" + p90 +
+				", p99=" + p99 + ", p99.9=" + p999 + ", max=" + max;
+	}
+}
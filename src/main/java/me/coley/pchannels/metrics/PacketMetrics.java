@@ -0,0 +1,315 @@
+package me.coley.pchannels.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic metrics of a {@link me.coley.pchannels.Server} or {@link me.coley.pchannels.Client},
+ * counted per packet id and per connection.
+ * <br>
+ * Per packet id, packets and bytes in each direction are counted, and the time taken to decode, encode and handle
+ * packets is recorded in {@link Histogram}s. Per connection, packets and bytes in each direction are counted.
+ * <br>
+ * Once {@link #publish(String) published}, the totals, each packet id and each open connection are registered as
+ * MXBeans with the platform MBean server, under the {@code me.coley.pchannels} domain.
+ * <br>
+ * The {@link #disabled() disabled} instance records nothing, and connections using it skip all timing.
+ *
+ * @author Matt Coley
+ */
+public class PacketMetrics implements PacketMetricsMXBean {
+	private static final Logger logger = LoggerFactory.getLogger(PacketMetrics.class);
+	private static final String DOMAIN = "me.coley.pchannels";
+	private static final PacketMetrics DISABLED = new PacketMetrics("disabled", false);
+	private final Set<ConnectionStats> connections = ConcurrentHashMap.newKeySet();
+	private final AtomicLong nextConnectionId = new AtomicLong();
+	private final String name;
+	private final boolean enabled;
+	private volatile PacketTypeStats[] types = new PacketTypeStats[0];
+	private volatile String publishedType;
+
+	/**
+	 * @param name
+	 * 		Name to {@link #publish(String) publish} the metrics under.
+	 */
+	public PacketMetrics(String name) {
+		this(name, true);
+	}
+
+	private PacketMetrics(String name, boolean enabled) {
+		if (name == null || name.isEmpty()) {
+			throw new IllegalArgumentException("Metrics name cannot be empty");
+		}
+		this.name = name;
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return Shared instance that records nothing.
+	 */
+	public static PacketMetrics disabled() {
+		return DISABLED;
+	}
+
+	/**
+	 * @return {@code true} when anything is recorded.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts tracking a new connection. The returned recorder must be {@link ConnectionMetrics#close() closed}
+	 * once the connection closes.
+	 *
+	 * @param address
+	 * 		Remote address of the connection.
+	 *
+	 * @return Recorder of the connection's traffic, or {@link ConnectionMetrics#DISABLED} if this is disabled.
+	 */
+	public ConnectionMetrics connect(SocketAddress address) {
+		if (!enabled) {
+			return ConnectionMetrics.DISABLED;
+		}
+		ConnectionStats stats = new ConnectionStats(this, nextConnectionId.incrementAndGet(), String.valueOf(address));
+		synchronized (this) {
+			connections.add(stats);
+			if (publishedType != null) {
+				register(connectionName(publishedType, stats), stats);
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * @param id
+	 * 		Packet ID.
+	 *
+	 * @return Stats of the packet id, or {@code null} if no packet of the id has been recorded.
+	 */
+	public PacketTypeStats getPacketType(int id) {
+		PacketTypeStats[] current = types;
+		int index = index(id);
+		return index < current.length ? current[index] : null;
+	}
+
+	/**
+	 * @return Stats of each packet id recorded so far.
+	 */
+	public Collection<PacketTypeStats> getPacketTypes() {
+		List<PacketTypeStats> list = new ArrayList<>();
+		for (PacketTypeStats stats : types) {
+			if (stats != null) {
+				list.add(stats);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server. Failures to register are logged, not thrown,
+	 * so that a name clash does not prevent the owner from starting.
+	 *
+	 * @param type
+	 * 		Type of the owner of the metrics, such as {@code Server} or {@code Client}.
+	 */
+	public synchronized void publish(String type) {
+		if (!enabled || publishedType != null) {
+			return;
+		}
+		publishedType = type;
+		register(name(type, null, null), this);
+		for (PacketTypeStats stats : getPacketTypes()) {
+			register(packetName(type, stats), stats);
+		}
+		for (ConnectionStats stats : connections) {
+			register(connectionName(type, stats), stats);
+		}
+	}
+
+	/**
+	 * Unregisters the metrics from the platform MBean server. Recorded values are kept.
+	 */
+	public synchronized void unpublish() {
+		String type = publishedType;
+		if (type == null) {
+			return;
+		}
+		publishedType = null;
+		unregister(name(type, null, null));
+		for (PacketTypeStats stats : getPacketTypes()) {
+			unregister(packetName(type, stats));
+		}
+		for (ConnectionStats stats : connections) {
+			unregister(connectionName(type, stats));
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getConnectionCount() {
+		return connections.size();
+	}
+
+	@Override
+	public long getConnectionsOpened() {
+		return nextConnectionId.get();
+	}
+
+	@Override
+	public long getPacketsIn() {
+		long total = 0;
+		for (PacketTypeStats stats : getPacketTypes()) {
+			total += stats.getPacketsIn();
+		}
+		return total;
+	}
+
+	@Override
+	public long getBytesIn() {
+		long total = 0;
+		for (PacketTypeStats stats : getPacketTypes()) {
+			total += stats.getBytesIn();
+		}
+		return total;
+	}
+
+	@Override
+	public long getPacketsOut() {
+		long total = 0;
+		for (PacketTypeStats stats : getPacketTypes()) {
+			total += stats.getPacketsOut();
+		}
+		return total;
+	}
+
+	@Override
+	public long getBytesOut() {
+		long total = 0;
+		for (PacketTypeStats stats : getPacketTypes()) {
+			total += stats.getBytesOut();
+		}
+		return total;
+	}
+
+	@Override
+	public void reset() {
+		for (PacketTypeStats stats : getPacketTypes()) {
+			stats.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PacketMetrics[" + name + (enabled ? "" : ", disabled") + "]";
+	}
+
+	/**
+	 * @param id
+	 * 		Packet ID.
+	 *
+	 * @return Stats of the packet id, created on first use.
+	 */
+	PacketTypeStats type(int id) {
+		PacketTypeStats[] current = types;
+		int index = index(id);
+		PacketTypeStats stats;
+		if (index < current.length && (stats = current[index]) != null) {
+			return stats;
+		}
+		return createType(index);
+	}
+
+	/**
+	 * @param stats
+	 * 		Closed connection to stop tracking.
+	 */
+	synchronized void disconnect(ConnectionStats stats) {
+		if (connections.remove(stats) && publishedType != null) {
+			unregister(connectionName(publishedType, stats));
+		}
+	}
+
+	private synchronized PacketTypeStats createType(int index) {
+		PacketTypeStats[] current = types;
+		if (index < current.length && current[index] != null) {
+			return current[index];
+		}
+		PacketTypeStats stats = new PacketTypeStats(index);
+		PacketTypeStats[] copy = Arrays.copyOf(current, Math.max(current.length, index + 1));
+		copy[index] = stats;
+		types = copy;
+		if (publishedType != null) {
+			register(packetName(publishedType, stats), stats);
+		}
+		return stats;
+	}
+
+	private ObjectName packetName(String type, PacketTypeStats stats) {
+		return name(type, "Packet", String.valueOf(stats.getId()));
+	}
+
+	private ObjectName connectionName(String type, ConnectionStats stats) {
+		return name(type, "Connection", String.valueOf(stats.getId()));
+	}
+
+	private ObjectName name(String type, String category, String id) {
+		StringBuilder sb = new StringBuilder(DOMAIN).append(":type=").append(type)
+				.append(",name=").append(ObjectName.quote(name));
+		if (category != null) {
+			sb.append(",category=").append(category).append(",id=").append(id);
+		}
+		try {
+			return new ObjectName(sb.toString());
+		} catch (JMException ex) {
+			throw new IllegalArgumentException("Invalid metrics name: " + sb, ex);
+		}
+	}
+
+	private static void register(ObjectName objectName, Object bean) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(bean, objectName);
+		} catch (JMException ex) {
+			logger.warn("Could not publish metrics: {}", objectName, ex);
+		}
+	}
+
+	private static void unregister(ObjectName objectName) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException ex) {
+			logger.debug("Could not unpublish metrics: {}", objectName, ex);
+		}
+	}
+
+	/**
+	 * @param id
+	 * 		Packet ID, possibly sign extended from the single byte it is framed as.
+	 *
+	 * @return Index of the packet id's stats.
+	 */
+	private static int index(int id) {
+		return id < 0 ? id & 0xFF : id;
+	}
+}
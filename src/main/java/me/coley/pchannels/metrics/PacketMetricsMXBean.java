@@ -0,0 +1,48 @@
+package me.coley.pchannels.metrics;
+
+/**
+ * JMX view of the totals of a {@link me.coley.pchannels.Server} or {@link me.coley.pchannels.Client}.
+ *
+ * @author Matt Coley
+ */
+public interface PacketMetricsMXBean {
+	/**
+	 * @return Name the metrics are published under.
+	 */
+	String getName();
+
+	/**
+	 * @return Number of currently open connections.
+	 */
+	int getConnectionCount();
+
+	/**
+	 * @return Number of connections opened since creation.
+	 */
+	long getConnectionsOpened();
+
+	/**
+	 * @return Number of packets read.
+	 */
+	long getPacketsIn();
+
+	/**
+	 * @return Number of bytes read.
+	 */
+	long getBytesIn();
+
+	/**
+	 * @return Number of packets written.
+	 */
+	long getPacketsOut();
+
+	/**
+	 * @return Number of bytes written.
+	 */
+	long getBytesOut();
+
+	/**
+	 * Clears the counters and histograms of all packet ids.
+	 */
+	void reset();
+}
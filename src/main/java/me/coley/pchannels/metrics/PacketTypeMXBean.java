@@ -0,0 +1,54 @@
+package me.coley.pchannels.metrics;
+
+/**
+ * JMX view of the traffic of a single packet id, across all connections.
+ * Durations are in nanoseconds.
+ *
+ * @author Matt Coley
+ */
+public interface PacketTypeMXBean {
+	/**
+	 * @return Packet ID.
+	 */
+	int getId();
+
+	/**
+	 * @return Number of packets read.
+	 */
+	long getPacketsIn();
+
+	/**
+	 * @return Number of bytes read.
+	 */
+	long getBytesIn();
+
+	/**
+	 * @return Number of packets written.
+	 */
+	long getPacketsOut();
+
+	/**
+	 * @return Number of bytes written.
+	 */
+	long getBytesOut();
+
+	/**
+	 * @return Time taken to decode packets.
+	 */
+	HistogramSummary getDecodeTime();
+
+	/**
+	 * @return Time taken to encode packets.
+	 */
+	HistogramSummary getEncodeTime();
+
+	/**
+	 * @return Time taken by packet handlers.
+	 */
+	HistogramSummary getHandlerTime();
+
+	/**
+	 * Clears all counters and histograms.
+	 */
+	void reset();
+}
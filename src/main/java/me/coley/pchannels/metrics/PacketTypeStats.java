@@ -0,0 +1,123 @@
+package me.coley.pchannels.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic of a single packet id, across all connections of a {@link PacketMetrics}.
+ *
+ * @author Matt Coley
+ */
+public final class PacketTypeStats implements PacketTypeMXBean {
+	private final int id;
+	private final LongAdder packetsIn = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder packetsOut = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final Histogram decodeNanos = new Histogram();
+	private final Histogram encodeNanos = new Histogram();
+	private final Histogram handlerNanos = new Histogram();
+
+	PacketTypeStats(int id) {
+		this.id = id;
+	}
+
+	void onRead(int bytes, long nanos) {
+		packetsIn.increment();
+		bytesIn.add(bytes);
+		if (nanos >= 0) {
+			decodeNanos.record(nanos);
+		}
+	}
+
+	void onWrite(int bytes, long nanos) {
+		packetsOut.increment();
+		bytesOut.add(bytes);
+		if (nanos >= 0) {
+			encodeNanos.record(nanos);
+		}
+	}
+
+	void onHandled(long nanos) {
+		if (nanos >= 0) {
+			handlerNanos.record(nanos);
+		}
+	}
+
+	@Override
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public long getPacketsIn() {
+		return packetsIn.sum();
+	}
+
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	@Override
+	public long getPacketsOut() {
+		return packetsOut.sum();
+	}
+
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	@Override
+	public HistogramSummary getDecodeTime() {
+		return decodeNanos.summarize();
+	}
+
+	@Override
+	public HistogramSummary getEncodeTime() {
+		return encodeNanos.summarize();
+	}
+
+	@Override
+	public HistogramSummary getHandlerTime() {
+		return handlerNanos.summarize();
+	}
+
+	/**
+	 * @return Histogram of the time taken to decode packets, in nanoseconds.
+	 */
+	public Histogram getDecodeHistogram() {
+		return decodeNanos;
+	}
+
+	/**
+	 * @return Histogram of the time taken to encode packets, in nanoseconds.
+	 */
+	public Histogram getEncodeHistogram() {
+		return encodeNanos;
+	}
+
+	/**
+	 * @return Histogram of the time taken by packet handlers, in nanoseconds.
+	 */
+	public Histogram getHandlerHistogram() {
+		return handlerNanos;
+	}
+
+	@Override
+	public void reset() {
+		packetsIn.reset();
+		bytesIn.reset();
+		packetsOut.reset();
+		bytesOut.reset();
+		decodeNanos.reset();
+		encodeNanos.reset();
+		handlerNanos.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "PacketTypeStats[id=" + id + ", in=" + getPacketsIn() + "/" + getBytesIn() + "B, out=" +
+				getPacketsOut() + "/" + getBytesOut() + "B]";
+	}
+}
@@ -0,0 +1,218 @@
+package me.coley.pchannels.nio;
+
+import me.coley.pchannels.Connection;
+import me.coley.pchannels.packet.PacketHandler;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread multiplexing reads for any number of non-blocking {@link Connection}s via a {@link Selector}.
+ * Packets {@link Connection#writeAsync(me.coley.pchannels.packet.Packet) written asynchronously} that the channel
+ * could not accept right away are also written by the loop, once the channel becomes writable.
+ * Connections are closed when the end of their stream is reached, or a handler requests to stop handling.
+ * Use {@link Connection#addCloseListener(java.util.function.Consumer)} to be notified of this.
+ * Connections closed by other threads, such as for a timeout, have their decoder released by the loop,
+ * as only the loop may touch it.
+ *
+ * @author Matt Coley
+ */
+public class EventLoop implements Runnable, Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(EventLoop.class);
+	private static final ThreadLocal<EventLoop> CURRENT = new ThreadLocal<>();
+	private final Queue<Connection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+	private final Queue<SelectionKey> pendingWriteInterest = new ConcurrentLinkedQueue<>();
+	private final Queue<Connection> pendingReleases = new ConcurrentLinkedQueue<>();
+	private final PacketHandlerDelegator delegator;
+	private final Selector selector;
+	private volatile boolean running = true;
+
+	/**
+	 * @param delegator
+	 * 		Delegator with registered {@link PacketHandler}s to handle incoming packets.
+	 *
+	 * @throws IOException
+	 * 		When the selector cannot be opened.
+	 */
+	public EventLoop(PacketHandlerDelegator delegator) throws IOException {
+		this.delegator = delegator;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Queue the connection for registration with this loop.
+	 * The wrapped channel must be a {@link SelectableChannel} in non-blocking mode.
+	 *
+	 * @param connection
+	 * 		Connection to handle.
+	 */
+	public void register(Connection connection) {
+		if (!(connection.getChannel() instanceof SelectableChannel)) {
+			throw new IllegalArgumentException("Connection channel is not selectable: " + connection);
+		}
+		pendingRegistrations.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Loop threads must never wait on a connection's channel, as they may be the ones meant to write it.
+	 *
+	 * @return {@code true} when called from the thread running an event loop.
+	 */
+	public static boolean inEventLoop() {
+		return CURRENT.get() != null;
+	}
+
+	/**
+	 * @return Number of connections currently handled by this loop.
+	 */
+	public int getConnectionCount() {
+		try {
+			return selector.keys().size();
+		} catch (ClosedSelectorException ex) {
+			return 0;
+		}
+	}
+
+	@Override
+	public void run() {
+		CURRENT.set(this);
+		while (running) {
+			try {
+				selector.select();
+				registerPending();
+				addWriteInterest();
+				releaseClosed();
+				Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					if (key.isValid() && key.isReadable()) {
+						read(key);
+					}
+					if (key.isValid() && key.isWritable()) {
+						write(key);
+					}
+				}
+			} catch (ClosedSelectorException ex) {
+				break;
+			} catch (IOException ex) {
+				logger.error("Error in event loop selection", ex);
+			}
+		}
+		closeAll();
+		CURRENT.remove();
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	private void registerPending() {
+		Connection connection;
+		while ((connection = pendingRegistrations.poll()) != null) {
+			SelectableChannel channel = (SelectableChannel) connection.getChannel();
+			try {
+				SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+				connection.setWriteInterest(() -> requestWrite(key));
+				// Closing the channel cancels its key, so the loop would otherwise never see the connection again
+				connection.addCloseListener(this::requestRelease);
+			} catch (IOException ex) {
+				logger.error("Could not register connection: {}", connection, ex);
+				disconnect(null, connection);
+			}
+		}
+	}
+
+	private void requestWrite(SelectionKey key) {
+		// Interest ops are only changed on the loop thread, as doing so during a selection may block
+		pendingWriteInterest.add(key);
+		selector.wakeup();
+	}
+
+	private void requestRelease(Connection connection) {
+		pendingReleases.add(connection);
+		selector.wakeup();
+	}
+
+	private void releaseClosed() {
+		Connection connection;
+		while ((connection = pendingReleases.poll()) != null) {
+			connection.getDecoder().close();
+		}
+	}
+
+	private void addWriteInterest() {
+		SelectionKey key;
+		while ((key = pendingWriteInterest.poll()) != null) {
+			if (key.isValid()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	private void write(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		try {
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			if (connection.onWritable()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		} catch (Throwable t) {
+			logger.error("Error: {}", connection.getAddress(), t);
+			disconnect(key, connection);
+		}
+	}
+
+	private void read(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		try {
+			if (!connection.readAvailable(delegator)) {
+				disconnect(key, connection);
+			}
+		} catch (Throwable t) {
+			logger.error("Error: {}", connection.getAddress(), t);
+			disconnect(key, connection);
+		}
+	}
+
+	private void disconnect(SelectionKey key, Connection connection) {
+		if (key != null) {
+			key.cancel();
+		}
+		connection.getDecoder().close();
+		try {
+			connection.close();
+		} catch (IOException ex) {
+			logger.debug("Could not close connection: {}", connection, ex);
+		}
+	}
+
+	private void closeAll() {
+		try {
+			for (SelectionKey key : selector.keys()) {
+				disconnect(key, (Connection) key.attachment());
+			}
+			selector.close();
+		} catch (ClosedSelectorException | IOException ex) {
+			logger.debug("Error closing event loop selector", ex);
+		}
+		Connection connection;
+		while ((connection = pendingRegistrations.poll()) != null) {
+			disconnect(null, connection);
+		}
+		releaseClosed();
+	}
+}
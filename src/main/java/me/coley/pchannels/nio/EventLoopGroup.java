@@ -0,0 +1,77 @@
+package me.coley.pchannels.nio;
+
+import me.coley.pchannels.Connection;
+import me.coley.pchannels.Threads;
+import me.coley.pchannels.packet.PacketHandler;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed group of {@link EventLoop}s that connections are sharded across.
+ *
+ * @author Matt Coley
+ */
+public class EventLoopGroup implements Closeable {
+	private final AtomicInteger nextIndex = new AtomicInteger();
+	private final EventLoop[] loops;
+
+	/**
+	 * @param size
+	 * 		Number of event loops, each running on their own thread.
+	 * @param delegator
+	 * 		Delegator with registered {@link PacketHandler}s to handle incoming packets.
+	 *
+	 * @throws IOException
+	 * 		When the selector for any loop cannot be opened.
+	 */
+	public EventLoopGroup(int size, PacketHandlerDelegator delegator) throws IOException {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Event loop group size must be positive: " + size);
+		}
+		loops = new EventLoop[size];
+		for (int i = 0; i < size; i++) {
+			loops[i] = new EventLoop(delegator);
+		}
+	}
+
+	/**
+	 * Starts a thread for each loop in the group.
+	 */
+	public void start() {
+		for (int i = 0; i < loops.length; i++) {
+			Threads.daemon("pchannels-loop-" + i, loops[i]).start();
+		}
+	}
+
+	/**
+	 * @return Next loop to assign a new connection to.
+	 */
+	public EventLoop next() {
+		return loops[Math.floorMod(nextIndex.getAndIncrement(), loops.length)];
+	}
+
+	/**
+	 * @param connection
+	 * 		Connection to register to the {@link #next() next} loop.
+	 */
+	public void register(Connection connection) {
+		next().register(connection);
+	}
+
+	/**
+	 * @return Number of loops in the group.
+	 */
+	public int size() {
+		return loops.length;
+	}
+
+	@Override
+	public void close() {
+		for (EventLoop loop : loops) {
+			loop.close();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package me.coley.pchannels.packet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Packet outline that reads and writes its content directly with {@link ByteBuffer}s.
+ * {@link PacketFactory} prefers these methods over the stream based ones of {@link Packet}.
+ * <br>
+ * The buffers given to implementations are slices containing only the packet body,
+ * so absolute-position operations such as {@link ByteBuffer#getInt(int)} start at index {@code 0}.
+ * Buffers may be heap or direct, and are only valid for the duration of the call.
+ *
+ * @author Matt Coley
+ */
+public interface BufferPacket extends Packet {
+	/**
+	 * @return Exact length of content to be created by {@link #write(ByteBuffer)}.
+	 */
+	@Override
+	int getLength();
+
+	/**
+	 * @param in
+	 * 		Buffer to read from. Limited to the packet body.
+	 *
+	 * @throws IOException
+	 * 		When the buffer content is malformed.
+	 */
+	void read(ByteBuffer in) throws IOException;
+
+	/**
+	 * @param out
+	 * 		Buffer to write to. Limited to the {@link #getLength() packet length}.
+	 *
+	 * @throws IOException
+	 * 		When the packet content cannot be written.
+	 */
+	void write(ByteBuffer out) throws IOException;
+
+	/**
+	 * Reads the remaining stream content, then delegates to {@link #read(ByteBuffer)}.
+	 *
+	 * @param in
+	 * 		Data stream to read from.
+	 *
+	 * @throws IOException
+	 * 		When reading from the stream fails.
+	 */
+	@Override
+	default void read(DataInputStream in) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		int read;
+		while ((read = in.read(chunk)) != -1) {
+			baos.write(chunk, 0, read);
+		}
+		read(ByteBuffer.wrap(baos.toByteArray()));
+	}
+
+	/**
+	 * Delegates to {@link #write(ByteBuffer)}, then copies the result to the stream.
+	 *
+	 * @param out
+	 * 		Data stream to write to.
+	 *
+	 * @throws IOException
+	 * 		When writing to the stream fails.
+	 */
+	@Override
+	default void write(DataOutputStream out) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(getLength());
+		write(buffer);
+		out.write(buffer.array());
+	}
+}
@@ -0,0 +1,78 @@
+package me.coley.pchannels.packet;
+
+import me.coley.pchannels.packet.impl.RequestPacket;
+import me.coley.pchannels.packet.impl.ResponsePacket;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+/**
+ * Packet wrapping another packet along with a correlation id, pairing {@link RequestPacket requests}
+ * with their {@link ResponsePacket responses}.
+ * <br>
+ * Envelopes are encoded by {@link PacketFactory} directly, as decoding the wrapped packet requires
+ * the registry of the receiving side. The stream methods are not supported.
+ *
+ * @author Matt Coley
+ */
+public abstract class EnvelopePacket implements Packet {
+	/**
+	 * Size of the correlation id. The wrapped packet id follows as a {@link FrameFormat#varIntSize(int) varint}.
+	 */
+	protected static final int CORRELATION_ID_SIZE = 4;
+	private final int correlationId;
+	private final Packet payload;
+
+	/**
+	 * @param correlationId
+	 * 		Identifier pairing a request and its response.
+	 * @param payload
+	 * 		Wrapped packet.
+	 */
+	protected EnvelopePacket(int correlationId, Packet payload) {
+		this.correlationId = correlationId;
+		this.payload = payload;
+	}
+
+	/**
+	 * @param packet
+	 * 		Some packet.
+	 *
+	 * @return The packet wrapped by the given envelope, or the given packet if it is not an envelope.
+	 */
+	public static Packet unwrap(Packet packet) {
+		return packet instanceof EnvelopePacket ? ((EnvelopePacket) packet).getPayload() : packet;
+	}
+
+	/**
+	 * @return Identifier pairing a request and its response.
+	 */
+	public int getCorrelationId() {
+		return correlationId;
+	}
+
+	/**
+	 * @return Wrapped packet. May be {@code null} for envelopes that carry no packet.
+	 */
+	public Packet getPayload() {
+		return payload;
+	}
+
+	@Override
+	public int getLength() {
+		if (payload == null) {
+			return CORRELATION_ID_SIZE;
+		}
+		return CORRELATION_ID_SIZE + FrameFormat.varIntSize(payload.getId()) + Math.max(0, payload.getLength());
+	}
+
+	@Override
+	public void read(DataInputStream in) {
+		throw new UnsupportedOperationException("Envelopes are decoded by PacketFactory");
+	}
+
+	@Override
+	public void write(DataOutputStream out) {
+		throw new UnsupportedOperationException("Envelopes are encoded by PacketFactory");
+	}
+}
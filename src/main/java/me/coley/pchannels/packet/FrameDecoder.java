@@ -0,0 +1,393 @@
+package me.coley.pchannels.packet;
+
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.buffer.BufferAllocator;
+import me.coley.pchannels.compression.CompressionCodec;
+import me.coley.pchannels.metrics.ConnectionMetrics;
+import me.coley.pchannels.packet.impl.FilePacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Stateful per-connection decoder of packet frames.
+ * <br>
+ * Data is read from a channel into an accumulation buffer, as much as is available per read.
+ * Every complete frame in the buffer can then be taken via {@link #next()},
+ * with any trailing partial frame carried forward to be completed by later reads.
+ * <br>
+ * The accumulation buffer is taken from a {@link BufferAllocator} when reading,
+ * and given back once all buffered frames have been taken. Idle decoders thus do not hold onto any buffer.
+ * <br>
+ * {@link PacketFactory#compress(ByteBuffer, CompressionCodec, BufferAllocator) Compressed} frames are decompressed
+ * with a codec instance created the first time its ID is seen, and reused for later frames until {@link #close()}.
+ * <br>
+ * When {@link #setStreamingFiles(boolean) streaming files}, only the header of {@link FilePacket} frames is decoded.
+ * The content is left for the caller to take, from the buffer via {@link #takeBuffered(int)} and then from the channel,
+ * so that it never has to fit in the buffer.
+ * <br>
+ * Frame headers are read in the decoder's {@link #setFormat(FrameFormat) format}, which starts as {@link FrameFormat#V1}
+ * and may be switched between frames once a connection's handshake has agreed on another.
+ * <br>
+ * Each decoded frame is recorded to the decoder's {@link #setMetrics(ConnectionMetrics) metrics}, timed only when
+ * they are enabled.
+ * <br>
+ * Frames with a body over the {@link #setMaxFrameLength(int) max frame length} fail as soon as their header is read,
+ * before any buffer is grown to fit them. Compressed frames are checked against their uncompressed size too.
+ * <br>
+ * Instances are not thread safe, and are intended to be used by only the thread reading from the channel.
+ *
+ * @author Matt Coley
+ */
+public class FrameDecoder {
+	private static final int DEFAULT_CAPACITY = 8192;
+	private final PacketRegistry registry;
+	private final BufferAllocator allocator;
+	private final int initialCapacity;
+	private final FrameHeader header = new FrameHeader();
+	private FrameFormat format = FrameFormat.V1;
+	private ConnectionMetrics metrics = ConnectionMetrics.DISABLED;
+	private boolean timed;
+	private CompressionCodec[] codecs;
+	private ByteBuffer buffer;
+	private int readIndex;
+	private boolean streamingFiles;
+	private int maxFrameLength = Integer.MAX_VALUE;
+
+	/**
+	 * New decoder with the default initial buffer capacity, using the
+	 * {@link PacketFactory#getRegistry() global registry} and {@link PacketFactory#getAllocator() factory allocator}.
+	 */
+	public FrameDecoder() {
+		this(PacketFactory.getRegistry(), PacketFactory.getAllocator(), DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * New decoder with the default initial buffer capacity, using the {@link PacketFactory#getAllocator() factory allocator}.
+	 *
+	 * @param registry
+	 * 		Registry to create decoded packets from.
+	 */
+	public FrameDecoder(PacketRegistry registry) {
+		this(registry, PacketFactory.getAllocator(), DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity
+	 * 		Initial accumulation buffer capacity.
+	 * 		Grows as needed to fit larger frames.
+	 */
+	public FrameDecoder(int initialCapacity) {
+		this(PacketFactory.getRegistry(), PacketFactory.getAllocator(), initialCapacity);
+	}
+
+	/**
+	 * @param registry
+	 * 		Registry to create decoded packets from.
+	 * @param allocator
+	 * 		Allocator to provide the accumulation buffer.
+	 * @param initialCapacity
+	 * 		Initial accumulation buffer capacity.
+	 * 		Grows as needed to fit larger frames.
+	 */
+	public FrameDecoder(PacketRegistry registry, BufferAllocator allocator, int initialCapacity) {
+		this.registry = registry;
+		this.allocator = allocator;
+		this.initialCapacity = Math.max(initialCapacity, Constants.HEADER_BUFFER_SIZE);
+	}
+
+	/**
+	 * Reads as much data as the channel will give in a single call.
+	 *
+	 * @param channel
+	 * 		Channel to read from.
+	 *
+	 * @return Number of bytes read, possibly zero for non-blocking channels.
+	 * {@code -1} when the end of the stream has been reached.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be read from.
+	 */
+	public int readFrom(ReadableByteChannel channel) throws IOException {
+		prepareForRead();
+		return channel.read(buffer);
+	}
+
+	/**
+	 * @return Next complete packet in the buffer, or {@code null} if more data must be read first.
+	 *
+	 * @throws IOException
+	 * 		When a packet's deserialization fails, or the frame header is malformed.
+	 */
+	public Packet next() throws IOException {
+		if (buffer == null) {
+			return null;
+		}
+		int available = buffer.position() - readIndex;
+		if (available == 0) {
+			release();
+			return null;
+		}
+		if (!readHeader(available)) {
+			return null;
+		}
+		int id = header.id;
+		int size = header.bodySize;
+		int headerSize = header.size;
+		int bodyIndex = readIndex + headerSize;
+		long start = timed ? System.nanoTime() : 0L;
+		Packet packet;
+		if (streamingFiles && id == Constants.ID_FILE) {
+			packet = nextFileHeader(bodyIndex, size, available - headerSize);
+			if (packet == null) {
+				return null;
+			}
+		} else if (available - headerSize < size) {
+			return null;
+		} else {
+			ByteBuffer body = buffer.duplicate();
+			body.limit(bodyIndex + size);
+			body.position(bodyIndex);
+			readIndex = bodyIndex + size;
+			if (header.compressed) {
+				ByteBuffer decompressed = PacketFactory.decompress(body, codec(body.get(bodyIndex) & 0xFF), allocator,
+						maxFrameLength);
+				try {
+					packet = PacketFactory.read(registry, id, decompressed);
+				} finally {
+					allocator.release(decompressed);
+				}
+			} else {
+				packet = PacketFactory.read(registry, id, body);
+			}
+		}
+		if (timed) {
+			metrics.onRead(id, headerSize + size, System.nanoTime() - start);
+		}
+		return packet;
+	}
+
+	/**
+	 * Takes buffered data following the last decoded frame, without decoding it.
+	 * Used for the content of {@link FilePacket}s when {@link #setStreamingFiles(boolean) streaming files}.
+	 *
+	 * @param max
+	 * 		Maximum number of bytes to take.
+	 *
+	 * @return Buffer of the taken data, valid until the next read. Empty when nothing is buffered.
+	 */
+	public ByteBuffer takeBuffered(int max) {
+		if (buffer == null) {
+			return ByteBuffer.allocate(0);
+		}
+		int count = Math.min(max, buffer.position() - readIndex);
+		ByteBuffer taken = buffer.duplicate();
+		taken.limit(readIndex + count);
+		taken.position(readIndex);
+		readIndex += count;
+		return taken;
+	}
+
+	/**
+	 * @param streamingFiles
+	 * 		{@code true} to only decode the header of {@link FilePacket} frames, leaving the content to the caller.
+	 * 		{@code false} to decode them like any other frame, skipping the content.
+	 */
+	public void setStreamingFiles(boolean streamingFiles) {
+		this.streamingFiles = streamingFiles;
+	}
+
+	/**
+	 * @param format
+	 * 		Format of the frame headers following the last decoded frame.
+	 */
+	public void setFormat(FrameFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * @return Format of frame headers being decoded.
+	 */
+	public FrameFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @param maxFrameLength
+	 * 		Maximum body size in bytes of decoded frames. The content of {@link FilePacket}s is not counted
+	 * 		when {@link #setStreamingFiles(boolean) streaming files}, as it is never buffered.
+	 */
+	public void setMaxFrameLength(int maxFrameLength) {
+		if (maxFrameLength <= 0) {
+			throw new IllegalArgumentException("Max frame length must be positive: " + maxFrameLength);
+		}
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	/**
+	 * @return Maximum body size in bytes of decoded frames.
+	 */
+	public int getMaxFrameLength() {
+		return maxFrameLength;
+	}
+
+	/**
+	 * @param metrics
+	 * 		Recorder of decoded frames.
+	 */
+	public void setMetrics(ConnectionMetrics metrics) {
+		this.metrics = metrics;
+		this.timed = metrics.isEnabled();
+	}
+
+	/**
+	 * @return {@code true} when some data belonging to an incomplete frame is buffered.
+	 */
+	public boolean hasPartialFrame() {
+		return buffer != null && buffer.position() > readIndex;
+	}
+
+	/**
+	 * Gives the accumulation buffer back to the allocator, discarding any buffered data.
+	 * Must only be called by the thread reading from the channel.
+	 */
+	public void release() {
+		if (buffer != null) {
+			allocator.release(buffer);
+			buffer = null;
+			readIndex = 0;
+		}
+	}
+
+	/**
+	 * Reads the header of the frame at the read index.
+	 *
+	 * @param available
+	 * 		Number of bytes buffered from the read index.
+	 *
+	 * @return {@code true} when the header is complete.
+	 *
+	 * @throws IOException
+	 * 		When the header is malformed, or the frame body is over the max frame length.
+	 */
+	private boolean readHeader(int available) throws IOException {
+		if (!format.readHeader(buffer, readIndex, available, header)) {
+			return false;
+		}
+		if (header.bodySize > maxFrameLength && !(streamingFiles && header.id == Constants.ID_FILE)) {
+			throw new IOException("Frame of packet " + header.id + " is " + header.bodySize +
+					" bytes, over the max frame length of " + maxFrameLength);
+		}
+		return true;
+	}
+
+	/**
+	 * @param bodyIndex
+	 * 		Index of the frame body in the buffer.
+	 * @param size
+	 * 		Size of the frame body.
+	 * @param available
+	 * 		Number of body bytes buffered.
+	 *
+	 * @return File packet header, or {@code null} if more data must be read first.
+	 */
+	private Packet nextFileHeader(int bodyIndex, int size, int available) {
+		if (available < FilePacket.FIXED_HEADER_SIZE) {
+			return null;
+		}
+		int headerLength = FilePacket.FIXED_HEADER_SIZE + (buffer.getShort(bodyIndex + FilePacket.FIXED_HEADER_SIZE - 2) & 0xFFFF);
+		if (available < headerLength) {
+			return null;
+		}
+		ByteBuffer header = buffer.duplicate();
+		header.limit(bodyIndex + headerLength);
+		header.position(bodyIndex);
+		readIndex = bodyIndex + headerLength;
+		return FilePacket.readHeader(header, size - headerLength);
+	}
+
+	/**
+	 * Releases the buffer and any codecs used to decompress frames.
+	 * Must only be called once the channel is no longer read from.
+	 */
+	public void close() {
+		release();
+		if (codecs != null) {
+			for (CompressionCodec codec : codecs) {
+				if (codec != null) {
+					codec.close();
+				}
+			}
+			codecs = null;
+		}
+	}
+
+	/**
+	 * @param codecId
+	 * 		Codec ID read from a compressed body.
+	 *
+	 * @return Codec instance of this decoder for the ID.
+	 *
+	 * @throws IOException
+	 * 		When no codec is registered under the ID.
+	 */
+	private CompressionCodec codec(int codecId) throws IOException {
+		if (codecs == null) {
+			codecs = new CompressionCodec[256];
+		}
+		CompressionCodec codec = codecs[codecId];
+		if (codec == null) {
+			codecs[codecId] = codec = PacketFactory.createCodec(codecId);
+		}
+		return codec;
+	}
+
+	/**
+	 * Ensures there is space in the buffer for the next read.
+	 * Consumed data is discarded, and the buffer is grown if the current partial frame would not fit.
+	 *
+	 * @throws IOException
+	 * 		When the buffered frame header is malformed.
+	 */
+	private void prepareForRead() throws IOException {
+		if (buffer == null) {
+			buffer = allocator.allocate(initialCapacity);
+			buffer.limit(buffer.capacity());
+			readIndex = 0;
+			return;
+		}
+		int available = buffer.position() - readIndex;
+		if (available == 0) {
+			// Everything consumed, start from the beginning
+			buffer.clear();
+			readIndex = 0;
+			return;
+		}
+		// Determine how large the buffer must be to hold the current frame
+		int required = format.getMaxHeaderSize();
+		if (readHeader(available)) {
+			required = header.size;
+			if (streamingFiles && header.id == Constants.ID_FILE) {
+				// Only the file header needs to fit, the content is taken as it arrives
+				required += FilePacket.FIXED_HEADER_SIZE;
+				if (available >= required) {
+					required += buffer.getShort(readIndex + required - 2) & 0xFFFF;
+				}
+			} else {
+				required += header.bodySize;
+			}
+		}
+		if (required > buffer.capacity() || (readIndex > 0 && (!buffer.hasRemaining() || readIndex + required > buffer.capacity()))) {
+			// Shift the partial frame to the front to make room for the rest of it, growing if needed
+			buffer.flip();
+			buffer.position(readIndex);
+			buffer.compact();
+			readIndex = 0;
+			if (required > buffer.capacity()) {
+				buffer = allocator.grow(buffer, required);
+				buffer.limit(buffer.capacity());
+			}
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package me.coley.pchannels.packet;
+
+import me.coley.pchannels.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the header in front of each frame body. Bodies are the same in every format.
+ * <ul>
+ *     <li>{@link #V1}: a single byte packet id, then a four byte body size whose sign bit is the
+ *     {@link Constants#COMPRESSED_FLAG compressed flag}. Always five bytes, and limited to ids up to 255.</li>
+ *     <li>{@link #V2}: a varint packet id, a varint body size, then a byte of {@link Constants#FRAME_FLAG_COMPRESSED flags}.
+ *     Three bytes for small packets with ids below 128, and supports every id a {@link PacketRegistry} does.</li>
+ * </ul>
+ * Connections start out with {@link #V1}, and switch once a handshake agrees on a later version.
+ * <br>
+ * Varints are unsigned LEB128: seven bits per byte, least significant group first,
+ * with the high bit set on every byte but the last.
+ *
+ * @author Matt Coley
+ */
+public abstract class FrameFormat {
+	/**
+	 * Fixed five byte header.
+	 */
+	public static final FrameFormat V1 = new FixedFormat();
+	/**
+	 * Variable length header.
+	 */
+	public static final FrameFormat V2 = new VarIntFormat();
+	/**
+	 * Format of the {@link Constants#PROTOCOL_VERSION latest protocol version}.
+	 */
+	public static final FrameFormat LATEST = V2;
+	private static final int MAX_VARINT_SIZE = 5;
+
+	private FrameFormat() {
+	}
+
+	/**
+	 * @param version
+	 * 		Protocol version.
+	 *
+	 * @return Frame format of the version.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		When the version is not supported.
+	 */
+	public static FrameFormat of(int version) {
+		switch (version) {
+			case 1:
+				return V1;
+			case 2:
+				return V2;
+			default:
+				throw new IllegalArgumentException("Unsupported protocol version: " + version);
+		}
+	}
+
+	/**
+	 * @return Protocol version of the format.
+	 */
+	public abstract int getVersion();
+
+	/**
+	 * @return Largest size of a header. Encoders reserve this much in front of the body.
+	 */
+	public abstract int getMaxHeaderSize();
+
+	/**
+	 * @param id
+	 * 		Packet id.
+	 * @param bodySize
+	 * 		Size of the frame body.
+	 *
+	 * @return Size of the header for the given values.
+	 */
+	public abstract int getHeaderSize(int id, int bodySize);
+
+	/**
+	 * @param buffer
+	 * 		Buffer to write to, at an absolute index. The position is not changed.
+	 * @param index
+	 * 		Index to write the header at. Must have {@link #getHeaderSize(int, int)} bytes of space.
+	 * @param id
+	 * 		Packet id.
+	 * @param bodySize
+	 * 		Size of the frame body.
+	 * @param compressed
+	 * 		{@code true} when the body is compressed.
+	 *
+	 * @throws IOException
+	 * 		When the id cannot be represented in this format.
+	 */
+	public abstract void writeHeader(ByteBuffer buffer, int index, int id, int bodySize, boolean compressed) throws IOException;
+
+	/**
+	 * @param buffer
+	 * 		Buffer to read from, at an absolute index. The position is not changed.
+	 * @param index
+	 * 		Index the header starts at.
+	 * @param available
+	 * 		Number of bytes available from the index.
+	 * @param header
+	 * 		Header to fill in.
+	 *
+	 * @return {@code true} when the header was read. {@code false} when more data is needed to complete it.
+	 *
+	 * @throws IOException
+	 * 		When the header is malformed.
+	 */
+	public abstract boolean readHeader(ByteBuffer buffer, int index, int available, FrameHeader header) throws IOException;
+
+	/**
+	 * @param frame
+	 * 		Complete encoded frame, from its position.
+	 *
+	 * @return Header of the frame.
+	 *
+	 * @throws IOException
+	 * 		When the header is malformed or incomplete.
+	 */
+	public FrameHeader readHeader(ByteBuffer frame) throws IOException {
+		FrameHeader header = new FrameHeader();
+		if (!readHeader(frame, frame.position(), frame.remaining(), header)) {
+			throw new IOException("Incomplete frame header");
+		}
+		return header;
+	}
+
+	/**
+	 * Re-encodes the header of a frame in this format. The body is copied as-is.
+	 *
+	 * @param frame
+	 * 		Complete encoded frame, from its position. Not modified.
+	 * @param from
+	 * 		Format of the frame.
+	 * @param buffer
+	 * 		Buffer to write the converted frame to, from its position.
+	 * 		Must have room for the body and {@link #getMaxHeaderSize()}.
+	 *
+	 * @throws IOException
+	 * 		When the frame header is malformed, or cannot be represented in this format.
+	 */
+	public void convert(ByteBuffer frame, FrameFormat from, ByteBuffer buffer) throws IOException {
+		FrameHeader header = from.readHeader(frame);
+		int headerSize = getHeaderSize(header.id, header.bodySize);
+		writeHeader(buffer, buffer.position(), header.id, header.bodySize, header.compressed);
+		buffer.position(buffer.position() + headerSize);
+		ByteBuffer body = frame.duplicate();
+		body.position(frame.position() + header.size);
+		buffer.put(body);
+	}
+
+	@Override
+	public String toString() {
+		return "v" + getVersion();
+	}
+
+	/**
+	 * @param value
+	 * 		Value to encode, treated as unsigned.
+	 *
+	 * @return Number of bytes the value takes as a varint.
+	 */
+	public static int varIntSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * @param buffer
+	 * 		Buffer to write to, from its position.
+	 * @param value
+	 * 		Value to encode, treated as unsigned.
+	 */
+	public static void putVarInt(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * @param buffer
+	 * 		Buffer to read from, from its position.
+	 *
+	 * @return Decoded value.
+	 *
+	 * @throws IOException
+	 * 		When the varint is longer than five bytes, or the buffer ends before it does.
+	 */
+	public static int getVarInt(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		for (int i = 0; i < MAX_VARINT_SIZE; i++) {
+			if (!buffer.hasRemaining()) {
+				throw new IOException("Buffer ended part way through a varint");
+			}
+			int b = buffer.get();
+			value |= (b & 0x7F) << (7 * i);
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varint longer than " + MAX_VARINT_SIZE + " bytes");
+	}
+
+	/**
+	 * @param buffer
+	 * 		Buffer to write to.
+	 * @param index
+	 * 		Absolute index to write at.
+	 * @param value
+	 * 		Value to encode, treated as unsigned.
+	 *
+	 * @return Index following the varint.
+	 */
+	private static int setVarInt(ByteBuffer buffer, int index, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put(index++, (byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put(index++, (byte) value);
+		return index;
+	}
+
+	private static final class FixedFormat extends FrameFormat {
+		@Override
+		public int getVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMaxHeaderSize() {
+			return Constants.HEADER_BUFFER_SIZE;
+		}
+
+		@Override
+		public int getHeaderSize(int id, int bodySize) {
+			return Constants.HEADER_BUFFER_SIZE;
+		}
+
+		@Override
+		public void writeHeader(ByteBuffer buffer, int index, int id, int bodySize, boolean compressed) throws IOException {
+			if ((id & ~0xFF) != 0) {
+				throw new IOException("Packet id " + id + " does not fit a v1 frame header, which requires protocol v2");
+			}
+			buffer.put(index, (byte) id);
+			buffer.putInt(index + 1, compressed ? bodySize | Constants.COMPRESSED_FLAG : bodySize);
+		}
+
+		@Override
+		public boolean readHeader(ByteBuffer buffer, int index, int available, FrameHeader header) {
+			if (available < Constants.HEADER_BUFFER_SIZE) {
+				return false;
+			}
+			int size = buffer.getInt(index + 1);
+			header.id = buffer.get(index) & 0xFF;
+			header.bodySize = size & ~Constants.COMPRESSED_FLAG;
+			header.compressed = (size & Constants.COMPRESSED_FLAG) != 0;
+			header.size = Constants.HEADER_BUFFER_SIZE;
+			return true;
+		}
+	}
+
+	private static final class VarIntFormat extends FrameFormat {
+		@Override
+		public int getVersion() {
+			return 2;
+		}
+
+		@Override
+		public int getMaxHeaderSize() {
+			return MAX_VARINT_SIZE * 2 + 1;
+		}
+
+		@Override
+		public int getHeaderSize(int id, int bodySize) {
+			return varIntSize(id) + varIntSize(bodySize) + 1;
+		}
+
+		@Override
+		public void writeHeader(ByteBuffer buffer, int index, int id, int bodySize, boolean compressed) {
+			index = setVarInt(buffer, index, id);
+			index = setVarInt(buffer, index, bodySize);
+			buffer.put(index, (byte) (compressed ? Constants.FRAME_FLAG_COMPRESSED : 0));
+		}
+
+		@Override
+		public boolean readHeader(ByteBuffer buffer, int index, int available, FrameHeader header) throws IOException {
+			int end = index + available;
+			int i = index;
+			int id = 0;
+			int shift = 0;
+			int b;
+			do {
+				if (i == end) {
+					return false;
+				} else if (shift > 28) {
+					throw new IOException("Malformed frame header, packet id varint too long");
+				}
+				b = buffer.get(i++);
+				id |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			int bodySize = 0;
+			shift = 0;
+			do {
+				if (i == end) {
+					return false;
+				} else if (shift > 28) {
+					throw new IOException("Malformed frame header, body size varint too long");
+				}
+				b = buffer.get(i++);
+				bodySize |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			if (i == end) {
+				return false;
+			}
+			int flags = buffer.get(i++);
+			if (bodySize < 0) {
+				throw new IOException("Malformed frame header, negative body size " + bodySize);
+			} else if ((flags & ~Constants.FRAME_FLAG_COMPRESSED) != 0) {
+				throw new IOException("Malformed frame header, unknown flags " + Integer.toBinaryString(flags & 0xFF));
+			}
+			header.id = id;
+			header.bodySize = bodySize;
+			header.compressed = (flags & Constants.FRAME_FLAG_COMPRESSED) != 0;
+			header.size = i - index;
+			return true;
+		}
+	}
+}
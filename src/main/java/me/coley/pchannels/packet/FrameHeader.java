@@ -0,0 +1,48 @@
+package me.coley.pchannels.packet;
+
+/**
+ * Fields of a decoded frame header, as read by {@link FrameFormat#readHeader(java.nio.ByteBuffer, int, int, FrameHeader)}.
+ * Instances are reused between frames, so values are only valid until the next read into the same instance.
+ *
+ * @author Matt Coley
+ */
+public final class FrameHeader {
+	int id;
+	int bodySize;
+	boolean compressed;
+	int size;
+
+	/**
+	 * @return Packet id of the frame.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return Size of the frame body, following the header.
+	 */
+	public int getBodySize() {
+		return bodySize;
+	}
+
+	/**
+	 * @return {@code true} when the body is {@link PacketFactory#compress(java.nio.ByteBuffer, FrameFormat,
+	 * me.coley.pchannels.compression.CompressionCodec, me.coley.pchannels.buffer.BufferAllocator) compressed}.
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return Size of the header itself.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "FrameHeader[id=" + id + ", body=" + bodySize + (compressed ? ", compressed" : "") + "]";
+	}
+}
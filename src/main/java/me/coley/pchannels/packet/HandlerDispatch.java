@@ -0,0 +1,20 @@
+package me.coley.pchannels.packet;
+
+/**
+ * Where a {@link PacketHandler} is run, relative to the thread reading packets.
+ *
+ * @author Matt Coley
+ */
+public enum HandlerDispatch {
+	/**
+	 * Run on the thread that read the packet.
+	 * Appropriate for fast handlers that do not block.
+	 */
+	INLINE,
+	/**
+	 * Run on the {@link PacketHandlerDelegator#setWorkerExecutor(java.util.concurrent.Executor) worker pool}.
+	 * Appropriate for slow or blocking handlers, such as those doing disk or database IO,
+	 * so that they do not stall reading. Packets from the same connection are still handled in order.
+	 */
+	OFFLOAD
+}
@@ -6,6 +6,7 @@ import java.io.IOException;
 
 /**
  * Basic packet outline.
+ * For packets that can read and write their content directly with buffers see {@link BufferPacket}.
  *
  * @author Matt Coley
  */
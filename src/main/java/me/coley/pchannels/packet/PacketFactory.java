@@ -1,17 +1,28 @@
 package me.coley.pchannels.packet;
 
+import me.coley.pchannels.Client;
 import me.coley.pchannels.Constants;
+import me.coley.pchannels.Server;
+import me.coley.pchannels.buffer.BufferAllocator;
+import me.coley.pchannels.buffer.PooledBufferAllocator;
+import me.coley.pchannels.compression.CompressionCodec;
+import me.coley.pchannels.compression.CompressionCodecs;
 import me.coley.pchannels.packet.impl.AlivePacket;
 import me.coley.pchannels.packet.impl.ClosePacket;
+import me.coley.pchannels.packet.impl.CompressionPacket;
+import me.coley.pchannels.packet.impl.FilePacket;
+import me.coley.pchannels.packet.impl.HandshakePacket;
+import me.coley.pchannels.packet.impl.RequestPacket;
+import me.coley.pchannels.packet.impl.ResponsePacket;
+import me.coley.pchannels.packet.impl.StreamChunkPacket;
+import me.coley.pchannels.packet.impl.StreamCreditPacket;
+import me.coley.pchannels.packet.impl.StreamOpenPacket;
+import me.coley.pchannels.packet.serial.Serialization;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Supplier;
 
@@ -21,24 +32,54 @@ import java.util.function.Supplier;
  * @author Matt Coley
  */
 public class PacketFactory {
-	private static final ByteBuffer HEADER_BUFFER = ByteBuffer.allocate(Constants.HEADER_BUFFER_SIZE);
-	private static final Map<Integer, Supplier<Packet>> SUPPLIERS = new HashMap<>();
+	private static final PacketRegistry REGISTRY = new PacketRegistry();
+	private static volatile BufferAllocator allocator = new PooledBufferAllocator(false);
 
 	static {
 		register(Constants.ID_ALIVE, AlivePacket::new);
 		register(Constants.ID_CLOSE, ClosePacket::new);
+		register(Constants.ID_COMPRESSION, CompressionPacket::new);
+		register(Constants.ID_FILE, FilePacket::new);
+		register(Constants.ID_STREAM_CHUNK, StreamChunkPacket::new);
+		register(Constants.ID_STREAM_CREDIT, StreamCreditPacket::new);
+		register(Constants.ID_HANDSHAKE, HandshakePacket::new);
 	}
 
 	/**
-	 * @return Current registered packet suppliers.
+	 * @return Snapshot of the current globally registered packet suppliers.
 	 * Key values are {@link Packet#getId()}.
 	 */
 	public static Map<Integer, Supplier<Packet>> getPacketSuppliers() {
-		return SUPPLIERS;
+		return REGISTRY.asMap();
 	}
 
 	/**
-	 * Registers a packet supplier to the given packet ID.
+	 * @return Global packet registry. Acts as the parent of {@link Client} and {@link Server} registries.
+	 */
+	public static PacketRegistry getRegistry() {
+		return REGISTRY;
+	}
+
+	/**
+	 * @return Allocator used for buffers in the packet read and write paths.
+	 */
+	public static BufferAllocator getAllocator() {
+		return allocator;
+	}
+
+	/**
+	 * @param allocator
+	 * 		Allocator to use for buffers in the packet read and write paths.
+	 */
+	public static void setAllocator(BufferAllocator allocator) {
+		if (allocator == null) {
+			throw new IllegalArgumentException("Allocator cannot be null");
+		}
+		PacketFactory.allocator = allocator;
+	}
+
+	/**
+	 * Registers a packet supplier to the given packet ID in the {@link #getRegistry() global registry}.
 	 *
 	 * @param id
 	 * 		Packet identifier.
@@ -46,13 +87,30 @@ public class PacketFactory {
 	 * 		Supplier to create new instances of the packet <i>(For reading)</i>.
 	 */
 	public static void register(int id, Supplier<Packet> supplier) {
-		if (SUPPLIERS.containsKey(id)) {
-			throw new IllegalArgumentException("The packet ID " + id + " is already registered!");
-		}
-		SUPPLIERS.put(id, supplier);
+		REGISTRY.register(id, supplier);
+	}
+
+	/**
+	 * Registers a recycled packet type to the given packet ID in the {@link #getRegistry() global registry}.
+	 *
+	 * @param id
+	 * 		Packet identifier.
+	 * @param supplier
+	 * 		Supplier to create new instances of the packet when the pool is empty.
+	 * @param <P>
+	 * 		Packet type.
+	 *
+	 * @return Pool the packet instances are taken from.
+	 *
+	 * @see PacketRegistry#registerPooled(int, Supplier)
+	 */
+	public static <P extends PooledPacket> PacketPool<P> registerPooled(int id, Supplier<P> supplier) {
+		return REGISTRY.registerPooled(id, supplier);
 	}
 
 	/**
+	 * Reads a single {@link FrameFormat#V1 v1} frame.
+	 *
 	 * @param channel
 	 * 		Channel to read remaining data from.
 	 *
@@ -62,67 +120,402 @@ public class PacketFactory {
 	 * 		When a packet's deserialization fails.
 	 */
 	public static Packet read(ByteChannel channel) throws IOException {
-		int id;
-		int size;
-		synchronized (HEADER_BUFFER) {
-			// Fill the buffer and
-			channel.read(HEADER_BUFFER);
-			HEADER_BUFFER.position(0);
-			// Get packet information and handle the rest of the data
-			id = HEADER_BUFFER.get();
-			size = HEADER_BUFFER.getInt();
-			// Reset buffer for next call
-			HEADER_BUFFER.clear();
-		}
+		// Read packet information
+		ByteBuffer header = ByteBuffer.allocate(Constants.HEADER_BUFFER_SIZE);
+		readFully(channel, header);
+		header.flip();
+		int id = header.get() & 0xFF;
+		int size = header.getInt();
+		boolean compressed = (size & Constants.COMPRESSED_FLAG) != 0;
+		size &= ~Constants.COMPRESSED_FLAG;
 		// Read remaining data into buffer
-		ByteBuffer buffer = ByteBuffer.allocate(size);
-		if (size > 0) {
-			channel.read(buffer);
+		BufferAllocator allocator = PacketFactory.allocator;
+		ByteBuffer buffer = allocator.allocate(size);
+		try {
+			readFully(channel, buffer);
+			buffer.flip();
+			if (compressed) {
+				// No per-connection state to reuse here, so the codec only lives for this frame
+				CompressionCodec codec = createCodec(buffer.get(0) & 0xFF);
+				ByteBuffer body = null;
+				try {
+					body = decompress(buffer, codec, allocator);
+					return read(id, body);
+				} finally {
+					codec.close();
+					if (body != null) {
+						allocator.release(body);
+					}
+				}
+			}
+			return read(id, buffer);
+		} finally {
+			allocator.release(buffer);
+		}
+	}
+
+	/**
+	 * @param id
+	 * 		Packet identifier, read from the packet header.
+	 * @param body
+	 * 		Buffer containing the packet body content.
+	 *
+	 * @return Packet from the given information.
+	 *
+	 * @throws IOException
+	 * 		When a packet's deserialization fails.
+	 */
+	public static Packet read(int id, ByteBuffer body) throws IOException {
+		return read(REGISTRY, id, body);
+	}
+
+	/**
+	 * @param registry
+	 * 		Registry to create the packet from.
+	 * @param id
+	 * 		Packet identifier, read from the packet header.
+	 * @param body
+	 * 		Buffer containing the packet body content.
+	 *
+	 * @return Packet from the given information.
+	 *
+	 * @throws IOException
+	 * 		When a packet's deserialization fails.
+	 */
+	public static Packet read(PacketRegistry registry, int id, ByteBuffer body) throws IOException {
+		if (id == Constants.ID_REQUEST) {
+			ByteBuffer content = envelope(body, 4);
+			int correlationId = content.getInt();
+			return new RequestPacket(correlationId, read(registry, FrameFormat.getVarInt(content), content));
+		} else if (id == Constants.ID_RESPONSE) {
+			ByteBuffer content = envelope(body, 5);
+			int correlationId = content.getInt();
+			if (content.get() == ResponsePacket.STATUS_FAILURE) {
+				// Checked against the remaining bytes, so a bogus length cannot allocate past the frame
+				String error = Serialization.getString(content);
+				if (error == null) {
+					throw new IOException("Failed response " + correlationId + " is missing its error");
+				}
+				return ResponsePacket.failure(correlationId, error);
+			}
+			return ResponsePacket.success(correlationId, read(registry, FrameFormat.getVarInt(content), content));
+		} else if (id == Constants.ID_STREAM_OPEN) {
+			ByteBuffer content = envelope(body, 4);
+			int streamId = content.getInt();
+			return new StreamOpenPacket(streamId, read(registry, FrameFormat.getVarInt(content), content));
 		}
-		byte[] data = buffer.array();
 		// Create and read packet data
-		Packet packet = fromId(id);
+		Packet packet = registry.create(id);
 		if (packet.getId() != id) {
 			throw new IllegalStateException("Packet registered to " + id + " has different id " + packet.getId());
 		}
-		packet.read(new DataInputStream(new ByteArrayInputStream(data)));
+		try {
+			if (packet instanceof BufferPacket) {
+				((BufferPacket) packet).read(body.slice());
+			} else {
+				StreamCodec.read(packet, body);
+			}
+		} catch (IOException | RuntimeException ex) {
+			if (packet instanceof PooledPacket) {
+				((PooledPacket) packet).release();
+			}
+			throw ex;
+		}
 		return packet;
 	}
 
+	/**
+	 * @param body
+	 * 		Buffer containing an envelope's body content.
+	 * @param headerSize
+	 * 		Number of bytes the envelope's fixed header takes.
+	 *
+	 * @return Duplicate of the body to read the envelope from.
+	 *
+	 * @throws IOException
+	 * 		When the body is too short to hold the header.
+	 */
+	private static ByteBuffer envelope(ByteBuffer body, int headerSize) throws IOException {
+		if (body.remaining() < headerSize) {
+			throw new IOException("Envelope of " + body.remaining() + " bytes is shorter than its header of " +
+					headerSize + " bytes");
+		}
+		return body.duplicate();
+	}
+
 	/**
 	 * @param packet
 	 * 		Packet with data to write.
 	 *
-	 * @return Buffer containing packet's data.
+	 * @return Buffer containing packet's data, allocated by the {@link #getAllocator() current allocator}.
+	 * The buffer can be given back to the allocator once it has been written.
 	 *
 	 * @throws IOException
 	 * 		When a packet's serialization fails.
 	 */
 	public static ByteBuffer write(Packet packet) throws IOException {
-		// Create expanding byte[] using streams
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		DataOutputStream dos = new DataOutputStream(baos);
-		// Write header info
-		dos.writeByte(packet.getId());
-		dos.writeInt(packet.getLength());
-		// Write packet data
-		packet.write(dos);
-		// Wrap in buffer
-		byte[] raw = baos.toByteArray();
-		return ByteBuffer.wrap(raw);
+		return write(packet, allocator);
 	}
 
 	/**
-	 * @param id
-	 * 		Some key value mapping to a {@link Packet#getId()}.
+	 * @param packet
+	 * 		Packet with data to write.
+	 * @param allocator
+	 * 		Allocator to provide the buffer with.
 	 *
-	 * @return New packet instance of associated type.
+	 * @return Buffer containing packet's data, as a {@link FrameFormat#V1 v1} frame.
+	 * The buffer can be given back to the allocator once it has been written.
+	 *
+	 * @throws IOException
+	 * 		When a packet's serialization fails.
+	 */
+	public static ByteBuffer write(Packet packet, BufferAllocator allocator) throws IOException {
+		return write(packet, FrameFormat.V1, allocator);
+	}
+
+	/**
+	 * @param packet
+	 * 		Packet with data to write.
+	 * @param format
+	 * 		Format of the frame header.
+	 * @param allocator
+	 * 		Allocator to provide the buffer with.
+	 *
+	 * @return Buffer containing packet's data, from its position. The position is not necessarily zero,
+	 * as the header size is only known once the body is written.
+	 * The buffer can be given back to the allocator once it has been written.
+	 *
+	 * @throws IOException
+	 * 		When a packet's serialization fails, or its id cannot be represented in the format.
+	 */
+	public static ByteBuffer write(Packet packet, FrameFormat format, BufferAllocator allocator) throws IOException {
+		int maxHeaderSize = format.getMaxHeaderSize();
+		int length = packet.getLength();
+		ByteBuffer buffer = allocator.allocate(maxHeaderSize + Math.max(0, length));
+		try {
+			// Header is written in front of the body once its size is known
+			buffer.position(maxHeaderSize);
+			buffer = writeBody(packet, buffer, allocator);
+			int bodySize = buffer.position() - maxHeaderSize;
+			int start = maxHeaderSize - format.getHeaderSize(packet.getId(), bodySize);
+			format.writeHeader(buffer, start, packet.getId(), bodySize, false);
+			buffer.flip();
+			buffer.position(start);
+			return buffer;
+		} catch (IOException | RuntimeException ex) {
+			allocator.release(buffer);
+			throw ex;
+		}
+	}
+
+	/**
+	 * @param packet
+	 * 		Packet with data to write.
+	 * @param buffer
+	 * 		Buffer to write to, from its current position.
+	 * @param allocator
+	 * 		Allocator to grow the buffer with if the packet content does not fit.
+	 *
+	 * @return Buffer the packet was written to, which may be a new buffer if the given one was too small.
+	 *
+	 * @throws IOException
+	 * 		When a packet's serialization fails.
+	 */
+	private static ByteBuffer writeBody(Packet packet, ByteBuffer buffer, BufferAllocator allocator) throws IOException {
+		if (packet instanceof EnvelopePacket) {
+			// The envelope's reported length covers its own header, so that much always fits
+			buffer.putInt(((EnvelopePacket) packet).getCorrelationId());
+			if (packet instanceof ResponsePacket) {
+				ResponsePacket response = (ResponsePacket) packet;
+				if (!response.isSuccess()) {
+					buffer.put(ResponsePacket.STATUS_FAILURE);
+					Serialization.putString(buffer, response.getError());
+					return buffer;
+				}
+				buffer.put(ResponsePacket.STATUS_SUCCESS);
+			}
+			Packet payload = ((EnvelopePacket) packet).getPayload();
+			FrameFormat.putVarInt(buffer, payload.getId());
+			return writeBody(payload, buffer, allocator);
+		} else if (packet instanceof BufferPacket) {
+			// Write packet data directly into a slice of the reported length
+			int length = packet.getLength();
+			ByteBuffer body = buffer.slice();
+			body.limit(length);
+			((BufferPacket) packet).write(body);
+			buffer.position(buffer.position() + length);
+			return buffer;
+		}
+		// Write packet data, the actual length may differ from what the packet reported
+		return StreamCodec.write(packet, buffer, allocator);
+	}
+
+	/**
+	 * Compresses the body of an encoded {@link FrameFormat#V1 v1} frame.
+	 *
+	 * @param frame
+	 * 		Encoded frame, as given by {@link #write(Packet, BufferAllocator)}.
+	 * @param codec
+	 * 		Codec to compress with.
+	 * @param allocator
+	 * 		Allocator to provide the compressed frame buffer, and to release the given frame to when replaced.
+	 *
+	 * @return Compressed frame, or the given frame when compression would not make it smaller.
+	 *
+	 * @see #compress(ByteBuffer, FrameFormat, CompressionCodec, BufferAllocator)
+	 */
+	public static ByteBuffer compress(ByteBuffer frame, CompressionCodec codec, BufferAllocator allocator) {
+		return compress(frame, FrameFormat.V1, codec, allocator);
+	}
+
+	/**
+	 * Compresses the body of an encoded frame, marking it as compressed in its header.
+	 * The compressed body starts with the codec ID and the uncompressed size.
+	 *
+	 * @param frame
+	 * 		Encoded frame, as given by {@link #write(Packet, FrameFormat, BufferAllocator)}.
+	 * @param format
+	 * 		Format of the frame header.
+	 * @param codec
+	 * 		Codec to compress with.
+	 * @param allocator
+	 * 		Allocator to provide the compressed frame buffer, and to release the given frame to when replaced.
+	 *
+	 * @return Compressed frame, or the given frame when compression would not make it smaller.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		When the frame header is malformed.
+	 */
+	public static ByteBuffer compress(ByteBuffer frame, FrameFormat format, CompressionCodec codec, BufferAllocator allocator) {
+		FrameHeader header;
+		try {
+			header = format.readHeader(frame);
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Cannot compress malformed frame", ex);
+		}
+		int maxHeaderSize = format.getMaxHeaderSize();
+		int compressionHeaderSize = Constants.COMPRESSION_HEADER_SIZE;
+		int bodySize = header.getBodySize();
+		if (bodySize <= compressionHeaderSize) {
+			return frame;
+		}
+		ByteBuffer body = frame.duplicate();
+		body.position(frame.position() + header.getSize());
+		ByteBuffer compressed = allocator.allocate(maxHeaderSize + bodySize);
+		compressed.position(maxHeaderSize);
+		compressed.put((byte) codec.getId());
+		compressed.putInt(bodySize);
+		// Only accept output strictly smaller than the original body
+		ByteBuffer target = compressed.slice();
+		target.limit(bodySize - compressionHeaderSize - 1);
+		int written = codec.compress(body, target);
+		if (written < 0) {
+			allocator.release(compressed);
+			return frame;
+		}
+		int compressedSize = compressionHeaderSize + written;
+		int start = maxHeaderSize - format.getHeaderSize(header.getId(), compressedSize);
+		try {
+			format.writeHeader(compressed, start, header.getId(), compressedSize, true);
+		} catch (IOException ex) {
+			// The id was just read from a header of the same format
+			allocator.release(compressed);
+			throw new IllegalStateException(ex);
+		}
+		compressed.position(maxHeaderSize + compressedSize);
+		compressed.flip();
+		compressed.position(start);
+		allocator.release(frame);
+		return compressed;
+	}
+
+	/**
+	 * @param body
+	 * 		Compressed frame body, starting with the codec ID and the uncompressed size.
+	 * @param codec
+	 * 		Codec matching the body's codec ID.
+	 * @param allocator
+	 * 		Allocator to provide the decompressed body buffer.
+	 *
+	 * @return Decompressed body, to be released to the allocator once read.
+	 *
+	 * @throws IOException
+	 * 		When the compressed body is malformed.
+	 */
+	public static ByteBuffer decompress(ByteBuffer body, CompressionCodec codec, BufferAllocator allocator) throws IOException {
+		return decompress(body, codec, allocator, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param body
+	 * 		Compressed frame body, starting with the codec ID and the uncompressed size.
+	 * @param codec
+	 * 		Codec matching the body's codec ID.
+	 * @param allocator
+	 * 		Allocator to provide the decompressed body buffer.
+	 * @param maxSize
+	 * 		Maximum uncompressed size to allocate for.
+	 *
+	 * @return Decompressed body, to be released to the allocator once read.
+	 *
+	 * @throws IOException
+	 * 		When the compressed body is malformed, or its uncompressed size is over the max size.
+	 */
+	public static ByteBuffer decompress(ByteBuffer body, CompressionCodec codec, BufferAllocator allocator,
+										int maxSize) throws IOException {
+		if (body.remaining() < Constants.COMPRESSION_HEADER_SIZE) {
+			throw new IOException("Compressed body too small for its header: " + body.remaining());
+		}
+		ByteBuffer content = body.duplicate();
+		content.get();
+		int size = content.getInt();
+		if (size < 0) {
+			throw new IOException("Invalid uncompressed length " + size);
+		} else if (size > maxSize) {
+			throw new IOException("Uncompressed length " + size + " is over the max of " + maxSize);
+		}
+		ByteBuffer decompressed = allocator.allocate(size);
+		try {
+			codec.decompress(content, decompressed);
+		} catch (IOException | RuntimeException ex) {
+			allocator.release(decompressed);
+			throw ex;
+		}
+		decompressed.flip();
+		return decompressed;
+	}
+
+	/**
+	 * @param codecId
+	 * 		Codec ID read from a compressed body.
+	 *
+	 * @return New codec instance.
+	 *
+	 * @throws IOException
+	 * 		When no codec is registered under the ID.
+	 */
+	static CompressionCodec createCodec(int codecId) throws IOException {
+		try {
+			return CompressionCodecs.create(codecId);
+		} catch (IllegalArgumentException ex) {
+			throw new IOException("Frame compressed with unknown codec " + codecId, ex);
+		}
+	}
+
+	/**
+	 * @param channel
+	 * 		Channel to read from.
+	 * @param buffer
+	 * 		Buffer to fill.
+	 *
+	 * @throws IOException
+	 * 		When reading from the channel fails, or the end of the stream is reached before the buffer is filled.
 	 */
-	private static Packet fromId(int id) {
-		Supplier<Packet> packetSupplier = SUPPLIERS.get(id);
-		if (packetSupplier == null) {
-			throw new IllegalStateException("Unknown packet id: " + id);
+	private static void readFully(ByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Channel stream ended with " + buffer.remaining() + " bytes left to read");
+			}
 		}
-		return packetSupplier.get();
 	}
 }
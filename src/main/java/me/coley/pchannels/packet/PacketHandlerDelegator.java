@@ -1,23 +1,53 @@
 package me.coley.pchannels.packet;
 
+import me.coley.pchannels.ChunkedInputStream;
 import me.coley.pchannels.Client;
+import me.coley.pchannels.Connection;
 import me.coley.pchannels.Constants;
 import me.coley.pchannels.Server;
+import me.coley.pchannels.Threads;
+import me.coley.pchannels.metrics.ConnectionMetrics;
+import me.coley.pchannels.packet.impl.CompressionPacket;
+import me.coley.pchannels.packet.impl.RequestPacket;
+import me.coley.pchannels.packet.impl.ResponsePacket;
+import me.coley.pchannels.packet.impl.StreamChunkPacket;
+import me.coley.pchannels.packet.impl.StreamCreditPacket;
+import me.coley.pchannels.packet.impl.StreamOpenPacket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.channels.ByteChannel;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 
 /**
  * Abstracts away common {@link PacketHandler}s between the {@link Client} and {@link Server}.
+ * <br>
+ * Handlers are stored in a flat array indexed by packet id. Registration publishes a new copy of the array,
+ * so handlers can be registered at runtime while other threads are handling packets.
+ * <br>
+ * Handlers registered with {@link HandlerDispatch#OFFLOAD} run on a worker pool instead of the reading thread.
+ * Packets from the same {@link Connection} are always handled in the order they were read,
+ * while different connections are handled in parallel.
+ * <br>
+ * {@link RequestHandler}s registered with {@link #registerRequest(int, RequestHandler)} answer
+ * {@link RequestPacket requests} for their packet id, with the response sent back and flushed automatically.
+ * {@link ResponsePacket Responses} complete the pending request of the {@link Connection} they arrive on.
+ * They are never queued behind offloaded handlers, so an offloaded handler can wait on a request of its own.
+ * <br>
+ * {@link StreamHandler}s registered with {@link #registerStream(int, StreamHandler)} consume
+ * {@link StreamOpenPacket streams} opened with a header packet of their packet id. They always run on the worker pool,
+ * while the stream's chunks continue to be read.
  *
  * @author Matt Coley
  */
 public class PacketHandlerDelegator {
 	private static final Logger logger = LoggerFactory.getLogger(PacketHandlerDelegator.class);
-	private final Map<Integer, PacketHandler<?>> handlers = new HashMap<>();
+	private volatile Registration[] registrations = new Registration[Constants.ID_HANDSHAKE + 1];
+	private volatile Registration[] requestRegistrations = new Registration[0];
+	private volatile Registration[] streamRegistrations = new Registration[0];
+	private volatile Executor workerExecutor;
 
 	/**
 	 * Create the delegator.
@@ -25,6 +55,41 @@ public class PacketHandlerDelegator {
 	public PacketHandlerDelegator() {
 		register(Constants.ID_ALIVE, ((channel, packet) -> true));
 		register(Constants.ID_CLOSE, ((channel, packet) -> false));
+		register(Constants.ID_RESPONSE, ((channel, packet) -> {
+			if (channel instanceof Connection) {
+				((Connection) channel).completeRequest((ResponsePacket) packet);
+			} else {
+				logger.warn("Response received on channel that cannot make requests: {}", channel);
+			}
+			return true;
+		}));
+		register(Constants.ID_COMPRESSION, ((channel, packet) -> {
+			if (channel instanceof Connection) {
+				try {
+					((Connection) channel).onCompressionPacket((CompressionPacket) packet);
+				} catch (IOException ex) {
+					logger.warn("Failed to answer compression negotiation: {}", channel, ex);
+					return false;
+				}
+			}
+			return true;
+		}));
+		// Received file content is already written by the connection's file receiver
+		register(Constants.ID_FILE, ((channel, packet) -> true));
+		register(Constants.ID_STREAM_CHUNK, ((channel, packet) -> {
+			if (channel instanceof Connection) {
+				((Connection) channel).onStreamChunk((StreamChunkPacket) packet);
+			}
+			return true;
+		}));
+		register(Constants.ID_STREAM_CREDIT, ((channel, packet) -> {
+			if (channel instanceof Connection) {
+				((Connection) channel).onStreamCredit((StreamCreditPacket) packet);
+			}
+			return true;
+		}));
+		// Handshakes are answered by the connection's reader, as they change how the following frames are decoded
+		register(Constants.ID_HANDSHAKE, ((channel, packet) -> true));
 	}
 
 	/**
@@ -32,14 +97,115 @@ public class PacketHandlerDelegator {
 	 * 		Packet ID.
 	 * @param handler
 	 * 		Packet handler for the type associated with the ID.
+	 * 		Replaces any existing handler for the ID.
+	 * 		Runs on the thread that read the packet.
 	 * @param <P>
 	 * 		Packet type.
 	 */
 	public <P extends Packet> void register(int id, PacketHandler<P> handler) {
-		handlers.put(id, handler);
+		register(id, handler, HandlerDispatch.INLINE);
+	}
+
+	/**
+	 * @param id
+	 * 		Packet ID.
+	 * @param handler
+	 * 		Packet handler for the type associated with the ID.
+	 * 		Replaces any existing handler for the ID.
+	 * @param dispatch
+	 * 		Where the handler is run.
+	 * @param <P>
+	 * 		Packet type.
+	 */
+	public synchronized <P extends Packet> void register(int id, PacketHandler<P> handler, HandlerDispatch dispatch) {
+		registrations = with(registrations, id, new Registration(handler, dispatch == HandlerDispatch.OFFLOAD));
+	}
+
+	/**
+	 * @param id
+	 * 		Packet ID of requests to answer.
+	 * @param handler
+	 * 		Request handler for the type associated with the ID.
+	 * 		Replaces any existing request handler for the ID.
+	 * 		Runs on the thread that read the request.
+	 * @param <P>
+	 * 		Packet type.
+	 */
+	public <P extends Packet> void registerRequest(int id, RequestHandler<P> handler) {
+		registerRequest(id, handler, HandlerDispatch.INLINE);
+	}
+
+	/**
+	 * @param id
+	 * 		Packet ID of requests to answer.
+	 * @param handler
+	 * 		Request handler for the type associated with the ID.
+	 * 		Replaces any existing request handler for the ID.
+	 * @param dispatch
+	 * 		Where the handler is run.
+	 * @param <P>
+	 * 		Packet type.
+	 */
+	public synchronized <P extends Packet> void registerRequest(int id, RequestHandler<P> handler, HandlerDispatch dispatch) {
+		requestRegistrations = with(requestRegistrations, id, new Registration(handler, dispatch == HandlerDispatch.OFFLOAD));
+	}
+
+	/**
+	 * @param id
+	 * 		Packet ID of stream headers to consume streams of.
+	 * @param handler
+	 * 		Stream handler for the header type associated with the ID.
+	 * 		Replaces any existing stream handler for the ID.
+	 * 		Runs on the {@link #getWorkerExecutor() worker pool}.
+	 * @param <P>
+	 * 		Packet type.
+	 */
+	public synchronized <P extends Packet> void registerStream(int id, StreamHandler<P> handler) {
+		streamRegistrations = with(streamRegistrations, id, new Registration(handler, false));
+	}
+
+	/**
+	 * @return Executor that {@link HandlerDispatch#OFFLOAD offloaded} handlers run on.
+	 */
+	public Executor getWorkerExecutor() {
+		Executor executor = workerExecutor;
+		if (executor == null) {
+			synchronized (this) {
+				executor = workerExecutor;
+				if (executor == null) {
+					workerExecutor = executor = Threads.pool();
+				}
+			}
+		}
+		return executor;
 	}
 
 	/**
+	 * Must be set before any packets are offloaded.
+	 * The default is a {@link Threads#pool() cached pool of platform threads}.
+	 *
+	 * @param workerExecutor
+	 * 		Executor that {@link HandlerDispatch#OFFLOAD offloaded} handlers run on.
+	 */
+	public void setWorkerExecutor(Executor workerExecutor) {
+		if (workerExecutor == null) {
+			throw new IllegalArgumentException("Worker executor cannot be null");
+		}
+		this.workerExecutor = workerExecutor;
+	}
+
+	/**
+	 * Handles the packet with the handler registered to its id.
+	 * {@link RequestPacket Requests} are handled by the request handler registered to the id of the packet they wrap.
+	 * {@link PooledPacket}s are released once the handler completes.
+	 * <br>
+	 * If the handler is {@link HandlerDispatch#OFFLOAD offloaded}, or earlier packets of the same connection are
+	 * still queued on the worker pool, the packet is queued behind them and this returns {@code true} immediately.
+	 * If the queued handler later returns {@code false} the connection is closed.
+	 * Offloading only applies to {@link Connection}s, other channels always run handlers inline.
+	 * <br>
+	 * Handler execution time is recorded to the {@link Connection#getMetrics() connection's metrics} when enabled.
+	 *
 	 * @param channel
 	 * 		Channel associated with the packet.
 	 * @param packet
@@ -48,14 +214,178 @@ public class PacketHandlerDelegator {
 	 * @return {@code true} to continue handling further packets.
 	 * {@code false} to stop handling packets.
 	 */
-	@SuppressWarnings("unchecked")
 	public boolean handle(ByteChannel channel, Packet packet) {
+		Registration registration;
+		if (packet instanceof RequestPacket) {
+			registration = lookup(requestRegistrations, ((RequestPacket) packet).getPayload().getId());
+		} else if (packet instanceof StreamOpenPacket) {
+			registration = lookup(streamRegistrations, ((StreamOpenPacket) packet).getPayload().getId());
+		} else {
+			registration = lookup(registrations, packet.getId());
+		}
+		// Stream chunks, credit and responses never queue, a handler blocked on the worker pool may be waiting on them.
+		// Chunks only follow credit sent once their stream was accepted, so they cannot overtake the stream opening.
+		boolean control = packet instanceof StreamChunkPacket || packet instanceof StreamCreditPacket
+				|| packet instanceof ResponsePacket;
+		if (channel instanceof Connection && !control) {
+			Connection connection = (Connection) channel;
+			// Once anything is queued, later packets must also be queued to preserve ordering
+			if ((registration != null && registration.offload) || !connection.isSerialIdle()) {
+				connection.getSerialExecutor(getWorkerExecutor()).execute(() -> {
+					if (!invoke(connection, packet, registration) && connection.isOpen()) {
+						try {
+							connection.close();
+						} catch (IOException ex) {
+							logger.debug("Could not close connection: {}", connection, ex);
+						}
+					}
+				});
+				return true;
+			}
+		}
+		return invoke(channel, packet, registration);
+	}
+
+	private boolean invoke(ByteChannel channel, Packet packet, Registration registration) {
+		ConnectionMetrics metrics = channel instanceof Connection ? ((Connection) channel).getMetrics() : null;
+		if (metrics == null || !metrics.isEnabled()) {
+			return invokeHandler(channel, packet, registration);
+		}
+		// The packet may be recycled once handled
 		int id = packet.getId();
-		PacketHandler<Packet> handler = (PacketHandler<Packet>) handlers.get(id);
-		if (handler == null) {
-			logger.warn("No handler for packet: {}", packet.getClass().getSimpleName());
+		long start = System.nanoTime();
+		try {
+			return invokeHandler(channel, packet, registration);
+		} finally {
+			metrics.onHandled(id, System.nanoTime() - start);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean invokeHandler(ByteChannel channel, Packet packet, Registration registration) {
+		if (packet instanceof RequestPacket) {
+			return respond(channel, (RequestPacket) packet, registration);
+		} else if (packet instanceof StreamOpenPacket) {
+			return consume(channel, (StreamOpenPacket) packet, registration);
+		}
+		try {
+			if (registration == null) {
+				logger.warn("No handler for packet: {}", packet.getClass().getSimpleName());
+				return true;
+			}
+			return ((PacketHandler<Packet>) registration.handler).handlePacket(channel, packet);
+		} finally {
+			// Handlers that want to keep the packet must have retained it
+			if (packet instanceof PooledPacket) {
+				((PooledPacket) packet).release();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean consume(ByteChannel channel, StreamOpenPacket open, Registration registration) {
+		Packet header = open.getPayload();
+		if (!(channel instanceof Connection)) {
+			logger.warn("Stream opened on channel that cannot receive streams: {}", channel);
+			release(header);
 			return true;
 		}
-		return handler.handlePacket(channel, packet);
+		Connection connection = (Connection) channel;
+		try {
+			if (registration == null) {
+				logger.warn("No stream handler for packet: {}", header.getClass().getSimpleName());
+				connection.write(new StreamCreditPacket(open.getCorrelationId(), StreamCreditPacket.CANCEL));
+				connection.flush();
+				release(header);
+				return true;
+			}
+			ChunkedInputStream in = connection.acceptStream(open);
+			getWorkerExecutor().execute(() -> {
+				try {
+					((StreamHandler<Packet>) registration.handler).handleStream(connection, header, in);
+				} catch (Exception ex) {
+					logger.debug("Stream handler failed: {}", header.getClass().getSimpleName(), ex);
+				} finally {
+					in.close();
+					release(header);
+				}
+			});
+			return true;
+		} catch (IOException ex) {
+			logger.debug("Could not answer stream opened: {}", connection, ex);
+			release(header);
+			return false;
+		}
+	}
+
+	private static void release(Packet packet) {
+		if (packet instanceof PooledPacket) {
+			((PooledPacket) packet).release();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static boolean respond(ByteChannel channel, RequestPacket envelope, Registration registration) {
+		Packet request = envelope.getPayload();
+		int correlationId = envelope.getCorrelationId();
+		Packet result = null;
+		ResponsePacket response;
+		try {
+			if (registration == null) {
+				logger.warn("No request handler for packet: {}", request.getClass().getSimpleName());
+				response = ResponsePacket.failure(correlationId, "No request handler for packet id " + request.getId());
+			} else {
+				result = ((RequestHandler<Packet>) registration.handler).handleRequest(channel, request);
+				response = result == null ?
+						ResponsePacket.failure(correlationId, "Request handler gave no response") :
+						ResponsePacket.success(correlationId, result);
+			}
+		} catch (Exception ex) {
+			logger.debug("Request handler failed: {}", request.getClass().getSimpleName(), ex);
+			response = ResponsePacket.failure(correlationId, String.valueOf(ex));
+		}
+		try {
+			PacketIO.write(channel, response);
+			// The requester is waiting on it, which the flush policy does not know about
+			if (channel instanceof Connection) {
+				((Connection) channel).flush();
+			}
+			return true;
+		} catch (IOException ex) {
+			logger.debug("Could not write response to channel: {}", channel, ex);
+			return false;
+		} finally {
+			if (request instanceof PooledPacket) {
+				((PooledPacket) request).release();
+			}
+			if (result instanceof PooledPacket && result != request) {
+				((PooledPacket) result).release();
+			}
+		}
+	}
+
+	private static Registration[] with(Registration[] array, int id, Registration registration) {
+		PacketRegistry.checkId(id);
+		Registration[] copy = Arrays.copyOf(array, Math.max(array.length, id + 1));
+		copy[id] = registration;
+		return copy;
+	}
+
+	private static Registration lookup(Registration[] array, int id) {
+		return id >= 0 && id < array.length ? array[id] : null;
+	}
+
+	/**
+	 * Handler and dispatch mode registered to a packet id.
+	 * The handler is a {@link PacketHandler}, or a {@link RequestHandler} for request registrations.
+	 */
+	private static final class Registration {
+		private final Object handler;
+		private final boolean offload;
+
+		private Registration(Object handler, boolean offload) {
+			this.handler = handler;
+			this.offload = offload;
+		}
 	}
 }
@@ -1,5 +1,7 @@
 package me.coley.pchannels.packet;
 
+import me.coley.pchannels.Connection;
+import me.coley.pchannels.buffer.BufferAllocator;
 import me.coley.pchannels.packet.impl.ClosePacket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,15 +33,45 @@ public class PacketIO {
 	 * 		When reading packets fails.
 	 */
 	public static void handleLoop(ByteChannel channel, PacketLoopCondition condition, PacketHandlerDelegator delegator) throws IOException {
-		while (condition.shouldContinue()) {
-			Packet packet = PacketFactory.read(channel);
-			if (!delegator.handle(channel, packet)) {
-				break;
+		if (channel instanceof Connection) {
+			handleLoop((Connection) channel, condition, delegator);
+			return;
+		}
+		FrameDecoder decoder = new FrameDecoder();
+		try {
+			while (condition.shouldContinue()) {
+				Packet packet = decoder.next();
+				if (packet == null) {
+					// Need more data to complete the next packet
+					if (decoder.readFrom(channel) < 0) {
+						break;
+					}
+				} else if (!delegator.handle(channel, packet)) {
+					break;
+				}
+			}
+		} finally {
+			decoder.close();
+		}
+	}
+
+	private static void handleLoop(Connection connection, PacketLoopCondition condition, PacketHandlerDelegator delegator) throws IOException {
+		try {
+			while (condition.shouldContinue()) {
+				Packet packet = connection.readPacket();
+				if (packet == null || !delegator.handle(connection, packet)) {
+					break;
+				}
 			}
+		} finally {
+			connection.getDecoder().close();
 		}
 	}
 
 	/**
+	 * Writes the packet to the channel. If the channel is a {@link Connection} the packet
+	 * may be queued according to its {@link Connection#getFlushPolicy() flush policy}.
+	 *
 	 * @param channel
 	 * 		Channel to write the packet to.
 	 * @param packet
@@ -49,8 +81,21 @@ public class PacketIO {
 	 * 		When serializing the packet fails, or when the channel cannot be written to.
 	 */
 	public static void write(ByteChannel channel, Packet packet) throws IOException {
-		ByteBuffer buffer = PacketFactory.write(packet);
-		channel.write(buffer);
+		if (channel instanceof Connection) {
+			// Follow the connection's flush policy
+			((Connection) channel).write(packet);
+			return;
+		}
+		BufferAllocator allocator = PacketFactory.getAllocator();
+		ByteBuffer buffer = PacketFactory.write(packet, allocator);
+		try {
+			// Non-blocking channels may not accept the full buffer in one call
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			allocator.release(buffer);
+		}
 	}
 
 	/**
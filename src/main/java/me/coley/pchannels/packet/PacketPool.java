@@ -0,0 +1,177 @@
+package me.coley.pchannels.packet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Pool of recyclable {@link PooledPacket}s of a single type.
+ * <br>
+ * Recycled packets are first kept in a small cache local to the recycling thread,
+ * then in a bounded shared queue. When both are empty new instances are created by the supplier.
+ * <br>
+ * Leak detection can be enabled with {@link #setLeakDetection(boolean)} or the {@code pchannels.leakDetection}
+ * system property. When enabled, packets that are garbage collected without being released are logged
+ * along with where they were acquired. This has a cost per acquisition so should only be used for debugging.
+ *
+ * @param <P>
+ * 		Packet type.
+ *
+ * @author Matt Coley
+ */
+public class PacketPool<P extends PooledPacket> {
+	private static final Logger logger = LoggerFactory.getLogger(PacketPool.class);
+	private static final int DEFAULT_THREAD_CACHE_SIZE = 32;
+	private static final int DEFAULT_SHARED_SIZE = 1024;
+	private static final ReferenceQueue<PooledPacket> LEAK_QUEUE = new ReferenceQueue<>();
+	private static final Set<LeakRecord> LEAK_RECORDS = ConcurrentHashMap.newKeySet();
+	private static volatile boolean leakDetection = Boolean.getBoolean("pchannels.leakDetection");
+	private final ThreadLocal<ArrayDeque<P>> threadCache = ThreadLocal.withInitial(ArrayDeque::new);
+	private final Queue<P> shared = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger sharedCount = new AtomicInteger();
+	private final Supplier<P> supplier;
+	private final int threadCacheSize;
+	private final int sharedSize;
+
+	/**
+	 * New pool with default limits.
+	 *
+	 * @param supplier
+	 * 		Supplier of new packet instances.
+	 */
+	public PacketPool(Supplier<P> supplier) {
+		this(supplier, DEFAULT_THREAD_CACHE_SIZE, DEFAULT_SHARED_SIZE);
+	}
+
+	/**
+	 * @param supplier
+	 * 		Supplier of new packet instances.
+	 * @param threadCacheSize
+	 * 		Number of packets to keep in each thread's local cache.
+	 * 		Use {@code 0} to disable thread local caching.
+	 * @param sharedSize
+	 * 		Number of packets to keep in the shared queue.
+	 */
+	public PacketPool(Supplier<P> supplier, int threadCacheSize, int sharedSize) {
+		if (threadCacheSize < 0 || sharedSize < 0) {
+			throw new IllegalArgumentException("Pool limits must not be negative");
+		}
+		this.supplier = supplier;
+		this.threadCacheSize = threadCacheSize;
+		this.sharedSize = sharedSize;
+	}
+
+	/**
+	 * @return Pooled packet instance, with a reference count of {@code 1}.
+	 */
+	public P acquire() {
+		P packet = null;
+		if (threadCacheSize > 0) {
+			packet = threadCache.get().pollLast();
+		}
+		if (packet == null) {
+			packet = shared.poll();
+			if (packet != null) {
+				sharedCount.decrementAndGet();
+			} else {
+				packet = supplier.get();
+			}
+		}
+		LeakRecord record = null;
+		if (leakDetection) {
+			reportLeaks();
+			record = new LeakRecord(packet);
+		}
+		packet.onAcquire(this, record);
+		return packet;
+	}
+
+	/**
+	 * Called when a packet's reference count reaches zero.
+	 *
+	 * @param packet
+	 * 		Packet to return to the pool.
+	 */
+	@SuppressWarnings("unchecked")
+	void recycle(PooledPacket packet) {
+		packet.onRecycle();
+		P p = (P) packet;
+		if (threadCacheSize > 0) {
+			ArrayDeque<P> cache = threadCache.get();
+			if (cache.size() < threadCacheSize) {
+				cache.addLast(p);
+				return;
+			}
+		}
+		if (sharedCount.incrementAndGet() <= sharedSize) {
+			shared.offer(p);
+		} else {
+			sharedCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @param leakDetection
+	 * 		{@code true} to track acquired packets and log those that are never released.
+	 */
+	public static void setLeakDetection(boolean leakDetection) {
+		PacketPool.leakDetection = leakDetection;
+	}
+
+	/**
+	 * @return {@code true} when acquired packets are tracked for leaks.
+	 */
+	public static boolean isLeakDetection() {
+		return leakDetection;
+	}
+
+	/**
+	 * Logs any tracked packets that have been garbage collected without being released.
+	 *
+	 * @return Number of leaks found.
+	 */
+	public static int reportLeaks() {
+		int leaks = 0;
+		LeakRecord record;
+		while ((record = (LeakRecord) LEAK_QUEUE.poll()) != null) {
+			if (LEAK_RECORDS.remove(record)) {
+				leaks++;
+				logger.error("LEAK: {} was garbage collected without being released. " +
+						"Handlers that retain a packet must release it.", record.type, record.origin);
+			}
+		}
+		return leaks;
+	}
+
+	/**
+	 * Tracks a single acquisition of a packet.
+	 */
+	static final class LeakRecord extends WeakReference<PooledPacket> {
+		private final String type;
+		private final Throwable origin;
+
+		private LeakRecord(PooledPacket packet) {
+			super(packet, LEAK_QUEUE);
+			this.type = packet.getClass().getName();
+			this.origin = new Throwable("Packet acquired here");
+			LEAK_RECORDS.add(this);
+		}
+
+		/**
+		 * Marks the acquisition as released.
+		 */
+		void close() {
+			LEAK_RECORDS.remove(this);
+			clear();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package me.coley.pchannels.packet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of packet suppliers, indexed by {@link Packet#getId() packet id}.
+ * <br>
+ * Suppliers are stored in a flat array indexed by id. Registration publishes a new copy of the array,
+ * so lookups never lock and registration is safe while packets are being read by other threads.
+ * <br>
+ * A registry may have a parent registry, which is checked for ids not registered in the child.
+ *
+ * @author Matt Coley
+ */
+public class PacketRegistry {
+	/**
+	 * Largest supported packet id.
+	 */
+	public static final int MAX_ID = 0xFFFF;
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private volatile Supplier<Packet>[] suppliers = new Supplier[0];
+	private final PacketRegistry parent;
+
+	/**
+	 * New registry without a parent.
+	 */
+	public PacketRegistry() {
+		this(null);
+	}
+
+	/**
+	 * @param parent
+	 * 		Registry to fall back on for ids not registered in this one. May be {@code null}.
+	 */
+	public PacketRegistry(PacketRegistry parent) {
+		this.parent = parent;
+	}
+
+	/**
+	 * Registers a packet supplier to the given packet ID.
+	 *
+	 * @param id
+	 * 		Packet identifier.
+	 * @param supplier
+	 * 		Supplier to create new instances of the packet <i>(For reading)</i>.
+	 */
+	public synchronized void register(int id, Supplier<Packet> supplier) {
+		checkId(id);
+		if (supplier == null) {
+			throw new IllegalArgumentException("Supplier cannot be null");
+		}
+		Supplier<Packet>[] current = suppliers;
+		if (id < current.length && current[id] != null) {
+			throw new IllegalArgumentException("The packet ID " + id + " is already registered!");
+		}
+		Supplier<Packet>[] copy = Arrays.copyOf(current, Math.max(current.length, id + 1));
+		copy[id] = supplier;
+		suppliers = copy;
+	}
+
+	/**
+	 * Registers a recycled packet type to the given packet ID.
+	 * Instances created for reading are taken from a {@link PacketPool}, and returned to it
+	 * once {@link PooledPacket#release() released}.
+	 *
+	 * @param id
+	 * 		Packet identifier.
+	 * @param supplier
+	 * 		Supplier to create new instances of the packet when the pool is empty.
+	 * @param <P>
+	 * 		Packet type.
+	 *
+	 * @return Pool the packet instances are taken from.
+	 */
+	public <P extends PooledPacket> PacketPool<P> registerPooled(int id, Supplier<P> supplier) {
+		PacketPool<P> pool = new PacketPool<>(supplier);
+		register(id, pool::acquire);
+		return pool;
+	}
+
+	/**
+	 * @param id
+	 * 		Packet identifier.
+	 *
+	 * @return Supplier registered to the id, or {@code null} if no supplier is registered.
+	 */
+	public Supplier<Packet> get(int id) {
+		Supplier<Packet>[] current = suppliers;
+		if (id >= 0 && id < current.length) {
+			Supplier<Packet> supplier = current[id];
+			if (supplier != null) {
+				return supplier;
+			}
+		}
+		return parent == null ? null : parent.get(id);
+	}
+
+	/**
+	 * @param id
+	 * 		Some key value mapping to a {@link Packet#getId()}.
+	 *
+	 * @return New packet instance of associated type.
+	 */
+	public Packet create(int id) {
+		Supplier<Packet> supplier = get(id);
+		if (supplier == null) {
+			throw new IllegalStateException("Unknown packet id: " + id);
+		}
+		return supplier.get();
+	}
+
+	/**
+	 * @return Parent registry, or {@code null} if there is none.
+	 */
+	public PacketRegistry getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return Snapshot of the registered suppliers, including those of the parent.
+	 * Key values are {@link Packet#getId()}.
+	 */
+	public Map<Integer, Supplier<Packet>> asMap() {
+		Map<Integer, Supplier<Packet>> map = parent == null ? new TreeMap<>() : new TreeMap<>(parent.asMap());
+		Supplier<Packet>[] current = suppliers;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] != null) {
+				map.put(i, current[i]);
+			}
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * @param id
+	 * 		Packet identifier.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		When the id is outside the supported range.
+	 */
+	static void checkId(int id) {
+		if (id < 0 || id > MAX_ID) {
+			throw new IllegalArgumentException("Packet ID " + id + " is outside the supported range [0, " + MAX_ID + "]");
+		}
+	}
+}
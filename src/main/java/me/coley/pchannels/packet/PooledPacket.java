@@ -0,0 +1,103 @@
+package me.coley.pchannels.packet;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Base for packets that can be recycled by a {@link PacketPool} on the receive path.
+ * <br>
+ * Pooled packets are reference counted. A packet handed to a {@link PacketHandler} is released automatically
+ * once the handler completes. A handler that needs the packet beyond that point must call {@link #retain()},
+ * and later call {@link #release()} when done with it.
+ * <br>
+ * Instances created outside a pool, such as those made to be sent, are never recycled.
+ *
+ * @author Matt Coley
+ */
+public abstract class PooledPacket implements Packet {
+	private static final AtomicIntegerFieldUpdater<PooledPacket> REF_COUNT =
+			AtomicIntegerFieldUpdater.newUpdater(PooledPacket.class, "refCount");
+	private volatile int refCount = 1;
+	private PacketPool<?> pool;
+	private PacketPool.LeakRecord leakRecord;
+
+	/**
+	 * Increments the reference count, preventing the packet from being recycled until a matching {@link #release()}.
+	 *
+	 * @return Self.
+	 */
+	public PooledPacket retain() {
+		while (true) {
+			int count = refCount;
+			if (count <= 0) {
+				throw new IllegalStateException("Cannot retain a packet that has already been released: " + this);
+			}
+			if (REF_COUNT.compareAndSet(this, count, count + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/**
+	 * Decrements the reference count. Once it reaches zero the packet is returned to its pool,
+	 * and must no longer be used.
+	 *
+	 * @return {@code true} when this call returned the packet to its pool.
+	 */
+	public boolean release() {
+		int count = REF_COUNT.decrementAndGet(this);
+		if (count > 0) {
+			return false;
+		} else if (count < 0) {
+			REF_COUNT.incrementAndGet(this);
+			throw new IllegalStateException("Packet released more times than it was retained: " + this);
+		}
+		PacketPool<?> owner = pool;
+		if (owner != null) {
+			owner.recycle(this);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return Current reference count. Zero when the packet has been released.
+	 */
+	public int refCount() {
+		return refCount;
+	}
+
+	/**
+	 * Called before the packet is returned to its pool.
+	 * Implementations should clear references to content that should not be kept alive,
+	 * but may keep reusable content such as arrays to be filled by the next read.
+	 */
+	protected void reset() {
+		// no-op by default
+	}
+
+	/**
+	 * Called by the owning pool when the packet is handed out.
+	 *
+	 * @param pool
+	 * 		Owning pool.
+	 * @param leakRecord
+	 * 		Leak tracking record, or {@code null} when leak detection is disabled.
+	 */
+	void onAcquire(PacketPool<?> pool, PacketPool.LeakRecord leakRecord) {
+		this.pool = pool;
+		this.leakRecord = leakRecord;
+		this.refCount = 1;
+	}
+
+	/**
+	 * Called by the owning pool when the packet is returned.
+	 */
+	void onRecycle() {
+		PacketPool.LeakRecord record = leakRecord;
+		if (record != null) {
+			record.close();
+			leakRecord = null;
+		}
+		reset();
+	}
+}
@@ -0,0 +1,20 @@
+package me.coley.pchannels.packet;
+
+import java.io.IOException;
+
+/**
+ * Failure of a request, as reported by the remote side.
+ *
+ * @author Matt Coley
+ */
+public class RequestException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param message
+	 * 		Description of why the remote side failed to answer the request.
+	 */
+	public RequestException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,26 @@
+package me.coley.pchannels.packet;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+
+/**
+ * A handler answering request packets of a given type with a response packet.
+ *
+ * @author Matt Coley
+ * @see PacketHandlerDelegator#registerRequest(int, RequestHandler)
+ */
+public interface RequestHandler<P extends Packet> {
+	/**
+	 * @param channel
+	 * 		The socket channel the request originates from.
+	 * @param request
+	 * 		Current request to answer.
+	 *
+	 * @return Response to send back. {@link PooledPacket}s are released once written,
+	 * unless the request itself is returned.
+	 *
+	 * @throws IOException
+	 * 		When the request cannot be answered. The failure is sent back to the requester instead.
+	 */
+	Packet handleRequest(ByteChannel channel, P request) throws IOException;
+}
@@ -0,0 +1,85 @@
+package me.coley.pchannels.packet;
+
+import me.coley.pchannels.buffer.BufferAllocator;
+import me.coley.pchannels.buffer.ByteBufferInputStream;
+import me.coley.pchannels.buffer.ByteBufferOutputStream;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Adapter for reading and writing stream based {@link Packet} content with buffers.
+ * Packets implementing {@link BufferPacket} do not need this adapter.
+ * <br>
+ * The data streams are reusable, with one instance cached per thread,
+ * so that encoding and decoding does not allocate new streams per packet.
+ *
+ * @author Matt Coley
+ */
+class StreamCodec {
+	private static final ThreadLocal<StreamCodec> CACHE = ThreadLocal.withInitial(StreamCodec::new);
+	private final ByteBufferInputStream bufferIn = new ByteBufferInputStream();
+	private final ByteBufferOutputStream bufferOut = new ByteBufferOutputStream();
+	private final DataInputStream in = new DataInputStream(bufferIn);
+	private final DataOutputStream out = new DataOutputStream(bufferOut);
+	private boolean inUse;
+
+	/**
+	 * @param packet
+	 * 		Packet to read into.
+	 * @param body
+	 * 		Buffer containing the packet body content.
+	 *
+	 * @throws IOException
+	 * 		When a packet's deserialization fails.
+	 */
+	static void read(Packet packet, ByteBuffer body) throws IOException {
+		StreamCodec codec = acquire();
+		try {
+			codec.bufferIn.reset(body);
+			packet.read(codec.in);
+		} finally {
+			codec.bufferIn.reset(null);
+			codec.inUse = false;
+		}
+	}
+
+	/**
+	 * @param packet
+	 * 		Packet to write.
+	 * @param buffer
+	 * 		Buffer to write to.
+	 * @param allocator
+	 * 		Allocator to grow the buffer with if the packet content does not fit.
+	 *
+	 * @return Buffer the packet was written to, which may be a new buffer if the given one was too small.
+	 *
+	 * @throws IOException
+	 * 		When a packet's serialization fails.
+	 */
+	static ByteBuffer write(Packet packet, ByteBuffer buffer, BufferAllocator allocator) throws IOException {
+		StreamCodec codec = acquire();
+		try {
+			codec.bufferOut.reset(buffer, allocator);
+			packet.write(codec.out);
+			return codec.bufferOut.getBuffer();
+		} finally {
+			codec.bufferOut.reset(null, null);
+			codec.inUse = false;
+		}
+	}
+
+	/**
+	 * @return Thread's cached codec, or a new one if the cached one is in use by a nested call.
+	 */
+	private static StreamCodec acquire() {
+		StreamCodec codec = CACHE.get();
+		if (codec.inUse) {
+			codec = new StreamCodec();
+		}
+		codec.inUse = true;
+		return codec;
+	}
+}
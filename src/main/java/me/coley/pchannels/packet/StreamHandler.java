@@ -0,0 +1,31 @@
+package me.coley.pchannels.packet;
+
+import me.coley.pchannels.ChunkedInputStream;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+
+/**
+ * A handler consuming chunked streams opened with a header packet of a given type.
+ *
+ * @author Matt Coley
+ * @see PacketHandlerDelegator#registerStream(int, StreamHandler)
+ */
+public interface StreamHandler<P extends Packet> {
+	/**
+	 * Called on a worker thread when a stream is opened, before its content has necessarily arrived.
+	 * Reads from the stream block until the next chunk arrives. Other packets of the connection are still
+	 * handled meanwhile.
+	 *
+	 * @param channel
+	 * 		The socket channel the stream originates from.
+	 * @param header
+	 * 		Packet describing the stream.
+	 * @param in
+	 * 		Stream content. Closed once the handler returns, discarding anything unread.
+	 *
+	 * @throws IOException
+	 * 		When handling the stream fails. The stream is closed, telling the sender to stop.
+	 */
+	void handleStream(ByteChannel channel, P header, ChunkedInputStream in) throws IOException;
+}
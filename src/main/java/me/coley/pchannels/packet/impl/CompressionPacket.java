@@ -0,0 +1,98 @@
+package me.coley.pchannels.packet.impl;
+
+import me.coley.pchannels.Connection;
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.packet.Packet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Negotiates the compression codec of a {@link Connection}.
+ * <br>
+ * The client sends an offer listing the codecs it supports, in order of preference.
+ * The server answers with the first of those it also supports, or with no codec if there is none in common.
+ * Each side only compresses frames it sends once it knows the other side supports the codec.
+ *
+ * @author Matt Coley
+ */
+public class CompressionPacket implements Packet {
+	private boolean offer;
+	private List<String> codecs;
+
+	/**
+	 * Deserialization constructor.
+	 */
+	public CompressionPacket() {
+	}
+
+	/**
+	 * @param offer
+	 * 		{@code true} for the client's offer, {@code false} for the server's answer.
+	 * @param codecs
+	 * 		Offered codec names in order of preference, or the single selected codec name.
+	 */
+	public CompressionPacket(boolean offer, List<String> codecs) {
+		this.offer = offer;
+		this.codecs = codecs;
+	}
+
+	/**
+	 * @return {@code true} for the client's offer, {@code false} for the server's answer.
+	 */
+	public boolean isOffer() {
+		return offer;
+	}
+
+	/**
+	 * @return Offered codec names in order of preference, or the selected codec name.
+	 * Empty when the server selected no codec.
+	 */
+	public List<String> getCodecs() {
+		return codecs;
+	}
+
+	@Override
+	public int getId() {
+		return Constants.ID_COMPRESSION;
+	}
+
+	@Override
+	public int getLength() {
+		int length = 2;
+		for (String codec : codecs) {
+			length += 2 + codec.getBytes(StandardCharsets.UTF_8).length;
+		}
+		return length;
+	}
+
+	@Override
+	public void read(DataInputStream in) throws IOException {
+		offer = in.readBoolean();
+		int count = in.readUnsignedByte();
+		List<String> codecs = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			codecs.add(in.readUTF());
+		}
+		this.codecs = Collections.unmodifiableList(codecs);
+	}
+
+	@Override
+	public void write(DataOutputStream out) throws IOException {
+		out.writeBoolean(offer);
+		out.writeByte(codecs.size());
+		for (String codec : codecs) {
+			out.writeUTF(codec);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CompressionPacket[" + (offer ? "offer=" : "selected=") + codecs + "]";
+	}
+}
@@ -0,0 +1,286 @@
+package me.coley.pchannels.packet.impl;
+
+import me.coley.pchannels.Connection;
+import me.coley.pchannels.ConnectionConfig;
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.FileReceiver;
+import me.coley.pchannels.packet.Packet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transfers a region of a file, which is a whole file unless it is too large for a single frame.
+ * <br>
+ * When written to a {@link Connection} the file content is sent with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * straight from disk to the channel. When read by a {@link Connection} the content is streamed to the file given by the
+ * {@link ConnectionConfig#setFileReceiver(FileReceiver) file receiver} as it arrives, and handlers are given the
+ * packet once the region is complete. The content never passes through the Java heap on either side.
+ * <br>
+ * The frame keeps the usual header, with a body of:
+ * <ol>
+ *     <li>Position of the region in the file, as a {@code long}.</li>
+ *     <li>Total size of the file, as a {@code long}.</li>
+ *     <li>File name, as an unsigned {@code short} length and UTF-8 bytes.</li>
+ *     <li>Region content.</li>
+ * </ol>
+ * Outside a {@link Connection}, such as when encoded with {@link me.coley.pchannels.packet.PacketFactory#write(Packet)},
+ * the content is copied through the stream codec like any other packet, and skipped when read.
+ *
+ * @author Matt Coley
+ */
+public class FilePacket implements Packet {
+	/**
+	 * Size of the fixed part of the body preceding the file name bytes.
+	 */
+	public static final int FIXED_HEADER_SIZE = 18;
+	/**
+	 * Maximum content size of a single packet. Larger files are sent as multiple {@link #segments(Path) segments}.
+	 */
+	public static final int MAX_SEGMENT = 1 << 30;
+	private Path path;
+	private String name;
+	private byte[] nameBytes;
+	private long position;
+	private long count;
+	private long totalSize;
+
+	/**
+	 * Deserialization constructor.
+	 */
+	public FilePacket() {
+	}
+
+	/**
+	 * @param path
+	 * 		File to send as a whole. Must be no larger than {@link #MAX_SEGMENT}.
+	 *
+	 * @throws IOException
+	 * 		When the file size cannot be read.
+	 */
+	public FilePacket(Path path) throws IOException {
+		this(path, String.valueOf(path.getFileName()), 0, Files.size(path), Files.size(path));
+	}
+
+	/**
+	 * @param path
+	 * 		File to send a region of.
+	 * @param name
+	 * 		Name of the file, for the receiving side.
+	 * @param position
+	 * 		Position of the region in the file.
+	 * @param count
+	 * 		Size of the region, no larger than {@link #MAX_SEGMENT}.
+	 * @param totalSize
+	 * 		Total size of the file.
+	 */
+	public FilePacket(Path path, String name, long position, long count, long totalSize) {
+		if (count < 0 || count > MAX_SEGMENT) {
+			throw new IllegalArgumentException("File region size must be within [0, " + MAX_SEGMENT + "]: " + count);
+		}
+		if (position < 0 || position + count > totalSize) {
+			throw new IllegalArgumentException("File region [" + position + ", " + (position + count) +
+					") is outside the file size " + totalSize);
+		}
+		setName(name);
+		this.path = path;
+		this.position = position;
+		this.count = count;
+		this.totalSize = totalSize;
+	}
+
+	/**
+	 * @param path
+	 * 		File to send.
+	 *
+	 * @return Packets covering the whole file, in order. Empty files have a single empty packet.
+	 *
+	 * @throws IOException
+	 * 		When the file size cannot be read.
+	 */
+	public static List<FilePacket> segments(Path path) throws IOException {
+		String name = String.valueOf(path.getFileName());
+		long size = Files.size(path);
+		List<FilePacket> segments = new ArrayList<>();
+		long position = 0;
+		do {
+			long count = Math.min(MAX_SEGMENT, size - position);
+			segments.add(new FilePacket(path, name, position, count, size));
+			position += count;
+		} while (position < size);
+		return segments;
+	}
+
+	/**
+	 * @param header
+	 * 		Buffer positioned at the start of the body, containing at least the whole header.
+	 * @param count
+	 * 		Size of the region content following the header.
+	 *
+	 * @return Packet with the header's information, without a path.
+	 */
+	public static FilePacket readHeader(ByteBuffer header, long count) {
+		FilePacket packet = new FilePacket();
+		packet.position = header.getLong();
+		packet.totalSize = header.getLong();
+		byte[] nameBytes = new byte[header.getShort() & 0xFFFF];
+		header.get(nameBytes);
+		packet.nameBytes = nameBytes;
+		packet.name = new String(nameBytes, StandardCharsets.UTF_8);
+		packet.count = count;
+		return packet;
+	}
+
+	/**
+	 * @param out
+	 * 		Buffer to write the body header to, with at least {@link #getHeaderLength()} bytes remaining.
+	 */
+	public void writeHeader(ByteBuffer out) {
+		out.putLong(position);
+		out.putLong(totalSize);
+		out.putShort((short) nameBytes.length);
+		out.put(nameBytes);
+	}
+
+	/**
+	 * @param path
+	 * 		Location the content was received to, or {@code null} if it was discarded.
+	 *
+	 * @return Copy of this packet with the given path.
+	 */
+	public FilePacket withPath(Path path) {
+		FilePacket copy = new FilePacket();
+		copy.path = path;
+		copy.name = name;
+		copy.nameBytes = nameBytes;
+		copy.position = position;
+		copy.count = count;
+		copy.totalSize = totalSize;
+		return copy;
+	}
+
+	/**
+	 * @return On the sending side, the file to read from.
+	 * On the receiving side, the file the content was written to, or {@code null} if it was discarded.
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return Name of the file.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Position of the region in the file.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return Size of the region.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Total size of the file.
+	 */
+	public long getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * @return {@code true} when the region ends at the end of the file.
+	 */
+	public boolean isLast() {
+		return position + count == totalSize;
+	}
+
+	/**
+	 * @return Size of the body preceding the region content.
+	 */
+	public int getHeaderLength() {
+		return FIXED_HEADER_SIZE + nameBytes.length;
+	}
+
+	@Override
+	public int getId() {
+		return Constants.ID_FILE;
+	}
+
+	@Override
+	public int getLength() {
+		return (int) Math.min(Integer.MAX_VALUE, getHeaderLength() + count);
+	}
+
+	@Override
+	public void read(DataInputStream in) throws IOException {
+		position = in.readLong();
+		totalSize = in.readLong();
+		byte[] nameBytes = new byte[in.readUnsignedShort()];
+		in.readFully(nameBytes);
+		this.nameBytes = nameBytes;
+		name = new String(nameBytes, StandardCharsets.UTF_8);
+		// No file to stream to here, so the content is skipped
+		long skipped = 0;
+		int n;
+		while ((n = in.skipBytes(8192)) > 0) {
+			skipped += n;
+		}
+		count = skipped;
+	}
+
+	@Override
+	public void write(DataOutputStream out) throws IOException {
+		out.writeLong(position);
+		out.writeLong(totalSize);
+		out.writeShort(nameBytes.length);
+		out.write(nameBytes);
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, 8192));
+			long offset = position;
+			long remaining = count;
+			while (remaining > 0) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), remaining));
+				int read = file.read(buffer, offset);
+				if (read < 0) {
+					throw new EOFException("File " + path + " ended before the region was written");
+				}
+				out.write(buffer.array(), 0, read);
+				offset += read;
+				remaining -= read;
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FilePacket[" + name + " " + position + "+" + count + "/" + totalSize + "]";
+	}
+
+	private void setName(String name) {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if (nameBytes.length > 0xFFFF) {
+			throw new IllegalArgumentException("File name too long: " + nameBytes.length + " bytes");
+		}
+		this.name = name;
+		this.nameBytes = nameBytes;
+	}
+}
@@ -0,0 +1,111 @@
+package me.coley.pchannels.packet.impl;
+
+import me.coley.pchannels.Connection;
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.packet.Packet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Negotiates the protocol version and features of a {@link Connection}.
+ * <br>
+ * The client sends an offer with the latest version it supports and its features, as the first frame on the connection.
+ * The server answers with the lower of the two versions and the features both sides have, then frames it sends
+ * use the selected version. Once the client reads the answer it acknowledges it, after which its frames use the
+ * selected version too. Each side thus switches right after a frame of its own, so the other side knows exactly
+ * which frames are in which format.
+ * <br>
+ * The handshake itself is always framed as {@link me.coley.pchannels.packet.FrameFormat#V1 v1}.
+ *
+ * @author Matt Coley
+ */
+public class HandshakePacket implements Packet {
+	/**
+	 * Client's offer.
+	 */
+	public static final int STAGE_OFFER = 0;
+	/**
+	 * Server's answer.
+	 */
+	public static final int STAGE_ANSWER = 1;
+	/**
+	 * Client's acknowledgement of the answer.
+	 */
+	public static final int STAGE_ACK = 2;
+	private int stage;
+	private int version;
+	private int features;
+
+	/**
+	 * Deserialization constructor.
+	 */
+	public HandshakePacket() {
+	}
+
+	/**
+	 * @param stage
+	 * 		One of {@link #STAGE_OFFER}, {@link #STAGE_ANSWER} or {@link #STAGE_ACK}.
+	 * @param version
+	 * 		Latest version supported by the client when offering, otherwise the selected version.
+	 * @param features
+	 * 		Features supported by the client when offering, otherwise the features both sides support.
+	 */
+	public HandshakePacket(int stage, int version, int features) {
+		this.stage = stage;
+		this.version = version;
+		this.features = features;
+	}
+
+	/**
+	 * @return One of {@link #STAGE_OFFER}, {@link #STAGE_ANSWER} or {@link #STAGE_ACK}.
+	 */
+	public int getStage() {
+		return stage;
+	}
+
+	/**
+	 * @return Latest version supported by the client when offering, otherwise the selected version.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return Features supported by the client when offering, otherwise the features both sides support.
+	 */
+	public int getFeatures() {
+		return features;
+	}
+
+	@Override
+	public int getId() {
+		return Constants.ID_HANDSHAKE;
+	}
+
+	@Override
+	public int getLength() {
+		return 6;
+	}
+
+	@Override
+	public void read(DataInputStream in) throws IOException {
+		stage = in.readUnsignedByte();
+		version = in.readUnsignedByte();
+		features = in.readInt();
+	}
+
+	@Override
+	public void write(DataOutputStream out) throws IOException {
+		out.writeByte(stage);
+		out.writeByte(version);
+		out.writeInt(features);
+	}
+
+	@Override
+	public String toString() {
+		String name = stage == STAGE_OFFER ? "offer" : stage == STAGE_ANSWER ? "answer" : "ack";
+		return "HandshakePacket[" + name + ", v" + version + ", features=" + Integer.toHexString(features) + "]";
+	}
+}
@@ -0,0 +1,36 @@
+package me.coley.pchannels.packet.impl;
+
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.packet.EnvelopePacket;
+import me.coley.pchannels.packet.Packet;
+
+/**
+ * Envelope of a request, answered by a {@link ResponsePacket} with the same correlation id.
+ *
+ * @author Matt Coley
+ * @see me.coley.pchannels.Connection#request(Packet)
+ */
+public class RequestPacket extends EnvelopePacket {
+	/**
+	 * @param correlationId
+	 * 		Identifier for the response to refer back to.
+	 * @param request
+	 * 		Request packet.
+	 */
+	public RequestPacket(int correlationId, Packet request) {
+		super(correlationId, request);
+		if (request == null) {
+			throw new IllegalArgumentException("Request cannot be null");
+		}
+	}
+
+	@Override
+	public int getId() {
+		return Constants.ID_REQUEST;
+	}
+
+	@Override
+	public String toString() {
+		return "RequestPacket[" + getCorrelationId() + ", " + getPayload().getClass().getSimpleName() + "]";
+	}
+}
@@ -0,0 +1,89 @@
+package me.coley.pchannels.packet.impl;
+
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.packet.EnvelopePacket;
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.serial.Serialization;
+
+/**
+ * Envelope of a response to a {@link RequestPacket}, carrying either the response packet or an error message.
+ *
+ * @author Matt Coley
+ */
+public class ResponsePacket extends EnvelopePacket {
+	/**
+	 * Status written for successful responses.
+	 */
+	public static final byte STATUS_SUCCESS = 0;
+	/**
+	 * Status written for failed responses.
+	 */
+	public static final byte STATUS_FAILURE = 1;
+	private final String error;
+
+	private ResponsePacket(int correlationId, Packet response, String error) {
+		super(correlationId, response);
+		this.error = error;
+	}
+
+	/**
+	 * @param correlationId
+	 * 		Identifier of the request being answered.
+	 * @param response
+	 * 		Response packet.
+	 *
+	 * @return Successful response.
+	 */
+	public static ResponsePacket success(int correlationId, Packet response) {
+		if (response == null) {
+			throw new IllegalArgumentException("Response cannot be null");
+		}
+		return new ResponsePacket(correlationId, response, null);
+	}
+
+	/**
+	 * @param correlationId
+	 * 		Identifier of the request being answered.
+	 * @param error
+	 * 		Description of why the request failed.
+	 *
+	 * @return Failed response.
+	 */
+	public static ResponsePacket failure(int correlationId, String error) {
+		if (error == null) {
+			throw new IllegalArgumentException("Error cannot be null");
+		}
+		return new ResponsePacket(correlationId, null, error);
+	}
+
+	/**
+	 * @return Description of why the request failed, or {@code null} if it succeeded.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return {@code true} when the request succeeded and the {@link #getPayload() payload} is its response.
+	 */
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	@Override
+	public int getId() {
+		return Constants.ID_RESPONSE;
+	}
+
+	@Override
+	public int getLength() {
+		// Status byte, then either the wrapped packet or the message as a Serialization string
+		return isSuccess() ? super.getLength() + 1 : CORRELATION_ID_SIZE + 1 + Serialization.stringLength(error);
+	}
+
+	@Override
+	public String toString() {
+		return "ResponsePacket[" + getCorrelationId() + ", " +
+				(isSuccess() ? getPayload().getClass().getSimpleName() : "error: " + error) + "]";
+	}
+}
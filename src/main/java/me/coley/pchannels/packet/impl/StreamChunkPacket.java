@@ -0,0 +1,116 @@
+package me.coley.pchannels.packet.impl;
+
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.packet.BufferPacket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Chunk of content of a stream opened by a {@link StreamOpenPacket}.
+ *
+ * @author Matt Coley
+ */
+public class StreamChunkPacket implements BufferPacket {
+	/**
+	 * Flag marking the last chunk of the stream.
+	 */
+	public static final int FLAG_END = 1;
+	/**
+	 * Flag marking the stream as abandoned by the sender. The chunk carries no content.
+	 */
+	public static final int FLAG_ABORT = 2;
+	private int streamId;
+	private int flags;
+	private byte[] data;
+	private int length;
+
+	/**
+	 * Deserialization constructor.
+	 */
+	public StreamChunkPacket() {
+	}
+
+	/**
+	 * @param streamId
+	 * 		Identifier of the stream.
+	 * @param flags
+	 * 		Combination of {@link #FLAG_END} and {@link #FLAG_ABORT}.
+	 * @param data
+	 * 		Array holding the content. Not copied.
+	 * @param length
+	 * 		Length of the content, from the start of the array.
+	 */
+	public StreamChunkPacket(int streamId, int flags, byte[] data, int length) {
+		this.streamId = streamId;
+		this.flags = flags;
+		this.data = data;
+		this.length = length;
+	}
+
+	/**
+	 * @return Identifier of the stream.
+	 */
+	public int getStreamId() {
+		return streamId;
+	}
+
+	/**
+	 * @return {@code true} for the last chunk of the stream.
+	 */
+	public boolean isEnd() {
+		return (flags & FLAG_END) != 0;
+	}
+
+	/**
+	 * @return {@code true} when the sender abandoned the stream.
+	 */
+	public boolean isAbort() {
+		return (flags & FLAG_ABORT) != 0;
+	}
+
+	/**
+	 * @return Array holding the content, from index {@code 0} up to the {@link #getDataLength() content length}.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return Length of the content.
+	 */
+	public int getDataLength() {
+		return length;
+	}
+
+	@Override
+	public int getId() {
+		return Constants.ID_STREAM_CHUNK;
+	}
+
+	@Override
+	public int getLength() {
+		return 5 + length;
+	}
+
+	@Override
+	public void read(ByteBuffer in) {
+		streamId = in.getInt();
+		flags = in.get();
+		length = in.remaining();
+		data = new byte[length];
+		in.get(data);
+	}
+
+	@Override
+	public void write(ByteBuffer out) {
+		out.putInt(streamId);
+		out.put((byte) flags);
+		out.put(data, 0, length);
+	}
+
+	@Override
+	public String toString() {
+		return "StreamChunkPacket[" + streamId + ", " + length + " bytes" + (isEnd() ? ", end" : "") +
+				(isAbort() ? ", abort" : "") + "]";
+	}
+}
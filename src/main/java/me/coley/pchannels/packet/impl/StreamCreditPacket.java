@@ -0,0 +1,79 @@
+package me.coley.pchannels.packet.impl;
+
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.packet.BufferPacket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sent by the receiving side of a stream as it consumes chunks, allowing the sender to send that many more.
+ * The receiver thus never buffers more than its window of chunks per stream.
+ *
+ * @author Matt Coley
+ */
+public class StreamCreditPacket implements BufferPacket {
+	/**
+	 * Credit value telling the sender that the receiver closed the stream, and no more chunks should be sent.
+	 */
+	public static final int CANCEL = -1;
+	private int streamId;
+	private int credit;
+
+	/**
+	 * Deserialization constructor.
+	 */
+	public StreamCreditPacket() {
+	}
+
+	/**
+	 * @param streamId
+	 * 		Identifier of the stream, as given by its sender.
+	 * @param credit
+	 * 		Number of additional chunks the sender may send, or {@link #CANCEL}.
+	 */
+	public StreamCreditPacket(int streamId, int credit) {
+		this.streamId = streamId;
+		this.credit = credit;
+	}
+
+	/**
+	 * @return Identifier of the stream, as given by its sender.
+	 */
+	public int getStreamId() {
+		return streamId;
+	}
+
+	/**
+	 * @return Number of additional chunks the sender may send, or {@link #CANCEL}.
+	 */
+	public int getCredit() {
+		return credit;
+	}
+
+	@Override
+	public int getId() {
+		return Constants.ID_STREAM_CREDIT;
+	}
+
+	@Override
+	public int getLength() {
+		return 8;
+	}
+
+	@Override
+	public void read(ByteBuffer in) {
+		streamId = in.getInt();
+		credit = in.getInt();
+	}
+
+	@Override
+	public void write(ByteBuffer out) {
+		out.putInt(streamId);
+		out.putInt(credit);
+	}
+
+	@Override
+	public String toString() {
+		return "StreamCreditPacket[" + streamId + ", " + credit + "]";
+	}
+}
@@ -0,0 +1,37 @@
+package me.coley.pchannels.packet.impl;
+
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.packet.EnvelopePacket;
+import me.coley.pchannels.packet.Packet;
+
+/**
+ * Envelope opening a chunked stream, with a packet describing the stream to the receiving side.
+ * The content follows in {@link StreamChunkPacket}s with the same stream id.
+ *
+ * @author Matt Coley
+ * @see me.coley.pchannels.Connection#openStream(Packet)
+ */
+public class StreamOpenPacket extends EnvelopePacket {
+	/**
+	 * @param streamId
+	 * 		Identifier of the stream, unique among the streams opened by the sending side.
+	 * @param header
+	 * 		Packet describing the stream.
+	 */
+	public StreamOpenPacket(int streamId, Packet header) {
+		super(streamId, header);
+		if (header == null) {
+			throw new IllegalArgumentException("Stream header cannot be null");
+		}
+	}
+
+	@Override
+	public int getId() {
+		return Constants.ID_STREAM_OPEN;
+	}
+
+	@Override
+	public String toString() {
+		return "StreamOpenPacket[" + getCorrelationId() + ", " + getPayload().getClass().getSimpleName() + "]";
+	}
+}
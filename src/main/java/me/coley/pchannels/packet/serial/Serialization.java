@@ -0,0 +1,273 @@
+package me.coley.pchannels.packet.serial;
+
+import me.coley.pchannels.packet.BufferPacket;
+import me.coley.pchannels.packet.FrameFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Encoding of the variable length types supported by {@link Serialize}, used by generated serializers.
+ * <br>
+ * Strings, byte arrays, lists and nested packets are prefixed by a {@link FrameFormat#varIntSize(int) varint}
+ * of their size plus one, so that zero marks {@code null}. Lengths are computed from the values as they are,
+ * without encoding anything, and the encoding is then written straight to the packet buffer.
+ *
+ * @author Matt Coley
+ */
+public final class Serialization {
+	private Serialization() {
+	}
+
+	/**
+	 * @param count
+	 * 		Number of bytes or elements of a value, or {@code -1} for {@code null}.
+	 *
+	 * @return Size of the count prefix.
+	 */
+	public static int countLength(int count) {
+		return FrameFormat.varIntSize(count + 1);
+	}
+
+	/**
+	 * @param out
+	 * 		Buffer to write to.
+	 * @param count
+	 * 		Number of bytes or elements of a value, or {@code -1} for {@code null}.
+	 */
+	public static void putCount(ByteBuffer out, int count) {
+		FrameFormat.putVarInt(out, count + 1);
+	}
+
+	/**
+	 * @param in
+	 * 		Buffer to read from.
+	 *
+	 * @return Number of bytes or elements of the following value, or {@code -1} for {@code null}.
+	 *
+	 * @throws IOException
+	 * 		When the count is malformed, or more than the remaining bytes.
+	 * 		Every element takes at least one byte, so a larger count cannot be valid.
+	 */
+	public static int getCount(ByteBuffer in) throws IOException {
+		int count = FrameFormat.getVarInt(in) - 1;
+		if (count < -1 || count > in.remaining()) {
+			throw new IOException("Malformed count " + count + " with " + in.remaining() + " bytes remaining");
+		}
+		return count;
+	}
+
+	/**
+	 * @param value
+	 * 		String to measure, or {@code null}.
+	 *
+	 * @return Size of the encoded string, including its prefix.
+	 */
+	public static int stringLength(String value) {
+		if (value == null) {
+			return 1;
+		}
+		int length = utf8Length(value);
+		return countLength(length) + length;
+	}
+
+	/**
+	 * @param out
+	 * 		Buffer to write to.
+	 * @param value
+	 * 		String to write, or {@code null}.
+	 */
+	public static void putString(ByteBuffer out, String value) {
+		if (value == null) {
+			putCount(out, -1);
+			return;
+		}
+		putCount(out, utf8Length(value));
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				out.put((byte) c);
+			} else if (c < 0x800) {
+				out.put((byte) (0xC0 | c >> 6));
+				out.put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					out.put((byte) (0xF0 | codePoint >> 18));
+					out.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+					out.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+					out.put((byte) (0x80 | codePoint & 0x3F));
+				} else {
+					// Unpaired surrogates cannot be encoded, replaced like String.getBytes does
+					out.put((byte) '?');
+				}
+			} else {
+				out.put((byte) (0xE0 | c >> 12));
+				out.put((byte) (0x80 | c >> 6 & 0x3F));
+				out.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * @param in
+	 * 		Buffer to read from.
+	 *
+	 * @return Read string, or {@code null}.
+	 *
+	 * @throws IOException
+	 * 		When the prefix is malformed.
+	 */
+	public static String getString(ByteBuffer in) throws IOException {
+		int length = getCount(in);
+		if (length < 0) {
+			return null;
+		}
+		String value;
+		if (in.hasArray()) {
+			value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+			in.position(in.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return value;
+	}
+
+	/**
+	 * @param value
+	 * 		Array to measure, or {@code null}.
+	 *
+	 * @return Size of the encoded array, including its prefix.
+	 */
+	public static int bytesLength(byte[] value) {
+		return value == null ? 1 : countLength(value.length) + value.length;
+	}
+
+	/**
+	 * @param out
+	 * 		Buffer to write to.
+	 * @param value
+	 * 		Array to write, or {@code null}.
+	 */
+	public static void putBytes(ByteBuffer out, byte[] value) {
+		if (value == null) {
+			putCount(out, -1);
+			return;
+		}
+		putCount(out, value.length);
+		out.put(value);
+	}
+
+	/**
+	 * @param in
+	 * 		Buffer to read from.
+	 *
+	 * @return Read array, or {@code null}.
+	 *
+	 * @throws IOException
+	 * 		When the prefix is malformed.
+	 */
+	public static byte[] getBytes(ByteBuffer in) throws IOException {
+		int length = getCount(in);
+		if (length < 0) {
+			return null;
+		}
+		byte[] value = new byte[length];
+		in.get(value);
+		return value;
+	}
+
+	/**
+	 * @param value
+	 * 		Packet to measure, or {@code null}.
+	 *
+	 * @return Size of the encoded packet, including its prefix.
+	 */
+	public static int packetLength(BufferPacket value) {
+		if (value == null) {
+			return 1;
+		}
+		int length = value.getLength();
+		return countLength(length) + length;
+	}
+
+	/**
+	 * @param out
+	 * 		Buffer to write to.
+	 * @param value
+	 * 		Packet to write, or {@code null}.
+	 *
+	 * @throws IOException
+	 * 		When the packet content cannot be written.
+	 */
+	public static void putPacket(ByteBuffer out, BufferPacket value) throws IOException {
+		if (value == null) {
+			putCount(out, -1);
+			return;
+		}
+		int length = value.getLength();
+		putCount(out, length);
+		// Same contract as the packet's own body, a slice of exactly its length
+		ByteBuffer body = out.slice();
+		body.limit(length);
+		value.write(body);
+		out.position(out.position() + length);
+	}
+
+	/**
+	 * @param in
+	 * 		Buffer to read from.
+	 * @param supplier
+	 * 		Supplier of a new packet instance to read into.
+	 * @param <P>
+	 * 		Packet type.
+	 *
+	 * @return Read packet, or {@code null}.
+	 *
+	 * @throws IOException
+	 * 		When the prefix or packet content is malformed.
+	 */
+	public static <P extends BufferPacket> P getPacket(ByteBuffer in, Supplier<P> supplier) throws IOException {
+		int length = getCount(in);
+		if (length < 0) {
+			return null;
+		}
+		P value = supplier.get();
+		ByteBuffer body = in.slice();
+		body.limit(length);
+		value.read(body);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	/**
+	 * @param value
+	 * 		String to measure.
+	 *
+	 * @return Number of bytes in its UTF-8 encoding.
+	 */
+	private static int utf8Length(String value) {
+		int length = value.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				if (c < 0x800) {
+					bytes++;
+				} else if (!Character.isSurrogate(c)) {
+					bytes += 2;
+				} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					// Four bytes for the pair
+					bytes += 2;
+					i++;
+				}
+			}
+		}
+		return bytes;
+	}
+}
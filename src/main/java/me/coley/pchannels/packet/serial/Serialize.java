@@ -0,0 +1,41 @@
+package me.coley.pchannels.packet.serial;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a packet field to be serialized by a generated serializer.
+ * <br>
+ * For a packet class {@code Foo} with marked fields, {@link SerializerProcessor} generates {@code FooSerializer}
+ * in the same package, with static {@code getLength}, {@code write} and {@code read} methods for the fields.
+ * The packet implements {@link me.coley.pchannels.packet.BufferPacket} and delegates to them:
+ * <pre>{@code
+ * public class ChatPacket implements BufferPacket {
+ *     @Serialize
+ *     String message;
+ *
+ *     public int getLength() { return ChatPacketSerializer.getLength(this); }
+ *     public void read(ByteBuffer in) throws IOException { ChatPacketSerializer.read(this, in); }
+ *     public void write(ByteBuffer out) throws IOException { ChatPacketSerializer.write(this, out); }
+ * }
+ * }</pre>
+ * Fields are serialized in declaration order, and must not be private, static or final. Supported types are:
+ * <ul>
+ *     <li>Primitives, written at their fixed size.</li>
+ *     <li>{@link String}s, as UTF-8.</li>
+ *     <li>{@code byte[]}.</li>
+ *     <li>{@link java.util.List}s and {@link java.util.ArrayList}s of boxed primitives, or of any other supported type.
+ *     Boxed primitive elements cannot be {@code null}.</li>
+ *     <li>Nested {@link me.coley.pchannels.packet.BufferPacket}s of a concrete class with a no-arg constructor.</li>
+ * </ul>
+ * Fields of any type but primitives may be {@code null}.
+ *
+ * @author Matt Coley
+ * @see Serialization
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Serialize {
+}
@@ -0,0 +1,490 @@
+package me.coley.pchannels.packet.serial;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates serializers for packets with {@link Serialize} fields.
+ * <br>
+ * Serializers write to and read from the buffers given to {@link me.coley.pchannels.packet.BufferPacket}s,
+ * which {@link me.coley.pchannels.packet.PacketFactory} passes straight through without any stream adapter.
+ * Their length is computed in a single pass over the fields, with the fixed size of all primitive fields
+ * folded into one constant.
+ * <br>
+ * Registered as a service, so it runs whenever this library is on the compile classpath.
+ *
+ * @author Matt Coley
+ */
+@SupportedAnnotationTypes("me.coley.pchannels.packet.serial.Serialize")
+public class SerializerProcessor extends AbstractProcessor {
+	private static final String SERIALIZATION = Serialization.class.getName();
+	private static final String BUFFER_PACKET = "me.coley.pchannels.packet.BufferPacket";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		Set<TypeElement> packets = new LinkedHashSet<>();
+		for (Element element : round.getElementsAnnotatedWith(Serialize.class)) {
+			packets.add((TypeElement) element.getEnclosingElement());
+		}
+		for (TypeElement packet : packets) {
+			try {
+				generate(packet);
+			} catch (IOException ex) {
+				error(packet, "Could not write serializer: " + ex);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param packet
+	 * 		Packet class with serialized fields.
+	 *
+	 * @throws IOException
+	 * 		When the source file cannot be written.
+	 */
+	private void generate(TypeElement packet) throws IOException {
+		if (packet.getKind() != ElementKind.CLASS || !isAccessible(packet)) {
+			error(packet, "Serialized fields must be declared in a class that is not private");
+			return;
+		}
+		Generator generator = new Generator(packet);
+		boolean valid = true;
+		for (VariableElement field : ElementFilter.fieldsIn(packet.getEnclosedElements())) {
+			if (field.getAnnotation(Serialize.class) != null) {
+				valid &= generator.add(field);
+			}
+		}
+		if (!valid) {
+			return;
+		}
+		Elements elements = processingEnv.getElementUtils();
+		String packageName = elements.getPackageOf(packet).getQualifiedName().toString();
+		String name = serializerName(packet);
+		String qualifiedName = packageName.isEmpty() ? name : packageName + '.' + name;
+		try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, packet).openWriter()) {
+			writer.write(generator.source(packageName, name));
+		}
+	}
+
+	/**
+	 * @param packet
+	 * 		Packet class.
+	 *
+	 * @return Simple name of the serializer, the names of nested classes joined with {@code _}.
+	 */
+	private static String serializerName(TypeElement packet) {
+		StringBuilder name = new StringBuilder(packet.getSimpleName());
+		Element enclosing = packet.getEnclosingElement();
+		while (enclosing instanceof TypeElement) {
+			name.insert(0, enclosing.getSimpleName() + "_");
+			enclosing = enclosing.getEnclosingElement();
+		}
+		return name.append("Serializer").toString();
+	}
+
+	/**
+	 * @param type
+	 * 		Some class.
+	 *
+	 * @return {@code true} when the class and those it is nested in can be accessed from its package.
+	 */
+	private static boolean isAccessible(TypeElement type) {
+		Element element = type;
+		while (element instanceof TypeElement) {
+			if (element.getModifiers().contains(Modifier.PRIVATE)) {
+				return false;
+			}
+			element = element.getEnclosingElement();
+		}
+		return true;
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+	/**
+	 * Builds the code of a single serializer, field by field.
+	 */
+	private final class Generator {
+		private final Types types = processingEnv.getTypeUtils();
+		private final Elements elements = processingEnv.getElementUtils();
+		private final TypeElement packet;
+		private final StringBuilder length = new StringBuilder();
+		private final StringBuilder write = new StringBuilder();
+		private final StringBuilder read = new StringBuilder();
+		private int fixedLength;
+		private int variables;
+
+		private Generator(TypeElement packet) {
+			this.packet = packet;
+		}
+
+		/**
+		 * @param field
+		 * 		Serialized field to add.
+		 *
+		 * @return {@code true} when the field is supported.
+		 */
+		private boolean add(VariableElement field) {
+			Set<Modifier> modifiers = field.getModifiers();
+			if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC) ||
+					modifiers.contains(Modifier.FINAL)) {
+				error(field, "Serialized fields must not be private, static or final");
+				return false;
+			}
+			TypeMirror type = field.asType();
+			String unsupported = check(type, false);
+			if (unsupported != null) {
+				error(field, "Cannot serialize field of type " + type + ": " + unsupported);
+				return false;
+			}
+			String value = "packet." + field.getSimpleName();
+			int size = fixedSize(type);
+			if (size > 0) {
+				fixedLength += size;
+			} else {
+				appendLength(length, "\t\t", type, value);
+			}
+			appendWrite(write, "\t\t", type, value);
+			appendRead(read, "\t\t", type, value + " = %s;");
+			return true;
+		}
+
+		/**
+		 * @param type
+		 * 		Type of a field or list element.
+		 * @param element
+		 * 		{@code true} for list elements, which may be boxed primitives.
+		 *
+		 * @return Reason the type is not supported, or {@code null} when it is.
+		 */
+		private String check(TypeMirror type, boolean element) {
+			if (type.getKind().isPrimitive()) {
+				return null;
+			} else if (type.getKind() == TypeKind.ARRAY) {
+				return isBytes(type) ? null : "only byte arrays are supported";
+			} else if (type.getKind() != TypeKind.DECLARED) {
+				return "not a class";
+			} else if (isString(type)) {
+				return null;
+			} else if (element && isBoxed(type)) {
+				return null;
+			} else if (isList(type)) {
+				List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+				if (arguments.size() != 1) {
+					return "lists must have an element type";
+				}
+				String unsupported = check(arguments.get(0), true);
+				return unsupported == null ? null : "element type " + arguments.get(0) + ", " + unsupported;
+			} else if (isAssignable(type, BUFFER_PACKET)) {
+				TypeElement typeElement = (TypeElement) types.asElement(type);
+				if (typeElement.getModifiers().contains(Modifier.ABSTRACT)) {
+					return "nested packets must be concrete classes";
+				} else if (typeElement.getNestingKind() == NestingKind.MEMBER &&
+						!typeElement.getModifiers().contains(Modifier.STATIC)) {
+					return "nested packets must not be inner classes";
+				} else if (!((DeclaredType) type).getTypeArguments().isEmpty()) {
+					return "nested packets must not be generic";
+				} else if (!hasNoArgConstructor(typeElement)) {
+					return "nested packets must have an accessible no-arg constructor";
+				}
+				return null;
+			}
+			return "supported types are primitives, strings, byte arrays, lists and buffer packets";
+		}
+
+		private void appendLength(StringBuilder code, String indent, TypeMirror type, String value) {
+			if (isString(type)) {
+				code.append(indent).append("length += ").append(SERIALIZATION).append(".stringLength(").append(value).append(");\n");
+			} else if (isBytes(type)) {
+				code.append(indent).append("length += ").append(SERIALIZATION).append(".bytesLength(").append(value).append(");\n");
+			} else if (isList(type)) {
+				TypeMirror elementType = elementType(type);
+				int size = fixedSize(elementType);
+				code.append(indent).append("if (").append(value).append(" == null) {\n");
+				code.append(indent).append("\tlength += 1;\n");
+				code.append(indent).append("} else {\n");
+				code.append(indent).append("\tlength += ").append(SERIALIZATION).append(".countLength(").append(value).append(".size());\n");
+				if (size > 0) {
+					code.append(indent).append("\tlength += ").append(size).append(" * ").append(value).append(".size();\n");
+				} else {
+					String element = "e" + variables++;
+					code.append(indent).append("\tfor (").append(elementType).append(' ').append(element).append(" : ").append(value).append(") {\n");
+					appendLength(code, indent + "\t\t", elementType, element);
+					code.append(indent).append("\t}\n");
+				}
+				code.append(indent).append("}\n");
+			} else {
+				code.append(indent).append("length += ").append(SERIALIZATION).append(".packetLength(").append(value).append(");\n");
+			}
+		}
+
+		private void appendWrite(StringBuilder code, String indent, TypeMirror type, String value) {
+			TypeKind kind = unboxed(type).getKind();
+			switch (kind) {
+				case BOOLEAN:
+					code.append(indent).append("out.put((byte) (").append(value).append(" ? 1 : 0));\n");
+					return;
+				case BYTE:
+					code.append(indent).append("out.put(").append(value).append(");\n");
+					return;
+				case SHORT:
+				case CHAR:
+				case INT:
+				case LONG:
+				case FLOAT:
+				case DOUBLE:
+					code.append(indent).append("out.put").append(bufferSuffix(kind)).append('(').append(value).append(");\n");
+					return;
+				default:
+					break;
+			}
+			if (isString(type)) {
+				code.append(indent).append(SERIALIZATION).append(".putString(out, ").append(value).append(");\n");
+			} else if (isBytes(type)) {
+				code.append(indent).append(SERIALIZATION).append(".putBytes(out, ").append(value).append(");\n");
+			} else if (isList(type)) {
+				TypeMirror elementType = elementType(type);
+				String element = "e" + variables++;
+				code.append(indent).append("if (").append(value).append(" == null) {\n");
+				code.append(indent).append('\t').append(SERIALIZATION).append(".putCount(out, -1);\n");
+				code.append(indent).append("} else {\n");
+				code.append(indent).append('\t').append(SERIALIZATION).append(".putCount(out, ").append(value).append(".size());\n");
+				code.append(indent).append("\tfor (").append(elementType).append(' ').append(element).append(" : ").append(value).append(") {\n");
+				appendWrite(code, indent + "\t\t", elementType, element);
+				code.append(indent).append("\t}\n");
+				code.append(indent).append("}\n");
+			} else {
+				code.append(indent).append(SERIALIZATION).append(".putPacket(out, ").append(value).append(");\n");
+			}
+		}
+
+		/**
+		 * @param code
+		 * 		Code to append to.
+		 * @param indent
+		 * 		Indentation of the appended code.
+		 * @param type
+		 * 		Type to read.
+		 * @param target
+		 * 		Statement taking the read value, with {@code %s} in place of the value.
+		 */
+		private void appendRead(StringBuilder code, String indent, TypeMirror type, String target) {
+			TypeKind kind = unboxed(type).getKind();
+			String value;
+			switch (kind) {
+				case BOOLEAN:
+					value = "in.get() != 0";
+					break;
+				case BYTE:
+					value = "in.get()";
+					break;
+				case SHORT:
+				case CHAR:
+				case INT:
+				case LONG:
+				case FLOAT:
+				case DOUBLE:
+					value = "in.get" + bufferSuffix(kind) + "()";
+					break;
+				default:
+					if (isString(type)) {
+						value = SERIALIZATION + ".getString(in)";
+					} else if (isBytes(type)) {
+						value = SERIALIZATION + ".getBytes(in)";
+					} else if (isList(type)) {
+						appendReadList(code, indent, type, target);
+						return;
+					} else {
+						value = SERIALIZATION + ".getPacket(in, " + types.erasure(type) + "::new)";
+					}
+			}
+			code.append(indent).append(String.format(target, value)).append('\n');
+		}
+
+		private void appendReadList(StringBuilder code, String indent, TypeMirror type, String target) {
+			TypeMirror elementType = elementType(type);
+			int id = variables++;
+			String count = "count" + id;
+			String list = "list" + id;
+			String index = "i" + id;
+			code.append(indent).append("int ").append(count).append(" = ").append(SERIALIZATION).append(".getCount(in);\n");
+			code.append(indent).append("if (").append(count).append(" < 0) {\n");
+			code.append(indent).append('\t').append(String.format(target, "null")).append('\n');
+			code.append(indent).append("} else {\n");
+			code.append(indent).append("\tjava.util.ArrayList<").append(elementType).append("> ").append(list)
+					.append(" = new java.util.ArrayList<>(").append(count).append(");\n");
+			code.append(indent).append("\tfor (int ").append(index).append(" = 0; ").append(index).append(" < ")
+					.append(count).append("; ").append(index).append("++) {\n");
+			appendRead(code, indent + "\t\t", elementType, list + ".add(%s);");
+			code.append(indent).append("\t}\n");
+			code.append(indent).append('\t').append(String.format(target, list)).append('\n');
+			code.append(indent).append("}\n");
+		}
+
+		/**
+		 * @param packageName
+		 * 		Package of the packet.
+		 * @param name
+		 * 		Simple name of the serializer.
+		 *
+		 * @return Source of the serializer.
+		 */
+		private String source(String packageName, String name) {
+			String packetName = packet.getQualifiedName().toString();
+			StringBuilder source = new StringBuilder();
+			if (!packageName.isEmpty()) {
+				source.append("package ").append(packageName).append(";\n\n");
+			}
+			source.append("/**\n");
+			source.append(" * Serializer of {@link ").append(packetName).append("}, generated from its serialized fields.\n");
+			source.append(" */\n");
+			source.append("public final class ").append(name).append(" {\n");
+			source.append("\tprivate ").append(name).append("() {\n");
+			source.append("\t}\n\n");
+			source.append("\t/**\n");
+			source.append("\t * @param packet\n\t * \t\tPacket to measure.\n\t *\n");
+			source.append("\t * @return Exact length of the serialized fields.\n");
+			source.append("\t */\n");
+			source.append("\tpublic static int getLength(").append(packetName).append(" packet) {\n");
+			source.append("\t\tint length = ").append(fixedLength).append(";\n");
+			source.append(length);
+			source.append("\t\treturn length;\n");
+			source.append("\t}\n\n");
+			source.append("\t/**\n");
+			source.append("\t * @param packet\n\t * \t\tPacket to write.\n");
+			source.append("\t * @param out\n\t * \t\tBuffer to write to, with room for {@link #getLength(").append(packetName).append(")} bytes.\n\t *\n");
+			source.append("\t * @throws java.io.IOException\n\t * \t\tWhen a nested packet cannot be written.\n");
+			source.append("\t */\n");
+			source.append("\tpublic static void write(").append(packetName).append(" packet, java.nio.ByteBuffer out) throws java.io.IOException {\n");
+			source.append(write);
+			source.append("\t}\n\n");
+			source.append("\t/**\n");
+			source.append("\t * @param packet\n\t * \t\tPacket to read into.\n");
+			source.append("\t * @param in\n\t * \t\tBuffer to read from.\n\t *\n");
+			source.append("\t * @throws java.io.IOException\n\t * \t\tWhen the content is malformed.\n");
+			source.append("\t */\n");
+			source.append("\tpublic static void read(").append(packetName).append(" packet, java.nio.ByteBuffer in) throws java.io.IOException {\n");
+			source.append(read);
+			source.append("\t}\n");
+			source.append("}\n");
+			return source.toString();
+		}
+
+		/**
+		 * @param type
+		 * 		Some type.
+		 *
+		 * @return Size of the type when it is a primitive, otherwise {@code -1}.
+		 */
+		private int fixedSize(TypeMirror type) {
+			switch (unboxed(type).getKind()) {
+				case BOOLEAN:
+				case BYTE:
+					return 1;
+				case SHORT:
+				case CHAR:
+					return 2;
+				case INT:
+				case FLOAT:
+					return 4;
+				case LONG:
+				case DOUBLE:
+					return 8;
+				default:
+					return -1;
+			}
+		}
+
+		private String bufferSuffix(TypeKind kind) {
+			String name = kind.name().toLowerCase();
+			return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		}
+
+		private TypeMirror unboxed(TypeMirror type) {
+			return isBoxed(type) ? types.unboxedType(type) : type;
+		}
+
+		private TypeMirror elementType(TypeMirror list) {
+			return ((DeclaredType) list).getTypeArguments().get(0);
+		}
+
+		private boolean isBoxed(TypeMirror type) {
+			if (type.getKind() != TypeKind.DECLARED) {
+				return false;
+			}
+			try {
+				types.unboxedType(type);
+				return true;
+			} catch (IllegalArgumentException ex) {
+				return false;
+			}
+		}
+
+		private boolean isString(TypeMirror type) {
+			return isSame(type, String.class.getName());
+		}
+
+		private boolean isBytes(TypeMirror type) {
+			return type.getKind() == TypeKind.ARRAY &&
+					types.isSameType(type, types.getArrayType(types.getPrimitiveType(TypeKind.BYTE)));
+		}
+
+		private boolean isList(TypeMirror type) {
+			return isSame(types.erasure(type), List.class.getName()) ||
+					isSame(types.erasure(type), java.util.ArrayList.class.getName());
+		}
+
+		private boolean isSame(TypeMirror type, String className) {
+			TypeElement element = elements.getTypeElement(className);
+			return element != null && types.isSameType(type, types.erasure(element.asType()));
+		}
+
+		private boolean isAssignable(TypeMirror type, String className) {
+			TypeElement element = elements.getTypeElement(className);
+			return element != null && types.isAssignable(type, element.asType());
+		}
+
+		private boolean hasNoArgConstructor(TypeElement type) {
+			PackageElement packetPackage = elements.getPackageOf(packet);
+			boolean samePackage = elements.getPackageOf(type).equals(packetPackage);
+			for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+				Set<Modifier> modifiers = constructor.getModifiers();
+				if (constructor.getParameters().isEmpty() && (modifiers.contains(Modifier.PUBLIC) ||
+						(samePackage && !modifiers.contains(Modifier.PRIVATE)))) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package me.coley.pchannels.transport;
+
+import me.coley.pchannels.Server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.Channel;
+
+/**
+ * Server side of a transport, accepting channel connections from clients.
+ *
+ * @author Matt Coley
+ * @see Server#Server(Acceptor)
+ */
+public interface Acceptor extends Closeable {
+	/**
+	 * Blocks until a client connects.
+	 * Channels that are also {@link java.nio.channels.SelectableChannel}s can be handled by event loops.
+	 *
+	 * @return Channel connection to a client. Either a {@link java.nio.channels.ByteChannel} carrying encoded frames,
+	 * or a {@link PacketChannel} carrying packets.
+	 *
+	 * @throws IOException
+	 * 		When accepting a connection fails, or the acceptor has been closed.
+	 */
+	Channel accept() throws IOException;
+}
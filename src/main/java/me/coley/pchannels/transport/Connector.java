@@ -0,0 +1,23 @@
+package me.coley.pchannels.transport;
+
+import me.coley.pchannels.Client;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+
+/**
+ * Client side of a transport, opening a channel connection to a server.
+ *
+ * @author Matt Coley
+ * @see Client#Client(Connector)
+ */
+public interface Connector {
+	/**
+	 * @return Channel connection to a server. Either a {@link java.nio.channels.ByteChannel} carrying encoded frames,
+	 * or a {@link PacketChannel} carrying packets.
+	 *
+	 * @throws IOException
+	 * 		When the connection cannot be opened.
+	 */
+	Channel connect() throws IOException;
+}
@@ -0,0 +1,145 @@
+package me.coley.pchannels.transport;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acceptor of connections from the same JVM, bound to a name rather than an address.
+ * <br>
+ * Packets are passed between the client and server as objects, skipping encoding, decoding and any copying.
+ * This suits tests and embedded deployments, and gives a baseline free of transport overhead for benchmarks.
+ *
+ * @author Matt Coley
+ * @see InVmConnector
+ */
+public class InVmAcceptor implements Acceptor {
+	/**
+	 * Default maximum number of packets queued in each direction of a connection.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+	private static final Map<String, InVmAcceptor> ENDPOINTS = new ConcurrentHashMap<>();
+	private static final long POLL_MILLIS = 100;
+	private final BlockingQueue<InVmChannel> pending = new LinkedBlockingQueue<>();
+	private final InVmAddress address;
+	private final int capacity;
+	private volatile boolean serializing;
+	private volatile boolean open = true;
+
+	/**
+	 * @param name
+	 * 		Name for clients to connect to.
+	 *
+	 * @throws BindException
+	 * 		When another acceptor is already bound to the name.
+	 */
+	public InVmAcceptor(String name) throws BindException {
+		this(name, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param name
+	 * 		Name for clients to connect to.
+	 * @param capacity
+	 * 		Maximum number of packets queued in each direction of a connection, must be a power of two.
+	 *
+	 * @throws BindException
+	 * 		When another acceptor is already bound to the name.
+	 */
+	public InVmAcceptor(String name, int capacity) throws BindException {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+		}
+		this.address = new InVmAddress(name);
+		this.capacity = capacity;
+		if (ENDPOINTS.putIfAbsent(name, this) != null) {
+			throw new BindException("In-VM endpoint already bound: " + name);
+		}
+	}
+
+	/**
+	 * @param name
+	 * 		Endpoint name.
+	 *
+	 * @return Acceptor bound to the name, or {@code null} if none is bound.
+	 */
+	static InVmAcceptor lookup(String name) {
+		return ENDPOINTS.get(name);
+	}
+
+	/**
+	 * @return Address of the in-VM endpoint.
+	 */
+	public InVmAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return {@code true} when packets of new connections are still encoded and decoded.
+	 */
+	public boolean isSerializing() {
+		return serializing;
+	}
+
+	/**
+	 * Encoding packets anyway verifies that each packet type's codec round-trips,
+	 * which is otherwise never exercised by in-VM connections. Applies to connections accepted afterwards.
+	 *
+	 * @param serializing
+	 * 		Whether packets of new connections should still be encoded and decoded.
+	 */
+	public void setSerializing(boolean serializing) {
+		this.serializing = serializing;
+	}
+
+	/**
+	 * @return Client side of a new connection.
+	 *
+	 * @throws ConnectException
+	 * 		When the acceptor is closed.
+	 */
+	InVmChannel connect() throws ConnectException {
+		if (!open) {
+			throw new ConnectException("Connection refused: " + address);
+		}
+		InVmChannel[] pair = InVmChannel.pair(address, capacity, serializing);
+		pending.add(pair[0]);
+		return pair[1];
+	}
+
+	@Override
+	public Channel accept() throws IOException {
+		try {
+			while (open) {
+				InVmChannel channel = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (channel != null) {
+					return channel;
+				}
+			}
+		} catch (InterruptedException ex) {
+			throw new ClosedByInterruptException();
+		}
+		throw new ClosedChannelException();
+	}
+
+	@Override
+	public void close() {
+		if (open) {
+			open = false;
+			ENDPOINTS.remove(address.getName(), this);
+			// Refuse connections that were never accepted
+			InVmChannel channel;
+			while ((channel = pending.poll()) != null) {
+				channel.close();
+			}
+		}
+	}
+}
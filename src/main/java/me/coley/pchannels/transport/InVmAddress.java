@@ -0,0 +1,43 @@
+package me.coley.pchannels.transport;
+
+import java.net.SocketAddress;
+
+/**
+ * Address of an in-VM endpoint, being the name it was bound with.
+ *
+ * @author Matt Coley
+ */
+public class InVmAddress extends SocketAddress {
+	private static final long serialVersionUID = 1L;
+	private final String name;
+
+	/**
+	 * @param name
+	 * 		Endpoint name.
+	 */
+	public InVmAddress(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return Endpoint name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof InVmAddress && name.equals(((InVmAddress) o).name);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "invm:" + name;
+	}
+}
@@ -0,0 +1,182 @@
+package me.coley.pchannels.transport;
+
+import me.coley.pchannels.packet.EnvelopePacket;
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.PooledPacket;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One side of an in-VM connection. Packets are handed to the other side through a bounded lock-free queue,
+ * without being encoded.
+ * <br>
+ * {@link PooledPacket}s, including those wrapped in an {@link EnvelopePacket}, are retained when written, so that the receiving side's release after handling
+ * does not recycle an instance the sender still owns.
+ *
+ * @author Matt Coley
+ */
+public class InVmChannel implements PacketChannel {
+	private static final int SPIN_LIMIT = 100;
+	private static final int YIELD_LIMIT = 200;
+	private static final long PARK_NANOS = 50_000;
+	private final MpmcQueue<Packet> inbound;
+	private final InVmAddress address;
+	private final boolean serializing;
+	private InVmChannel peer;
+	private volatile Thread waiter;
+	private volatile boolean open = true;
+
+	private InVmChannel(int capacity, InVmAddress address, boolean serializing) {
+		this.inbound = new MpmcQueue<>(capacity);
+		this.address = address;
+		this.serializing = serializing;
+	}
+
+	/**
+	 * @param address
+	 * 		Address of the endpoint connected to.
+	 * @param capacity
+	 * 		Maximum number of packets queued in each direction, must be a power of two.
+	 * @param serializing
+	 * 		Whether received packets should still go through an encode/decode round trip.
+	 *
+	 * @return Pair of connected channels, the first for the server and the second for the client.
+	 */
+	static InVmChannel[] pair(InVmAddress address, int capacity, boolean serializing) {
+		InVmChannel server = new InVmChannel(capacity, address, serializing);
+		InVmChannel client = new InVmChannel(capacity, address, serializing);
+		server.peer = client;
+		client.peer = server;
+		return new InVmChannel[]{server, client};
+	}
+
+	/**
+	 * @return Address of the endpoint connected to.
+	 */
+	public SocketAddress getAddress() {
+		return address;
+	}
+
+	@Override
+	public void writePacket(Packet packet) throws IOException {
+		if (!open || !peer.open) {
+			throw new ClosedChannelException();
+		}
+		Packet payload = EnvelopePacket.unwrap(packet);
+		if (payload instanceof PooledPacket) {
+			((PooledPacket) payload).retain();
+		}
+		int attempts = 0;
+		while (!peer.inbound.offer(packet)) {
+			try {
+				if (!open || !peer.open) {
+					throw new ClosedChannelException();
+				}
+				attempts = backoff(attempts);
+			} catch (IOException ex) {
+				if (payload instanceof PooledPacket) {
+					((PooledPacket) payload).release();
+				}
+				throw ex;
+			}
+		}
+		if (!peer.open) {
+			// Closed while offering, after its close released what was queued, so nothing will read the packet
+			peer.releaseQueued();
+			throw new ClosedChannelException();
+		}
+		wake(peer.waiter);
+	}
+
+	@Override
+	public Packet readPacket() throws IOException {
+		int attempts = 0;
+		while (true) {
+			Packet packet = inbound.poll();
+			if (packet != null) {
+				return packet;
+			} else if (!open) {
+				throw new ClosedChannelException();
+			} else if (!peer.open && inbound.isEmpty()) {
+				// Packets written before the peer closed are always visible by now
+				return null;
+			} else if (attempts < YIELD_LIMIT) {
+				attempts = backoff(attempts);
+			} else {
+				// Idle, wait to be woken by the next write
+				waiter = Thread.currentThread();
+				if (inbound.isEmpty() && open && peer.open) {
+					LockSupport.park(this);
+				}
+				waiter = null;
+				checkInterrupt();
+			}
+		}
+	}
+
+	@Override
+	public boolean isSerializing() {
+		return serializing;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		if (open) {
+			open = false;
+			releaseQueued();
+			wake(waiter);
+			wake(peer.waiter);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "InVmChannel[" + address + (open ? "" : ", closed") + "]";
+	}
+
+	/**
+	 * Releases anything queued that will no longer be read. May run on both sides at once,
+	 * as each packet is only polled once.
+	 */
+	private void releaseQueued() {
+		Packet packet;
+		while ((packet = inbound.poll()) != null) {
+			Packet payload = EnvelopePacket.unwrap(packet);
+			if (payload instanceof PooledPacket) {
+				((PooledPacket) payload).release();
+			}
+		}
+	}
+
+	private int backoff(int attempts) throws IOException {
+		checkInterrupt();
+		if (attempts >= YIELD_LIMIT) {
+			LockSupport.parkNanos(PARK_NANOS);
+		} else if (attempts >= SPIN_LIMIT) {
+			Thread.yield();
+		}
+		return attempts + 1;
+	}
+
+	private void checkInterrupt() throws IOException {
+		if (Thread.interrupted()) {
+			close();
+			throw new ClosedByInterruptException();
+		}
+	}
+
+	private static void wake(Thread thread) {
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+}
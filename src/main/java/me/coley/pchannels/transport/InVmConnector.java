@@ -0,0 +1,38 @@
+package me.coley.pchannels.transport;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.channels.Channel;
+
+/**
+ * Connector to an {@link InVmAcceptor} in the same JVM.
+ *
+ * @author Matt Coley
+ */
+public class InVmConnector implements Connector {
+	private final String name;
+
+	/**
+	 * @param name
+	 * 		Name the acceptor is bound to.
+	 */
+	public InVmConnector(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return Name the acceptor is bound to.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Channel connect() throws IOException {
+		InVmAcceptor acceptor = InVmAcceptor.lookup(name);
+		if (acceptor == null) {
+			throw new ConnectException("No in-VM endpoint bound: " + name);
+		}
+		return acceptor.connect();
+	}
+}
@@ -0,0 +1,166 @@
+package me.coley.pchannels.transport;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ordered and volatile access to direct buffer memory, for lock-free counters shared between processes.
+ * <br>
+ * On Java 9+ this uses the view {@code VarHandle}s of {@code MethodHandles.byteBufferViewVarHandle}.
+ * Java 8 has no public API for it, so there the same operations are looked up from {@code sun.misc.Unsafe}.
+ * Both are only reached through method handles, held in constants so that the JIT inlines them like direct calls.
+ * Indices must be aligned to the size of the value.
+ *
+ * @author Matt Coley
+ */
+final class MemoryAccess {
+	private static final MethodHandle GET_LONG_VOLATILE;
+	private static final MethodHandle PUT_LONG_ORDERED;
+	private static final MethodHandle GET_INT_VOLATILE;
+	private static final MethodHandle PUT_INT_VOLATILE;
+	private static final MethodHandle COMPARE_AND_SET_INT;
+
+	static {
+		MethodHandle[] handles;
+		try {
+			handles = lookupVarHandles();
+			if (handles == null) {
+				handles = lookupUnsafe();
+			}
+		} catch (ReflectiveOperationException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+		GET_LONG_VOLATILE = handles[0];
+		PUT_LONG_ORDERED = handles[1];
+		GET_INT_VOLATILE = handles[2];
+		PUT_INT_VOLATILE = handles[3];
+		COMPARE_AND_SET_INT = handles[4];
+	}
+
+	private MemoryAccess() {
+	}
+
+	static long getLongVolatile(ByteBuffer buffer, int index) {
+		try {
+			return (long) GET_LONG_VOLATILE.invokeExact(buffer, index);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static void putLongOrdered(ByteBuffer buffer, int index, long value) {
+		try {
+			PUT_LONG_ORDERED.invokeExact(buffer, index, value);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static int getIntVolatile(ByteBuffer buffer, int index) {
+		try {
+			return (int) GET_INT_VOLATILE.invokeExact(buffer, index);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static void putIntVolatile(ByteBuffer buffer, int index, int value) {
+		try {
+			PUT_INT_VOLATILE.invokeExact(buffer, index, value);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	static boolean compareAndSetInt(ByteBuffer buffer, int index, int expected, int value) {
+		try {
+			return (boolean) COMPARE_AND_SET_INT.invokeExact(buffer, index, expected, value);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		}
+		// None of the operations declare checked exceptions
+		throw new IllegalStateException(t);
+	}
+
+	/**
+	 * @return Handles of each operation, or {@code null} when the runtime has no {@code VarHandle}s.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static MethodHandle[] lookupVarHandles() throws ReflectiveOperationException {
+		Class<?> varHandle;
+		try {
+			varHandle = Class.forName("java.lang.invoke.VarHandle");
+		} catch (ClassNotFoundException ex) {
+			return null;
+		}
+		Class<Enum> accessMode = (Class<Enum>) Class.forName("java.lang.invoke.VarHandle$AccessMode");
+		Method viewHandle = MethodHandles.class.getMethod("byteBufferViewVarHandle", Class.class, ByteOrder.class);
+		Method toMethodHandle = varHandle.getMethod("toMethodHandle", accessMode);
+		Object longs = viewHandle.invoke(null, long[].class, ByteOrder.nativeOrder());
+		Object ints = viewHandle.invoke(null, int[].class, ByteOrder.nativeOrder());
+		return new MethodHandle[]{
+				(MethodHandle) toMethodHandle.invoke(longs, Enum.valueOf(accessMode, "GET_VOLATILE")),
+				(MethodHandle) toMethodHandle.invoke(longs, Enum.valueOf(accessMode, "SET_RELEASE")),
+				(MethodHandle) toMethodHandle.invoke(ints, Enum.valueOf(accessMode, "GET_VOLATILE")),
+				(MethodHandle) toMethodHandle.invoke(ints, Enum.valueOf(accessMode, "SET_VOLATILE")),
+				(MethodHandle) toMethodHandle.invoke(ints, Enum.valueOf(accessMode, "COMPARE_AND_SET"))
+		};
+	}
+
+	/**
+	 * @return Handles of each operation, taking the same buffer and index arguments as the {@code VarHandle}s,
+	 * adapted to the absolute addresses {@code Unsafe} expects.
+	 */
+	private static MethodHandle[] lookupUnsafe() throws ReflectiveOperationException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+		Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+		theUnsafe.setAccessible(true);
+		Object unsafe = theUnsafe.get(null);
+		Field address = Buffer.class.getDeclaredField("address");
+		address.setAccessible(true);
+		// (ByteBuffer, int) -> buffer address + index
+		MethodHandle addressOf = MethodHandles.filterArguments(
+				lookup.findStatic(MemoryAccess.class, "add", MethodType.methodType(long.class, long.class, int.class)),
+				0, lookup.unreflectGetter(address).asType(MethodType.methodType(long.class, ByteBuffer.class)));
+		return new MethodHandle[]{
+				unsafeHandle(lookup, unsafeClass, unsafe, addressOf, "getLongVolatile", long.class),
+				unsafeHandle(lookup, unsafeClass, unsafe, addressOf, "putOrderedLong", void.class, long.class),
+				unsafeHandle(lookup, unsafeClass, unsafe, addressOf, "getIntVolatile", int.class),
+				unsafeHandle(lookup, unsafeClass, unsafe, addressOf, "putIntVolatile", void.class, int.class),
+				unsafeHandle(lookup, unsafeClass, unsafe, addressOf, "compareAndSwapInt", boolean.class, int.class, int.class)
+		};
+	}
+
+	private static MethodHandle unsafeHandle(MethodHandles.Lookup lookup, Class<?> unsafeClass, Object unsafe,
+											 MethodHandle addressOf, String name, Class<?> returnType,
+											 Class<?>... valueTypes) throws ReflectiveOperationException {
+		Class<?>[] parameters = new Class<?>[2 + valueTypes.length];
+		parameters[0] = Object.class;
+		parameters[1] = long.class;
+		System.arraycopy(valueTypes, 0, parameters, 2, valueTypes.length);
+		MethodHandle handle = lookup.findVirtual(unsafeClass, name, MethodType.methodType(returnType, parameters))
+				.bindTo(unsafe);
+		// Off-heap access has no base object
+		handle = MethodHandles.insertArguments(handle, 0, (Object) null);
+		return MethodHandles.collectArguments(handle, 0, addressOf);
+	}
+
+	private static long add(long address, int index) {
+		return address + index;
+	}
+}
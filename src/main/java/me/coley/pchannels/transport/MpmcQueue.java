@@ -0,0 +1,99 @@
+package me.coley.pchannels.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue.
+ * <br>
+ * Each slot has a sequence number telling producers and consumers whether it is free for the given lap
+ * around the array, so the only contention is a single compare-and-set on the head or tail.
+ *
+ * @param <E>
+ * 		Element type.
+ *
+ * @author Matt Coley
+ */
+final class MpmcQueue<E> {
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 * 		Maximum number of elements, must be a power of two.
+	 */
+	MpmcQueue(int capacity) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+		}
+		mask = capacity - 1;
+		elements = new AtomicReferenceArray<>(capacity);
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @param element
+	 * 		Element to add.
+	 *
+	 * @return {@code true} when added, {@code false} when the queue is full.
+	 */
+	boolean offer(E element) {
+		long pos = tail.get();
+		while (true) {
+			int index = (int) pos & mask;
+			long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					elements.lazySet(index, element);
+					// Full store so that a consumer checking emptiness before parking cannot miss it
+					sequences.set(index, pos + 1);
+					return true;
+				}
+				pos = tail.get();
+			} else if (diff < 0) {
+				return false;
+			} else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * @return Next element, or {@code null} when the queue is empty.
+	 */
+	E poll() {
+		long pos = head.get();
+		while (true) {
+			int index = (int) pos & mask;
+			long diff = sequences.get(index) - (pos + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					E element = elements.get(index);
+					elements.lazySet(index, null);
+					sequences.lazySet(index, pos + mask + 1);
+					return element;
+				}
+				pos = head.get();
+			} else if (diff < 0) {
+				return null;
+			} else {
+				pos = head.get();
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} when there is no element ready to be polled.
+	 */
+	boolean isEmpty() {
+		long pos = head.get();
+		return sequences.get((int) pos & mask) - (pos + 1) < 0;
+	}
+}
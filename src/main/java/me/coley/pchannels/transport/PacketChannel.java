@@ -0,0 +1,44 @@
+package me.coley.pchannels.transport;
+
+import me.coley.pchannels.Connection;
+import me.coley.pchannels.packet.Packet;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+
+/**
+ * Channel that transfers {@link Packet} instances directly, rather than their encoded bytes.
+ * {@link Connection}s wrapping such a channel skip encoding and decoding entirely.
+ *
+ * @author Matt Coley
+ * @see InVmChannel
+ */
+public interface PacketChannel extends Channel {
+	/**
+	 * Hands the packet over to the remote side, blocking while the remote side's queue is full.
+	 * The packet must not be modified afterwards, as the remote side receives the same instance.
+	 *
+	 * @param packet
+	 * 		Packet to send.
+	 *
+	 * @throws IOException
+	 * 		When either side of the channel is closed.
+	 */
+	void writePacket(Packet packet) throws IOException;
+
+	/**
+	 * Blocks until a packet is sent by the remote side.
+	 *
+	 * @return Next packet, or {@code null} when the remote side has closed and all of its packets were read.
+	 *
+	 * @throws IOException
+	 * 		When the channel is closed.
+	 */
+	Packet readPacket() throws IOException;
+
+	/**
+	 * @return {@code true} when received packets should still be encoded and decoded,
+	 * verifying that their codec round-trips.
+	 */
+	boolean isSerializing();
+}
@@ -0,0 +1,119 @@
+package me.coley.pchannels.transport;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Acceptor of a single same-host connection over a memory mapped file.
+ * <br>
+ * Data is exchanged through a pair of lock-free ring buffers in the file, skipping the network stack entirely.
+ * This suits the common case of a single high throughput connection to another process on the same machine.
+ * Only one client is accepted. Further calls to {@link #accept()} block until the acceptor is closed.
+ *
+ * @author Matt Coley
+ * @see SharedMemoryConnector
+ */
+public class SharedMemoryAcceptor implements Acceptor {
+	/**
+	 * Default capacity of each ring buffer.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+	private static final long POLL_NANOS = 1_000_000;
+	private final Path file;
+	private final SharedMemoryAddress address;
+	private final SharedMemoryRegion region;
+	private volatile boolean open = true;
+	private boolean accepted;
+	private long peerTimeoutMillis = SharedMemoryChannel.DEFAULT_PEER_TIMEOUT_MILLIS;
+
+	/**
+	 * @param file
+	 * 		File to create for the shared memory. Replaces any existing file.
+	 *
+	 * @throws IOException
+	 * 		When the file cannot be created or mapped.
+	 */
+	public SharedMemoryAcceptor(Path file) throws IOException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param file
+	 * 		File to create for the shared memory. Replaces any existing file.
+	 * @param capacity
+	 * 		Capacity of each ring buffer, must be a power of two.
+	 *
+	 * @throws IOException
+	 * 		When the file cannot be created or mapped.
+	 */
+	public SharedMemoryAcceptor(Path file, int capacity) throws IOException {
+		this.file = file;
+		this.address = new SharedMemoryAddress(file);
+		this.region = SharedMemoryRegion.create(file, capacity);
+	}
+
+	/**
+	 * @return Address of the shared memory endpoint.
+	 */
+	public SharedMemoryAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return Time without a heartbeat from the client before it is considered dead.
+	 */
+	public long getPeerTimeoutMillis() {
+		return peerTimeoutMillis;
+	}
+
+	/**
+	 * Must be set before the client is accepted.
+	 *
+	 * @param peerTimeoutMillis
+	 * 		Time without a heartbeat from the client before it is considered dead, and waiting on it fails.
+	 * 		Defaults to {@link SharedMemoryChannel#DEFAULT_PEER_TIMEOUT_MILLIS}.
+	 */
+	public void setPeerTimeoutMillis(long peerTimeoutMillis) {
+		if (peerTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("Peer timeout must be positive: " + peerTimeoutMillis);
+		}
+		this.peerTimeoutMillis = peerTimeoutMillis;
+	}
+
+	@Override
+	public synchronized ByteChannel accept() throws IOException {
+		if (!accepted) {
+			// Wait for a client to mark the region as connected
+			while (region.getState() != SharedMemoryRegion.STATE_CONNECTED) {
+				await();
+			}
+			accepted = true;
+			return new SharedMemoryChannel(region, true, address, peerTimeoutMillis);
+		}
+		// Single connection only, wait until closed
+		while (true) {
+			await();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		Files.deleteIfExists(file);
+	}
+
+	private void await() throws IOException {
+		if (!open) {
+			throw accepted ? new AsynchronousCloseException() : new ClosedChannelException();
+		} else if (Thread.interrupted()) {
+			throw new ClosedByInterruptException();
+		}
+		LockSupport.parkNanos(POLL_NANOS);
+	}
+}
@@ -0,0 +1,44 @@
+package me.coley.pchannels.transport;
+
+import java.net.SocketAddress;
+import java.nio.file.Path;
+
+/**
+ * Address of a shared memory endpoint, being the path of its backing file.
+ *
+ * @author Matt Coley
+ */
+public class SharedMemoryAddress extends SocketAddress {
+	private static final long serialVersionUID = 1L;
+	private final String path;
+
+	/**
+	 * @param path
+	 * 		Path of the backing file.
+	 */
+	public SharedMemoryAddress(Path path) {
+		this.path = path.toAbsolutePath().toString();
+	}
+
+	/**
+	 * @return Path of the backing file.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof SharedMemoryAddress && path.equals(((SharedMemoryAddress) o).path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "shm:" + path;
+	}
+}
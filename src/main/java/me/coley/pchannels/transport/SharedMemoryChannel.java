@@ -0,0 +1,191 @@
+package me.coley.pchannels.transport;
+
+import me.coley.pchannels.HashedWheelTimer;
+import me.coley.pchannels.Threads;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking channel over a pair of {@link SharedMemoryRing}s, one for each direction.
+ * <br>
+ * Reads and writes copy directly between the given buffers and the shared memory, without any system calls.
+ * Waiting for data or space spins briefly before backing off to parking the thread.
+ * <br>
+ * A process that dies never marks its side as closed, so each side counts heartbeats in the shared memory
+ * on the {@link Threads#timer() shared timer}. A side waiting on the other closes the channel once the other's count
+ * has not moved for the peer timeout. The count is only compared against local time, so the two processes' clocks
+ * do not need to agree.
+ *
+ * @author Matt Coley
+ */
+public class SharedMemoryChannel implements ByteChannel, GatheringByteChannel {
+	/**
+	 * Default time without a heartbeat from the other side before it is considered dead.
+	 */
+	public static final long DEFAULT_PEER_TIMEOUT_MILLIS = 10_000;
+	private final SharedMemoryRegion region;
+	private final SharedMemoryRing inbound;
+	private final SharedMemoryRing outbound;
+	private final SharedMemoryAddress address;
+	private final boolean server;
+	private final long peerTimeoutNanos;
+	private final long heartbeatMillis;
+	private volatile boolean open = true;
+	private volatile HashedWheelTimer.Timeout heartbeat;
+	private long heartbeats;
+	private long peerHeartbeats;
+	private long peerHeartbeatNanos;
+
+	/**
+	 * @param region
+	 * 		Shared memory holding the rings.
+	 * @param server
+	 * 		{@code true} for the server's side, {@code false} for the client's.
+	 * @param address
+	 * 		Address of the shared memory endpoint.
+	 * @param peerTimeoutMillis
+	 * 		Time without a heartbeat from the other side before it is considered dead.
+	 */
+	SharedMemoryChannel(SharedMemoryRegion region, boolean server, SharedMemoryAddress address,
+						long peerTimeoutMillis) {
+		this.region = region;
+		this.inbound = server ? region.clientToServer() : region.serverToClient();
+		this.outbound = server ? region.serverToClient() : region.clientToServer();
+		this.address = address;
+		this.server = server;
+		this.peerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(peerTimeoutMillis);
+		// Several heartbeats per timeout, so one late beat does not look like a dead peer
+		this.heartbeatMillis = Math.max(1, peerTimeoutMillis / 4);
+		this.peerHeartbeats = region.getHeartbeats(!server);
+		this.peerHeartbeatNanos = System.nanoTime();
+		heartbeat();
+	}
+
+	/**
+	 * @return Address of the shared memory endpoint.
+	 */
+	public SocketAddress getAddress() {
+		return address;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		try {
+			return inbound.read(dst, this::checkWaiting);
+		} catch (ClosedByInterruptException ex) {
+			close();
+			throw ex;
+		}
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		ensureOpen();
+		try {
+			return outbound.write(src, this::checkWaiting);
+		} catch (ClosedByInterruptException ex) {
+			close();
+			throw ex;
+		}
+	}
+
+	@Override
+	public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+		long total = 0;
+		for (int i = offset; i < offset + length; i++) {
+			total += write(srcs[i]);
+		}
+		return total;
+	}
+
+	@Override
+	public long write(ByteBuffer[] srcs) throws IOException {
+		return write(srcs, 0, srcs.length);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		if (open) {
+			open = false;
+			HashedWheelTimer.Timeout current = heartbeat;
+			if (current != null) {
+				current.cancel();
+			}
+			outbound.closeProducer();
+			inbound.closeConsumer();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SharedMemoryChannel[" + address + (open ? "" : ", closed") + "]";
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	/**
+	 * Counts a heartbeat for the other side to see, and schedules the next one while open.
+	 * Only runs on the timer thread, after the first beat from the constructor.
+	 */
+	private void heartbeat() {
+		if (!open) {
+			return;
+		}
+		region.setHeartbeats(server, ++heartbeats);
+		heartbeat = Threads.timer().newTimeout(this::heartbeat, heartbeatMillis, TimeUnit.MILLISECONDS);
+		if (!open) {
+			heartbeat.cancel();
+		}
+	}
+
+	/**
+	 * Called by the rings while waiting on the other side.
+	 *
+	 * @throws IOException
+	 * 		When the channel was closed, or the other side has not sent a heartbeat within the peer timeout.
+	 */
+	private void checkWaiting() throws IOException {
+		if (!open) {
+			throw new AsynchronousCloseException();
+		}
+		long silentNanos = peerSilentNanos();
+		if (silentNanos > peerTimeoutNanos) {
+			close();
+			throw new IOException("Shared memory peer sent no heartbeat for " +
+					TimeUnit.NANOSECONDS.toMillis(silentNanos) + "ms: " + address);
+		}
+	}
+
+	/**
+	 * Synchronized as a reader and writer may wait at once, and must not see each other's half updated state.
+	 *
+	 * @return Time since the other side's heartbeat count last changed.
+	 */
+	private synchronized long peerSilentNanos() {
+		long now = System.nanoTime();
+		long count = region.getHeartbeats(!server);
+		if (count != peerHeartbeats) {
+			peerHeartbeats = count;
+			peerHeartbeatNanos = now;
+		}
+		return now - peerHeartbeatNanos;
+	}
+}
@@ -0,0 +1,52 @@
+package me.coley.pchannels.transport;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.channels.ByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Connector to a {@link SharedMemoryAcceptor} on the same host.
+ *
+ * @author Matt Coley
+ */
+public class SharedMemoryConnector implements Connector {
+	private final Path file;
+	private long peerTimeoutMillis = SharedMemoryChannel.DEFAULT_PEER_TIMEOUT_MILLIS;
+
+	/**
+	 * @param file
+	 * 		File created by the {@link SharedMemoryAcceptor}.
+	 */
+	public SharedMemoryConnector(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return Time without a heartbeat from the server before it is considered dead.
+	 */
+	public long getPeerTimeoutMillis() {
+		return peerTimeoutMillis;
+	}
+
+	/**
+	 * @param peerTimeoutMillis
+	 * 		Time without a heartbeat from the server before it is considered dead, and waiting on it fails.
+	 * 		Defaults to {@link SharedMemoryChannel#DEFAULT_PEER_TIMEOUT_MILLIS}.
+	 */
+	public void setPeerTimeoutMillis(long peerTimeoutMillis) {
+		if (peerTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("Peer timeout must be positive: " + peerTimeoutMillis);
+		}
+		this.peerTimeoutMillis = peerTimeoutMillis;
+	}
+
+	@Override
+	public ByteChannel connect() throws IOException {
+		SharedMemoryRegion region = SharedMemoryRegion.open(file);
+		if (!region.compareAndSetState(SharedMemoryRegion.STATE_WAITING, SharedMemoryRegion.STATE_CONNECTED)) {
+			throw new ConnectException("Shared memory endpoint already has a connection: " + file);
+		}
+		return new SharedMemoryChannel(region, false, new SharedMemoryAddress(file), peerTimeoutMillis);
+	}
+}
@@ -0,0 +1,152 @@
+package me.coley.pchannels.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Layout of the memory mapped file shared by the two sides of a shared memory connection.
+ * <pre>
+ * [control block: magic, ring capacity, connection state, server heartbeats, client heartbeats]
+ * [ring: client to server]
+ * [ring: server to client]
+ * </pre>
+ *
+ * @author Matt Coley
+ */
+final class SharedMemoryRegion {
+	static final int STATE_WAITING = 0;
+	static final int STATE_CONNECTED = 1;
+	private static final int MAGIC = 0x50434853;
+	private static final int CONTROL_SIZE = 64;
+	private static final int MAGIC_OFFSET = 0;
+	private static final int CAPACITY_OFFSET = 4;
+	private static final int STATE_OFFSET = 8;
+	private static final int SERVER_BEAT_OFFSET = 16;
+	private static final int CLIENT_BEAT_OFFSET = 24;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+
+	private SharedMemoryRegion(MappedByteBuffer buffer, int capacity) {
+		this.buffer = buffer;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param file
+	 * 		File to create, replacing any existing file.
+	 * @param capacity
+	 * 		Capacity of each ring, must be a power of two.
+	 *
+	 * @return Newly created region.
+	 *
+	 * @throws IOException
+	 * 		When the file cannot be created or mapped.
+	 */
+	static SharedMemoryRegion create(Path file, int capacity) throws IOException {
+		if (Integer.bitCount(capacity) != 1 || capacity < 64) {
+			throw new IllegalArgumentException("Ring capacity must be a power of two, at least 64: " + capacity);
+		}
+		long size = CONTROL_SIZE + 2L * (SharedMemoryRing.HEADER_SIZE + capacity);
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(CAPACITY_OFFSET, capacity);
+			buffer.putInt(STATE_OFFSET, STATE_WAITING);
+			// Magic is written last, so the file is not considered valid until fully initialized
+			SharedMemoryRegion region = new SharedMemoryRegion(buffer, capacity);
+			MemoryAccess.putIntVolatile(buffer, MAGIC_OFFSET, MAGIC);
+			return region;
+		}
+	}
+
+	/**
+	 * @param file
+	 * 		Existing file created by {@link #create(Path, int)}.
+	 *
+	 * @return Mapped region.
+	 *
+	 * @throws IOException
+	 * 		When the file cannot be mapped, or is not a shared memory region.
+	 */
+	static SharedMemoryRegion open(Path file) throws IOException {
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (fc.size() < CONTROL_SIZE) {
+				throw new IOException("Not a shared memory region: " + file);
+			}
+			MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_WRITE, 0, fc.size());
+			if (MemoryAccess.getIntVolatile(buffer, MAGIC_OFFSET) != MAGIC) {
+				throw new IOException("Not a shared memory region: " + file);
+			}
+			int capacity = buffer.getInt(CAPACITY_OFFSET);
+			if (fc.size() < CONTROL_SIZE + 2L * (SharedMemoryRing.HEADER_SIZE + capacity)) {
+				throw new IOException("Shared memory region is truncated: " + file);
+			}
+			return new SharedMemoryRegion(buffer, capacity);
+		}
+	}
+
+	/**
+	 * @return Current connection state.
+	 */
+	int getState() {
+		return MemoryAccess.getIntVolatile(buffer, STATE_OFFSET);
+	}
+
+	/**
+	 * @param expected
+	 * 		Expected current state.
+	 * @param state
+	 * 		New state.
+	 *
+	 * @return {@code true} when the state was updated.
+	 */
+	boolean compareAndSetState(int expected, int state) {
+		return MemoryAccess.compareAndSetInt(buffer, STATE_OFFSET, expected, state);
+	}
+
+	/**
+	 * @param server
+	 * 		{@code true} for the server's heartbeats, {@code false} for the client's.
+	 *
+	 * @return Number of heartbeats the side has sent.
+	 */
+	long getHeartbeats(boolean server) {
+		return MemoryAccess.getLongVolatile(buffer, server ? SERVER_BEAT_OFFSET : CLIENT_BEAT_OFFSET);
+	}
+
+	/**
+	 * @param server
+	 * 		{@code true} for the server's heartbeats, {@code false} for the client's.
+	 * @param count
+	 * 		Number of heartbeats the side has sent.
+	 */
+	void setHeartbeats(boolean server, long count) {
+		MemoryAccess.putLongOrdered(buffer, server ? SERVER_BEAT_OFFSET : CLIENT_BEAT_OFFSET, count);
+	}
+
+	/**
+	 * @return Ring written by the client and read by the server.
+	 */
+	SharedMemoryRing clientToServer() {
+		return ring(0);
+	}
+
+	/**
+	 * @return Ring written by the server and read by the client.
+	 */
+	SharedMemoryRing serverToClient() {
+		return ring(1);
+	}
+
+	private SharedMemoryRing ring(int index) {
+		ByteBuffer view = buffer.duplicate();
+		int start = CONTROL_SIZE + index * (SharedMemoryRing.HEADER_SIZE + capacity);
+		view.position(start);
+		view.limit(start + SharedMemoryRing.HEADER_SIZE + capacity);
+		return new SharedMemoryRing(view.slice(), capacity);
+	}
+}
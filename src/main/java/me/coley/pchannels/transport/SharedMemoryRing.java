@@ -0,0 +1,199 @@
+package me.coley.pchannels.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer single-consumer byte ring buffer in shared memory.
+ * <br>
+ * The producer only writes the tail counter, and the consumer only writes the head counter.
+ * Counters increase forever, with positions in the ring being the counter modulo the capacity.
+ * Each side publishes its counter with an ordered store after copying data, so no locks are needed,
+ * including when the two sides are in different processes.
+ *
+ * @author Matt Coley
+ */
+class SharedMemoryRing {
+	/**
+	 * Size of the ring header, holding counters and flags on separate cache lines.
+	 */
+	static final int HEADER_SIZE = 192;
+	private static final int HEAD_OFFSET = 0;
+	private static final int TAIL_OFFSET = 64;
+	private static final int PRODUCER_CLOSED_OFFSET = 128;
+	private static final int CONSUMER_CLOSED_OFFSET = 132;
+	private final ByteBuffer header;
+	private final ByteBuffer data;
+	private final int capacity;
+	private final int mask;
+
+	/**
+	 * @param region
+	 * 		Direct buffer holding the ring header followed by the ring data.
+	 * @param capacity
+	 * 		Ring data capacity, must be a power of two.
+	 */
+	SharedMemoryRing(ByteBuffer region, int capacity) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+		}
+		if (!region.isDirect()) {
+			throw new IllegalArgumentException("Ring region must be direct");
+		}
+		this.header = region.duplicate();
+		region.position(HEADER_SIZE);
+		region.limit(HEADER_SIZE + capacity);
+		this.data = region.slice();
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Called by the producer. Blocks until all content has been copied into the ring.
+	 *
+	 * @param src
+	 * 		Content to write.
+	 * @param waiter
+	 * 		Local side, checked while waiting for space.
+	 *
+	 * @return Number of bytes written.
+	 *
+	 * @throws IOException
+	 * 		When the consumer has closed, the local side was closed, the consumer stopped responding,
+	 * 		or the thread was interrupted while waiting.
+	 */
+	int write(ByteBuffer src, Waiter waiter) throws IOException {
+		int total = 0;
+		int idle = 0;
+		long tail = MemoryAccess.getLongVolatile(header, TAIL_OFFSET);
+		while (src.hasRemaining()) {
+			if (MemoryAccess.getIntVolatile(header, CONSUMER_CLOSED_OFFSET) != 0) {
+				throw new IOException("Shared memory peer closed");
+			}
+			long head = MemoryAccess.getLongVolatile(header, HEAD_OFFSET);
+			int free = capacity - (int) (tail - head);
+			if (free == 0) {
+				idle = await(idle, waiter);
+				continue;
+			}
+			idle = 0;
+			int count = Math.min(free, src.remaining());
+			copyIn(src, (int) (tail & mask), count);
+			tail += count;
+			total += count;
+			MemoryAccess.putLongOrdered(header, TAIL_OFFSET, tail);
+		}
+		return total;
+	}
+
+	/**
+	 * Called by the consumer. Blocks until at least one byte is available.
+	 *
+	 * @param dst
+	 * 		Buffer to read into.
+	 * @param waiter
+	 * 		Local side, checked while waiting for data.
+	 *
+	 * @return Number of bytes read, or {@code -1} when the producer has closed and the ring is drained.
+	 *
+	 * @throws IOException
+	 * 		When the local side was closed, the producer stopped responding, or the thread was interrupted while waiting.
+	 */
+	int read(ByteBuffer dst, Waiter waiter) throws IOException {
+		if (!dst.hasRemaining()) {
+			return 0;
+		}
+		int idle = 0;
+		long head = MemoryAccess.getLongVolatile(header, HEAD_OFFSET);
+		while (true) {
+			long tail = MemoryAccess.getLongVolatile(header, TAIL_OFFSET);
+			int available = (int) (tail - head);
+			if (available == 0) {
+				if (MemoryAccess.getIntVolatile(header, PRODUCER_CLOSED_OFFSET) != 0) {
+					// Check again in case data was written just before closing
+					if (MemoryAccess.getLongVolatile(header, TAIL_OFFSET) == head) {
+						return -1;
+					}
+					continue;
+				}
+				idle = await(idle, waiter);
+				continue;
+			}
+			int count = Math.min(available, dst.remaining());
+			copyOut(dst, (int) (head & mask), count);
+			MemoryAccess.putLongOrdered(header, HEAD_OFFSET, head + count);
+			return count;
+		}
+	}
+
+	/**
+	 * Marks the producer side as closed. The consumer will see the end of the stream once drained.
+	 */
+	void closeProducer() {
+		MemoryAccess.putIntVolatile(header, PRODUCER_CLOSED_OFFSET, 1);
+	}
+
+	/**
+	 * Marks the consumer side as closed. The producer will fail any further writes.
+	 */
+	void closeConsumer() {
+		MemoryAccess.putIntVolatile(header, CONSUMER_CLOSED_OFFSET, 1);
+	}
+
+	private void copyIn(ByteBuffer src, int index, int count) {
+		int first = Math.min(count, capacity - index);
+		ByteBuffer view = data.duplicate();
+		ByteBuffer part = src.duplicate();
+		part.limit(part.position() + first);
+		view.position(index);
+		view.put(part);
+		if (first < count) {
+			part.limit(part.position() + (count - first));
+			view.position(0);
+			view.put(part);
+		}
+		src.position(src.position() + count);
+	}
+
+	private void copyOut(ByteBuffer dst, int index, int count) {
+		int first = Math.min(count, capacity - index);
+		ByteBuffer view = data.duplicate();
+		view.limit(index + first);
+		view.position(index);
+		dst.put(view);
+		if (first < count) {
+			view.limit(count - first);
+			view.position(0);
+			dst.put(view);
+		}
+	}
+
+	/**
+	 * Backs off progressively from busy spinning, to yielding, to parking.
+	 */
+	private static int await(int idle, Waiter waiter) throws IOException {
+		if (Thread.interrupted()) {
+			throw new ClosedByInterruptException();
+		}
+		waiter.checkWaiting();
+		if (idle >= 200) {
+			LockSupport.parkNanos(50_000);
+		} else if (idle >= 100) {
+			Thread.yield();
+		}
+		return idle + 1;
+	}
+
+	/**
+	 * Local side of a ring, checked while waiting on the other side.
+	 */
+	interface Waiter {
+		/**
+		 * @throws IOException
+		 * 		When the local side was closed, or the other side stopped responding.
+		 */
+		void checkWaiting() throws IOException;
+	}
+}
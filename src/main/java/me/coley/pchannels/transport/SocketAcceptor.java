@@ -0,0 +1,91 @@
+package me.coley.pchannels.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Acceptor of {@link java.nio.channels.SocketChannel} connections, over TCP or Unix domain sockets.
+ *
+ * @author Matt Coley
+ */
+public class SocketAcceptor implements Acceptor {
+	private final ServerSocketChannel socket;
+	private final Path socketFile;
+
+	/**
+	 * @param socket
+	 * 		Bound server socket to accept connections from.
+	 */
+	public SocketAcceptor(ServerSocketChannel socket) {
+		this(socket, null);
+	}
+
+	private SocketAcceptor(ServerSocketChannel socket, Path socketFile) {
+		this.socket = socket;
+		this.socketFile = socketFile;
+	}
+
+	/**
+	 * @param address
+	 * 		Address to bind to. Either an {@link java.net.InetSocketAddress}
+	 * 		or a {@link UnixDomainSockets#address(Path) Unix domain socket address}.
+	 *
+	 * @return Acceptor of connections to the address.
+	 *
+	 * @throws IOException
+	 * 		When a {@link ServerSocketChannel} cannot be opened and bound to the address.
+	 */
+	public static SocketAcceptor bind(SocketAddress address) throws IOException {
+		boolean unix = UnixDomainSockets.isAddress(address);
+		ServerSocketChannel socket = unix ? UnixDomainSockets.openServer() : ServerSocketChannel.open();
+		try {
+			socket.bind(address);
+		} catch (IOException ex) {
+			socket.close();
+			throw ex;
+		}
+		return new SocketAcceptor(socket, unix ? UnixDomainSockets.path(address) : null);
+	}
+
+	/**
+	 * The socket file is deleted when the acceptor is closed.
+	 * Binding fails if the file already exists, for instance when left over from a process that did not exit cleanly.
+	 *
+	 * @param path
+	 * 		Socket file path to bind to.
+	 *
+	 * @return Acceptor of Unix domain socket connections to the path.
+	 *
+	 * @throws IOException
+	 * 		When a {@link ServerSocketChannel} cannot be opened and bound to the path.
+	 * @throws UnsupportedOperationException
+	 * 		When the current runtime does not support Unix domain sockets.
+	 */
+	public static SocketAcceptor bindUnix(Path path) throws IOException {
+		return bind(UnixDomainSockets.address(path));
+	}
+
+	/**
+	 * @return Server socket.
+	 */
+	public ServerSocketChannel getSocket() {
+		return socket;
+	}
+
+	@Override
+	public ByteChannel accept() throws IOException {
+		return socket.accept();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+		if (socketFile != null) {
+			Files.deleteIfExists(socketFile);
+		}
+	}
+}
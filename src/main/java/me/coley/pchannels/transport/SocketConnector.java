@@ -0,0 +1,50 @@
+package me.coley.pchannels.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Connector opening {@link SocketChannel} connections, over TCP or Unix domain sockets.
+ *
+ * @author Matt Coley
+ */
+public class SocketConnector implements Connector {
+	private final SocketAddress address;
+
+	/**
+	 * @param address
+	 * 		Address of the remote server. Either an {@link java.net.InetSocketAddress}
+	 * 		or a {@link UnixDomainSockets#address(Path) Unix domain socket address}.
+	 */
+	public SocketConnector(SocketAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * @param path
+	 * 		Socket file path the server is bound to.
+	 *
+	 * @return Connector to a Unix domain socket server.
+	 *
+	 * @throws UnsupportedOperationException
+	 * 		When the current runtime does not support Unix domain sockets.
+	 */
+	public static SocketConnector unix(Path path) {
+		return new SocketConnector(UnixDomainSockets.address(path));
+	}
+
+	/**
+	 * @return Address of the remote server.
+	 */
+	public SocketAddress getAddress() {
+		return address;
+	}
+
+	@Override
+	public ByteChannel connect() throws IOException {
+		return SocketChannel.open(address);
+	}
+}
@@ -0,0 +1,157 @@
+package me.coley.pchannels.transport;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Access to Unix domain socket channels, which are only available on Java 16+.
+ * The API is looked up reflectively so that the library still runs on older versions.
+ *
+ * @author Matt Coley
+ */
+public final class UnixDomainSockets {
+	private static final ProtocolFamily UNIX = lookupFamily();
+	private static final Class<?> ADDRESS_TYPE = lookupAddressType();
+	private static final MethodHandle ADDRESS_OF = lookupAddressOf();
+	private static final MethodHandle ADDRESS_PATH = lookupAddressPath();
+	private static final MethodHandle OPEN_SERVER = lookupOpenServer();
+
+	private UnixDomainSockets() {
+	}
+
+	/**
+	 * @return {@code true} when the current runtime supports Unix domain socket channels.
+	 */
+	public static boolean isSupported() {
+		return UNIX != null && ADDRESS_OF != null && ADDRESS_PATH != null && OPEN_SERVER != null;
+	}
+
+	/**
+	 * @param path
+	 * 		Socket file path.
+	 *
+	 * @return Unix domain socket address of the path.
+	 *
+	 * @throws UnsupportedOperationException
+	 * 		When the current runtime does not support Unix domain sockets.
+	 */
+	public static SocketAddress address(Path path) {
+		checkSupported();
+		try {
+			return (SocketAddress) ADDRESS_OF.invoke(path);
+		} catch (RuntimeException ex) {
+			throw ex;
+		} catch (Throwable t) {
+			throw new IllegalStateException("Failed to create unix domain socket address", t);
+		}
+	}
+
+	/**
+	 * @param address
+	 * 		Some socket address.
+	 *
+	 * @return {@code true} when the address is a Unix domain socket address.
+	 */
+	public static boolean isAddress(SocketAddress address) {
+		return ADDRESS_TYPE != null && ADDRESS_TYPE.isInstance(address);
+	}
+
+	/**
+	 * @param address
+	 * 		Unix domain socket address.
+	 *
+	 * @return Socket file path of the address. May be empty for unnamed addresses.
+	 */
+	public static Path path(SocketAddress address) {
+		if (!isAddress(address)) {
+			throw new IllegalArgumentException("Not a unix domain socket address: " + address);
+		}
+		try {
+			return (Path) ADDRESS_PATH.invoke(address);
+		} catch (Throwable t) {
+			throw new IllegalStateException("Failed to read unix domain socket path", t);
+		}
+	}
+
+	/**
+	 * @return New unbound Unix domain server socket channel.
+	 *
+	 * @throws IOException
+	 * 		When the channel cannot be opened.
+	 * @throws UnsupportedOperationException
+	 * 		When the current runtime does not support Unix domain sockets.
+	 */
+	static ServerSocketChannel openServer() throws IOException {
+		checkSupported();
+		try {
+			return (ServerSocketChannel) OPEN_SERVER.invoke(UNIX);
+		} catch (IOException | RuntimeException ex) {
+			throw ex;
+		} catch (Throwable t) {
+			throw new IllegalStateException("Failed to open unix domain server socket", t);
+		}
+	}
+
+	private static void checkSupported() {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Unix domain socket channels require Java 16+, running on " +
+					System.getProperty("java.version"));
+		}
+	}
+
+	private static ProtocolFamily lookupFamily() {
+		try {
+			return StandardProtocolFamily.valueOf("UNIX");
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	private static Class<?> lookupAddressType() {
+		try {
+			return Class.forName("java.net.UnixDomainSocketAddress");
+		} catch (ClassNotFoundException ex) {
+			return null;
+		}
+	}
+
+	private static MethodHandle lookupAddressOf() {
+		if (ADDRESS_TYPE == null) {
+			return null;
+		}
+		try {
+			return MethodHandles.publicLookup().findStatic(ADDRESS_TYPE, "of",
+					MethodType.methodType(ADDRESS_TYPE, Path.class));
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
+
+	private static MethodHandle lookupAddressPath() {
+		if (ADDRESS_TYPE == null) {
+			return null;
+		}
+		try {
+			return MethodHandles.publicLookup().findVirtual(ADDRESS_TYPE, "getPath",
+					MethodType.methodType(Path.class));
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
+
+	private static MethodHandle lookupOpenServer() {
+		try {
+			return MethodHandles.publicLookup().findStatic(ServerSocketChannel.class, "open",
+					MethodType.methodType(ServerSocketChannel.class, ProtocolFamily.class));
+		} catch (ReflectiveOperationException ex) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.buffer.BufferAllocator;
+import me.coley.pchannels.compression.CompressionCodecs;
+import me.coley.pchannels.compression.DeflateCodec;
+import me.coley.pchannels.packet.PacketFactory;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+/**
+ * Broadcasts to clients of differing frame formats and compression codecs, checking the shared frames are released.
+ */
+public class BroadcastTest {
+	private static final String TEXT = repeat("broadcast text ", 200);
+	private final BufferAllocator original = PacketFactory.getAllocator();
+	private final TrackingAllocator allocator = new TrackingAllocator(original);
+	private final List<Client> clients = new ArrayList<>();
+	private final List<BlockingQueue<String>> received = new ArrayList<>();
+	private final List<String> negotiated = new ArrayList<>();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private volatile BlockingQueue<String> held;
+	private SocketAcceptor acceptor;
+	private Server server;
+
+	static {
+		CompressionCodecs.register(BestDeflateCodec.ID, BestDeflateCodec.NAME, BestDeflateCodec::new);
+	}
+
+	@After
+	public void teardown() {
+		release.countDown();
+		for (Client client : clients) {
+			Loopback.close(null, client);
+		}
+		Loopback.close(server, null);
+		PacketFactory.setAllocator(original);
+	}
+
+	@Test
+	public void testMixedFormatsAndCodecs() throws Exception {
+		start();
+		connect(1);
+		connect(2);
+		connect(1, DeflateCodec.NAME);
+		connect(2, DeflateCodec.NAME);
+		connect(2, BestDeflateCodec.NAME);
+		connect(1, BestDeflateCodec.NAME);
+		awaitNegotiated();
+		// Compressed for those with a codec
+		assertEquals(clients.size(), broadcast(new ChatPacket(TEXT)));
+		// Below the threshold, so never compressed
+		assertEquals(clients.size(), broadcast(new ChatPacket("short")));
+		for (BlockingQueue<String> queue : received) {
+			assertEquals(TEXT, queue.poll(5, TimeUnit.SECONDS));
+			assertEquals("short", queue.poll(5, TimeUnit.SECONDS));
+		}
+		assertReleased();
+	}
+
+	@Test
+	public void testFilter() throws Exception {
+		start();
+		connect(1);
+		connect(2);
+		awaitNegotiated();
+		assertEquals(1, broadcast(new ChatPacket("v2 only"), c -> c.getFrameFormat().getVersion() == 2));
+		assertEquals("v2 only", received.get(1).poll(5, TimeUnit.SECONDS));
+		assertNull(received.get(0).poll(200, TimeUnit.MILLISECONDS));
+		assertReleased();
+	}
+
+	@Test
+	public void testRecipientClosesMidBroadcast() throws Exception {
+		start();
+		connect(2, DeflateCodec.NAME);
+		connect(1);
+		connect(2);
+		awaitNegotiated();
+		// Stops reading, so frames stay queued on the server once the socket buffers fill
+		held = received.get(1);
+		SocketAddress heldAddress = ((SocketChannel) clients.get(1).getConnection().getChannel()).getLocalAddress();
+		Connection heldRemote = server.getConnections().stream()
+				.filter(c -> heldAddress.equals(c.getAddress()))
+				.findFirst().orElseThrow(IllegalStateException::new);
+		String large = repeat(TEXT, 10);
+		int count = 0;
+		// More than closing the connection can drain into the socket buffers
+		while (heldRemote.getPendingBytes() < 1024 * 1024 && count < 10_000) {
+			broadcast(new ChatPacket(count++ + large));
+		}
+		assertTrue("Frames to the held client were not queued", heldRemote.getPendingBytes() >= 1024 * 1024);
+		// Frames still queued to the closed client are dereferenced as its connection fails them
+		clients.get(1).close();
+		release.countDown();
+		for (int r : new int[]{0, 2}) {
+			for (int i = 0; i < count; i++) {
+				assertEquals(i + large, received.get(r).poll(5, TimeUnit.SECONDS));
+			}
+		}
+		assertTrue(Loopback.await(() -> server.getConnections().size() == 2, 5, TimeUnit.SECONDS));
+		assertReleased();
+	}
+
+	private int broadcast(ChatPacket packet) throws IOException {
+		return broadcast(packet, null);
+	}
+
+	/**
+	 * Broadcasts, tracking the frame buffers the broadcast allocates.
+	 */
+	private int broadcast(ChatPacket packet, Predicate<Connection> filter) throws IOException {
+		allocator.tracking = Thread.currentThread();
+		try {
+			return server.broadcast(packet, filter);
+		} finally {
+			allocator.tracking = null;
+		}
+	}
+
+	private void assertReleased() throws InterruptedException {
+		assertTrue("Broadcast frames not released: " + allocator.outstanding(),
+				Loopback.await(() -> allocator.outstanding() == 0, 5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Waits for each client's frame format and codec to be agreed on both sides.
+	 */
+	private void awaitNegotiated() throws InterruptedException {
+		List<String> expected = negotiated.stream().sorted().collect(Collectors.toList());
+		assertTrue("Negotiation incomplete", Loopback.await(() -> {
+			List<String> clientSides = clients.stream().map(c -> describe(c.getConnection())).sorted()
+					.collect(Collectors.toList());
+			List<String> serverSides = server.getConnections().stream().map(BroadcastTest::describe).sorted()
+					.collect(Collectors.toList());
+			return clientSides.equals(serverSides) && clientSides.equals(expected);
+		}, 5, TimeUnit.SECONDS));
+	}
+
+	private static String describe(Connection connection) {
+		return describe(connection.getFrameFormat().getVersion(), connection.getCompressionCodec());
+	}
+
+	private static String describe(int protocolVersion, String codec) {
+		return "v" + protocolVersion + "/" + codec;
+	}
+
+	private void start() throws Exception {
+		PacketFactory.setAllocator(allocator);
+		acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+			}
+		};
+		server.getConnectionConfig().setMaxProtocolVersion(Constants.PROTOCOL_VERSION);
+		server.getConnectionConfig().setCompression(64, DeflateCodec.NAME, BestDeflateCodec.NAME);
+		Loopback.serve(server);
+	}
+
+	private void connect(int protocolVersion, String... codecs) throws Exception {
+		BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+		Client client = new Client(Loopback.connector(acceptor)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					if (queue == held) {
+						try {
+							release.await();
+						} catch (InterruptedException ex) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					return queue.add(((ChatPacket) packet).getMessage());
+				});
+			}
+		};
+		client.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		client.getConnectionConfig().setMaxProtocolVersion(protocolVersion);
+		if (codecs.length > 0) {
+			client.getConnectionConfig().setCompression(64, codecs);
+		}
+		client.start();
+		clients.add(client);
+		received.add(queue);
+		negotiated.add(describe(protocolVersion, codecs.length > 0 ? codecs[0] : null));
+		int expected = clients.size();
+		assertTrue(Loopback.await(() -> server.getConnections().size() == expected, 5, TimeUnit.SECONDS));
+	}
+
+	private static String repeat(String text, int count) {
+		StringBuilder sb = new StringBuilder(text.length() * count);
+		for (int i = 0; i < count; i++) {
+			sb.append(text);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Second codec, so clients can differ in the codec they negotiate.
+	 */
+	public static class BestDeflateCodec extends DeflateCodec {
+		static final int ID = 200;
+		static final String NAME = "deflate-best";
+
+		public BestDeflateCodec() {
+			super(Deflater.BEST_COMPRESSION);
+		}
+
+		@Override
+		public int getId() {
+			return ID;
+		}
+
+		@Override
+		public String getName() {
+			return NAME;
+		}
+	}
+
+	/**
+	 * Allocator tracking the buffers allocated by one thread, until they are released by any thread.
+	 */
+	private static class TrackingAllocator implements BufferAllocator {
+		private final Set<ByteBuffer> allocated = Collections.synchronizedSet(
+				Collections.newSetFromMap(new IdentityHashMap<>()));
+		private final BufferAllocator delegate;
+		private volatile Thread tracking;
+
+		private TrackingAllocator(BufferAllocator delegate) {
+			this.delegate = delegate;
+		}
+
+		private int outstanding() {
+			return allocated.size();
+		}
+
+		@Override
+		public ByteBuffer allocate(int size) {
+			ByteBuffer buffer = delegate.allocate(size);
+			if (tracking == Thread.currentThread()) {
+				allocated.add(buffer);
+			}
+			return buffer;
+		}
+
+		@Override
+		public void release(ByteBuffer buffer) {
+			allocated.remove(buffer);
+			delegate.release(buffer);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.bench.ByteArrayPacket;
+import me.coley.pchannels.buffer.UnpooledBufferAllocator;
+import me.coley.pchannels.compression.DeflateCodec;
+import me.coley.pchannels.metrics.PacketMetrics;
+import me.coley.pchannels.packet.FrameDecoder;
+import me.coley.pchannels.packet.FrameFormat;
+import me.coley.pchannels.packet.FrameHeader;
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.PacketFactory;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.packet.PacketRegistry;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compressed frames, encoded directly and negotiated between a client and server.
+ */
+public class CompressionTest {
+	private static final String TEXT = repeat("compressible text ", 500);
+	private Server server;
+	private Client client;
+
+	@After
+	public void teardown() {
+		Loopback.close(server, client);
+	}
+
+	@Test
+	public void testV1SignBitFlag() throws Exception {
+		ByteBuffer frame = compress(FrameFormat.V1, new ChatPacket(TEXT));
+		// The flag is the sign bit of the size, leaving the id byte as-is
+		int size = frame.getInt(frame.position() + 1);
+		assertTrue("Compressed flag not set", size < 0);
+		assertEquals(TestConstants.ID_CHAT, frame.get(frame.position()) & 0xFF);
+		assertEquals(frame.remaining() - Constants.HEADER_BUFFER_SIZE, size & ~Constants.COMPRESSED_FLAG);
+		assertEquals(TEXT, ((ChatPacket) decode(FrameFormat.V1, frame)).getMessage());
+	}
+
+	@Test
+	public void testV2FlagsByte() throws Exception {
+		ByteBuffer frame = compress(FrameFormat.V2, new ChatPacket(TEXT));
+		FrameHeader header = FrameFormat.V2.readHeader(frame);
+		assertTrue("Compressed flag not set", header.isCompressed());
+		assertEquals(Constants.FRAME_FLAG_COMPRESSED, frame.get(frame.position() + header.getSize() - 1));
+		assertEquals(frame.remaining() - header.getSize(), header.getBodySize());
+		assertEquals(TEXT, ((ChatPacket) decode(FrameFormat.V2, frame)).getMessage());
+	}
+
+	@Test
+	public void testIncompressibleSentAsIs() throws Exception {
+		byte[] noise = new byte[2048];
+		new Random(0).nextBytes(noise);
+		ByteBuffer frame = compress(FrameFormat.V1, new ByteArrayPacket(noise));
+		assertFalse(FrameFormat.V1.readHeader(frame).isCompressed());
+		assertEquals(Constants.HEADER_BUFFER_SIZE + 2 + noise.length, frame.remaining());
+		assertArrayEquals(noise, ((ByteArrayPacket) decode(FrameFormat.V1, frame)).getArray());
+	}
+
+	@Test
+	public void testNegotiatedV1() throws Exception {
+		testNegotiated(1);
+	}
+
+	@Test
+	public void testNegotiatedV2() throws Exception {
+		testNegotiated(2);
+	}
+
+	private void testNegotiated(int protocolVersion) throws Exception {
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					try {
+						PacketIO.write(channel, packet);
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+					return true;
+				});
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		server.getConnectionConfig().setCompression(64, DeflateCodec.NAME);
+		server.setMetrics(new PacketMetrics("compression-v" + protocolVersion));
+		server.getConnectionConfig().setMaxProtocolVersion(protocolVersion);
+		Loopback.serve(server);
+		BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+		client = new Client(Loopback.connector(acceptor)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					replies.add(((ChatPacket) packet).getMessage());
+					return true;
+				});
+			}
+		};
+		client.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		client.getConnectionConfig().setCompression(64, DeflateCodec.NAME);
+		client.getConnectionConfig().setMaxProtocolVersion(protocolVersion);
+		client.start();
+		Connection connection = client.getConnection();
+		assertTrue("Compression not negotiated",
+				Loopback.await(() -> connection.getCompressionCodec() != null, 5, TimeUnit.SECONDS));
+		assertEquals(DeflateCodec.NAME, connection.getCompressionCodec());
+		assertEquals(protocolVersion, connection.getFrameFormat().getVersion());
+		client.write(new ChatPacket(TEXT));
+		client.flush();
+		assertEquals(TEXT, replies.poll(5, TimeUnit.SECONDS));
+		Connection remote = server.getConnections().iterator().next();
+		assertEquals(DeflateCodec.NAME, remote.getCompressionCodec());
+		// Received frames are recorded at their size on the wire
+		long received = server.getMetrics().getPacketType(TestConstants.ID_CHAT).getBytesIn();
+		assertTrue("Frame was not compressed: " + received, received > 0 && received < TEXT.length() / 10);
+	}
+
+	private static ByteBuffer compress(FrameFormat format, Packet packet) throws IOException {
+		ByteBuffer frame = PacketFactory.write(packet, format, UnpooledBufferAllocator.HEAP);
+		DeflateCodec codec = new DeflateCodec();
+		try {
+			return PacketFactory.compress(frame, format, codec, UnpooledBufferAllocator.HEAP);
+		} finally {
+			codec.close();
+		}
+	}
+
+	private static Packet decode(FrameFormat format, ByteBuffer frame) throws IOException {
+		PacketRegistry registry = new PacketRegistry();
+		registry.register(TestConstants.ID_CHAT, ChatPacket::new);
+		registry.registerPooled(ByteArrayPacket.ID, ByteArrayPacket::new);
+		FrameDecoder decoder = new FrameDecoder(registry, UnpooledBufferAllocator.HEAP, 64);
+		decoder.setFormat(format);
+		byte[] bytes = new byte[frame.remaining()];
+		frame.duplicate().get(bytes);
+		ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(bytes));
+		try {
+			Packet packet;
+			while ((packet = decoder.next()) == null) {
+				assertTrue("Frame ended early", decoder.readFrom(channel) >= 0);
+			}
+			return packet;
+		} finally {
+			decoder.close();
+		}
+	}
+
+	private static String repeat(String text, int count) {
+		StringBuilder sb = new StringBuilder(text.length() * count);
+		for (int i = 0; i < count; i++) {
+			sb.append(text);
+		}
+		return sb.toString();
+	}
+}
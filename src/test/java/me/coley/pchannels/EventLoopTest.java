@@ -0,0 +1,88 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips through a server handling clients on their own threads, and on event loops.
+ */
+public class EventLoopTest {
+	@Test
+	public void testThreadPerConnection() throws Exception {
+		roundTrip(0, 3);
+	}
+
+	@Test
+	public void testEventLoops() throws Exception {
+		roundTrip(2, 5);
+	}
+
+	private static void roundTrip(int eventLoops, int clientCount) throws Exception {
+		SocketAcceptor acceptor = Loopback.bind();
+		Server server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					try {
+						PacketIO.write(channel, new ChatPacket("re: " + ((ChatPacket) packet).getMessage()));
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+					return true;
+				});
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		server.setEventLoopCount(eventLoops);
+		Loopback.serve(server);
+		List<Client> clients = new ArrayList<>();
+		BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+		try {
+			for (int i = 0; i < clientCount; i++) {
+				Client client = new Client(Loopback.connector(acceptor)) {
+					@Override
+					protected void setup(PacketHandlerDelegator delegator) {
+						delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+							replies.add(((ChatPacket) packet).getMessage());
+							return true;
+						});
+					}
+				};
+				client.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+				client.start();
+				clients.add(client);
+			}
+			for (int i = 0; i < clientCount; i++) {
+				clients.get(i).write(new ChatPacket("ping " + i));
+			}
+			List<String> received = new ArrayList<>();
+			for (int i = 0; i < clientCount; i++) {
+				String reply = replies.poll(5, TimeUnit.SECONDS);
+				assertNotNull("Missing reply", reply);
+				received.add(reply);
+			}
+			for (int i = 0; i < clientCount; i++) {
+				assertTrue(received.contains("re: ping " + i));
+			}
+			assertEquals(clientCount, server.getConnections().size());
+		} finally {
+			for (Client client : clients) {
+				Loopback.close(null, client);
+			}
+			Loopback.close(server, null);
+		}
+	}
+}
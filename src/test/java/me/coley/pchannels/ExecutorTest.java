@@ -0,0 +1,119 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Clients reading their connections on executors other than the default pool.
+ */
+public class ExecutorTest {
+	private final BlockingQueue<Thread> handlerThreads = new LinkedBlockingQueue<>();
+	private Server server;
+	private Client client;
+
+	@After
+	public void teardown() {
+		Loopback.close(server, client);
+	}
+
+	@Test
+	public void testCustomExecutor() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool(r -> Threads.daemon("custom-reader", r));
+		start(executor);
+		client.write(new ChatPacket("hello"));
+		Thread thread = handlerThreads.poll(5, TimeUnit.SECONDS);
+		assertNotNull(thread);
+		assertEquals("custom-reader", thread.getName());
+		assertSame(executor, client.getExecutorService());
+		// Owned by the client once set, so shut down with it
+		client.close();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		assumeTrue("Virtual threads require Java 21+", Threads.isVirtualSupported());
+		start(Threads.virtual());
+		for (int i = 0; i < 10; i++) {
+			client.write(new ChatPacket("hello-" + i));
+		}
+		for (int i = 0; i < 10; i++) {
+			Thread thread = handlerThreads.poll(5, TimeUnit.SECONDS);
+			assertNotNull(thread);
+			assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread));
+		}
+	}
+
+	@Test
+	public void testVirtualUnsupported() {
+		assumeFalse(Threads.isVirtualSupported());
+		try {
+			Threads.virtual();
+			fail("Created a virtual thread executor on " + System.getProperty("java.version"));
+		} catch (UnsupportedOperationException expected) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testNullExecutorRejected() {
+		// Never started, so never connects
+		client = new Client(() -> {
+			throw new IOException("Not connected");
+		}) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+			}
+		};
+		try {
+			client.setExecutorService(null);
+			fail("Accepted a null executor");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+
+	private void start(ExecutorService clientExecutor) throws Exception {
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					try {
+						PacketIO.write(channel, packet);
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+					return true;
+				});
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		Loopback.serve(server);
+		client = new Client(Loopback.connector(acceptor)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> handlerThreads.add(Thread.currentThread()));
+			}
+		};
+		client.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		client.setExecutorService(clientExecutor);
+		client.start();
+	}
+}
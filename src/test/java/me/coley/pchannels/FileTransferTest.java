@@ -0,0 +1,172 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.packet.impl.FilePacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Files sent between a client and server, streamed from and to disk, in order with the packets around them.
+ */
+public class FileTransferTest {
+	// Larger than the socket buffers can hold, so a reader that stops fills them
+	private static final int LARGE = 32 * 1024 * 1024;
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+	private final CountDownLatch sent = new CountDownLatch(1);
+	private volatile boolean holdReader;
+	private volatile boolean heldUntilSent;
+	private Path source;
+	private Server server;
+	private Client client;
+
+	@After
+	public void teardown() {
+		Loopback.close(server, client);
+	}
+
+	@Test
+	public void testThreadPerConnection() throws Exception {
+		start(0, LARGE);
+		requestAndVerify();
+	}
+
+	@Test
+	public void testEventLoop() throws Exception {
+		start(1, LARGE);
+		// The client stops reading until the server's writes return, which they must without waiting on the client
+		holdReader = true;
+		requestAndVerify();
+		assertTrue("Event loop waited on the reader to send the file", heldUntilSent);
+	}
+
+	@Test
+	public void testSegmentsInOrder() throws Exception {
+		start(0, 10_000);
+		long size = Files.size(source);
+		String name = String.valueOf(source.getFileName());
+		// Regions sent out of order with packets in between, each written at its own position
+		client.write(new FilePacket(source, name, 6_000, size - 6_000, size));
+		client.write(new ChatPacket("between"));
+		client.write(new FilePacket(source, name, 0, 6_000, size));
+		client.flush();
+		Object first = received.poll(5, TimeUnit.SECONDS);
+		assertTrue(first instanceof FilePacket);
+		assertEquals(6_000, ((FilePacket) first).getPosition());
+		assertEquals("between", received.poll(5, TimeUnit.SECONDS));
+		FilePacket last = (FilePacket) received.poll(5, TimeUnit.SECONDS);
+		assertNotNull("Missing file", last);
+		assertEquals(0, last.getPosition());
+		assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(last.getPath()));
+	}
+
+	@Test
+	public void testRegionPastEndOfFile() throws Exception {
+		start(0, 100);
+		String name = String.valueOf(source.getFileName());
+		try {
+			client.write(new FilePacket(source, name, 0, 200, 200));
+			fail("Region past the end of the file was sent");
+		} catch (EOFException expected) {
+			// Nothing was queued
+		}
+		// The connection is still usable
+		client.write(new ChatPacket("after"));
+		client.flush();
+		assertEquals("after", received.poll(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Asks the server to send the source file between two packets, and checks they arrive in order.
+	 */
+	private void requestAndVerify() throws Exception {
+		client.write(new ChatPacket("send"));
+		client.flush();
+		assertEquals("before", received.poll(10, TimeUnit.SECONDS));
+		Object file = received.poll(10, TimeUnit.SECONDS);
+		assertTrue("Missing file: " + file, file instanceof FilePacket);
+		Path target = ((FilePacket) file).getPath();
+		assertNotNull(target);
+		assertEquals(Files.size(source), Files.size(target));
+		assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+		assertEquals("after", received.poll(10, TimeUnit.SECONDS));
+		// The queue closed the file once it was sent, so it can be deleted even on platforms that lock open files
+		Files.delete(source);
+	}
+
+	private void start(int eventLoops, int size) throws Exception {
+		source = folder.newFile("source.bin").toPath();
+		byte[] content = new byte[size];
+		new Random(0).nextBytes(content);
+		Files.write(source, content);
+		Path serverFiles = folder.newFolder("server").toPath();
+		Path clientFiles = folder.newFolder("client").toPath();
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					String message = ((ChatPacket) packet).getMessage();
+					if (!message.equals("send")) {
+						received.add(message);
+						return true;
+					}
+					Connection connection = (Connection) channel;
+					try {
+						connection.write(new ChatPacket("before"));
+						connection.write(new FilePacket(source));
+						connection.write(new ChatPacket("after"));
+						connection.flush();
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+					sent.countDown();
+					return true;
+				});
+				delegator.register(Constants.ID_FILE, (channel, packet) -> received.add(packet));
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		server.getConnectionConfig().setFileReceiver((connection, file) -> serverFiles.resolve(file.getName()));
+		server.setEventLoopCount(eventLoops);
+		Loopback.serve(server);
+		client = new Client(Loopback.connector(acceptor)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					String message = ((ChatPacket) packet).getMessage();
+					if (holdReader && message.equals("before")) {
+						try {
+							heldUntilSent = sent.await(5, TimeUnit.SECONDS);
+						} catch (InterruptedException ex) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					return received.add(message);
+				});
+				delegator.register(Constants.ID_FILE, (channel, packet) -> received.add(packet));
+			}
+		};
+		client.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		client.getConnectionConfig().setFileReceiver((connection, file) -> clientFiles.resolve(file.getName()));
+		client.start();
+	}
+}
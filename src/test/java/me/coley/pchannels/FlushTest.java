@@ -0,0 +1,82 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.bench.ByteArrayPacket;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Flushing on connections of an event loop.
+ */
+public class FlushTest {
+	private static final int PACKETS = 64;
+	private static final int PACKET_SIZE = 256 * 1024;
+
+	@Test
+	public void testFlushDoesNotWaitOnSlowPeer() throws Exception {
+		CountDownLatch handlerReturned = new CountDownLatch(1);
+		CountDownLatch resumeReading = new CountDownLatch(1);
+		CountDownLatch received = new CountDownLatch(PACKETS);
+		SocketAcceptor acceptor = Loopback.bind();
+		Server server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				// Runs on the event loop, each write flushes immediately
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					try {
+						for (int i = 0; i < PACKETS; i++) {
+							PacketIO.write(channel, new ByteArrayPacket(new byte[PACKET_SIZE]));
+						}
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+					handlerReturned.countDown();
+					return true;
+				});
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		server.setEventLoopCount(1);
+		Loopback.serve(server);
+		Client client = new Client(Loopback.connector(acceptor)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				// Stops reading until the server's handler has returned, so the server's writes back up
+				delegator.register(ByteArrayPacket.ID, (channel, packet) -> {
+					try {
+						resumeReading.await();
+					} catch (InterruptedException ex) {
+						return false;
+					}
+					received.countDown();
+					return true;
+				});
+			}
+		};
+		client.getPacketRegistry().registerPooled(ByteArrayPacket.ID, ByteArrayPacket::new);
+		try {
+			client.start();
+			client.write(new ChatPacket("send"));
+			assertTrue("Flush on the event loop waited for the peer to read",
+					handlerReturned.await(5, TimeUnit.SECONDS));
+			Connection connection = server.getConnections().iterator().next();
+			assertTrue(connection.getPendingBytes() > 0);
+			resumeReading.countDown();
+			assertTrue("Queued packets were not written once the peer read again",
+					received.await(10, TimeUnit.SECONDS));
+			assertTrue(Loopback.await(() -> connection.getPendingBytes() == 0, 5, TimeUnit.SECONDS));
+		} finally {
+			resumeReading.countDown();
+			Loopback.close(server, client);
+		}
+	}
+}
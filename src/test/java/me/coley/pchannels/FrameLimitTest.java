@@ -0,0 +1,174 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.buffer.BufferAllocator;
+import me.coley.pchannels.buffer.UnpooledBufferAllocator;
+import me.coley.pchannels.compression.DeflateCodec;
+import me.coley.pchannels.packet.FrameDecoder;
+import me.coley.pchannels.packet.FrameFormat;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketRegistry;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rejection of received frames over the max frame length.
+ */
+public class FrameLimitTest {
+	private static final int LIMIT = 1024;
+	private Server server;
+	private SocketChannel peer;
+
+	@After
+	public void teardown() throws Exception {
+		if (peer != null) {
+			peer.close();
+		}
+		Loopback.close(server, null);
+	}
+
+	@Test
+	public void testFrameWithinLimit() throws Exception {
+		int headerSize = FrameFormat.V2.getHeaderSize(TestConstants.ID_CHAT, LIMIT);
+		ByteBuffer frame = ByteBuffer.allocate(headerSize + LIMIT);
+		FrameFormat.V2.writeHeader(frame, 0, TestConstants.ID_CHAT, LIMIT, false);
+		frame.position(frame.capacity());
+		frame.flip();
+		LargestAllocator allocator = new LargestAllocator();
+		FrameDecoder decoder = decoder(FrameFormat.V2, allocator);
+		ReadableByteChannel channel = channel(frame);
+		decoder.readFrom(channel);
+		assertNull(decoder.next());
+		// The buffer grows to fit the rest of the frame
+		decoder.readFrom(channel);
+		assertEquals(headerSize + LIMIT, allocator.largest);
+	}
+
+	@Test
+	public void testV1HeaderOverLimit() throws Exception {
+		ByteBuffer header = ByteBuffer.allocate(Constants.HEADER_BUFFER_SIZE);
+		FrameFormat.V1.writeHeader(header, 0, TestConstants.ID_CHAT, Integer.MAX_VALUE >>> 1, false);
+		assertRejectedBeforeGrowing(FrameFormat.V1, header);
+	}
+
+	@Test
+	public void testV2HeaderOverLimit() throws Exception {
+		int size = 100_000_000;
+		ByteBuffer header = ByteBuffer.allocate(FrameFormat.V2.getHeaderSize(TestConstants.ID_CHAT, size));
+		FrameFormat.V2.writeHeader(header, 0, TestConstants.ID_CHAT, size, false);
+		assertRejectedBeforeGrowing(FrameFormat.V2, header);
+	}
+
+	@Test
+	public void testUncompressedSizeOverLimit() throws Exception {
+		// Small compressed body claiming to inflate to far more than the limit
+		ByteBuffer frame = ByteBuffer.allocate(Constants.HEADER_BUFFER_SIZE + Constants.COMPRESSION_HEADER_SIZE + 16);
+		FrameFormat.V1.writeHeader(frame, 0, TestConstants.ID_CHAT, Constants.COMPRESSION_HEADER_SIZE + 16, true);
+		frame.position(Constants.HEADER_BUFFER_SIZE);
+		frame.put((byte) DeflateCodec.ID).putInt(Integer.MAX_VALUE >>> 1);
+		frame.position(frame.capacity());
+		frame.flip();
+		LargestAllocator allocator = new LargestAllocator();
+		FrameDecoder decoder = decoder(FrameFormat.V1, allocator);
+		decoder.readFrom(channel(frame));
+		IOException ex = assertThrows(IOException.class, decoder::next);
+		assertTrue(ex.getMessage(), ex.getMessage().contains("over the max"));
+		assertTrue(allocator.largest <= LIMIT);
+	}
+
+	@Test
+	public void testConnectionClosedOnThread() throws Exception {
+		testConnectionClosed(0);
+	}
+
+	@Test
+	public void testConnectionClosedOnEventLoop() throws Exception {
+		testConnectionClosed(1);
+	}
+
+	private void testConnectionClosed(int eventLoops) throws Exception {
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+			}
+		};
+		server.getConnectionConfig().setMaxFrameLength(LIMIT);
+		server.setEventLoopCount(eventLoops);
+		Loopback.serve(server);
+		peer = SocketChannel.open(acceptor.getSocket().getLocalAddress());
+		ByteBuffer header = ByteBuffer.allocate(Constants.HEADER_BUFFER_SIZE);
+		header.put((byte) TestConstants.ID_CHAT).putInt(LIMIT + 1);
+		header.flip();
+		peer.write(header);
+		// The peer sees the connection closed without sending the body
+		peer.configureBlocking(false);
+		ByteBuffer read = ByteBuffer.allocate(64);
+		assertTrue("Connection was not closed", Loopback.await(() -> {
+			try {
+				read.clear();
+				return peer.read(read) < 0;
+			} catch (IOException ex) {
+				return true;
+			}
+		}, 5, TimeUnit.SECONDS));
+		assertTrue(Loopback.await(() -> server.getConnections().isEmpty(), 5, TimeUnit.SECONDS));
+	}
+
+	private static void assertRejectedBeforeGrowing(FrameFormat format, ByteBuffer header) throws IOException {
+		LargestAllocator allocator = new LargestAllocator();
+		FrameDecoder decoder = decoder(format, allocator);
+		ByteBuffer data = ByteBuffer.allocate(header.capacity() + 100);
+		data.put(header);
+		data.position(data.capacity());
+		data.flip();
+		ReadableByteChannel channel = channel(data);
+		IOException ex = assertThrows(IOException.class, () -> {
+			while (decoder.next() == null) {
+				decoder.readFrom(channel);
+			}
+		});
+		assertTrue(ex.getMessage(), ex.getMessage().contains("max frame length"));
+		assertTrue("Buffer grew to " + allocator.largest, allocator.largest <= LIMIT);
+	}
+
+	private static FrameDecoder decoder(FrameFormat format, BufferAllocator allocator) {
+		FrameDecoder decoder = new FrameDecoder(new PacketRegistry(), allocator, 64);
+		decoder.setFormat(format);
+		decoder.setMaxFrameLength(LIMIT);
+		return decoder;
+	}
+
+	private static ReadableByteChannel channel(ByteBuffer data) {
+		byte[] bytes = Arrays.copyOfRange(data.array(), data.position(), data.limit());
+		return Channels.newChannel(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * Heap allocator recording the largest buffer it was asked for.
+	 */
+	private static class LargestAllocator implements BufferAllocator {
+		private int largest;
+
+		@Override
+		public ByteBuffer allocate(int size) {
+			largest = Math.max(largest, size);
+			return UnpooledBufferAllocator.HEAP.allocate(size);
+		}
+
+		@Override
+		public void release(ByteBuffer buffer) {
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.BufferPacket;
+import me.coley.pchannels.packet.FrameFormat;
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.PacketHandler;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Protocol version handshakes between clients and servers of differing versions.
+ */
+public class HandshakeTest {
+	private static final int ID_WIDE = 300;
+	private final BlockingQueue<Packet> replies = new LinkedBlockingQueue<>();
+	private Server server;
+	private Client client;
+
+	@After
+	public void teardown() {
+		Loopback.close(server, client);
+	}
+
+	@Test
+	public void testBothV2() throws Exception {
+		start(2, 2, FlushPolicy.immediate());
+		assertFormats(FrameFormat.V2);
+		// Ids past a byte only fit in v2 frames
+		client.write(new WidePacket(42));
+		Packet reply = replies.poll(5, TimeUnit.SECONDS);
+		assertTrue(reply instanceof WidePacket);
+		assertEquals(42, ((WidePacket) reply).value);
+	}
+
+	@Test
+	public void testDefaultsToV1() throws Exception {
+		start(new ConnectionConfig().getMaxProtocolVersion(), Constants.PROTOCOL_VERSION, FlushPolicy.immediate());
+		assertFormats(FrameFormat.V1);
+	}
+
+	@Test
+	public void testDefaultClientWithoutHandshakeServer() throws Exception {
+		// A server predating the handshake must read the application's packets first, as it cannot read the offer
+		SocketAcceptor acceptor = Loopback.bind();
+		try {
+			client = new Client(Loopback.connector(acceptor)) {
+				@Override
+				protected void setup(PacketHandlerDelegator delegator) {
+				}
+			};
+			client.start();
+			client.write(new ChatPacket("first"));
+			client.flush();
+			try (SocketChannel peer = acceptor.getSocket().accept()) {
+				ByteBuffer header = ByteBuffer.allocate(Constants.HEADER_BUFFER_SIZE);
+				while (header.hasRemaining() && peer.read(header) >= 0) {
+					// Blocking until the header arrives
+				}
+				assertEquals(TestConstants.ID_CHAT, header.get(0) & 0xFF);
+			}
+		} finally {
+			acceptor.close();
+		}
+	}
+
+	@Test
+	public void testFeatures() throws Exception {
+		startWithFeatures(0b011, 0b110);
+		assertEquals(0b010, client.getConnection().getFeatures());
+		assertEquals(0b010, remote().getFeatures());
+	}
+
+	@Test
+	public void testV1Client() throws Exception {
+		start(1, 2, FlushPolicy.immediate());
+		// Without an offer the server only knows the client stays on v1 once something arrives
+		assertFormats(FrameFormat.V1);
+		assertEquals(FrameFormat.V1, remote().getHandshake().get(5, TimeUnit.SECONDS));
+		try {
+			client.write(new WidePacket(42));
+			fail("Id past a byte written in a v1 frame");
+		} catch (IOException expected) {
+			// Cannot be represented
+		}
+	}
+
+	@Test
+	public void testV1Server() throws Exception {
+		start(2, 1, FlushPolicy.immediate());
+		assertFormats(FrameFormat.V1);
+		assertEquals(FrameFormat.V1, client.getConnection().getHandshake().get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testExplicitFlushPolicy() throws Exception {
+		// The handshake must not wait on a flush that only comes once it completes
+		start(2, 2, FlushPolicy.explicit());
+		assertFormats(FrameFormat.V2);
+	}
+
+	@Test
+	public void testIntervalFlushPolicy() throws Exception {
+		start(2, 2, FlushPolicy.interval(10, TimeUnit.MILLISECONDS));
+		assertFormats(FrameFormat.V2);
+	}
+
+	private void startWithFeatures(int clientFeatures, int serverFeatures) throws Exception {
+		startServer(2, FlushPolicy.immediate());
+		server.getConnectionConfig().setFeatures(serverFeatures);
+		startClient(2, FlushPolicy.immediate(), clientFeatures);
+	}
+
+	private void start(int clientVersion, int serverVersion, FlushPolicy flushPolicy) throws Exception {
+		startServer(serverVersion, flushPolicy);
+		startClient(clientVersion, flushPolicy, 0);
+	}
+
+	private void startServer(int version, FlushPolicy flushPolicy) throws Exception {
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				PacketHandler<Packet> echo = (channel, packet) -> {
+					try {
+						PacketIO.write(channel, packet);
+						((Connection) channel).flush();
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+					return true;
+				};
+				delegator.register(TestConstants.ID_CHAT, echo);
+				delegator.register(ID_WIDE, echo);
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		server.getPacketRegistry().register(ID_WIDE, WidePacket::new);
+		server.getConnectionConfig().setMaxProtocolVersion(version);
+		server.getConnectionConfig().setFlushPolicy(flushPolicy);
+		server.getConnectionConfig().setRequestTimeoutMillis(5000);
+		Loopback.serve(server);
+	}
+
+	private void startClient(int version, FlushPolicy flushPolicy, int features) throws Exception {
+		client = new Client(Loopback.connector((SocketAcceptor) server.getAcceptor())) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> replies.add(packet));
+				delegator.register(ID_WIDE, (channel, packet) -> replies.add(packet));
+			}
+		};
+		client.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		client.getPacketRegistry().register(ID_WIDE, WidePacket::new);
+		client.getConnectionConfig().setMaxProtocolVersion(version);
+		client.getConnectionConfig().setFlushPolicy(flushPolicy);
+		client.getConnectionConfig().setFeatures(features);
+		client.getConnectionConfig().setRequestTimeoutMillis(5000);
+		client.start();
+	}
+
+	/**
+	 * Checks both sides use the format, after a round trip so that a server facing a v1 client has seen it stay on v1.
+	 */
+	private void assertFormats(FrameFormat format) throws Exception {
+		client.write(new ChatPacket("ping"));
+		client.flush();
+		Packet reply = replies.poll(5, TimeUnit.SECONDS);
+		assertNotNull("Missing reply", reply);
+		assertEquals("ping", ((ChatPacket) reply).getMessage());
+		assertEquals(format, client.getConnection().getFrameFormat());
+		assertEquals(format, remote().getFrameFormat());
+	}
+
+	private Connection remote() throws InterruptedException {
+		assertTrue(Loopback.await(() -> !server.getConnections().isEmpty(), 5, TimeUnit.SECONDS));
+		return server.getConnections().iterator().next();
+	}
+
+	/**
+	 * Packet with an id that does not fit in a byte.
+	 */
+	public static class WidePacket implements BufferPacket {
+		private int value;
+
+		public WidePacket() {
+		}
+
+		public WidePacket(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public int getId() {
+			return ID_WIDE;
+		}
+
+		@Override
+		public int getLength() {
+			return 4;
+		}
+
+		@Override
+		public void read(ByteBuffer in) {
+			value = in.getInt(0);
+		}
+
+		@Override
+		public void write(ByteBuffer out) {
+			out.putInt(0, value);
+			out.position(4);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.transport.Connector;
+import me.coley.pchannels.transport.SocketAcceptor;
+import me.coley.pchannels.transport.SocketConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Servers and clients connected over loopback TCP on an ephemeral port, for tests.
+ */
+public final class Loopback {
+	private static final Logger logger = LoggerFactory.getLogger(Loopback.class);
+
+	private Loopback() {
+	}
+
+	/**
+	 * @return Acceptor bound to a free loopback port.
+	 *
+	 * @throws IOException
+	 * 		When the port cannot be bound.
+	 */
+	public static SocketAcceptor bind() throws IOException {
+		return SocketAcceptor.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	/**
+	 * @param acceptor
+	 * 		Bound acceptor.
+	 *
+	 * @return Connector to the acceptor's port.
+	 *
+	 * @throws IOException
+	 * 		When the bound address cannot be read.
+	 */
+	public static Connector connector(SocketAcceptor acceptor) throws IOException {
+		return new SocketConnector(acceptor.getSocket().getLocalAddress());
+	}
+
+	/**
+	 * Starts accepting on a daemon thread. Clients can connect as soon as this returns,
+	 * as the acceptor is already bound.
+	 *
+	 * @param server
+	 * 		Server to start.
+	 */
+	public static void serve(Server server) {
+		Threads.daemon("test-server", () -> {
+			try {
+				server.start();
+			} catch (IOException ex) {
+				logger.error("Server failed", ex);
+			}
+		}).start();
+	}
+
+	/**
+	 * Closes the client, then the server, ignoring failures from either.
+	 *
+	 * @param server
+	 * 		Server to close. May be {@code null}.
+	 * @param client
+	 * 		Client to close. May be {@code null}.
+	 */
+	public static void close(Server server, Client client) {
+		try {
+			if (client != null) {
+				client.close();
+			}
+		} catch (Exception ex) {
+			logger.debug("Client close failed", ex);
+		}
+		try {
+			if (server != null) {
+				server.close();
+			}
+		} catch (Exception ex) {
+			logger.debug("Server close failed", ex);
+		}
+	}
+
+	/**
+	 * @param condition
+	 * 		Condition to wait for.
+	 * @param timeout
+	 * 		Time to wait.
+	 * @param unit
+	 * 		Unit of the timeout.
+	 *
+	 * @return {@code true} when the condition was met in time.
+	 *
+	 * @throws InterruptedException
+	 * 		When interrupted while waiting.
+	 */
+	public static boolean await(BooleanSupplier condition, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!condition.getAsBoolean()) {
+			if (System.nanoTime() > deadline) {
+				return false;
+			}
+			Thread.sleep(10);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,156 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.metrics.PacketMetrics;
+import me.coley.pchannels.metrics.PacketTypeStats;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Per packet type counters of an echo server and its client, and the MBeans published for them.
+ */
+public class MetricsTest {
+	private static final int COUNT = 50;
+	private final String serverName = "metrics-server-" + System.nanoTime();
+	private final String clientName = "metrics-client-" + System.nanoTime();
+	private final BlockingQueue<String> echoed = new LinkedBlockingQueue<>();
+	private Server server;
+	private Client client;
+
+	@After
+	public void teardown() {
+		Loopback.close(server, client);
+	}
+
+	@Test
+	public void testPacketTypeCounters() throws Exception {
+		start();
+		long bytes = 0;
+		for (int i = 0; i < COUNT; i++) {
+			ChatPacket packet = new ChatPacket("message-" + i);
+			bytes += Constants.HEADER_BUFFER_SIZE + packet.getLength();
+			client.write(packet);
+		}
+		client.flush();
+		for (int i = 0; i < COUNT; i++) {
+			assertEquals("message-" + i, echoed.poll(5, TimeUnit.SECONDS));
+		}
+		// Echoed back as sent, so the same frames go both ways
+		PacketTypeStats serverStats = server.getMetrics().getPacketType(TestConstants.ID_CHAT);
+		assertNotNull(serverStats);
+		assertEquals(COUNT, serverStats.getPacketsIn());
+		assertEquals(bytes, serverStats.getBytesIn());
+		assertEquals(COUNT, serverStats.getPacketsOut());
+		assertEquals(bytes, serverStats.getBytesOut());
+		assertEquals(COUNT, serverStats.getDecodeHistogram().getCount());
+		assertEquals(COUNT, serverStats.getEncodeHistogram().getCount());
+		assertEquals(COUNT, serverStats.getHandlerHistogram().getCount());
+		PacketTypeStats clientStats = client.getMetrics().getPacketType(TestConstants.ID_CHAT);
+		assertEquals(COUNT, clientStats.getPacketsOut());
+		assertEquals(bytes, clientStats.getBytesOut());
+		assertTrue(Loopback.await(() -> clientStats.getPacketsIn() == COUNT, 5, TimeUnit.SECONDS));
+		assertEquals(bytes, clientStats.getBytesIn());
+		// Only the packet type that was sent is tracked
+		assertEquals(1, server.getMetrics().getPacketTypes().size());
+		assertEquals(COUNT, server.getMetrics().getPacketsIn());
+		serverStats.reset();
+		assertEquals(0, serverStats.getPacketsIn());
+		assertEquals(0, serverStats.getHandlerHistogram().getCount());
+	}
+
+	@Test
+	public void testMBeansFollowConnections() throws Exception {
+		start();
+		client.write(new ChatPacket("hello"));
+		client.flush();
+		assertEquals("hello", echoed.poll(5, TimeUnit.SECONDS));
+		ObjectName serverBean = new ObjectName("me.coley.pchannels:type=Server,name=" + ObjectName.quote(serverName));
+		ObjectName packetBean = new ObjectName(serverBean + ",category=Packet,id=" + TestConstants.ID_CHAT);
+		ObjectName connectionBean = new ObjectName(serverBean + ",category=Connection,id=1");
+		assertEquals(names(serverBean, packetBean, connectionBean), published(serverName));
+		assertEquals(1, server.getMetrics().getConnectionCount());
+		assertEquals(1L, getAttribute(connectionBean, "PacketsIn"));
+		assertFalse(published(clientName).isEmpty());
+		// Closing the client's connection only unregisters the server's bean of that connection
+		client.close();
+		assertTrue(Loopback.await(() -> server.getMetrics().getConnectionCount() == 0, 5, TimeUnit.SECONDS));
+		assertEquals(names(serverBean, packetBean), published(serverName));
+		assertEquals(1, server.getMetrics().getConnectionsOpened());
+		assertTrue(published(clientName).isEmpty());
+		// Once the server closes, nothing is left
+		server.close();
+		assertTrue(published(serverName).isEmpty());
+		// Recorded values are kept
+		assertEquals(1, server.getMetrics().getPacketType(TestConstants.ID_CHAT).getPacketsIn());
+	}
+
+	private void start() throws Exception {
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					try {
+						PacketIO.write(channel, packet);
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+					return true;
+				});
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		server.setMetrics(new PacketMetrics(serverName));
+		Loopback.serve(server);
+		client = new Client(Loopback.connector(acceptor)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT,
+						(channel, packet) -> echoed.add(((ChatPacket) packet).getMessage()));
+			}
+		};
+		client.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		client.setMetrics(new PacketMetrics(clientName));
+		client.start();
+		assertTrue(Loopback.await(() -> server.getConnections().size() == 1, 5, TimeUnit.SECONDS));
+	}
+
+	private static Object getAttribute(ObjectName name, String attribute) throws Exception {
+		return ManagementFactory.getPlatformMBeanServer().getAttribute(name, attribute);
+	}
+
+	/**
+	 * @param name
+	 * 		Metrics name.
+	 *
+	 * @return Registered MBeans published under the name.
+	 */
+	private static Set<ObjectName> published(String name) throws MalformedObjectNameException {
+		ObjectName pattern = new ObjectName("me.coley.pchannels:name=" + ObjectName.quote(name) + ",*");
+		return new TreeSet<>(ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null));
+	}
+
+	private static Set<ObjectName> names(ObjectName... names) {
+		Set<ObjectName> set = new TreeSet<>();
+		for (ObjectName name : names) {
+			set.add(name);
+		}
+		return set;
+	}
+}
@@ -0,0 +1,200 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.buffer.UnpooledBufferAllocator;
+import me.coley.pchannels.packet.FrameFormat;
+import me.coley.pchannels.packet.HandlerDispatch;
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.PacketFactory;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.packet.impl.ResponsePacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Requests and their responses between a client and server.
+ */
+public class RequestTest {
+	private final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+	private HashedWheelTimer timer = Threads.timer();
+	private Server server;
+	private Client client;
+
+	@Before
+	public void setup() throws IOException {
+		start(FlushPolicy.immediate());
+	}
+
+	@After
+	public void teardown() {
+		Loopback.close(server, client);
+	}
+
+	@Test
+	public void testRequest() throws Exception {
+		Packet response = client.request(new ChatPacket("hello")).get(5, TimeUnit.SECONDS);
+		assertEquals("answer to hello", ((ChatPacket) response).getMessage());
+	}
+
+	@Test
+	public void testResponseWithExplicitFlushPolicy() throws Exception {
+		// Nothing else flushes the server's writes, so the response must not wait for it
+		Loopback.close(server, client);
+		start(FlushPolicy.explicit());
+		Packet response = client.request(new ChatPacket("hello")).get(5, TimeUnit.SECONDS);
+		assertEquals("answer to hello", ((ChatPacket) response).getMessage());
+	}
+
+	@Test
+	public void testTimeoutOnOwnerTimer() throws Exception {
+		Loopback.close(server, client);
+		timer = new HashedWheelTimer();
+		try {
+			start(FlushPolicy.immediate());
+			assertSame(timer, client.getConnection().getTimer());
+			assertTrue(Loopback.await(() -> !server.getConnections().isEmpty(), 5, TimeUnit.SECONDS));
+			assertSame(timer, server.getConnections().iterator().next().getTimer());
+			// Answered after a delay, while the timeout waits on the client's timer
+			CompletableFuture<Packet> answered = client.request(new ChatPacket("slow"), 5, TimeUnit.SECONDS);
+			assertEquals(1, timer.getPendingCount());
+			assertEquals("answer to slow", ((ChatPacket) answered.get(5, TimeUnit.SECONDS)).getMessage());
+			assertTrue(Loopback.await(() -> timer.getPendingCount() == 0, 5, TimeUnit.SECONDS));
+			try {
+				client.request(new ChatPacket("slow"), 50, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+				fail("Slow request did not time out");
+			} catch (ExecutionException ex) {
+				assertTrue(String.valueOf(ex.getCause()), ex.getCause() instanceof TimeoutException);
+			}
+		} finally {
+			timer.close();
+		}
+	}
+
+	@Test
+	public void testRequestFromOffloadedHandler() throws Exception {
+		client.write(new ChatPacket("ping"));
+		assertEquals("answer to question", results.poll(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testFailureRoundTrip() throws Exception {
+		ByteBuffer frame = PacketFactory.write(ResponsePacket.failure(7, "no h\u00e4ndler"), FrameFormat.V1,
+				UnpooledBufferAllocator.HEAP);
+		frame.position(frame.position() + Constants.HEADER_BUFFER_SIZE);
+		ResponsePacket response = (ResponsePacket) PacketFactory.read(Constants.ID_RESPONSE, frame);
+		assertEquals(7, response.getCorrelationId());
+		assertFalse(response.isSuccess());
+		assertEquals("no h\u00e4ndler", response.getError());
+	}
+
+	@Test
+	public void testMalformedFailureLength() {
+		// Would allocate far past the frame if the length were trusted
+		ByteBuffer body = failureBody(5);
+		FrameFormat.putVarInt(body, Integer.MAX_VALUE);
+		assertMalformed(body);
+		// Decodes to a negative length
+		body = failureBody(5);
+		FrameFormat.putVarInt(body, -5);
+		assertMalformed(body);
+		// Longer than the bytes that follow
+		body = failureBody(5);
+		FrameFormat.putVarInt(body, 10);
+		body.put(new byte[3]);
+		assertMalformed(body);
+		// Null marker, a failure always has an error
+		body = failureBody(5);
+		FrameFormat.putVarInt(body, 0);
+		assertMalformed(body);
+	}
+
+	@Test
+	public void testTruncatedEnvelope() {
+		assertMalformed(failureBody(0));
+		assertMalformed(failureBody(2));
+		ByteBuffer body = ByteBuffer.allocate(4);
+		body.putInt(1);
+		assertMalformed(body);
+	}
+
+	/**
+	 * @return Failed response body, cut to the given number of bytes, left open to append to.
+	 */
+	private void start(FlushPolicy serverFlushPolicy) throws IOException {
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					try {
+						PacketIO.write(channel, packet);
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+					return true;
+				});
+				delegator.registerRequest(TestConstants.ID_CHAT, (channel, request) -> {
+					String message = ((ChatPacket) request).getMessage();
+					if (message.equals("slow")) {
+						try {
+							Thread.sleep(300);
+						} catch (InterruptedException ex) {
+							Thread.currentThread().interrupt();
+						}
+					}
+					return new ChatPacket("answer to " + message);
+				});
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		server.getConnectionConfig().setFlushPolicy(serverFlushPolicy);
+		server.setTimer(timer);
+		Loopback.serve(server);
+		client = new Client(Loopback.connector(acceptor)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				// Blocks the connection's worker queue until the response arrives
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					try {
+						Packet response = ((Connection) channel).request(new ChatPacket("question"))
+								.get(5, TimeUnit.SECONDS);
+						results.add(((ChatPacket) response).getMessage());
+					} catch (Exception ex) {
+						results.add(ex.toString());
+					}
+					return true;
+				}, HandlerDispatch.OFFLOAD);
+			}
+		};
+		client.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		client.setTimer(timer);
+		client.start();
+	}
+
+	private static ByteBuffer failureBody(int length) {
+		ByteBuffer body = ByteBuffer.allocate(64);
+		body.putInt(1).put(ResponsePacket.STATUS_FAILURE);
+		body.position(length);
+		return body;
+	}
+
+	private static void assertMalformed(ByteBuffer body) {
+		body.flip();
+		assertThrows(IOException.class, () -> PacketFactory.read(Constants.ID_RESPONSE, body));
+	}
+}
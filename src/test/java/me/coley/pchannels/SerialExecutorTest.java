@@ -0,0 +1,124 @@
+package me.coley.pchannels;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ordering of tasks run by {@link SerialExecutor}s sharing a backing pool, and batching on the backing pool.
+ */
+public class SerialExecutorTest {
+	private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+	@After
+	public void teardown() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void testPerKeyOrdering() throws Exception {
+		int keys = 16;
+		int tasks = 2000;
+		SerialExecutor[] executors = new SerialExecutor[keys];
+		List<List<Integer>> runs = new ArrayList<>();
+		AtomicInteger[] running = new AtomicInteger[keys];
+		AtomicBoolean overlapped = new AtomicBoolean();
+		for (int k = 0; k < keys; k++) {
+			executors[k] = new SerialExecutor(pool);
+			runs.add(new ArrayList<>());
+			running[k] = new AtomicInteger();
+		}
+		// Submitted from several threads, each key from a single one, as a connection's reader would
+		List<Thread> submitters = new ArrayList<>();
+		for (int s = 0; s < 4; s++) {
+			int first = s;
+			Thread submitter = new Thread(() -> {
+				for (int i = 0; i < tasks; i++) {
+					for (int k = first; k < keys; k += 4) {
+						int key = k;
+						int sequence = i;
+						executors[key].execute(() -> {
+							if (running[key].incrementAndGet() != 1) {
+								overlapped.set(true);
+							}
+							// Unsynchronized on purpose, tasks of one key must not run concurrently
+							runs.get(key).add(sequence);
+							running[key].decrementAndGet();
+						});
+					}
+				}
+			});
+			submitter.start();
+			submitters.add(submitter);
+		}
+		for (Thread submitter : submitters) {
+			submitter.join();
+		}
+		for (SerialExecutor executor : executors) {
+			assertTrue(Loopback.await(executor::isIdle, 10, TimeUnit.SECONDS));
+		}
+		assertFalse("Tasks of one key ran concurrently", overlapped.get());
+		for (int k = 0; k < keys; k++) {
+			List<Integer> run = runs.get(k);
+			assertEquals(tasks, run.size());
+			for (int i = 0; i < tasks; i++) {
+				assertEquals("Key " + k, i, (int) run.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testReschedulesAfterBatch() {
+		// Backing executor run by hand, to see each drain it is given
+		Queue<Runnable> drains = new ArrayDeque<>();
+		SerialExecutor executor = new SerialExecutor(drains::add);
+		List<Integer> run = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			int sequence = i;
+			executor.execute(() -> run.add(sequence));
+		}
+		// One drain is scheduled no matter how many tasks are queued
+		assertEquals(1, drains.size());
+		assertFalse(executor.isIdle());
+		int batches = 0;
+		Runnable drain;
+		while ((drain = drains.poll()) != null) {
+			drain.run();
+			batches++;
+			// Each batch is limited, with the rest left to a new drain so other work can share the thread
+			assertEquals(Math.min(200, batches * 64), run.size());
+		}
+		assertEquals(4, batches);
+		assertTrue(executor.isIdle());
+		for (int i = 0; i < run.size(); i++) {
+			assertEquals(i, (int) run.get(i));
+		}
+		// Idle again, so the next task schedules a new drain
+		executor.execute(() -> run.add(200));
+		assertEquals(1, drains.size());
+	}
+
+	@Test
+	public void testFailingTaskDoesNotStopOthers() throws Exception {
+		SerialExecutor executor = new SerialExecutor(pool);
+		List<Integer> run = new ArrayList<>();
+		executor.execute(() -> run.add(0));
+		executor.execute(() -> {
+			throw new IllegalStateException("Expected failure");
+		});
+		executor.execute(() -> run.add(1));
+		assertTrue(Loopback.await(executor::isIdle, 5, TimeUnit.SECONDS));
+		assertEquals(2, run.size());
+	}
+}
@@ -0,0 +1,214 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.StreamHandler;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.packet.impl.StreamChunkPacket;
+import me.coley.pchannels.packet.impl.StreamOpenPacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Chunked streams from a client to a server, with a small window so credit runs out quickly.
+ */
+public class StreamTest {
+	private static final int CHUNK = 16;
+	private static final int WINDOW = 4;
+	private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+	private final BlockingQueue<Object> streams = new LinkedBlockingQueue<>();
+	private final CountDownLatch consume = new CountDownLatch(1);
+	private volatile int readLimit = Integer.MAX_VALUE;
+	private Server server;
+	private Client client;
+
+	@After
+	public void teardown() {
+		consume.countDown();
+		Loopback.close(server, client);
+	}
+
+	@Test
+	public void testInterleavedInOrder() throws Exception {
+		start(FlushPolicy.immediate());
+		consume.countDown();
+		byte[] content = content(CHUNK * WINDOW * 8 + 5);
+		ChunkedOutputStream out = client.getConnection().openStream(new ChatPacket("stream"));
+		// Each chat packet goes out between two chunks
+		for (int i = 0; i < content.length; i += CHUNK) {
+			out.write(content, i, Math.min(CHUNK, content.length - i));
+			client.write(new ChatPacket("chat-" + i / CHUNK));
+		}
+		out.close();
+		for (int i = 0; i < (content.length + CHUNK - 1) / CHUNK; i++) {
+			assertEquals("chat-" + i, messages.poll(5, TimeUnit.SECONDS));
+		}
+		assertArrayEquals(content, (byte[]) streams.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testSenderWaitsForCredit() throws Exception {
+		start(FlushPolicy.immediate());
+		byte[] content = content(CHUNK * WINDOW * 4);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writer = write(content, failure);
+		// The handler is not reading, so the writer stops once the window is used up
+		assertTrue(Loopback.await(() -> writer.getState() == Thread.State.WAITING, 5, TimeUnit.SECONDS));
+		assertTrue(writer.isAlive());
+		consume.countDown();
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+		assertNull(failure.get());
+		assertArrayEquals(content, (byte[]) streams.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testExplicitFlushPolicy() throws Exception {
+		start(FlushPolicy.explicit());
+		consume.countDown();
+		byte[] content = content(CHUNK * WINDOW * 4);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		// Credit is flushed by the receiver, and chunks by the sender when it runs out, or it would wait forever
+		Thread writer = write(content, failure);
+		writer.join(5000);
+		assertFalse("Writer waited on credit never flushed", writer.isAlive());
+		assertNull(failure.get());
+		assertArrayEquals(content, (byte[]) streams.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testSenderExceedingWindowFails() throws Exception {
+		start(FlushPolicy.immediate());
+		Connection connection = client.getConnection();
+		// Chunks sent without waiting for credit, as a misbehaving sender would
+		int streamId = 1000;
+		connection.write(new StreamOpenPacket(streamId, new ChatPacket("stream")));
+		for (int i = 0; i <= WINDOW; i++) {
+			connection.write(new StreamChunkPacket(streamId, 0, new byte[CHUNK], CHUNK));
+		}
+		connection.write(new ChatPacket("after"));
+		assertEquals("after", messages.poll(5, TimeUnit.SECONDS));
+		consume.countDown();
+		Object result = streams.poll(5, TimeUnit.SECONDS);
+		assertTrue(String.valueOf(result), result instanceof IOException);
+		assertTrue(((IOException) result).getMessage().contains("exceeded the window"));
+	}
+
+	@Test
+	public void testAbort() throws Exception {
+		start(FlushPolicy.immediate());
+		consume.countDown();
+		ChunkedOutputStream out = client.getConnection().openStream(new ChatPacket("stream"));
+		out.write(content(CHUNK * 2));
+		out.flush();
+		out.abort();
+		assertFalse(out.isOpen());
+		Object result = streams.poll(5, TimeUnit.SECONDS);
+		assertTrue(String.valueOf(result), result instanceof IOException);
+		assertTrue(((IOException) result).getMessage().contains("aborted by sender"));
+	}
+
+	@Test
+	public void testReceiverClosesEarly() throws Exception {
+		start(FlushPolicy.immediate());
+		readLimit = CHUNK;
+		consume.countDown();
+		ChunkedOutputStream out = client.getConnection().openStream(new ChatPacket("stream"));
+		byte[] chunk = new byte[CHUNK];
+		try {
+			// The handler returns after the first chunk, which cancels the stream
+			for (int i = 0; i < 10_000; i++) {
+				out.write(chunk);
+			}
+			fail("Writes continued after the receiver closed the stream");
+		} catch (IOException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().contains("closed by receiver"));
+		}
+		out.close();
+		// The connection itself is still usable
+		client.write(new ChatPacket("after"));
+		assertEquals("after", messages.poll(5, TimeUnit.SECONDS));
+	}
+
+	private Thread write(byte[] content, AtomicReference<Throwable> failure) {
+		Thread writer = Threads.daemon("test-writer", () -> {
+			try (ChunkedOutputStream out = client.getConnection().openStream(new ChatPacket("stream"))) {
+				out.write(content);
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+			try {
+				client.flush();
+			} catch (IOException ex) {
+				failure.set(ex);
+			}
+		});
+		writer.start();
+		return writer;
+	}
+
+	private void start(FlushPolicy flushPolicy) throws Exception {
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT,
+						(channel, packet) -> messages.add(((ChatPacket) packet).getMessage()));
+				delegator.registerStream(TestConstants.ID_CHAT, (StreamHandler<ChatPacket>) (channel, header, in) -> {
+					try {
+						consume.await();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					ByteArrayOutputStream content = new ByteArrayOutputStream();
+					byte[] buffer = new byte[CHUNK];
+					try {
+						int read;
+						while (content.size() < readLimit && (read = in.read(buffer)) >= 0) {
+							content.write(buffer, 0, read);
+						}
+						if (content.size() < readLimit) {
+							streams.add(content.toByteArray());
+						}
+					} catch (IOException ex) {
+						streams.add(ex);
+					}
+				});
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		configure(server.getConnectionConfig(), flushPolicy);
+		Loopback.serve(server);
+		client = new Client(Loopback.connector(acceptor)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+			}
+		};
+		configure(client.getConnectionConfig(), flushPolicy);
+		client.start();
+	}
+
+	private static void configure(ConnectionConfig config, FlushPolicy flushPolicy) {
+		config.setFlushPolicy(flushPolicy);
+		config.setStreamChunkSize(CHUNK);
+		config.setStreamWindow(WINDOW);
+	}
+
+	private static byte[] content(int length) {
+		byte[] content = new byte[length];
+		new Random(length).nextBytes(content);
+		return content;
+	}
+}
@@ -0,0 +1,114 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes spread over the connections of a {@link StripedClient}, including after one of them closes.
+ */
+public class StripedClientTest {
+	private static final int STRIPES = 3;
+	private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+	private Server server;
+	private StripedClient client;
+
+	@After
+	public void teardown() throws Exception {
+		if (client != null) {
+			try {
+				client.close();
+			} catch (Exception ignored) {
+				// Already closed stripes fail to send their closure notice
+			}
+		}
+		Loopback.close(server, null);
+	}
+
+	@Test
+	public void testStripes() throws Exception {
+		start(StripePolicy.ROUND_ROBIN);
+		assertEquals(STRIPES, client.getConnections().size());
+		assertTrue(Loopback.await(() -> server.getConnections().size() == STRIPES, 5, TimeUnit.SECONDS));
+		List<Connection> used = new ArrayList<>();
+		for (int i = 0; i < STRIPES; i++) {
+			used.add(client.nextConnection());
+		}
+		assertTrue(used.containsAll(client.getConnections()));
+		assertSame(client.getConnection("key"), client.getConnection("key"));
+		writeAndReceive(10);
+	}
+
+	@Test
+	public void testClosedStripeIsSkipped() throws Exception {
+		testClosedStripeIsSkipped(StripePolicy.ROUND_ROBIN);
+	}
+
+	@Test
+	public void testClosedStripeIsSkippedLeastQueued() throws Exception {
+		testClosedStripeIsSkipped(StripePolicy.LEAST_QUEUED);
+	}
+
+	private void testClosedStripeIsSkipped(StripePolicy policy) throws Exception {
+		start(policy);
+		Connection dead = client.getConnection("key");
+		dead.close();
+		for (int i = 0; i < STRIPES * 2; i++) {
+			assertNotSame(dead, client.nextConnection());
+		}
+		Connection moved = client.getConnection("key");
+		assertNotSame(dead, moved);
+		assertTrue(moved.isOpen());
+		writeAndReceive(10);
+	}
+
+	private void start(StripePolicy policy) throws Exception {
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					received.add(((ChatPacket) packet).getMessage());
+					return true;
+				});
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		Loopback.serve(server);
+		client = new StripedClient(Loopback.connector(acceptor), STRIPES) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+			}
+		};
+		client.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		client.setStripePolicy(policy);
+		client.start();
+	}
+
+	private void writeAndReceive(int count) throws Exception {
+		for (int i = 0; i < count; i++) {
+			client.write(new ChatPacket("message " + i));
+			client.write("key", new ChatPacket("keyed " + i));
+		}
+		List<String> messages = new ArrayList<>();
+		for (int i = 0; i < count * 2; i++) {
+			String message = received.poll(5, TimeUnit.SECONDS);
+			assertNotNull("Missing message", message);
+			messages.add(message);
+		}
+		for (int i = 0; i < count; i++) {
+			assertTrue(messages.contains("message " + i));
+			assertTrue(messages.contains("keyed " + i));
+		}
+	}
+}
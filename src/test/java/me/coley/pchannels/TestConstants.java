@@ -2,4 +2,5 @@ package me.coley.pchannels;
 
 public class TestConstants {
 	public static final int ID_CHAT = 100;
+	public static final int ID_TEXT = 102;
 }
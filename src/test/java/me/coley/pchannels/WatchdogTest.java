@@ -0,0 +1,66 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Eviction of connections by their watchdog.
+ */
+public class WatchdogTest {
+	private Server server;
+	private SocketChannel peer;
+
+	@After
+	public void teardown() throws Exception {
+		if (peer != null) {
+			peer.close();
+		}
+		Loopback.close(server, null);
+	}
+
+	@Test
+	public void testReadTimeoutReleasesDecoderOnThread() throws Exception {
+		testReadTimeoutReleasesDecoder(0);
+	}
+
+	@Test
+	public void testReadTimeoutReleasesDecoderOnEventLoop() throws Exception {
+		testReadTimeoutReleasesDecoder(1);
+	}
+
+	private void testReadTimeoutReleasesDecoder(int eventLoops) throws Exception {
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+			}
+		};
+		server.getConnectionConfig().setReadTimeoutMillis(200);
+		server.setEventLoopCount(eventLoops);
+		Loopback.serve(server);
+		// A frame header followed by only part of its body, then nothing
+		peer = SocketChannel.open(acceptor.getSocket().getLocalAddress());
+		ByteBuffer partial = ByteBuffer.allocate(Constants.HEADER_BUFFER_SIZE + 10);
+		partial.put((byte) TestConstants.ID_CHAT).putInt(1000);
+		partial.flip();
+		peer.write(partial);
+		assertTrue(Loopback.await(() -> !server.getConnections().isEmpty(), 5, TimeUnit.SECONDS));
+		Connection connection = server.getConnections().iterator().next();
+		assertTrue("Partial frame was not buffered",
+				Loopback.await(() -> connection.getDecoder().hasPartialFrame(), 5, TimeUnit.SECONDS));
+		assertTrue("Stalled connection was not evicted",
+				Loopback.await(() -> !connection.isOpen(), 5, TimeUnit.SECONDS));
+		assertTrue("Decoder buffer of the evicted connection was not released",
+				Loopback.await(() -> !connection.getDecoder().hasPartialFrame(), 5, TimeUnit.SECONDS));
+		// The peer sees the connection closed
+		assertEquals(-1, peer.read(ByteBuffer.allocate(64)));
+	}
+}
@@ -0,0 +1,219 @@
+package me.coley.pchannels;
+
+import me.coley.pchannels.bench.ByteArrayPacket;
+import me.coley.pchannels.nio.EventLoop;
+import me.coley.pchannels.packet.PacketFactory;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketRegistry;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Watermarks and the maximum pending bytes of a connection writing to a peer that reads only when told to.
+ */
+public class WatermarkTest {
+	private static final int FRAME = 64 * 1024;
+	private static final int MAX_PENDING = 256 * 1024;
+	private final ConnectionConfig config = new ConnectionConfig();
+	private final AtomicLong peerRead = new AtomicLong();
+	private ServerSocketChannel server;
+	private SocketChannel peer;
+	private Connection connection;
+	private EventLoop loop;
+
+	@After
+	public void teardown() throws IOException {
+		if (loop != null) {
+			loop.close();
+		}
+		// The peer goes first, as closing the connection flushes what is queued to a peer that may not be reading
+		if (peer != null) {
+			peer.close();
+		}
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (IOException ignored) {
+				// Reset by the peer
+			}
+		}
+		server.close();
+	}
+
+	@Test
+	public void testWritabilityListener() throws Exception {
+		config.setWriteWatermarks(16 * 1024, 128 * 1024);
+		open(false);
+		BlockingQueue<Boolean> changes = new LinkedBlockingQueue<>();
+		connection.addWritabilityListener(c -> changes.add(c.isWritable()));
+		// Queued until the socket buffers fill and the queue reaches the high watermark
+		for (int i = 0; i < 10_000 && connection.isWritable(); i++) {
+			connection.writeAsync(packet());
+		}
+		assertFalse(connection.isWritable());
+		assertEquals(Boolean.FALSE, changes.poll(5, TimeUnit.SECONDS));
+		startReading();
+		assertEquals(Boolean.TRUE, changes.poll(5, TimeUnit.SECONDS));
+		assertTrue(connection.getPendingBytes() <= 16 * 1024);
+	}
+
+	@Test
+	public void testAsyncWriteFailsPastMax() throws Exception {
+		config.setMaxPendingBytes(MAX_PENDING);
+		open(false);
+		CompletableFuture<Void> rejected = null;
+		for (int i = 0; i < 10_000 && rejected == null; i++) {
+			CompletableFuture<Void> future = connection.writeAsync(packet());
+			if (future.isCompletedExceptionally()) {
+				rejected = future;
+			}
+		}
+		assertNotNull("No write was rejected", rejected);
+		assertTrue(connection.getPendingBytes() <= MAX_PENDING + FRAME);
+		try {
+			rejected.get();
+			fail();
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause().getMessage(), ex.getCause().getMessage().contains("Outbound queue full"));
+		}
+	}
+
+	@Test
+	public void testBlockingWriteFlushesPastMax() throws Exception {
+		// Left to an explicit flush, the queue would otherwise hold every frame
+		config.setFlushPolicy(FlushPolicy.explicit());
+		config.setMaxPendingBytes(MAX_PENDING);
+		open(false);
+		startReading();
+		int count = 100;
+		int largest = 0;
+		for (int i = 0; i < count; i++) {
+			connection.write(packet());
+			largest = Math.max(largest, connection.getPendingBytes());
+		}
+		assertTrue("Queue grew to " + largest, largest <= MAX_PENDING + FRAME);
+		connection.flush();
+		long expected = (long) count * (Constants.HEADER_BUFFER_SIZE + 2 + packet().getArray().length);
+		assertTrue(Loopback.await(() -> peerRead.get() == expected, 5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testBlockingWriteWaitsOnEventLoop() throws Exception {
+		config.setMaxPendingBytes(MAX_PENDING);
+		open(true);
+		AtomicInteger written = new AtomicInteger();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		int count = 200;
+		Thread writer = Threads.daemon("test-writer", () -> {
+			try {
+				for (int i = 0; i < count; i++) {
+					connection.write(packet());
+					written.incrementAndGet();
+				}
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		writer.start();
+		// Waits for the loop to drain the queue, which it cannot while the peer is not reading
+		assertTrue(Loopback.await(() -> writer.getState() == Thread.State.WAITING, 5, TimeUnit.SECONDS));
+		assertTrue(written.get() < count);
+		assertTrue(connection.getPendingBytes() <= MAX_PENDING + FRAME);
+		startReading();
+		writer.join(10_000);
+		assertNull(failure.get());
+		assertEquals(count, written.get());
+	}
+
+	@Test
+	public void testEventLoopWriteFailsPastMax() throws Exception {
+		config.setMaxPendingBytes(MAX_PENDING);
+		BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+		PacketHandlerDelegator delegator = new PacketHandlerDelegator();
+		delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+			// Runs on the loop, which must not wait on itself to drain the queue
+			int written = 0;
+			try {
+				while (written < 10_000) {
+					((Connection) channel).write(packet());
+					written++;
+				}
+				results.add("no failure");
+			} catch (IOException ex) {
+				results.add(ex);
+			}
+			return true;
+		});
+		open(true, delegator);
+		ByteBuffer frame = PacketFactory.write(new ChatPacket("go"));
+		while (frame.hasRemaining()) {
+			peer.write(frame);
+		}
+		Object result = results.poll(10, TimeUnit.SECONDS);
+		assertTrue(String.valueOf(result), result instanceof IOException);
+		assertTrue(((IOException) result).getMessage().contains("Outbound queue full"));
+	}
+
+	private void open(boolean eventLoop) throws IOException {
+		open(eventLoop, new PacketHandlerDelegator());
+	}
+
+	private void open(boolean eventLoop, PacketHandlerDelegator delegator) throws IOException {
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		SocketChannel local = SocketChannel.open(server.getLocalAddress());
+		peer = server.accept();
+		// Small buffers so the queue fills quickly
+		local.setOption(StandardSocketOptions.SO_SNDBUF, 16 * 1024);
+		peer.setOption(StandardSocketOptions.SO_RCVBUF, 16 * 1024);
+		PacketRegistry registry = new PacketRegistry();
+		registry.register(TestConstants.ID_CHAT, ChatPacket::new);
+		if (eventLoop) {
+			local.configureBlocking(false);
+		}
+		connection = new Connection(local, peer.getLocalAddress(), config, registry);
+		if (eventLoop) {
+			loop = new EventLoop(delegator);
+			Threads.daemon("test-loop", loop).start();
+			loop.register(connection);
+		}
+	}
+
+	private void startReading() {
+		Threads.daemon("test-peer", () -> {
+			ByteBuffer buffer = ByteBuffer.allocate(FRAME);
+			try {
+				int read;
+				while ((read = peer.read(buffer)) >= 0) {
+					peerRead.addAndGet(read);
+					buffer.clear();
+				}
+			} catch (IOException ignored) {
+				// Closed by the teardown
+			}
+		}).start();
+	}
+
+	private static ByteArrayPacket packet() {
+		return new ByteArrayPacket(new byte[FRAME - 16]);
+	}
+}
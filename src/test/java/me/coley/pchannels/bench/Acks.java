@@ -0,0 +1,47 @@
+package me.coley.pchannels.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counter of received replies that a benchmark thread can wait on.
+ * Waiting times out rather than hanging the benchmark when replies stop arriving.
+ */
+final class Acks {
+	private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private final AtomicLong count = new AtomicLong();
+	private volatile Thread waiter;
+
+	void ack() {
+		count.incrementAndGet();
+		Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	long get() {
+		return count.get();
+	}
+
+	void await(long target) {
+		if (count.get() >= target) {
+			return;
+		}
+		waiter = Thread.currentThread();
+		long deadline = System.nanoTime() + TIMEOUT_NANOS;
+		try {
+			while (count.get() < target) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					throw new IllegalStateException("Timed out waiting for reply " + target + ", got " + count.get());
+				}
+				LockSupport.parkNanos(this, Math.min(remaining, PARK_NANOS));
+			}
+		} finally {
+			waiter = null;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package me.coley.pchannels.bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Comparison of two JMH JSON result files, such as a stored baseline and the latest run.
+ * A benchmark regressed when its score worsened by more than the threshold: lower throughput,
+ * or higher time per operation in the other modes.
+ */
+final class BenchReport {
+	private BenchReport() {
+	}
+
+	/**
+	 * @param baseline
+	 * 		Result file to compare against.
+	 * @param current
+	 * 		Result file of the latest run.
+	 * @param threshold
+	 * 		Relative change beyond which a benchmark counts as regressed or improved, such as {@code 0.1} for 10%.
+	 * @param out
+	 * 		Stream to print the comparison to.
+	 *
+	 * @return Number of regressed benchmarks.
+	 */
+	static int compare(Path baseline, Path current, double threshold, PrintStream out) throws IOException {
+		Map<String, Score> before = read(baseline);
+		Map<String, Score> after = read(current);
+		int regressions = 0;
+		out.printf("%-90s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+		for (Map.Entry<String, Score> entry : after.entrySet()) {
+			Score now = entry.getValue();
+			Score then = before.get(entry.getKey());
+			if (then == null || then.value == 0) {
+				out.printf("%-90s %14s %14s %9s%n", entry.getKey(), "-", now, "new");
+				continue;
+			}
+			double change = (now.value - then.value) / then.value;
+			// Throughput is better when higher, every other mode measures time
+			double worsening = now.higherIsBetter ? -change : change;
+			String verdict = "";
+			if (worsening > threshold) {
+				verdict = "  REGRESSED";
+				regressions++;
+			} else if (worsening < -threshold) {
+				verdict = "  improved";
+			}
+			out.printf("%-90s %14s %14s %+8.1f%%%s%n", entry.getKey(), then, now, change * 100, verdict);
+		}
+		int missing = 0;
+		for (String key : before.keySet()) {
+			if (!after.containsKey(key)) {
+				missing++;
+			}
+		}
+		if (missing > 0) {
+			out.println(missing + " baseline benchmark(s) were not run");
+		}
+		out.println(regressions + " regression(s) beyond " + Math.round(threshold * 100) + "%");
+		return regressions;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Score> read(Path path) throws IOException {
+		String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+		Map<String, Score> scores = new LinkedHashMap<>();
+		for (Object element : (List<Object>) Json.parse(text)) {
+			Map<String, Object> result = (Map<String, Object>) element;
+			String mode = (String) result.get("mode");
+			String benchmark = (String) result.get("benchmark");
+			StringBuilder key = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1))
+					.append(" (").append(mode).append(")");
+			Object params = result.get("params");
+			if (params != null) {
+				// Sorted so the key does not depend on the order params are written in
+				key.append(' ').append(new TreeMap<>((Map<String, Object>) params));
+			}
+			Map<String, Object> metric = (Map<String, Object>) result.get("primaryMetric");
+			Object score = metric.get("score");
+			if (score instanceof Double) {
+				scores.put(key.toString(), new Score((Double) score, (String) metric.get("scoreUnit"), "thrpt".equals(mode)));
+			}
+		}
+		return scores;
+	}
+
+	private static final class Score {
+		private final double value;
+		private final String unit;
+		private final boolean higherIsBetter;
+
+		private Score(double value, String unit, boolean higherIsBetter) {
+			this.value = value;
+			this.unit = unit;
+			this.higherIsBetter = higherIsBetter;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%.3f %s", value, unit);
+		}
+	}
+}
@@ -1,13 +1,14 @@
 package me.coley.pchannels.bench;
 
-import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.BufferPacket;
+import me.coley.pchannels.packet.PacketFactory;
+import me.coley.pchannels.packet.PooledPacket;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
-public class ByteArrayPacket implements Packet {
+public class ByteArrayPacket extends PooledPacket implements BufferPacket {
 	public static final int ID = 93;
+	private static boolean registered;
 	private byte[] array;
 
 	public ByteArrayPacket() {
@@ -18,6 +19,20 @@ public class ByteArrayPacket implements Packet {
 		this.array = array;
 	}
 
+	/**
+	 * Registers the packet to the {@link PacketFactory}, if not already registered.
+	 */
+	public static synchronized void register() {
+		if (!registered) {
+			PacketFactory.registerPooled(ID, ByteArrayPacket::new);
+			registered = true;
+		}
+	}
+
+	public byte[] getArray() {
+		return array;
+	}
+
 	@Override
 	public int getId() {
 		return ID;
@@ -29,14 +44,20 @@ public class ByteArrayPacket implements Packet {
 	}
 
 	@Override
-	public void read(DataInputStream in) throws IOException {
-		array = new byte[in.readUnsignedShort()];
-		in.read(array);
+	public void read(ByteBuffer in) {
+		int length = in.getShort(0) & 0xFFFF;
+		// Reuse the array of a recycled instance when possible
+		if (array == null || array.length != length) {
+			array = new byte[length];
+		}
+		in.position(2);
+		in.get(array);
 	}
 
 	@Override
-	public void write(DataOutputStream out) throws IOException {
-		out.writeShort(array.length);
-		out.write(array);
+	public void write(ByteBuffer out) {
+		out.putShort(0, (short) array.length);
+		out.position(2);
+		out.put(array);
 	}
 }
@@ -0,0 +1,74 @@
+package me.coley.pchannels.bench;
+
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.buffer.BufferAllocator;
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.PacketFactory;
+import me.coley.pchannels.packet.PacketRegistry;
+import me.coley.pchannels.packet.PooledPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of a single packet, without any transport.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+	@Param({"16", "256", "4096", "16384"})
+	private int size;
+	private final BufferAllocator allocator = PacketFactory.getAllocator();
+	private final PacketRegistry registry = PacketFactory.getRegistry();
+	private ByteArrayPacket packet;
+	private ByteBuffer frame;
+
+	@Setup
+	public void setup() throws IOException {
+		ByteArrayPacket.register();
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		packet = new ByteArrayPacket(data);
+		frame = PacketFactory.write(packet, allocator);
+	}
+
+	@TearDown
+	public void tearDown() {
+		allocator.release(frame);
+	}
+
+	@Benchmark
+	public int encode() throws IOException {
+		ByteBuffer encoded = PacketFactory.write(packet, allocator);
+		int length = encoded.remaining();
+		allocator.release(encoded);
+		return length;
+	}
+
+	@Benchmark
+	public Packet decode() throws IOException {
+		ByteBuffer body = frame.duplicate();
+		body.position(Constants.HEADER_BUFFER_SIZE);
+		Packet decoded = PacketFactory.read(registry, ByteArrayPacket.ID, body);
+		((PooledPacket) decoded).release();
+		return decoded;
+	}
+}
@@ -0,0 +1,144 @@
+package me.coley.pchannels.bench;
+
+import me.coley.pchannels.Client;
+import me.coley.pchannels.FlushPolicy;
+import me.coley.pchannels.Server;
+import me.coley.pchannels.Threads;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.transport.Acceptor;
+import me.coley.pchannels.transport.Connector;
+import me.coley.pchannels.transport.InVmAcceptor;
+import me.coley.pchannels.transport.InVmConnector;
+import me.coley.pchannels.transport.SocketAcceptor;
+import me.coley.pchannels.transport.SocketConnector;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A started server with connected clients, over one of the library's transports.
+ * The server either echoes {@link ByteArrayPacket}s back, or only counts them.
+ * Replies, or received packets when not echoing, are counted by {@link #getAcks()}.
+ */
+final class EchoChannels {
+	private static final AtomicInteger NEXT_NAME = new AtomicInteger();
+	private final Acks acks = new Acks();
+	private final List<Client> clients = new ArrayList<>();
+	private final ExecutorService serverExecutor = Threads.pool();
+	private final Server server;
+
+	static {
+		ByteArrayPacket.register();
+	}
+
+	/**
+	 * @param transport
+	 * 		One of {@code tcp}, {@code tcp-loops}, {@code uds} or {@code invm}.
+	 * @param threading
+	 * 		One of {@code platform} or {@code virtual}.
+	 * @param clientCount
+	 * 		Number of clients to connect.
+	 * @param flushPolicy
+	 * 		Flush policy of the clients.
+	 * @param echo
+	 * 		{@code true} to echo packets back to the client, {@code false} to only count them on the server.
+	 */
+	EchoChannels(String transport, String threading, int clientCount, FlushPolicy flushPolicy, boolean echo) throws IOException {
+		Acceptor acceptor;
+		Connector connector;
+		if ("invm".equals(transport)) {
+			String name = "bench-" + NEXT_NAME.incrementAndGet();
+			acceptor = new InVmAcceptor(name);
+			connector = new InVmConnector(name);
+		} else if ("uds".equals(transport)) {
+			Path path = Files.createTempFile("pchannels", ".sock");
+			Files.delete(path);
+			acceptor = SocketAcceptor.bindUnix(path);
+			connector = SocketConnector.unix(path);
+		} else {
+			SocketAcceptor socketAcceptor = SocketAcceptor.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			acceptor = socketAcceptor;
+			connector = new SocketConnector((InetSocketAddress) socketAcceptor.getSocket().getLocalAddress());
+		}
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(ByteArrayPacket.ID, ((channel, packet) -> {
+					if (!echo) {
+						acks.ack();
+						return true;
+					}
+					try {
+						PacketIO.write(channel, packet);
+						return true;
+					} catch (IOException ex) {
+						throw new IllegalStateException(ex);
+					}
+				}));
+			}
+		};
+		if ("tcp-loops".equals(transport)) {
+			server.setEventLoopCount(Runtime.getRuntime().availableProcessors());
+		}
+		server.setExecutorService(executorFor(threading));
+		serverExecutor.submit(() -> {
+			try {
+				server.start();
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+			return null;
+		});
+		for (int i = 0; i < clientCount; i++) {
+			Client client = new Client(connector) {
+				@Override
+				protected void setup(PacketHandlerDelegator delegator) {
+					delegator.register(ByteArrayPacket.ID, ((channel, packet) -> {
+						acks.ack();
+						return true;
+					}));
+				}
+			};
+			client.setExecutorService(executorFor(threading));
+			client.getConnectionConfig().setFlushPolicy(flushPolicy);
+			client.start();
+			clients.add(client);
+		}
+	}
+
+	Acks getAcks() {
+		return acks;
+	}
+
+	Client getClient(int index) {
+		return clients.get(index);
+	}
+
+	int getClientCount() {
+		return clients.size();
+	}
+
+	void close() throws IOException {
+		for (Client client : clients) {
+			client.close();
+		}
+		server.close();
+		serverExecutor.shutdownNow();
+	}
+
+	static String[] threadingModes() {
+		return Threads.isVirtualSupported() ? new String[]{"platform", "virtual"} : new String[]{"platform"};
+	}
+
+	private static ExecutorService executorFor(String threading) {
+		return "virtual".equals(threading) ? Threads.virtual() : Threads.pool();
+	}
+}
@@ -0,0 +1,180 @@
+package me.coley.pchannels.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader for JMH result files.
+ * Objects are read as {@link Map}s, arrays as {@link List}s, and numbers as {@link Double}s.
+ */
+final class Json {
+	private final String text;
+	private int index;
+
+	private Json(String text) {
+		this.text = text;
+	}
+
+	static Object parse(String text) {
+		Json json = new Json(text);
+		Object value = json.value();
+		json.skipWhitespace();
+		if (json.index != text.length()) {
+			throw json.error("Trailing content");
+		}
+		return value;
+	}
+
+	private Object value() {
+		skipWhitespace();
+		if (index >= text.length()) {
+			throw error("Unexpected end");
+		}
+		char c = text.charAt(index);
+		switch (c) {
+			case '{':
+				return object();
+			case '[':
+				return array();
+			case '"':
+				return string();
+			case 't':
+				return literal("true", Boolean.TRUE);
+			case 'f':
+				return literal("false", Boolean.FALSE);
+			case 'n':
+				return literal("null", null);
+			default:
+				return number();
+		}
+	}
+
+	private Map<String, Object> object() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		index++;
+		skipWhitespace();
+		if (peek() == '}') {
+			index++;
+			return map;
+		}
+		while (true) {
+			skipWhitespace();
+			String key = string();
+			skipWhitespace();
+			expect(':');
+			map.put(key, value());
+			skipWhitespace();
+			if (peek() == ',') {
+				index++;
+			} else {
+				expect('}');
+				return map;
+			}
+		}
+	}
+
+	private List<Object> array() {
+		List<Object> list = new ArrayList<>();
+		index++;
+		skipWhitespace();
+		if (peek() == ']') {
+			index++;
+			return list;
+		}
+		while (true) {
+			list.add(value());
+			skipWhitespace();
+			if (peek() == ',') {
+				index++;
+			} else {
+				expect(']');
+				return list;
+			}
+		}
+	}
+
+	private String string() {
+		expect('"');
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			if (index >= text.length()) {
+				throw error("Unterminated string");
+			}
+			char c = text.charAt(index++);
+			if (c == '"') {
+				return sb.toString();
+			} else if (c == '\\') {
+				char escaped = text.charAt(index++);
+				switch (escaped) {
+					case 'n':
+						sb.append('\n');
+						break;
+					case 't':
+						sb.append('\t');
+						break;
+					case 'r':
+						sb.append('\r');
+						break;
+					case 'b':
+						sb.append('\b');
+						break;
+					case 'f':
+						sb.append('\f');
+						break;
+					case 'u':
+						sb.append((char) Integer.parseInt(text.substring(index, index + 4), 16));
+						index += 4;
+						break;
+					default:
+						sb.append(escaped);
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+	}
+
+	private Object number() {
+		int start = index;
+		while (index < text.length() && "+-0123456789.eE".indexOf(text.charAt(index)) >= 0) {
+			index++;
+		}
+		String number = text.substring(start, index);
+		if (number.isEmpty()) {
+			// JMH writes non-finite scores as strings, anything else is malformed
+			throw error("Unexpected character '" + text.charAt(index) + "'");
+		}
+		return Double.parseDouble(number);
+	}
+
+	private Object literal(String literal, Object value) {
+		if (!text.startsWith(literal, index)) {
+			throw error("Expected " + literal);
+		}
+		index += literal.length();
+		return value;
+	}
+
+	private void expect(char c) {
+		if (peek() != c) {
+			throw error("Expected '" + c + "'");
+		}
+		index++;
+	}
+
+	private char peek() {
+		return index < text.length() ? text.charAt(index) : 0;
+	}
+
+	private void skipWhitespace() {
+		while (index < text.length() && Character.isWhitespace(text.charAt(index))) {
+			index++;
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at offset " + index);
+	}
+}
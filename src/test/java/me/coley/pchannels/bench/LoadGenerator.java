@@ -0,0 +1,411 @@
+package me.coley.pchannels.bench;
+
+import me.coley.pchannels.Client;
+import me.coley.pchannels.Server;
+import me.coley.pchannels.Threads;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.transport.Acceptor;
+import me.coley.pchannels.transport.Connector;
+import me.coley.pchannels.transport.InVmAcceptor;
+import me.coley.pchannels.transport.InVmConnector;
+import me.coley.pchannels.transport.SocketAcceptor;
+import me.coley.pchannels.transport.SocketConnector;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator, sending echo packets at a fixed rate across many client connections and
+ * reporting the latency distribution at each rate.
+ * <br>
+ * Sends follow a fixed schedule regardless of how quickly replies arrive, and latency is measured from when each
+ * packet was <i>scheduled</i> to be sent. A sender that falls behind because the server, or its own connection,
+ * stalled thus still counts the time those later packets spent waiting, correcting for coordinated omission.
+ * Latency measured from the actual send time is reported alongside for comparison.
+ * <br>
+ * Usage, all options being optional:
+ * <pre>
+ * LoadGenerator [--rates 1000,5000,20000] [--connections 16] [--senders 4] [--size 64]
+ *               [--duration 10] [--warmup 2] [--transport tcp|tcp-loops|uds|invm] [--connect host:port]
+ * LoadGenerator --serve port [--event-loops n]
+ * </pre>
+ * Rates are packets per second across all connections. Without {@code --connect} an echo server is started
+ * in-process over the given transport. {@code --serve} runs only an echo server, for generating load from
+ * another machine.
+ */
+public class LoadGenerator {
+	private static final int TIMESTAMPS_SIZE = 16;
+	private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(5);
+	private static final double[] PERCENTILES = {50, 75, 90, 95, 99, 99.9, 99.99, 100};
+	private final Options options;
+	private final List<Client> clients = new ArrayList<>();
+	private final List<Recorder> recorders = new ArrayList<>();
+	private Server server;
+
+	static {
+		ByteArrayPacket.register();
+	}
+
+	private LoadGenerator(Options options) {
+		this.options = options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = Options.parse(args);
+		if (options.servePort > 0) {
+			Server server = echoServer(SocketAcceptor.bind(new InetSocketAddress(options.servePort)), options.eventLoops);
+			System.out.println("Echo server listening on port " + options.servePort);
+			server.start();
+			return;
+		}
+		LoadGenerator generator = new LoadGenerator(options);
+		try {
+			generator.connect();
+			System.out.printf("%10s %10s %8s | %-58s | %s%n", "rate/s", "achieved/s", "lost",
+					"corrected latency (us) p50 / p90 / p99 / p99.9 / max", "uncorrected p99 / max");
+			for (int rate : options.rates) {
+				Result result = generator.run(rate);
+				System.out.println(result.summary());
+				if (options.verbose) {
+					System.out.println(result.distribution());
+				}
+			}
+		} finally {
+			generator.close();
+		}
+		System.exit(0);
+	}
+
+	private void connect() throws IOException {
+		Connector connector;
+		if (options.connect != null) {
+			connector = new SocketConnector(options.connect);
+		} else {
+			Acceptor acceptor;
+			if ("invm".equals(options.transport)) {
+				acceptor = new InVmAcceptor("load");
+				connector = new InVmConnector("load");
+			} else if ("uds".equals(options.transport)) {
+				Path path = Files.createTempFile("pchannels", ".sock");
+				Files.delete(path);
+				acceptor = SocketAcceptor.bindUnix(path);
+				connector = SocketConnector.unix(path);
+			} else {
+				SocketAcceptor socketAcceptor = SocketAcceptor.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+				acceptor = socketAcceptor;
+				connector = new SocketConnector((InetSocketAddress) socketAcceptor.getSocket().getLocalAddress());
+			}
+			int eventLoops = "tcp-loops".equals(options.transport) && options.eventLoops == 0 ?
+					Runtime.getRuntime().availableProcessors() : options.eventLoops;
+			server = echoServer(acceptor, eventLoops);
+			Threads.pool().submit(() -> {
+				server.start();
+				return null;
+			});
+		}
+		for (int i = 0; i < options.connections; i++) {
+			Recorder recorder = new Recorder();
+			Client client = new Client(connector) {
+				@Override
+				protected void setup(PacketHandlerDelegator delegator) {
+					delegator.register(ByteArrayPacket.ID, ((channel, packet) -> {
+						recorder.onReply(((ByteArrayPacket) packet).getArray(), System.nanoTime());
+						return true;
+					}));
+				}
+			};
+			client.start();
+			clients.add(client);
+			recorders.add(recorder);
+		}
+	}
+
+	private Result run(int rate) throws InterruptedException {
+		int senders = Math.min(options.senders, clients.size());
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+		long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+		long end = measureFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+		for (Recorder recorder : recorders) {
+			recorder.reset(measureFrom);
+		}
+		AtomicLong sent = new AtomicLong();
+		List<Thread> threads = new ArrayList<>();
+		for (int s = 0; s < senders; s++) {
+			int sender = s;
+			Thread thread = new Thread(() -> send(sender, senders, rate, start, measureFrom, end, sent),
+					"load-sender-" + s);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// Give replies still in flight a chance to arrive, anything later counts as lost
+		long drainUntil = System.nanoTime() + DRAIN_NANOS;
+		while (received() < sent.get() && System.nanoTime() < drainUntil) {
+			Thread.sleep(10);
+		}
+		return new Result(rate, sent.get(), recorders, options.durationSeconds);
+	}
+
+	/**
+	 * Sends this sender's share of the schedule, round-robin across its share of the connections.
+	 */
+	private void send(int sender, int senders, int rate, long start, long measureFrom, long end, AtomicLong sent) {
+		List<Client> own = new ArrayList<>();
+		for (int i = sender; i < clients.size(); i += senders) {
+			own.add(clients.get(i));
+		}
+		double interval = TimeUnit.SECONDS.toNanos(1) * (double) senders / rate;
+		// Offset each sender so their schedules interleave rather than coincide
+		double offset = interval * sender / senders;
+		int size = Math.max(TIMESTAMPS_SIZE, options.size);
+		long index = 0;
+		while (true) {
+			long intended = start + (long) (offset + index * interval);
+			if (intended >= end) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (intended > now) {
+				LockSupport.parkNanos(intended - now);
+				continue;
+			}
+			// Behind schedule: send immediately, still stamped with the intended time.
+			// Each packet gets its own array, as batched writes encode after the call returns.
+			byte[] payload = new byte[size];
+			ByteBuffer stamps = ByteBuffer.wrap(payload);
+			stamps.putLong(0, intended);
+			stamps.putLong(8, now);
+			Client client = own.get((int) (index % own.size()));
+			try {
+				client.write(new ByteArrayPacket(payload));
+				if (intended >= measureFrom) {
+					sent.incrementAndGet();
+				}
+			} catch (IOException ex) {
+				throw new IllegalStateException("Send failed", ex);
+			}
+			index++;
+		}
+	}
+
+	private long received() {
+		long total = 0;
+		for (Recorder recorder : recorders) {
+			total += recorder.count();
+		}
+		return total;
+	}
+
+	private void close() throws IOException {
+		for (Client client : clients) {
+			client.close();
+		}
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	private static Server echoServer(Acceptor acceptor, int eventLoops) {
+		Server server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(ByteArrayPacket.ID, ((channel, packet) -> {
+					try {
+						PacketIO.write(channel, packet);
+						return true;
+					} catch (IOException ex) {
+						return false;
+					}
+				}));
+			}
+		};
+		server.setEventLoopCount(eventLoops);
+		return server;
+	}
+
+	/**
+	 * Latencies of the replies of one connection.
+	 */
+	private static final class Recorder {
+		private long[] corrected = new long[1024];
+		private long[] uncorrected = new long[1024];
+		private long measureFrom = Long.MAX_VALUE;
+		private int count;
+
+		private synchronized void onReply(byte[] payload, long now) {
+			ByteBuffer stamps = ByteBuffer.wrap(payload);
+			long intended = stamps.getLong(0);
+			// Replies to warmup packets, or to packets of a previous rate
+			if (intended < measureFrom) {
+				return;
+			}
+			int n = count;
+			if (n == corrected.length) {
+				corrected = Arrays.copyOf(corrected, n * 2);
+				uncorrected = Arrays.copyOf(uncorrected, n * 2);
+			}
+			corrected[n] = now - intended;
+			uncorrected[n] = now - stamps.getLong(8);
+			count = n + 1;
+		}
+
+		private synchronized int count() {
+			return count;
+		}
+
+		private synchronized void reset(long measureFrom) {
+			this.measureFrom = measureFrom;
+			count = 0;
+		}
+
+		/**
+		 * Stops recording, replies arriving later are counted as lost.
+		 *
+		 * @return Corrected and uncorrected latencies recorded since the last reset.
+		 */
+		private synchronized long[][] finish() {
+			measureFrom = Long.MAX_VALUE;
+			return new long[][]{Arrays.copyOf(corrected, count), Arrays.copyOf(uncorrected, count)};
+		}
+	}
+
+	/**
+	 * Merged latencies of all connections for one rate.
+	 */
+	private static final class Result {
+		private final int rate;
+		private final long sent;
+		private final long[] corrected;
+		private final long[] uncorrected;
+		private final int durationSeconds;
+
+		private Result(int rate, long sent, List<Recorder> recorders, int durationSeconds) {
+			this.rate = rate;
+			this.sent = sent;
+			this.durationSeconds = durationSeconds;
+			List<long[][]> latencies = new ArrayList<>();
+			int total = 0;
+			for (Recorder recorder : recorders) {
+				long[][] recorded = recorder.finish();
+				latencies.add(recorded);
+				total += recorded[0].length;
+			}
+			corrected = new long[total];
+			uncorrected = new long[total];
+			int offset = 0;
+			for (long[][] recorded : latencies) {
+				int n = recorded[0].length;
+				System.arraycopy(recorded[0], 0, corrected, offset, n);
+				System.arraycopy(recorded[1], 0, uncorrected, offset, n);
+				offset += n;
+			}
+			Arrays.sort(corrected);
+			Arrays.sort(uncorrected);
+		}
+
+		private String summary() {
+			return String.format("%10d %10d %8d | %10s %10s %10s %10s %10s | %10s %10s", rate,
+					corrected.length / durationSeconds, sent - corrected.length,
+					micros(corrected, 50), micros(corrected, 90), micros(corrected, 99), micros(corrected, 99.9),
+					micros(corrected, 100), micros(uncorrected, 99), micros(uncorrected, 100));
+		}
+
+		private String distribution() {
+			StringBuilder sb = new StringBuilder();
+			for (double percentile : PERCENTILES) {
+				sb.append(String.format("    p%-6s %12s us %12s us%n", percentile, micros(corrected, percentile),
+						micros(uncorrected, percentile)));
+			}
+			return sb.toString();
+		}
+
+		private static String micros(long[] sorted, double percentile) {
+			if (sorted.length == 0) {
+				return "-";
+			}
+			int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+			return String.format("%.1f", sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000.0);
+		}
+	}
+
+	private static final class Options {
+		private int[] rates = {1000, 5000, 10000, 20000, 50000};
+		private int connections = 16;
+		private int senders = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		private int size = 64;
+		private int durationSeconds = 10;
+		private int warmupSeconds = 2;
+		private String transport = "tcp";
+		private int eventLoops;
+		private InetSocketAddress connect;
+		private int servePort;
+		private boolean verbose;
+
+		private static Options parse(String[] args) {
+			Options options = new Options();
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if ("--verbose".equals(arg)) {
+					options.verbose = true;
+					continue;
+				} else if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value for " + arg);
+				}
+				String value = args[++i];
+				switch (arg) {
+					case "--rates":
+						options.rates = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+						break;
+					case "--connections":
+						options.connections = Integer.parseInt(value);
+						break;
+					case "--senders":
+						options.senders = Integer.parseInt(value);
+						break;
+					case "--size":
+						options.size = Integer.parseInt(value);
+						break;
+					case "--duration":
+						options.durationSeconds = Integer.parseInt(value);
+						break;
+					case "--warmup":
+						options.warmupSeconds = Integer.parseInt(value);
+						break;
+					case "--transport":
+						options.transport = value;
+						break;
+					case "--event-loops":
+						options.eventLoops = Integer.parseInt(value);
+						break;
+					case "--connect":
+						int colon = value.lastIndexOf(':');
+						options.connect = new InetSocketAddress(value.substring(0, colon),
+								Integer.parseInt(value.substring(colon + 1)));
+						break;
+					case "--serve":
+						options.servePort = Integer.parseInt(value);
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown option: " + arg);
+				}
+			}
+			if (options.connections < 1 || options.senders < 1 || options.durationSeconds < 1) {
+				throw new IllegalArgumentException("Connections, senders and duration must be positive");
+			}
+			return options;
+		}
+	}
+}
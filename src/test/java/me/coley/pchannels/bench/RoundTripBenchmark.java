@@ -0,0 +1,109 @@
+package me.coley.pchannels.bench;
+
+import me.coley.pchannels.FlushPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a single client sending a message and waiting for the server's echo,
+ * against the plain TCP and UDP baselines.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark {
+	@Benchmark
+	public void channels(ChannelsState state) throws IOException {
+		state.channels.getClient(0).write(new ByteArrayPacket(state.message));
+		state.channels.getAcks().await(++state.sent);
+	}
+
+	@Benchmark
+	public void tcp(TcpState state) throws IOException {
+		state.echo.send(0, state.message);
+		state.echo.receive(0, state.message);
+	}
+
+	@Benchmark
+	public void udp(UdpState state) throws IOException {
+		state.echo.send(0, state.message);
+		state.echo.receive(0, state.message);
+	}
+
+	@State(Scope.Thread)
+	public static class ChannelsState {
+		@Param({"tcp", "tcp-loops", "uds", "invm"})
+		private String transport;
+		@Param({"platform", "virtual"})
+		private String threading;
+		@Param({"64", "8192"})
+		private int size;
+		private EchoChannels channels;
+		private byte[] message;
+		private long sent;
+
+		@Setup
+		public void setup() throws IOException {
+			message = new byte[size];
+			channels = new EchoChannels(transport, threading, 1, FlushPolicy.immediate(), true);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			channels.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class TcpState {
+		@Param({"64", "8192"})
+		private int size;
+		private TcpEcho echo;
+		private byte[] message;
+
+		@Setup
+		public void setup() throws IOException {
+			message = new byte[size];
+			echo = new TcpEcho(1, size, true);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			echo.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class UdpState {
+		@Param({"64", "8192"})
+		private int size;
+		private UdpEcho echo;
+		private byte[] message;
+
+		@Setup
+		public void setup() throws IOException {
+			message = new byte[size];
+			echo = new UdpEcho(1, size, true);
+		}
+
+		@TearDown
+		public void tearDown() {
+			echo.close();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package me.coley.pchannels.bench;
+
+import me.coley.pchannels.FlushPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips with many concurrent clients against a single server, against the plain TCP and UDP baselines.
+ * Each operation is one wave: every client sends a message, then all echoes are awaited.
+ * Round trips per millisecond are thus the score multiplied by the client count.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalingBenchmark {
+	private static final int SIZE = 256;
+
+	@Benchmark
+	public void channels(ChannelsState state) throws IOException {
+		EchoChannels channels = state.channels;
+		for (int i = 0; i < state.clients; i++) {
+			channels.getClient(i).write(new ByteArrayPacket(state.message));
+		}
+		state.sent += state.clients;
+		channels.getAcks().await(state.sent);
+	}
+
+	@Benchmark
+	public void tcp(TcpState state) throws IOException {
+		for (int i = 0; i < state.clients; i++) {
+			state.echo.send(i, state.message);
+		}
+		for (int i = 0; i < state.clients; i++) {
+			state.echo.receive(i, state.message);
+		}
+	}
+
+	@Benchmark
+	public void udp(UdpState state) throws IOException {
+		for (int i = 0; i < state.clients; i++) {
+			state.echo.send(i, state.message);
+		}
+		for (int i = 0; i < state.clients; i++) {
+			state.echo.receive(i, state.message);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ChannelsState {
+		@Param({"tcp", "tcp-loops", "uds", "invm"})
+		private String transport;
+		@Param({"platform", "virtual"})
+		private String threading;
+		@Param({"1", "10", "100"})
+		private int clients;
+		private final byte[] message = new byte[SIZE];
+		private EchoChannels channels;
+		private long sent;
+
+		@Setup
+		public void setup() throws IOException {
+			channels = new EchoChannels(transport, threading, clients, FlushPolicy.immediate(), true);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			channels.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class TcpState {
+		@Param({"1", "10", "100"})
+		private int clients;
+		private final byte[] message = new byte[SIZE];
+		private TcpEcho echo;
+
+		@Setup
+		public void setup() throws IOException {
+			echo = new TcpEcho(clients, SIZE, true);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			echo.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class UdpState {
+		@Param({"1", "10", "100"})
+		private int clients;
+		private final byte[] message = new byte[SIZE];
+		private UdpEcho echo;
+
+		@Setup
+		public void setup() throws IOException {
+			echo = new UdpEcho(clients, SIZE, true);
+		}
+
+		@TearDown
+		public void tearDown() {
+			echo.close();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package me.coley.pchannels.bench;
+
+import me.coley.pchannels.Threads;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Baseline of plain blocking TCP sockets, with a thread per connection on the server
+ * that echoes or discards fixed size messages.
+ */
+final class TcpEcho {
+	private final ExecutorService executor = Threads.pool();
+	private final List<Socket> accepted = new ArrayList<>();
+	private final ServerSocket server;
+	private final Socket[] clients;
+	private final OutputStream[] outputs;
+	private final DataInputStream[] inputs;
+	private final int size;
+
+	/**
+	 * @param clientCount
+	 * 		Number of client sockets to connect.
+	 * @param size
+	 * 		Size of each message.
+	 * @param echo
+	 * 		{@code true} to echo messages back to the client, {@code false} to discard them.
+	 */
+	TcpEcho(int clientCount, int size, boolean echo) throws IOException {
+		this.size = size;
+		server = new ServerSocket(0, clientCount, InetAddress.getLoopbackAddress());
+		executor.submit(() -> {
+			while (!server.isClosed()) {
+				Socket socket;
+				try {
+					socket = server.accept();
+				} catch (SocketException ex) {
+					// Closed
+					return null;
+				}
+				synchronized (accepted) {
+					accepted.add(socket);
+				}
+				executor.submit(() -> serve(socket, echo));
+			}
+			return null;
+		});
+		clients = new Socket[clientCount];
+		outputs = new OutputStream[clientCount];
+		inputs = new DataInputStream[clientCount];
+		for (int i = 0; i < clientCount; i++) {
+			clients[i] = new Socket(server.getInetAddress(), server.getLocalPort());
+			outputs[i] = clients[i].getOutputStream();
+			inputs[i] = new DataInputStream(clients[i].getInputStream());
+		}
+	}
+
+	void send(int client, byte[] message) throws IOException {
+		outputs[client].write(message);
+	}
+
+	void receive(int client, byte[] message) throws IOException {
+		inputs[client].readFully(message, 0, size);
+	}
+
+	void close() throws IOException {
+		for (Socket client : clients) {
+			client.close();
+		}
+		server.close();
+		synchronized (accepted) {
+			for (Socket socket : accepted) {
+				socket.close();
+			}
+		}
+		executor.shutdownNow();
+	}
+
+	private Void serve(Socket socket, boolean echo) throws IOException {
+		byte[] data = new byte[size];
+		try {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			while (true) {
+				in.readFully(data);
+				if (echo) {
+					out.write(data);
+				}
+			}
+		} catch (IOException ex) {
+			// Closed
+			return null;
+		}
+	}
+}
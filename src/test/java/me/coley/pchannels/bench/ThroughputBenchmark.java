@@ -0,0 +1,108 @@
+package me.coley.pchannels.bench;
+
+import me.coley.pchannels.FlushPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One-way throughput of a single client sending messages to a server that only receives them,
+ * against the plain TCP and UDP baselines. Sending blocks once the transport's buffers are full,
+ * so the rate settles at what the server can take.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThroughputBenchmark {
+	@Benchmark
+	public void channels(ChannelsState state) throws IOException {
+		state.channels.getClient(0).write(new ByteArrayPacket(state.message));
+	}
+
+	@Benchmark
+	public void tcp(TcpState state) throws IOException {
+		state.echo.send(0, state.message);
+	}
+
+	@Benchmark
+	public void udp(UdpState state) throws IOException {
+		state.echo.send(0, state.message);
+	}
+
+	@State(Scope.Thread)
+	public static class ChannelsState {
+		@Param({"tcp", "tcp-loops", "uds", "invm"})
+		private String transport;
+		@Param({"immediate", "batched"})
+		private String flush;
+		@Param({"64", "8192"})
+		private int size;
+		private EchoChannels channels;
+		private byte[] message;
+
+		@Setup
+		public void setup() throws IOException {
+			message = new byte[size];
+			FlushPolicy policy = "batched".equals(flush) ?
+					FlushPolicy.thresholdOrInterval(64 * 1024, 1, TimeUnit.MILLISECONDS) : FlushPolicy.immediate();
+			channels = new EchoChannels(transport, "platform", 1, policy, false);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			channels.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class TcpState {
+		@Param({"64", "8192"})
+		private int size;
+		private TcpEcho echo;
+		private byte[] message;
+
+		@Setup
+		public void setup() throws IOException {
+			message = new byte[size];
+			echo = new TcpEcho(1, size, false);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			echo.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class UdpState {
+		@Param({"64", "8192"})
+		private int size;
+		private UdpEcho echo;
+		private byte[] message;
+
+		@Setup
+		public void setup() throws IOException {
+			message = new byte[size];
+			echo = new UdpEcho(1, size, false);
+		}
+
+		@TearDown
+		public void tearDown() {
+			echo.close();
+		}
+	}
+}
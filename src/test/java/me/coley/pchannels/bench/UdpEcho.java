@@ -0,0 +1,74 @@
+package me.coley.pchannels.bench;
+
+import me.coley.pchannels.Threads;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baseline of plain UDP sockets, with a single server socket that echoes or discards datagrams.
+ * Datagrams are not retried, so receiving times out rather than hanging if one is lost.
+ */
+final class UdpEcho {
+	private static final int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(10);
+	private final ExecutorService executor = Threads.pool();
+	private final DatagramSocket server;
+	private final DatagramSocket[] clients;
+	private final SocketAddress serverAddress;
+
+	/**
+	 * @param clientCount
+	 * 		Number of client sockets to open.
+	 * @param size
+	 * 		Size of each datagram.
+	 * @param echo
+	 * 		{@code true} to echo datagrams back to the client, {@code false} to discard them.
+	 */
+	UdpEcho(int clientCount, int size, boolean echo) throws IOException {
+		server = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		serverAddress = server.getLocalSocketAddress();
+		executor.submit(() -> {
+			byte[] data = new byte[size];
+			DatagramPacket packet = new DatagramPacket(data, size);
+			try {
+				while (true) {
+					packet.setLength(size);
+					server.receive(packet);
+					if (echo) {
+						server.send(packet);
+					}
+				}
+			} catch (IOException ex) {
+				// Closed
+				return null;
+			}
+		});
+		clients = new DatagramSocket[clientCount];
+		for (int i = 0; i < clientCount; i++) {
+			clients[i] = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			clients[i].setSoTimeout(TIMEOUT_MILLIS);
+		}
+	}
+
+	void send(int client, byte[] message) throws IOException {
+		clients[client].send(new DatagramPacket(message, message.length, serverAddress));
+	}
+
+	void receive(int client, byte[] message) throws IOException {
+		clients[client].receive(new DatagramPacket(message, message.length));
+	}
+
+	void close() {
+		for (DatagramSocket client : clients) {
+			client.close();
+		}
+		server.close();
+		executor.shutdownNow();
+	}
+}
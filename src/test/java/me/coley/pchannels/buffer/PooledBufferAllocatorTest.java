@@ -0,0 +1,128 @@
+package me.coley.pchannels.buffer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reuse of released buffers by {@link PooledBufferAllocator}, and buffers it must not pool.
+ */
+public class PooledBufferAllocatorTest {
+	@Test
+	public void testSizeClassReuse() {
+		for (int threadCacheSize : new int[]{0, 4}) {
+			PooledBufferAllocator allocator = new PooledBufferAllocator(false, 1 << 16, threadCacheSize, 16);
+			ByteBuffer buffer = allocator.allocate(100);
+			assertEquals(128, buffer.capacity());
+			assertEquals(0, buffer.position());
+			assertEquals(100, buffer.limit());
+			buffer.put((byte) 1);
+			allocator.release(buffer);
+			// Any size rounding up to the same class gets the released buffer back, cleared
+			ByteBuffer reused = allocator.allocate(65);
+			assertSame(buffer, reused);
+			assertEquals(0, reused.position());
+			assertEquals(65, reused.limit());
+			// Other classes do not
+			assertNotSame(buffer, allocator.allocate(64));
+			assertNotSame(buffer, allocator.allocate(129));
+			// Sizes below the smallest class share it
+			assertEquals(64, allocator.allocate(1).capacity());
+		}
+	}
+
+	@Test
+	public void testDirectReuse() {
+		PooledBufferAllocator allocator = new PooledBufferAllocator(true, 1 << 16, 0, 16);
+		List<ByteBuffer> buffers = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			ByteBuffer buffer = allocator.allocate(1000);
+			assertTrue(buffer.isDirect());
+			assertEquals(1024, buffer.capacity());
+			buffers.add(buffer);
+		}
+		// Carved from a shared chunk without overlapping
+		buffers.get(0).putInt(0, 42);
+		assertEquals(0, buffers.get(1).getInt(0));
+		for (ByteBuffer buffer : buffers) {
+			allocator.release(buffer);
+		}
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffers.contains(allocator.allocate(1024)));
+		}
+	}
+
+	@Test
+	public void testArenaLimit() {
+		PooledBufferAllocator allocator = new PooledBufferAllocator(false, 1 << 16, 0, 1);
+		ByteBuffer first = allocator.allocate(256);
+		ByteBuffer second = allocator.allocate(256);
+		allocator.release(first);
+		// Dropped, the arena only holds one
+		allocator.release(second);
+		assertSame(first, allocator.allocate(256));
+		assertNotSame(second, allocator.allocate(256));
+	}
+
+	@Test
+	public void testReleaseRejectsForeignBuffers() {
+		PooledBufferAllocator allocator = new PooledBufferAllocator(false, 1 << 16, 4, 16);
+		PooledBufferAllocator other = new PooledBufferAllocator(false, 1 << 16, 4, 16);
+		ByteBuffer owned = allocator.allocate(128);
+		List<ByteBuffer> foreign = new ArrayList<>();
+		foreign.add(ByteBuffer.allocate(128));
+		foreign.add(ByteBuffer.wrap(new byte[256], 0, 256));
+		foreign.add(other.allocate(128));
+		// Views share the content of a pooled buffer, so must not be pooled themselves
+		foreign.add(owned.duplicate());
+		foreign.add(owned.asReadOnlyBuffer());
+		for (ByteBuffer buffer : foreign) {
+			allocator.release(buffer);
+		}
+		for (int i = 0; i < 16; i++) {
+			ByteBuffer buffer = allocator.allocate(128);
+			for (ByteBuffer f : foreign) {
+				assertNotSame("Foreign buffer handed out: " + f, f, buffer);
+			}
+			assertNotSame(owned, buffer);
+		}
+		// Direct buffers are not pooled by heap allocators, and the other way around
+		PooledBufferAllocator direct = new PooledBufferAllocator(true, 1 << 16, 4, 16);
+		ByteBuffer directBuffer = direct.allocate(128);
+		allocator.release(directBuffer);
+		assertFalse(allocator.allocate(128).isDirect());
+		direct.release(owned);
+		assertTrue(direct.allocate(128).isDirect());
+	}
+
+	@Test
+	public void testLargeBuffersNotPooled() {
+		PooledBufferAllocator allocator = new PooledBufferAllocator(false, 1000, 4, 16);
+		assertEquals(1024, allocator.getMaxPooledSize());
+		ByteBuffer large = allocator.allocate(2000);
+		assertEquals(2000, large.capacity());
+		allocator.release(large);
+		assertNotSame(large, allocator.allocate(2000));
+	}
+
+	@Test
+	public void testGrow() {
+		PooledBufferAllocator allocator = new PooledBufferAllocator(false, 1 << 16, 4, 16);
+		ByteBuffer buffer = allocator.allocate(64);
+		buffer.putLong(7L);
+		ByteBuffer grown = allocator.grow(buffer, 100);
+		assertEquals(8, grown.position());
+		assertEquals(7L, grown.getLong(0));
+		// The old buffer went back to the pool
+		assertSame(buffer, allocator.allocate(64));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeLimits() {
+		new PooledBufferAllocator(false, 1 << 16, -1, 16);
+	}
+}
@@ -0,0 +1,131 @@
+package me.coley.pchannels.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bucket boundaries and percentile lookups of {@link Histogram}.
+ */
+public class HistogramTest {
+	@Test
+	public void testBucketBoundaries() {
+		int last = Histogram.index(Long.MAX_VALUE);
+		for (int i = 0; i < last; i++) {
+			long bound = Histogram.upperBound(i);
+			assertEquals("Upper bound of bucket " + i, i, Histogram.index(bound));
+			assertEquals("Value after bucket " + i, i + 1, Histogram.index(bound + 1));
+		}
+		assertEquals(Long.MAX_VALUE, Histogram.upperBound(last));
+		// Small values each get their own bucket
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i, Histogram.index(i));
+			assertEquals(i, Histogram.upperBound(i));
+		}
+	}
+
+	@Test
+	public void testResolution() {
+		// Every value is within a quarter of its bucket's upper bound
+		for (long value = 1; value > 0 && value < Long.MAX_VALUE / 2; value = value * 3 / 2 + 1) {
+			long bound = Histogram.upperBound(Histogram.index(value));
+			assertTrue(value + " above " + bound, bound >= value);
+			assertTrue(value + " too far below " + bound, bound - value <= value / 4);
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		for (int i = 1000; i >= 1; i--) {
+			histogram.record(i);
+		}
+		assertEquals(1, histogram.getValueAtPercentile(0));
+		// 250 falls in 224..255
+		assertEquals(255, histogram.getValueAtPercentile(25));
+		// 500 falls in 448..511
+		assertEquals(511, histogram.getValueAtPercentile(50));
+		// 900 and above fall in 896..1023, capped to the max
+		assertEquals(1000, histogram.getValueAtPercentile(90));
+		assertEquals(1000, histogram.getValueAtPercentile(99.9));
+		assertEquals(1000, histogram.getValueAtPercentile(100));
+		HistogramSummary summary = histogram.summarize();
+		assertEquals(1000, summary.getCount());
+		assertEquals(511, summary.getP50());
+		assertEquals(1000, summary.getMax());
+	}
+
+	@Test
+	public void testTotals() {
+		Histogram histogram = new Histogram();
+		histogram.record(10);
+		histogram.record(20);
+		histogram.record(-5);
+		assertEquals(3, histogram.getCount());
+		// Negative values count as zero
+		assertEquals(30, histogram.getSum());
+		assertEquals(10, histogram.getMean(), 0);
+		assertEquals(20, histogram.getMax());
+		assertEquals(0, histogram.getValueAtPercentile(0));
+	}
+
+	@Test
+	public void testEmpty() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean(), 0);
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+	}
+
+	@Test
+	public void testPercentileOutOfRange() {
+		Histogram histogram = new Histogram();
+		for (double percentile : new double[]{-1, 100.5, Double.NaN}) {
+			try {
+				histogram.getValueAtPercentile(percentile);
+				fail("Accepted percentile " + percentile);
+			} catch (IllegalArgumentException expected) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testReset() {
+		Histogram histogram = new Histogram();
+		histogram.record(Long.MAX_VALUE);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getSum());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getValueAtPercentile(100));
+		histogram.record(3);
+		assertEquals(3, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testConcurrentRecording() throws InterruptedException {
+		Histogram histogram = new Histogram();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 1; i <= 10_000; i++) {
+					histogram.record(i);
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(40_000, histogram.getCount());
+		assertEquals(4 * 10_000L * 10_001 / 2, histogram.getSum());
+		assertEquals(10_000, histogram.getMax());
+		assertEquals(10_000, histogram.getValueAtPercentile(100));
+	}
+}
@@ -0,0 +1,123 @@
+package me.coley.pchannels.packet;
+
+import me.coley.pchannels.Client;
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.Loopback;
+import me.coley.pchannels.Server;
+import me.coley.pchannels.TestConstants;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import me.coley.pchannels.packet.impl.TextPacket;
+import me.coley.pchannels.transport.SocketAcceptor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hand-written stream packets and generated buffer packets, encoded to frames and back.
+ */
+public class PacketCodecTest {
+	private static final String[] TEXTS = {"", "hello", "h\u00E9llo w\u00F6rld", "\u2713 \uD83D\uDE00", "nul\u0000"};
+	private final BlockingQueue<Packet> received = new LinkedBlockingQueue<>();
+	private Server server;
+	private Client client;
+
+	@After
+	public void teardown() {
+		Loopback.close(server, client);
+	}
+
+	@Test
+	public void testStreamPacket() throws Exception {
+		for (String text : TEXTS) {
+			TextPacket packet = (TextPacket) roundTrip(new TextPacket(text));
+			assertEquals(text, packet.getText());
+		}
+	}
+
+	@Test
+	public void testBufferPacket() throws Exception {
+		for (String text : TEXTS) {
+			ChatPacket packet = (ChatPacket) roundTrip(new ChatPacket(text));
+			assertEquals(text, packet.getMessage());
+		}
+	}
+
+	@Test
+	public void testNestedInCodec() throws Exception {
+		// Stream packets written within a stream packet must not share the thread's cached streams
+		TextPacket inner = new TextPacket("inner");
+		Packet outer = new TextPacket("outer") {
+			@Override
+			public void write(DataOutputStream out) throws IOException {
+				ByteBuffer frame = PacketFactory.write(inner);
+				super.write(out);
+				PacketFactory.getAllocator().release(frame);
+			}
+		};
+		assertEquals("outer", ((TextPacket) roundTrip(outer)).getText());
+	}
+
+	@Test
+	public void testOverConnection() throws Exception {
+		start();
+		for (int i = 0; i < 100; i++) {
+			client.write(new TextPacket("text-" + i));
+			client.write(new ChatPacket("chat-" + i));
+		}
+		client.flush();
+		for (int i = 0; i < 100; i++) {
+			assertEquals("text-" + i, ((TextPacket) received.poll(5, TimeUnit.SECONDS)).getText());
+			assertEquals("chat-" + i, ((ChatPacket) received.poll(5, TimeUnit.SECONDS)).getMessage());
+		}
+	}
+
+	/**
+	 * @param packet
+	 * 		Packet to write.
+	 *
+	 * @return Packet read back from the written frame, after checking the frame's size matches the packet's length.
+	 */
+	private static Packet roundTrip(Packet packet) throws Exception {
+		PacketRegistry registry = new PacketRegistry();
+		registry.register(TestConstants.ID_CHAT, ChatPacket::new);
+		registry.register(TestConstants.ID_TEXT, TextPacket::new);
+		ByteBuffer frame = PacketFactory.write(packet);
+		try {
+			int id = frame.get() & 0xFF;
+			int size = frame.getInt();
+			assertEquals(packet.getLength(), size);
+			assertEquals(Constants.HEADER_BUFFER_SIZE + size, frame.limit());
+			return PacketFactory.read(registry, id, frame.slice());
+		} finally {
+			PacketFactory.getAllocator().release(frame);
+		}
+	}
+
+	private void start() throws Exception {
+		SocketAcceptor acceptor = Loopback.bind();
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> received.add(packet));
+				delegator.register(TestConstants.ID_TEXT, (channel, packet) -> received.add(packet));
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		server.getPacketRegistry().register(TestConstants.ID_TEXT, TextPacket::new);
+		Loopback.serve(server);
+		client = new Client(Loopback.connector(acceptor)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+			}
+		};
+		client.start();
+	}
+}
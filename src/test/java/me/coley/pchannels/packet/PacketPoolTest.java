@@ -0,0 +1,145 @@
+package me.coley.pchannels.packet;
+
+import me.coley.pchannels.bench.ByteArrayPacket;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recycling of {@link PooledPacket}s by a {@link PacketPool}, and detection of those never released.
+ */
+public class PacketPoolTest {
+	private final AtomicInteger created = new AtomicInteger();
+	private final AtomicInteger resets = new AtomicInteger();
+
+	@After
+	public void teardown() {
+		PacketPool.setLeakDetection(false);
+	}
+
+	@Test
+	public void testReuse() {
+		PacketPool<ByteArrayPacket> pool = pool(0, 4);
+		ByteArrayPacket packet = pool.acquire();
+		assertEquals(1, packet.refCount());
+		assertTrue(packet.release());
+		assertEquals(0, packet.refCount());
+		assertEquals(1, resets.get());
+		ByteArrayPacket reused = pool.acquire();
+		assertSame(packet, reused);
+		assertEquals(1, reused.refCount());
+		assertEquals(1, created.get());
+	}
+
+	@Test
+	public void testRetain() {
+		PacketPool<ByteArrayPacket> pool = pool(0, 4);
+		ByteArrayPacket packet = pool.acquire();
+		packet.retain();
+		assertEquals(2, packet.refCount());
+		// Still held by the retaining side, so not recycled
+		assertFalse(packet.release());
+		assertNotSame(packet, pool.acquire());
+		assertTrue(packet.release());
+		assertEquals(1, resets.get());
+		try {
+			packet.release();
+			fail("Released more than retained");
+		} catch (IllegalStateException expected) {
+			assertEquals(0, packet.refCount());
+		}
+		try {
+			packet.retain();
+			fail("Retained after release");
+		} catch (IllegalStateException expected) {
+			assertEquals(0, packet.refCount());
+		}
+	}
+
+	@Test
+	public void testLimits() {
+		// Two cached per thread and one shared, the fourth released is dropped
+		PacketPool<ByteArrayPacket> pool = pool(2, 1);
+		ByteArrayPacket[] packets = new ByteArrayPacket[4];
+		for (int i = 0; i < packets.length; i++) {
+			packets[i] = pool.acquire();
+		}
+		for (ByteArrayPacket packet : packets) {
+			assertTrue(packet.release());
+		}
+		for (int i = 0; i < 3; i++) {
+			ByteArrayPacket packet = pool.acquire();
+			assertTrue(packet == packets[0] || packet == packets[1] || packet == packets[2]);
+		}
+		assertEquals(4, created.get());
+		pool.acquire();
+		assertEquals(5, created.get());
+	}
+
+	@Test
+	public void testSharedAcrossThreads() throws InterruptedException {
+		PacketPool<ByteArrayPacket> pool = pool(4, 4);
+		ByteArrayPacket packet = pool.acquire();
+		// Released by a handler thread into its own cache, so not available to others
+		Thread releaser = new Thread(packet::release);
+		releaser.start();
+		releaser.join();
+		assertNotSame(packet, pool.acquire());
+		// Without a thread cache it goes to the shared queue
+		PacketPool<ByteArrayPacket> shared = pool(0, 4);
+		ByteArrayPacket sharedPacket = shared.acquire();
+		releaser = new Thread(sharedPacket::release);
+		releaser.start();
+		releaser.join();
+		assertSame(sharedPacket, shared.acquire());
+	}
+
+	@Test
+	public void testUnpooledInstances() {
+		ByteArrayPacket packet = new ByteArrayPacket(new byte[1]);
+		// Made to be sent, so there is nothing to return it to
+		assertFalse(packet.release());
+		assertEquals(0, packet.refCount());
+	}
+
+	@Test
+	public void testLeakDetection() throws InterruptedException {
+		PacketPool.setLeakDetection(true);
+		assertTrue(PacketPool.isLeakDetection());
+		// Clear anything left over by other tests
+		PacketPool.reportLeaks();
+		PacketPool<ByteArrayPacket> pool = pool(0, 0);
+		// Released, and dropped by the full pool, so not leaks
+		for (int i = 0; i < 100; i++) {
+			assertTrue(pool.acquire().release());
+		}
+		pool.acquire();
+		int leaks = 0;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (leaks == 0 && System.nanoTime() < deadline) {
+			System.gc();
+			Thread.sleep(10);
+			leaks += PacketPool.reportLeaks();
+		}
+		System.gc();
+		Thread.sleep(100);
+		leaks += PacketPool.reportLeaks();
+		assertEquals(1, leaks);
+	}
+
+	private PacketPool<ByteArrayPacket> pool(int threadCacheSize, int sharedSize) {
+		return new PacketPool<>(() -> {
+			created.incrementAndGet();
+			return new ByteArrayPacket() {
+				@Override
+				protected void reset() {
+					resets.incrementAndGet();
+				}
+			};
+		}, threadCacheSize, sharedSize);
+	}
+}
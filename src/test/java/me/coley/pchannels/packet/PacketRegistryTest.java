@@ -0,0 +1,142 @@
+package me.coley.pchannels.packet;
+
+import me.coley.pchannels.TestConstants;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lookups of {@link PacketRegistry} while it is being registered to.
+ */
+public class PacketRegistryTest {
+	private static final int READERS = 4;
+	private static final int WRITERS = 4;
+	private static final int PER_WRITER = 500;
+
+	@Test
+	public void testConcurrentRegistration() throws Exception {
+		PacketRegistry registry = new PacketRegistry();
+		Supplier<Packet> base = ChatPacket::new;
+		registry.register(TestConstants.ID_CHAT, base);
+		// Number of ids each writer has registered so far, each writer taking every WRITERS-th id
+		AtomicIntegerArray registered = new AtomicIntegerArray(WRITERS);
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<String> failure = new AtomicReference<>();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int r = 0; r < READERS; r++) {
+			threads.add(new Thread(() -> {
+				await(start);
+				while (!done.get() && failure.get() == null) {
+					if (registry.get(TestConstants.ID_CHAT) != base) {
+						failure.set("Existing registration lost");
+					}
+					// Registrations seen as complete are never missing from a later snapshot
+					for (int w = 0; w < WRITERS; w++) {
+						int count = registered.get(w);
+						for (int i = 0; i < count; i++) {
+							int id = id(w, i);
+							if (registry.get(id) == null) {
+								failure.set("Registered id " + id + " missing");
+							}
+						}
+					}
+				}
+			}));
+		}
+		for (int w = 0; w < WRITERS; w++) {
+			int writer = w;
+			threads.add(new Thread(() -> {
+				await(start);
+				for (int i = 0; i < PER_WRITER; i++) {
+					registry.register(id(writer, i), ChatPacket::new);
+					registered.incrementAndGet(writer);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads.subList(READERS, threads.size())) {
+			thread.join();
+		}
+		done.set(true);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(failure.get(), failure.get());
+		// No registration was lost to a concurrent copy
+		assertEquals(WRITERS * PER_WRITER + 1, registry.asMap().size());
+	}
+
+	@Test
+	public void testParentFallback() {
+		PacketRegistry parent = new PacketRegistry();
+		PacketRegistry child = new PacketRegistry(parent);
+		Supplier<Packet> chat = ChatPacket::new;
+		Supplier<Packet> override = ChatPacket::new;
+		parent.register(TestConstants.ID_CHAT, chat);
+		assertSame(chat, child.get(TestConstants.ID_CHAT));
+		// Registered after the child was made, still visible through it
+		parent.register(TestConstants.ID_TEXT, chat);
+		assertSame(chat, child.get(TestConstants.ID_TEXT));
+		child.register(TestConstants.ID_TEXT, override);
+		assertSame(override, child.get(TestConstants.ID_TEXT));
+		assertSame(chat, parent.get(TestConstants.ID_TEXT));
+		Map<Integer, Supplier<Packet>> map = child.asMap();
+		assertEquals(2, map.size());
+		assertSame(override, map.get(TestConstants.ID_TEXT));
+		assertNull(child.get(PacketRegistry.MAX_ID));
+		assertTrue(child.create(TestConstants.ID_CHAT) instanceof ChatPacket);
+	}
+
+	@Test
+	public void testInvalidRegistrations() {
+		PacketRegistry registry = new PacketRegistry();
+		registry.register(TestConstants.ID_CHAT, ChatPacket::new);
+		assertRejected(() -> registry.register(TestConstants.ID_CHAT, ChatPacket::new));
+		assertRejected(() -> registry.register(-1, ChatPacket::new));
+		assertRejected(() -> registry.register(PacketRegistry.MAX_ID + 1, ChatPacket::new));
+		assertRejected(() -> registry.register(TestConstants.ID_TEXT, null));
+		assertNull(registry.get(-1));
+		try {
+			registry.create(TestConstants.ID_TEXT);
+			fail("Created an unregistered packet");
+		} catch (IllegalStateException expected) {
+			// expected
+		}
+	}
+
+	private static int id(int writer, int index) {
+		// Spread over a range wider than the initial array, so registrations keep growing it
+		return 1000 + index * WRITERS + writer;
+	}
+
+	private static void assertRejected(Runnable registration) {
+		try {
+			registration.run();
+			fail("Registration accepted");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
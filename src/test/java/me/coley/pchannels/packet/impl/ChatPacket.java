@@ -1,14 +1,15 @@
 package me.coley.pchannels.packet.impl;
 
 import me.coley.pchannels.TestConstants;
-import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.BufferPacket;
+import me.coley.pchannels.packet.serial.Serialize;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
-public class ChatPacket implements Packet {
-	private String message;
+public class ChatPacket implements BufferPacket {
+	@Serialize
+	String message;
 
 	public ChatPacket() {
 		this(null);
@@ -29,17 +30,16 @@ public class ChatPacket implements Packet {
 
 	@Override
 	public int getLength() {
-		// UTF length short + UTF content length
-		return 2 + message.length();
+		return ChatPacketSerializer.getLength(this);
 	}
 
 	@Override
-	public void read(DataInputStream in) throws IOException {
-		message = in.readUTF();
+	public void read(ByteBuffer in) throws IOException {
+		ChatPacketSerializer.read(this, in);
 	}
 
 	@Override
-	public void write(DataOutputStream out) throws IOException {
-		out.writeUTF(message);
+	public void write(ByteBuffer out) throws IOException {
+		ChatPacketSerializer.write(this, out);
 	}
 }
@@ -0,0 +1,59 @@
+package me.coley.pchannels.packet.impl;
+
+import me.coley.pchannels.TestConstants;
+import me.coley.pchannels.packet.Packet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Hand-written packet going through the data streams, rather than a generated buffer serializer.
+ */
+public class TextPacket implements Packet {
+	private String text;
+
+	public TextPacket() {
+		this(null);
+	}
+
+	public TextPacket(String text) {
+		this.text = text;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	@Override
+	public int getId() {
+		return TestConstants.ID_TEXT;
+	}
+
+	@Override
+	public int getLength() {
+		// UTF length short + modified UTF-8 content length
+		int length = 2;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length += 1;
+			} else if (c <= 0x07FF) {
+				length += 2;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	@Override
+	public void read(DataInputStream in) throws IOException {
+		text = in.readUTF();
+	}
+
+	@Override
+	public void write(DataOutputStream out) throws IOException {
+		out.writeUTF(text);
+	}
+}
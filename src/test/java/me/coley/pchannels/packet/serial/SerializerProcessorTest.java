@@ -0,0 +1,265 @@
+package me.coley.pchannels.packet.serial;
+
+import me.coley.pchannels.Constants;
+import me.coley.pchannels.packet.BufferPacket;
+import me.coley.pchannels.packet.PacketFactory;
+import me.coley.pchannels.packet.PacketRegistry;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Serializers generated for every supported field type, checked by writing packets to frames and reading them back.
+ */
+public class SerializerProcessorTest {
+	private static final int ID_ALL_TYPES = 103;
+
+	@Test
+	public void testPrimitives() throws Exception {
+		AllTypesPacket packet = new AllTypesPacket();
+		packet.flag = true;
+		packet.b = Byte.MIN_VALUE;
+		packet.s = Short.MAX_VALUE;
+		packet.c = '\uFFFF';
+		packet.i = -1;
+		packet.l = Long.MIN_VALUE;
+		packet.f = Float.NaN;
+		packet.d = -0.0;
+		AllTypesPacket read = roundTrip(packet);
+		assertTrue(read.flag);
+		assertEquals(Byte.MIN_VALUE, read.b);
+		assertEquals(Short.MAX_VALUE, read.s);
+		assertEquals('\uFFFF', read.c);
+		assertEquals(-1, read.i);
+		assertEquals(Long.MIN_VALUE, read.l);
+		assertTrue(Float.isNaN(read.f));
+		assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(read.d));
+	}
+
+	@Test
+	public void testStrings() throws Exception {
+		// Empty, ASCII, two and three byte UTF-8, a surrogate pair, and a long string with a multi-byte length
+		char[] chars = new char[300];
+		Arrays.fill(chars, '\u00E9');
+		String[] values = {"", "hello", "h\u00E9llo", "\u2713", "\uD83D\uDE00", new String(chars)};
+		for (String value : values) {
+			AllTypesPacket packet = new AllTypesPacket();
+			packet.text = value;
+			assertEquals(value, roundTrip(packet).text);
+		}
+	}
+
+	@Test
+	public void testByteArrays() throws Exception {
+		byte[][] values = {new byte[0], {1, 2, 3}, new byte[1000]};
+		values[2][999] = 42;
+		for (byte[] value : values) {
+			AllTypesPacket packet = new AllTypesPacket();
+			packet.bytes = value;
+			assertArrayEquals(value, roundTrip(packet).bytes);
+		}
+	}
+
+	@Test
+	public void testLists() throws Exception {
+		AllTypesPacket packet = new AllTypesPacket();
+		packet.ints = Arrays.asList(1, -2, Integer.MAX_VALUE);
+		packet.strings = Arrays.asList("a", null, "\u00FC");
+		packet.arrays = new ArrayList<>(Arrays.asList(new byte[]{7}, null, new byte[0]));
+		packet.nestedLists = Arrays.asList(Collections.singletonList("x"), Collections.emptyList(), null);
+		AllTypesPacket read = roundTrip(packet);
+		assertEquals(packet.ints, read.ints);
+		assertEquals(packet.strings, read.strings);
+		assertEquals(3, read.arrays.size());
+		assertArrayEquals(new byte[]{7}, read.arrays.get(0));
+		assertNull(read.arrays.get(1));
+		assertArrayEquals(new byte[0], read.arrays.get(2));
+		assertEquals(packet.nestedLists, read.nestedLists);
+		// Empty is not null
+		packet.ints = Collections.emptyList();
+		assertEquals(Collections.emptyList(), roundTrip(packet).ints);
+	}
+
+	@Test
+	public void testNestedPackets() throws Exception {
+		AllTypesPacket packet = new AllTypesPacket();
+		packet.chat = new ChatPacket("nested");
+		packet.chats = Arrays.asList(new ChatPacket("first"), null, new ChatPacket(null));
+		AllTypesPacket inner = new AllTypesPacket();
+		inner.text = "inner";
+		inner.chat = new ChatPacket("deeper");
+		packet.inner = inner;
+		AllTypesPacket read = roundTrip(packet);
+		assertEquals("nested", read.chat.getMessage());
+		assertEquals(3, read.chats.size());
+		assertEquals("first", read.chats.get(0).getMessage());
+		assertNull(read.chats.get(1));
+		assertNull(read.chats.get(2).getMessage());
+		assertEquals("inner", read.inner.text);
+		assertEquals("deeper", read.inner.chat.getMessage());
+		assertNull(read.inner.inner);
+	}
+
+	@Test
+	public void testNulls() throws Exception {
+		AllTypesPacket packet = new AllTypesPacket();
+		// Primitives at their fixed sizes, and a single byte for each null
+		assertEquals(30 + 9, packet.getLength());
+		AllTypesPacket read = roundTrip(packet);
+		assertNull(read.text);
+		assertNull(read.bytes);
+		assertNull(read.ints);
+		assertNull(read.strings);
+		assertNull(read.arrays);
+		assertNull(read.nestedLists);
+		assertNull(read.chat);
+		assertNull(read.chats);
+		assertNull(read.inner);
+	}
+
+	@Test
+	public void testRejectsUnsupportedFields() throws Exception {
+		String source = "package test;\n" +
+				"import me.coley.pchannels.packet.serial.Serialize;\n" +
+				"public class BadPacket {\n" +
+				"\t@Serialize private int hidden;\n" +
+				"\t@Serialize java.util.Map<String, String> map;\n" +
+				"\t@Serialize int[] ints;\n" +
+				"\t@Serialize java.util.List<Object> objects;\n" +
+				"}\n";
+		List<String> errors = compile("test.BadPacket", source);
+		assertEquals(errors.toString(), 4, errors.size());
+		assertTrue(errors.get(0), errors.get(0).contains("must not be private"));
+		assertTrue(errors.get(1), errors.get(1).contains("java.util.Map"));
+		assertTrue(errors.get(2), errors.get(2).contains("only byte arrays"));
+		assertTrue(errors.get(3), errors.get(3).contains("element type java.lang.Object"));
+	}
+
+	/**
+	 * @param packet
+	 * 		Packet to write.
+	 *
+	 * @return Packet read back from the written frame, after checking the frame's size matches the packet's length.
+	 */
+	private static AllTypesPacket roundTrip(AllTypesPacket packet) throws IOException {
+		PacketRegistry registry = new PacketRegistry();
+		registry.register(ID_ALL_TYPES, AllTypesPacket::new);
+		ByteBuffer frame = PacketFactory.write(packet);
+		try {
+			int id = frame.get() & 0xFF;
+			int size = frame.getInt();
+			assertEquals(packet.getLength(), size);
+			assertEquals(Constants.HEADER_BUFFER_SIZE + size, frame.limit());
+			return (AllTypesPacket) PacketFactory.read(registry, id, frame.slice());
+		} finally {
+			PacketFactory.getAllocator().release(frame);
+		}
+	}
+
+	/**
+	 * @param name
+	 * 		Qualified name of the class.
+	 * @param source
+	 * 		Source of the class.
+	 *
+	 * @return Errors reported by the processor.
+	 */
+	private static List<String> compile(String name, String source) throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + name.replace('.', '/') + ".java"),
+				JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+		String classes = new File(SerializerProcessor.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+				.getPath();
+		JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+				Arrays.asList("-proc:only", "-classpath", classes), null, Collections.singletonList(file));
+		task.setProcessors(Collections.singletonList(new SerializerProcessor()));
+		task.call();
+		return diagnostics.getDiagnostics().stream()
+				.filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+				.map(d -> d.getMessage(null))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Packet with a field of each supported kind.
+	 */
+	public static class AllTypesPacket implements BufferPacket {
+		@Serialize
+		boolean flag;
+		@Serialize
+		byte b;
+		@Serialize
+		short s;
+		@Serialize
+		char c;
+		@Serialize
+		int i;
+		@Serialize
+		long l;
+		@Serialize
+		float f;
+		@Serialize
+		double d;
+		@Serialize
+		String text;
+		@Serialize
+		byte[] bytes;
+		@Serialize
+		List<Integer> ints;
+		@Serialize
+		List<String> strings;
+		@Serialize
+		ArrayList<byte[]> arrays;
+		@Serialize
+		List<List<String>> nestedLists;
+		@Serialize
+		ChatPacket chat;
+		@Serialize
+		List<ChatPacket> chats;
+		@Serialize
+		AllTypesPacket inner;
+
+		@Override
+		public int getId() {
+			return ID_ALL_TYPES;
+		}
+
+		@Override
+		public int getLength() {
+			return SerializerProcessorTest_AllTypesPacketSerializer.getLength(this);
+		}
+
+		@Override
+		public void read(ByteBuffer in) throws IOException {
+			SerializerProcessorTest_AllTypesPacketSerializer.read(this, in);
+		}
+
+		@Override
+		public void write(ByteBuffer out) throws IOException {
+			SerializerProcessorTest_AllTypesPacketSerializer.write(this, out);
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package me.coley.pchannels.transport;
+
+import me.coley.pchannels.Client;
+import me.coley.pchannels.Loopback;
+import me.coley.pchannels.Server;
+import me.coley.pchannels.TestConstants;
+import me.coley.pchannels.Threads;
+import me.coley.pchannels.packet.BufferPacket;
+import me.coley.pchannels.packet.Packet;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PooledPacket;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Clients and servers in the same JVM passing packets as objects, with and without encoding them anyway.
+ */
+public class InVmTest {
+	private static final int ID_LOSSY = 101;
+	private static final AtomicInteger NAMES = new AtomicInteger();
+	private final String name = "in-vm-test-" + NAMES.incrementAndGet();
+	private final BlockingQueue<Packet> received = new LinkedBlockingQueue<>();
+	private InVmAcceptor acceptor;
+	private Server server;
+	private Client client;
+
+	@After
+	public void teardown() {
+		Loopback.close(server, client);
+		acceptor.close();
+	}
+
+	@Test
+	public void testPacketsPassedAsIs() throws Exception {
+		start(false);
+		ChatPacket sent = new ChatPacket("hello");
+		client.write(sent);
+		assertSame(sent, received.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testSerializingCopies() throws Exception {
+		start(true);
+		ChatPacket sent = new ChatPacket("hello");
+		client.write(sent);
+		Packet packet = received.poll(5, TimeUnit.SECONDS);
+		assertNotSame(sent, packet);
+		assertEquals("hello", ((ChatPacket) packet).getMessage());
+	}
+
+	@Test
+	public void testSerializingRejectsBrokenCodec() throws Exception {
+		start(true);
+		client.write(new ChatPacket("before"));
+		assertNotNull(received.poll(5, TimeUnit.SECONDS));
+		client.write(new LossyPacket(42));
+		// The server fails to read it, and closes the connection
+		assertTrue(Loopback.await(() -> server.getConnections().isEmpty(), 5, TimeUnit.SECONDS));
+		assertNull(received.poll());
+		assertThrows(ClosedChannelException.class, () -> client.write(new ChatPacket("after")));
+	}
+
+	@Test
+	public void testBrokenCodecUnseenWithoutSerializing() throws Exception {
+		start(false);
+		LossyPacket sent = new LossyPacket(42);
+		client.write(sent);
+		assertSame(sent, received.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testRawBytesUnsupported() throws Exception {
+		start(false);
+		try {
+			client.getConnection().write(ByteBuffer.allocate(1));
+			fail("Raw bytes written to a packet channel");
+		} catch (UnsupportedOperationException expected) {
+			// Only packets are carried
+		}
+		// Packets still pass
+		client.write(new ChatPacket("after"));
+		assertEquals("after", ((ChatPacket) received.poll(5, TimeUnit.SECONDS)).getMessage());
+	}
+
+	@Test
+	public void testPooledReleasedWhenPeerCloses() throws Exception {
+		acceptor = new InVmAcceptor(name, 64);
+		for (int i = 0; i < 500; i++) {
+			InVmChannel local = acceptor.connect();
+			InVmChannel peer = (InVmChannel) acceptor.accept();
+			CountedPacket packet = new CountedPacket();
+			CountDownLatch writing = new CountDownLatch(1);
+			Thread closer = Threads.daemon("test-closer", () -> {
+				try {
+					writing.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				peer.close();
+			});
+			closer.start();
+			// Writes race the peer closing, which must release every retained write whether or not it queued
+			try {
+				while (true) {
+					local.writePacket(packet);
+					writing.countDown();
+				}
+			} catch (ClosedChannelException expected) {
+				// Peer closed
+			}
+			closer.join(5000);
+			assertEquals("Leaked on iteration " + i, 1, packet.refCount());
+			local.close();
+		}
+	}
+
+	private void start(boolean serializing) throws Exception {
+		acceptor = new InVmAcceptor(name);
+		acceptor.setSerializing(serializing);
+		server = new Server(acceptor) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> received.add(packet));
+				delegator.register(ID_LOSSY, (channel, packet) -> received.add(packet));
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		server.getPacketRegistry().register(ID_LOSSY, LossyPacket::new);
+		Loopback.serve(server);
+		client = new Client(new InVmConnector(name)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+			}
+		};
+		client.start();
+	}
+
+	/**
+	 * Packet whose read does not restore what its write encodes.
+	 */
+	public static class LossyPacket implements BufferPacket {
+		private int value;
+
+		public LossyPacket() {
+		}
+
+		public LossyPacket(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public int getId() {
+			return ID_LOSSY;
+		}
+
+		@Override
+		public int getLength() {
+			return 4;
+		}
+
+		@Override
+		public void read(ByteBuffer in) {
+			// Forgets the value
+		}
+
+		@Override
+		public void write(ByteBuffer out) {
+			out.putInt(value);
+		}
+	}
+
+	/**
+	 * Empty pooled packet, created outside a pool so only its reference count matters.
+	 */
+	public static class CountedPacket extends PooledPacket {
+		@Override
+		public int getId() {
+			return TestConstants.ID_CHAT;
+		}
+
+		@Override
+		public int getLength() {
+			return 0;
+		}
+
+		@Override
+		public void read(DataInputStream in) {
+		}
+
+		@Override
+		public void write(DataOutputStream out) {
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package me.coley.pchannels.transport;
+
+import me.coley.pchannels.Loopback;
+import me.coley.pchannels.Threads;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Shared memory rings and the channels over them, with both sides in this process.
+ */
+public class SharedMemoryTest {
+	private static final int CAPACITY = 64;
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	private SharedMemoryAcceptor acceptor;
+	private SharedMemoryChannel server;
+	private SharedMemoryChannel client;
+
+	@After
+	public void teardown() throws IOException {
+		if (client != null) {
+			client.close();
+		}
+		if (server != null) {
+			server.close();
+		}
+		acceptor.close();
+	}
+
+	@Test
+	public void testWrapAround() throws Exception {
+		connect(SharedMemoryChannel.DEFAULT_PEER_TIMEOUT_MILLIS);
+		byte[] first = pattern(40, 1);
+		assertEquals(40, client.write(ByteBuffer.wrap(first)));
+		assertArrayEquals(first, readFully(server, 40));
+		// Starts 40 bytes in, so it continues at the start of the ring
+		byte[] second = pattern(40, 2);
+		assertEquals(40, client.write(ByteBuffer.wrap(second)));
+		assertArrayEquals(second, readFully(server, 40));
+	}
+
+	@Test
+	public void testFramesLargerThanRing() throws Exception {
+		connect(SharedMemoryChannel.DEFAULT_PEER_TIMEOUT_MILLIS);
+		int count = 500;
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writer = Threads.daemon("test-writer", () -> {
+			try {
+				for (int i = 0; i < count; i++) {
+					client.write(ByteBuffer.wrap(pattern(1 + i % 150, i)));
+				}
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		writer.start();
+		for (int i = 0; i < count; i++) {
+			assertArrayEquals("Frame " + i, pattern(1 + i % 150, i), readFully(server, 1 + i % 150));
+		}
+		writer.join(5000);
+		assertNull(failure.get());
+	}
+
+	@Test
+	public void testFullRingBlocksThenResumes() throws Exception {
+		connect(SharedMemoryChannel.DEFAULT_PEER_TIMEOUT_MILLIS);
+		byte[] content = pattern(CAPACITY * 3, 3);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writer = Threads.daemon("test-writer", () -> {
+			try {
+				client.write(ByteBuffer.wrap(content));
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		writer.start();
+		// Only a ring's worth fits until the server reads
+		writer.join(200);
+		assertTrue("Write did not wait for space", writer.isAlive());
+		assertArrayEquals(content, readFully(server, content.length));
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+		assertNull(failure.get());
+	}
+
+	@Test
+	public void testClientClose() throws Exception {
+		connect(SharedMemoryChannel.DEFAULT_PEER_TIMEOUT_MILLIS);
+		byte[] content = pattern(10, 4);
+		client.write(ByteBuffer.wrap(content));
+		client.close();
+		// Written before closing, so still read
+		assertArrayEquals(content, readFully(server, 10));
+		assertEquals(-1, server.read(ByteBuffer.allocate(1)));
+		assertPeerClosed(server);
+	}
+
+	@Test
+	public void testServerClose() throws Exception {
+		connect(SharedMemoryChannel.DEFAULT_PEER_TIMEOUT_MILLIS);
+		byte[] content = pattern(10, 5);
+		server.write(ByteBuffer.wrap(content));
+		server.close();
+		assertArrayEquals(content, readFully(client, 10));
+		assertEquals(-1, client.read(ByteBuffer.allocate(1)));
+		assertPeerClosed(client);
+	}
+
+	@Test
+	public void testCloseWhileReading() throws Exception {
+		connect(SharedMemoryChannel.DEFAULT_PEER_TIMEOUT_MILLIS);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread reader = Threads.daemon("test-reader", () -> {
+			try {
+				server.read(ByteBuffer.allocate(1));
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		reader.start();
+		assertTrue(Loopback.await(() -> reader.getState() == Thread.State.TIMED_WAITING, 5, TimeUnit.SECONDS));
+		server.close();
+		reader.join(5000);
+		assertTrue(String.valueOf(failure.get()), failure.get() instanceof AsynchronousCloseException);
+		// Seen by the client as the end of the stream
+		assertEquals(-1, client.read(ByteBuffer.allocate(1)));
+	}
+
+	@Test
+	public void testIdlePeerStaysConnected() throws Exception {
+		connect(200);
+		AtomicReference<Object> result = new AtomicReference<>();
+		Thread reader = Threads.daemon("test-reader", () -> {
+			try {
+				result.set(readFully(server, 1)[0]);
+			} catch (Throwable t) {
+				result.set(t);
+			}
+		});
+		reader.start();
+		// Several timeouts pass without data, but with heartbeats
+		Thread.sleep(1000);
+		assertNull(String.valueOf(result.get()), result.get());
+		client.write(ByteBuffer.wrap(new byte[]{42}));
+		reader.join(5000);
+		assertEquals((byte) 42, result.get());
+	}
+
+	@Test
+	public void testDeadPeer() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("ring");
+		acceptor = new SharedMemoryAcceptor(file, CAPACITY);
+		acceptor.setPeerTimeoutMillis(200);
+		// Connects, then never sends a heartbeat, as a process that died right away
+		assertTrue(SharedMemoryRegion.open(file).compareAndSetState(SharedMemoryRegion.STATE_WAITING,
+				SharedMemoryRegion.STATE_CONNECTED));
+		server = (SharedMemoryChannel) acceptor.accept();
+		long start = System.nanoTime();
+		try {
+			server.read(ByteBuffer.allocate(1));
+			fail("Waited on a dead peer");
+		} catch (IOException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().contains("no heartbeat"));
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertFalse(server.isOpen());
+	}
+
+	@Test
+	public void testDeadPeerWithFullRing() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("ring");
+		acceptor = new SharedMemoryAcceptor(file, CAPACITY);
+		acceptor.setPeerTimeoutMillis(200);
+		assertTrue(SharedMemoryRegion.open(file).compareAndSetState(SharedMemoryRegion.STATE_WAITING,
+				SharedMemoryRegion.STATE_CONNECTED));
+		server = (SharedMemoryChannel) acceptor.accept();
+		try {
+			server.write(ByteBuffer.allocate(CAPACITY * 2));
+			fail("Waited on a dead peer to make space");
+		} catch (IOException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().contains("no heartbeat"));
+		}
+	}
+
+	private void connect(long peerTimeoutMillis) throws IOException {
+		Path file = folder.getRoot().toPath().resolve("ring");
+		acceptor = new SharedMemoryAcceptor(file, CAPACITY);
+		acceptor.setPeerTimeoutMillis(peerTimeoutMillis);
+		SharedMemoryConnector connector = new SharedMemoryConnector(file);
+		connector.setPeerTimeoutMillis(peerTimeoutMillis);
+		client = (SharedMemoryChannel) connector.connect();
+		server = (SharedMemoryChannel) acceptor.accept();
+	}
+
+	private static void assertPeerClosed(SharedMemoryChannel channel) {
+		try {
+			channel.write(ByteBuffer.allocate(1));
+			fail("Wrote to a closed peer");
+		} catch (IOException ex) {
+			assertEquals("Shared memory peer closed", ex.getMessage());
+		}
+	}
+
+	private static byte[] readFully(SharedMemoryChannel channel, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("End of stream after " + buffer.position() + " bytes");
+			}
+		}
+		return buffer.array();
+	}
+
+	private static byte[] pattern(int length, int seed) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (seed * 31 + i);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,124 @@
+package me.coley.pchannels.transport;
+
+import me.coley.pchannels.Client;
+import me.coley.pchannels.Loopback;
+import me.coley.pchannels.Server;
+import me.coley.pchannels.TestConstants;
+import me.coley.pchannels.packet.PacketHandlerDelegator;
+import me.coley.pchannels.packet.PacketIO;
+import me.coley.pchannels.packet.impl.ChatPacket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Clients and servers connected over a Unix domain socket file, on runtimes that support them.
+ */
+public class UnixDomainSocketTest {
+	private final BlockingQueue<String> echoed = new LinkedBlockingQueue<>();
+	private Path directory;
+	private Path path;
+	private Server server;
+	private Client client;
+
+	@Before
+	public void setup() throws IOException {
+		assumeTrue("Unix domain sockets require Java 16+", UnixDomainSockets.isSupported());
+		// Kept short, socket paths are limited to around a hundred bytes
+		directory = Files.createTempDirectory("pch");
+		path = directory.resolve("test.sock");
+	}
+
+	@After
+	public void teardown() throws IOException {
+		Loopback.close(server, client);
+		if (directory != null) {
+			Files.deleteIfExists(path);
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	public void testEcho() throws Exception {
+		start();
+		for (int i = 0; i < 100; i++) {
+			client.write(new ChatPacket("message-" + i));
+		}
+		client.flush();
+		for (int i = 0; i < 100; i++) {
+			assertEquals("message-" + i, echoed.poll(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testSocketFile() throws Exception {
+		SocketAcceptor acceptor = SocketAcceptor.bindUnix(path);
+		assertTrue(Files.exists(path));
+		// Already bound
+		try {
+			SocketAcceptor.bindUnix(path).close();
+			fail("Bound to an existing socket file");
+		} catch (IOException expected) {
+			// expected
+		}
+		// Cleaned up on close, so the path can be bound again
+		acceptor.close();
+		assertFalse(Files.exists(path));
+		SocketAcceptor.bindUnix(path).close();
+	}
+
+	@Test
+	public void testAddresses() {
+		SocketAddress address = UnixDomainSockets.address(path);
+		assertTrue(UnixDomainSockets.isAddress(address));
+		assertEquals(path, UnixDomainSockets.path(address));
+		SocketAddress inet = new InetSocketAddress(0);
+		assertFalse(UnixDomainSockets.isAddress(inet));
+		try {
+			UnixDomainSockets.path(inet);
+			fail("Read the path of an inet address");
+		} catch (IllegalArgumentException expected) {
+			// expected
+		}
+	}
+
+	private void start() throws Exception {
+		server = new Server(SocketAcceptor.bindUnix(path)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT, (channel, packet) -> {
+					try {
+						PacketIO.write(channel, packet);
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+					return true;
+				});
+			}
+		};
+		server.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		Loopback.serve(server);
+		client = new Client(SocketConnector.unix(path)) {
+			@Override
+			protected void setup(PacketHandlerDelegator delegator) {
+				delegator.register(TestConstants.ID_CHAT,
+						(channel, packet) -> echoed.add(((ChatPacket) packet).getMessage()));
+			}
+		};
+		client.getPacketRegistry().register(TestConstants.ID_CHAT, ChatPacket::new);
+		client.start();
+	}
+}